@@ -19,18 +19,26 @@ package com.android.builder;
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
 import com.android.annotations.VisibleForTesting;
+import com.android.builder.compiling.DependencyDataProcessor;
 import com.android.builder.compiling.DependencyFileProcessor;
 import com.android.builder.dependency.ManifestDependency;
 import com.android.builder.dependency.SymbolFileProvider;
 import com.android.builder.internal.ClassFieldImpl;
+import com.android.builder.internal.ManifestDocuments;
 import com.android.builder.internal.SymbolLoader;
 import com.android.builder.internal.SymbolWriter;
 import com.android.builder.internal.TestManifestGenerator;
 import com.android.builder.internal.compiler.AidlProcessor;
+import com.android.builder.internal.compiler.InProcessAidlProcessor;
+import com.android.builder.internal.compiler.InProcessDexer;
 import com.android.builder.internal.compiler.LeafFolderGatherer;
+import com.android.builder.internal.compiler.PreDexCache;
+import com.android.builder.internal.compiler.QueuedPngCruncher;
 import com.android.builder.internal.compiler.RenderScriptProcessor;
 import com.android.builder.internal.compiler.SourceSearcher;
+import com.android.builder.internal.incremental.DependencyData;
 import com.android.builder.internal.packaging.JavaResourceProcessor;
+import com.android.builder.internal.packaging.PackagedEntryStore;
 import com.android.builder.internal.packaging.Packager;
 import com.android.builder.model.AaptOptions;
 import com.android.builder.model.ClassField;
@@ -46,12 +54,15 @@ import com.android.builder.signing.KeytoolException;
 import com.android.ide.common.internal.AaptRunner;
 import com.android.ide.common.internal.CommandLineRunner;
 import com.android.ide.common.internal.LoggedErrorException;
+import com.android.ide.common.internal.WaitableExecutor;
+import com.android.manifmerger.IMergerLog;
 import com.android.manifmerger.ManifestMerger;
 import com.android.manifmerger.MergerLog;
 import com.android.sdklib.BuildToolInfo;
 import com.android.sdklib.IAndroidTarget;
 import com.android.sdklib.repository.FullRevision;
 import com.android.utils.ILogger;
+import com.android.utils.Pair;
 import com.android.utils.SdkUtils;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ArrayListMultimap;
@@ -59,6 +70,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
+import org.w3c.dom.Document;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -69,6 +81,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -86,6 +99,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * {@link #processTestManifest(String, int, int, String, String, Boolean, Boolean, java.util.List, String)}
  * {@link #processResources(java.io.File, java.io.File, java.io.File, java.util.List, String, String, String, String, String, com.android.builder.VariantConfiguration.Type, boolean, com.android.builder.model.AaptOptions)}
  * {@link #compileAllAidlFiles(java.util.List, java.io.File, java.util.List, com.android.builder.compiling.DependencyFileProcessor)}
+ * {@link #compileAidlFiles(java.util.Collection, java.io.File, java.util.List, com.android.builder.compiling.DependencyFileProcessor)}
  * {@link #convertByteCode(Iterable, Iterable, File, DexOptions, boolean)}
  * {@link #packageApk(String, String, java.util.List, String, java.util.Collection, java.util.Set, boolean, com.android.builder.model.SigningConfig, String)}
  *
@@ -96,11 +110,15 @@ public class AndroidBuilder {
 
     private static final FullRevision MIN_BUILD_TOOLS_REV = new FullRevision(16, 0, 0);
 
-    private static final DependencyFileProcessor sNoOpDependencyFileProcessor = new DependencyFileProcessor() {
+    private static final DependencyFileProcessor sNoOpDependencyFileProcessor = new DependencyDataProcessor() {
         @Override
         public boolean processFile(@NonNull File dependencyFile) {
             return true;
         }
+
+        @Override
+        public void processDependencyData(@NonNull DependencyData dependencyData) {
+        }
     };
 
     private final SdkParser mSdkParser;
@@ -115,6 +133,9 @@ public class AndroidBuilder {
     private final BuildToolInfo mBuildTools;
     private String mCreatedBy;
 
+    @Nullable
+    private final PreDexCache mPreDexCache;
+
     /**
      * Creates an AndroidBuilder
      * <p/>
@@ -150,6 +171,11 @@ public class AndroidBuilder {
 
         mTarget = mSdkParser.getTarget();
         mBuildTools = mSdkParser.getBuildTools();
+
+        File preDexCacheFolder = PreDexCache.getDefaultCacheFolder();
+        mPreDexCache = preDexCacheFolder != null ?
+                new PreDexCache(preDexCacheFolder, PreDexCache.DEFAULT_MAX_CACHE_SIZE, mLogger) :
+                null;
     }
 
     @VisibleForTesting
@@ -165,6 +191,7 @@ public class AndroidBuilder {
 
         mTarget = mSdkParser.getTarget();
         mBuildTools = mSdkParser.getBuildTools();
+        mPreDexCache = null;
     }
 
     /**
@@ -273,6 +300,23 @@ public class AndroidBuilder {
                 mCmdLineRunner);
     }
 
+    /**
+     * Returns a {@link QueuedPngCruncher} crunching images with aapt on a pool of threads, once
+     * {@link QueuedPngCruncher#crunchQueued()} is called.
+     * @return a QueuedPngCruncher object
+     */
+    @NonNull
+    public QueuedPngCruncher getPngCruncher() {
+        return new QueuedPngCruncher(
+                mBuildTools.getPath(BuildToolInfo.PathId.AAPT),
+                mCmdLineRunner,
+                QueuedPngCruncher.getDefaultCacheFolder(),
+                QueuedPngCruncher.DEFAULT_MAX_CACHE_SIZE,
+                mBuildTools.getRevision(),
+                Runtime.getRuntime().availableProcessors(),
+                mLogger);
+    }
+
     @NonNull
     public CommandLineRunner getCommandLineRunner() {
         return mCmdLineRunner;
@@ -337,36 +381,30 @@ public class AndroidBuilder {
                             attributeInjection, packageOverride);
                 }
             } else {
-                File outManifest = new File(outManifestLocation);
+                // merge everything in memory, and only write the result.
+                IMergerLog log = MergerLog.wrapSdkLog(mLogger);
+                Document mainDoc = ManifestDocuments.parse(mainManifest,
+                        createManifestMerger(log), log);
 
                 // first merge the app manifest.
                 if (!manifestOverlays.isEmpty()) {
-                    File mainManifestOut = outManifest;
+                    checkMerge(createManifestMerger(log).process(mainDoc,
+                            manifestOverlays.toArray(new File[manifestOverlays.size()]),
+                            attributeInjection, packageOverride));
 
-                    // if there is also libraries, put this in a temp file.
-                    if (!libraries.isEmpty()) {
-                        // TODO find better way of storing intermediary file?
-                        mainManifestOut = File.createTempFile("manifestMerge", ".xml");
-                        mainManifestOut.deleteOnExit();
-                    }
-
-                    ManifestMerger merger = new ManifestMerger(MergerLog.wrapSdkLog(mLogger), null);
-                    merger.setInsertSourceMarkers(isInsertSourceMarkers());
-                    doMerge(merger, mainManifestOut, mainManifest, manifestOverlays,
-                            attributeInjection, packageOverride);
-
-                    // now the main manifest is the newly merged one
-                    mainManifest = mainManifestOut;
-                    // and the attributes have been inject, no need to do it below
+                    // the attributes have been inject, no need to do it below
                     attributeInjection = null;
+                    packageOverride = null;
                 }
 
                 if (!libraries.isEmpty()) {
                     // recursively merge all manifests starting with the leaves and up toward the
                     // root (the app)
-                    mergeLibraryManifests(mainManifest, libraries,
-                            new File(outManifestLocation), attributeInjection, packageOverride);
+                    mergeLibraryManifests(mainDoc, libraries, attributeInjection,
+                            packageOverride, log);
                 }
+
+                ManifestDocuments.write(mainDoc, new File(outManifestLocation), log);
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -413,39 +451,28 @@ public class AndroidBuilder {
         checkNotNull(libraries, "libraries cannot be null.");
         checkNotNull(outManifestLocation, "outManifestLocation cannot be null.");
 
+        generateTestManifest(
+                testPackageName,
+                minSdkVersion,
+                targetSdkVersion,
+                testedPackageName,
+                instrumentationRunner,
+                handleProfiling,
+                functionalTest,
+                outManifestLocation);
+
         if (!libraries.isEmpty()) {
             try {
-                // create the test manifest, merge the libraries in it
-                File generatedTestManifest = File.createTempFile("manifestMerge", ".xml");
-
-                generateTestManifest(
-                        testPackageName,
-                        minSdkVersion,
-                        targetSdkVersion,
-                        testedPackageName,
-                        instrumentationRunner,
-                        handleProfiling,
-                        functionalTest,
-                        generatedTestManifest.getAbsolutePath());
-
-                mergeLibraryManifests(
-                        generatedTestManifest,
-                        libraries,
-                        new File(outManifestLocation),
-                        null, null);
+                // merge the libraries in the generated test manifest.
+                File outManifest = new File(outManifestLocation);
+                IMergerLog log = MergerLog.wrapSdkLog(mLogger);
+                Document testDoc = ManifestDocuments.parse(outManifest,
+                        createManifestMerger(log), log);
+                mergeLibraryManifests(testDoc, libraries, null, null, log);
+                ManifestDocuments.write(testDoc, outManifest, log);
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-        } else {
-            generateTestManifest(
-                    testPackageName,
-                    minSdkVersion,
-                    targetSdkVersion,
-                    testedPackageName,
-                    instrumentationRunner,
-                    handleProfiling,
-                    functionalTest,
-                    outManifestLocation);
         }
     }
 
@@ -511,37 +538,104 @@ public class AndroidBuilder {
 
     /**
      * Merges library manifests into a main manifest.
-     * @param mainManifest the main manifest
-     * @param directLibraries the libraries to merge
-     * @param outManifest the output file
+     *
+     * All the direct libraries are merged in a single pass of the merger, together with the
+     * attribute injection and the package override, so that the tools: attributes of the main
+     * manifest and the injected attributes apply to all of them, like when merging files.
+     * The manifest of a library with dependencies is merged with its own libraries in memory
+     * first.
+     *
+     * @param mainDoc the main manifest, modified in place
+     * @param directLibraries the libraries to merge, in priority order
+     * @param attributeInjection the attributes to inject in the main manifest, or null
+     * @param packageOverride the package to set in the main manifest, or null
+     * @param log the merger log
      * @throws IOException
      */
     private void mergeLibraryManifests(
-            File mainManifest,
-            Iterable<? extends ManifestDependency> directLibraries,
-            File outManifest, Map<String, String> attributeInjection, String packageOverride)
+            @NonNull Document mainDoc,
+            @NonNull Iterable<? extends ManifestDependency> directLibraries,
+            @Nullable Map<String, String> attributeInjection,
+            @Nullable String packageOverride,
+            @NonNull IMergerLog log)
             throws IOException {
+        ManifestMerger merger = createManifestMerger(log);
 
-        List<File> manifests = Lists.newArrayList();
+        // the libraries with dependencies, merged in memory, or null for the others.
+        List<Document> mergedLibraries = Lists.newArrayList();
+        boolean hasMergedLibraries = false;
         for (ManifestDependency library : directLibraries) {
             Collection<? extends ManifestDependency> subLibraries = library.getManifestDependencies();
             if (subLibraries.isEmpty()) {
-                manifests.add(library.getManifest());
+                mergedLibraries.add(null);
             } else {
-                File mergeLibManifest = File.createTempFile("manifestMerge", ".xml");
-                mergeLibManifest.deleteOnExit();
-
                 // don't insert the attribute injection into libraries
-                mergeLibraryManifests(
-                        library.getManifest(), subLibraries, mergeLibManifest, null, null);
+                Document libraryDoc = ManifestDocuments.parse(library.getManifest(),
+                        createManifestMerger(log), log);
+                mergeLibraryManifests(libraryDoc, subLibraries, null, null, log);
+                mergedLibraries.add(libraryDoc);
+                hasMergedLibraries = true;
+            }
+        }
+
+        boolean inject = (attributeInjection != null && !attributeInjection.isEmpty()) ||
+                packageOverride != null;
+
+        if (hasMergedLibraries && !inject) {
+            // everything can be merged from memory.
+            List<Document> libraryDocs = Lists.newArrayList();
+            int i = 0;
+            for (ManifestDependency library : directLibraries) {
+                Document libraryDoc = mergedLibraries.get(i++);
+                libraryDocs.add(libraryDoc != null ? libraryDoc :
+                        ManifestDocuments.parse(library.getManifest(), merger, log));
+            }
+
+            checkMerge(merger.process(mainDoc,
+                    libraryDocs.toArray(new Document[libraryDocs.size()])));
+            return;
+        }
+
+        // The merger only injects attributes when merging library files, so the libraries
+        // merged in memory are written to temporary files in that case.
+        List<File> libraryFiles = Lists.newArrayList();
+        List<File> tempFiles = Lists.newArrayList();
+        try {
+            int i = 0;
+            for (ManifestDependency library : directLibraries) {
+                Document libraryDoc = mergedLibraries.get(i++);
+                if (libraryDoc == null) {
+                    libraryFiles.add(library.getManifest());
+                } else {
+                    File libraryFile = File.createTempFile("manifestMerge", ".xml");
+                    tempFiles.add(libraryFile);
+                    ManifestDocuments.write(libraryDoc, libraryFile, log);
+                    libraryFiles.add(libraryFile);
+                }
+            }
 
-                manifests.add(mergeLibManifest);
+            checkMerge(merger.process(mainDoc,
+                    libraryFiles.toArray(new File[libraryFiles.size()]),
+                    attributeInjection, packageOverride));
+        } finally {
+            for (File tempFile : tempFiles) {
+                //noinspection ResultOfMethodCallIgnored
+                tempFile.delete();
             }
         }
+    }
 
-        ManifestMerger merger = new ManifestMerger(MergerLog.wrapSdkLog(mLogger), null);
+    @NonNull
+    private ManifestMerger createManifestMerger(@NonNull IMergerLog log) {
+        ManifestMerger merger = new ManifestMerger(log, null);
         merger.setInsertSourceMarkers(isInsertSourceMarkers());
-        doMerge(merger, outManifest, mainManifest, manifests, attributeInjection, packageOverride);
+        return merger;
+    }
+
+    private static void checkMerge(boolean success) {
+        if (!success) {
+            throw new RuntimeException("Manifest merging failed. See console for more info.");
+        }
     }
 
     /**
@@ -569,11 +663,9 @@ public class AndroidBuilder {
 
     private void doMerge(ManifestMerger merger, File output, File input, List<File> subManifests,
                                Map<String, String> injectionMap, String packageOverride) {
-        if (!merger.process(output, input,
+        checkMerge(merger.process(output, input,
                 subManifests.toArray(new File[subManifests.size()]),
-                injectionMap, packageOverride)) {
-            throw new RuntimeException("Manifest merging failed. See console for more info.");
-        }
+                injectionMap, packageOverride));
     }
 
     /**
@@ -726,8 +818,6 @@ public class AndroidBuilder {
         // now if the project has libraries, R needs to be created for each libraries,
         // but only if the current project is not a library.
         if (type != VariantConfiguration.Type.LIBRARY && !libraries.isEmpty()) {
-            SymbolLoader fullSymbolValues = null;
-
             // First pass processing the libraries, collecting them by packageName,
             // and ignoring the ones that have the same package name as the application
             // (since that R class was already created).
@@ -735,50 +825,100 @@ public class AndroidBuilder {
             if (appPackageName == null) {
                 appPackageName = VariantConfiguration.getManifestPackage(manifestFile);
             }
+            final String appPackage = appPackageName;
 
-            // list of all the symbol loaders per package names.
-            Multimap<String, SymbolLoader> libMap = ArrayListMultimap.create();
+            final SymbolLoader fullSymbolValues = new SymbolLoader(
+                    new File(symbolOutputDir, "R.txt"), mLogger);
+            // the library symbols are indexed in the symbol output folder of this task.
+            final File symbolIndexFolder = new File(symbolOutputDir, "index");
+
+            // load the symbols of all the libraries in parallel.
+            WaitableExecutor<Pair<String, SymbolLoader>> loadExecutor =
+                    new WaitableExecutor<Pair<String, SymbolLoader>>();
+            boolean hasSymbols = false;
 
             for (SymbolFileProvider lib : libraries) {
-                File rFile = lib.getSymbolFile();
+                final File rFile = lib.getSymbolFile();
                 // if the library has no resource, this file won't exist.
                 if (rFile.isFile()) {
+                    hasSymbols = true;
+                    final File libManifest = lib.getManifest();
+
+                    loadExecutor.execute(new Callable<Pair<String, SymbolLoader>>() {
+                        @Override
+                        public Pair<String, SymbolLoader> call() throws Exception {
+                            String packageName = VariantConfiguration.getManifestPackage(
+                                    libManifest);
+                            if (appPackage.equals(packageName)) {
+                                // ignore libraries that have the same package name as the app
+                                return null;
+                            }
+
+                            // library symbols rarely change, so they are loaded from an index.
+                            SymbolLoader libSymbols = new SymbolLoader(rFile, mLogger);
+                            libSymbols.loadWithIndex(symbolIndexFolder);
+                            return Pair.of(packageName, libSymbols);
+                        }
+                    });
+                }
+            }
 
-                    String packageName = VariantConfiguration.getManifestPackage(lib.getManifest());
-                    if (appPackageName.equals(packageName)) {
-                        // ignore libraries that have the same package name as the app
-                        continue;
-                    }
-
-                    // load the full values if that's not already been done.
-                    // Doing it lazily allow us to support the case where there's no
-                    // resources anywhere.
-                    if (fullSymbolValues == null) {
-                        fullSymbolValues = new SymbolLoader(new File(symbolOutputDir, "R.txt"),
-                                mLogger);
+            // load the full values only if there are library symbols.
+            // Doing it lazily allow us to support the case where there's no
+            // resources anywhere.
+            if (hasSymbols) {
+                loadExecutor.execute(new Callable<Pair<String, SymbolLoader>>() {
+                    @Override
+                    public Pair<String, SymbolLoader> call() throws Exception {
                         fullSymbolValues.load();
+                        return null;
                     }
+                });
+            }
 
-                    SymbolLoader libSymbols = new SymbolLoader(rFile, mLogger);
-                    libSymbols.load();
-
-
+            // list of all the symbol loaders per package names.
+            Multimap<String, SymbolLoader> libMap = ArrayListMultimap.create();
+            for (Pair<String, SymbolLoader> libSymbols :
+                    loadExecutor.waitForTasksWithQuickFail(true /*cancelRemaining*/)) {
+                if (libSymbols != null) {
                     // store these symbols by associating them with the package name.
-                    libMap.put(packageName, libSymbols);
+                    libMap.put(libSymbols.getFirst(), libSymbols.getSecond());
                 }
             }
 
-            // now loop on all the package name, merge all the symbols to write, and write them
-            for (String packageName : libMap.keySet()) {
+            // now loop on all the package name, merge all the symbols to write, and write them.
+            // The full values are only read from here on, so the R classes are written in
+            // parallel.
+            WaitableExecutor<Boolean> writeExecutor = new WaitableExecutor<Boolean>();
+            for (final String packageName : libMap.keySet()) {
                 Collection<SymbolLoader> symbols = libMap.get(packageName);
 
-                SymbolWriter writer = new SymbolWriter(sourceOutputDir, packageName,
+                final SymbolWriter writer = new SymbolWriter(sourceOutputDir, packageName,
                         fullSymbolValues);
                 for (SymbolLoader symbolLoader : symbols) {
                     writer.addSymbolsToWrite(symbolLoader);
                 }
-                writer.write();
+
+                writeExecutor.execute(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        boolean written = writer.write();
+                        mLogger.verbose(written ? "Wrote R class for %s"
+                                : "R class for %s is up to date", packageName);
+                        return written;
+                    }
+                });
+            }
+
+            int writtenCount = 0;
+            for (Boolean written :
+                    writeExecutor.waitForTasksWithQuickFail(true /*cancelRemaining*/)) {
+                if (written) {
+                    writtenCount++;
+                }
             }
+            mLogger.info("Wrote %1$d of %2$d library R classes", writtenCount,
+                    libMap.keySet().size());
         }
     }
 
@@ -799,32 +939,48 @@ public class AndroidBuilder {
                                     @NonNull List<File> importFolders,
                                     @Nullable DependencyFileProcessor dependencyFileProcessor)
             throws IOException, InterruptedException, LoggedErrorException {
+        compileAllAidlFiles(sourceFolders, sourceOutputDir, importFolders,
+                dependencyFileProcessor, false /*inProcess*/);
+    }
+
+    /**
+     * Compiles all the aidl files found in the given source folders.
+     *
+     * @param sourceFolders all the source folders to find files to compile
+     * @param sourceOutputDir the output dir in which to generate the source code
+     * @param importFolders import folders
+     * @param dependencyFileProcessor the dependencyFileProcessor to record the dependencies
+     *                                of the compilation.
+     * @param inProcess whether to compile the files in process instead of running aidl.
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws LoggedErrorException
+     */
+    public void compileAllAidlFiles(@NonNull List<File> sourceFolders,
+                                    @NonNull File sourceOutputDir,
+                                    @NonNull List<File> importFolders,
+                                    @Nullable DependencyFileProcessor dependencyFileProcessor,
+                                    boolean inProcess)
+            throws IOException, InterruptedException, LoggedErrorException {
         checkNotNull(sourceFolders, "sourceFolders cannot be null.");
         checkNotNull(sourceOutputDir, "sourceOutputDir cannot be null.");
         checkNotNull(importFolders, "importFolders cannot be null.");
 
-        String aidl = mBuildTools.getPath(BuildToolInfo.PathId.AIDL);
-        if (aidl == null || !new File(aidl).isFile()) {
-            throw new IllegalStateException("aidl is missing");
-        }
-
         List<File> fullImportList = Lists.newArrayListWithCapacity(
                 sourceFolders.size() + importFolders.size());
         fullImportList.addAll(sourceFolders);
         fullImportList.addAll(importFolders);
 
-        AidlProcessor processor = new AidlProcessor(
-                aidl,
-                mTarget.getPath(IAndroidTarget.ANDROID_AIDL),
-                fullImportList,
-                sourceOutputDir,
-                dependencyFileProcessor != null ?
-                        dependencyFileProcessor : sNoOpDependencyFileProcessor,
-                mCmdLineRunner);
-
         SourceSearcher searcher = new SourceSearcher(sourceFolders, "aidl");
         searcher.setUseExecutor(true);
-        searcher.search(processor);
+
+        if (inProcess) {
+            searcher.search(createInProcessAidlProcessor(fullImportList, sourceOutputDir,
+                    dependencyFileProcessor));
+        } else {
+            searcher.search(createAidlProcessor(fullImportList, sourceOutputDir,
+                    dependencyFileProcessor));
+        }
     }
 
     /**
@@ -845,15 +1001,79 @@ public class AndroidBuilder {
                                 @Nullable DependencyFileProcessor dependencyFileProcessor)
             throws IOException, InterruptedException, LoggedErrorException {
         checkNotNull(aidlFile, "aidlFile cannot be null.");
+
+        compileAidlFiles(Collections.singletonList(aidlFile), sourceOutputDir, importFolders,
+                dependencyFileProcessor);
+    }
+
+    /**
+     * Compiles the given aidl files.
+     *
+     * The files are compiled in parallel, with the aidl options computed once for all of them.
+     *
+     * @param aidlFiles the AIDL files to compile
+     * @param sourceOutputDir the output dir in which to generate the source code
+     * @param importFolders all the import folders, including the source folders.
+     * @param dependencyFileProcessor the dependencyFileProcessor to record the dependencies
+     *                                of the compilation.
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws LoggedErrorException
+     */
+    public void compileAidlFiles(@NonNull Collection<File> aidlFiles,
+                                 @NonNull File sourceOutputDir,
+                                 @NonNull List<File> importFolders,
+                                 @Nullable DependencyFileProcessor dependencyFileProcessor)
+            throws IOException, InterruptedException, LoggedErrorException {
+        compileAidlFiles(aidlFiles, sourceOutputDir, importFolders, dependencyFileProcessor,
+                false /*inProcess*/);
+    }
+
+    /**
+     * Compiles the given aidl files.
+     *
+     * The files are compiled in parallel, with the aidl options computed once for all of them.
+     *
+     * @param aidlFiles the AIDL files to compile
+     * @param sourceOutputDir the output dir in which to generate the source code
+     * @param importFolders all the import folders, including the source folders.
+     * @param dependencyFileProcessor the dependencyFileProcessor to record the dependencies
+     *                                of the compilation.
+     * @param inProcess whether to compile the files in process instead of running aidl.
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws LoggedErrorException
+     */
+    public void compileAidlFiles(@NonNull Collection<File> aidlFiles,
+                                 @NonNull File sourceOutputDir,
+                                 @NonNull List<File> importFolders,
+                                 @Nullable DependencyFileProcessor dependencyFileProcessor,
+                                 boolean inProcess)
+            throws IOException, InterruptedException, LoggedErrorException {
+        checkNotNull(aidlFiles, "aidlFiles cannot be null.");
         checkNotNull(sourceOutputDir, "sourceOutputDir cannot be null.");
         checkNotNull(importFolders, "importFolders cannot be null.");
 
+        if (inProcess) {
+            SourceSearcher.processFiles(aidlFiles, createInProcessAidlProcessor(importFolders,
+                    sourceOutputDir, dependencyFileProcessor));
+        } else {
+            SourceSearcher.processFiles(aidlFiles, createAidlProcessor(importFolders,
+                    sourceOutputDir, dependencyFileProcessor));
+        }
+    }
+
+    @NonNull
+    private AidlProcessor createAidlProcessor(
+            @NonNull List<File> importFolders,
+            @NonNull File sourceOutputDir,
+            @Nullable DependencyFileProcessor dependencyFileProcessor) {
         String aidl = mBuildTools.getPath(BuildToolInfo.PathId.AIDL);
         if (aidl == null || !new File(aidl).isFile()) {
             throw new IllegalStateException("aidl is missing");
         }
 
-        AidlProcessor processor = new AidlProcessor(
+        return new AidlProcessor(
                 aidl,
                 mTarget.getPath(IAndroidTarget.ANDROID_AIDL),
                 importFolders,
@@ -861,8 +1081,20 @@ public class AndroidBuilder {
                 dependencyFileProcessor != null ?
                         dependencyFileProcessor : sNoOpDependencyFileProcessor,
                 mCmdLineRunner);
+    }
 
-        processor.processFile(aidlFile);
+    @NonNull
+    private InProcessAidlProcessor createInProcessAidlProcessor(
+            @NonNull List<File> importFolders,
+            @NonNull File sourceOutputDir,
+            @Nullable DependencyFileProcessor dependencyFileProcessor) {
+        return new InProcessAidlProcessor(
+                new File(mTarget.getPath(IAndroidTarget.ANDROID_AIDL)),
+                importFolders,
+                sourceOutputDir,
+                dependencyFileProcessor != null ?
+                        dependencyFileProcessor : sNoOpDependencyFileProcessor,
+                mLogger);
     }
 
     /**
@@ -993,21 +1225,8 @@ public class AndroidBuilder {
         checkNotNull(outDexFile, "outDexFile cannot be null.");
         checkNotNull(dexOptions, "dexOptions cannot be null.");
 
-        // launch dx: create the command line
-        ArrayList<String> command = Lists.newArrayList();
-
-        String dx = mBuildTools.getPath(BuildToolInfo.PathId.DX);
-        if (dx == null || !new File(dx).isFile()) {
-            throw new IllegalStateException("dx is missing");
-        }
-
-        command.add(dx);
-
-        if (dexOptions.getJavaMaxHeapSize() != null) {
-            command.add("-JXmx" + dexOptions.getJavaMaxHeapSize());
-        }
-
-        command.add("--dex");
+        // create the dx arguments
+        List<String> command = Lists.newArrayList();
 
         if (mVerboseExec) {
             command.add("--verbose");
@@ -1055,11 +1274,16 @@ public class AndroidBuilder {
             command.addAll(libraryList);
         }
 
-        mCmdLineRunner.runCmdLine(command, null);
+        runDx(command, dexOptions);
     }
 
     /**
      * Converts the bytecode to Dalvik format
+     *
+     * The pre-dexed library is taken from the user's pre-dex cache if the same library was
+     * already pre-dexed with the same options and build tools, and added to the cache
+     * otherwise.
+     *
      * @param inputFile the input file
      * @param outFile the location of the output classes.dex file
      * @param dexOptions dex options
@@ -1077,21 +1301,30 @@ public class AndroidBuilder {
         checkNotNull(outFile, "outFile cannot be null.");
         checkNotNull(dexOptions, "dexOptions cannot be null.");
 
-        // launch dx: create the command line
-        ArrayList<String> command = Lists.newArrayList();
-
-        String dx = mBuildTools.getPath(BuildToolInfo.PathId.DX);
-        if (dx == null || !new File(dx).isFile()) {
-            throw new IllegalStateException("dx is missing");
+        PreDexCache preDexCache = dexOptions.getPreDexCache() ? mPreDexCache : null;
+        String cacheKey = null;
+        if (preDexCache != null) {
+            cacheKey = PreDexCache.getKey(inputFile, dexOptions, mBuildTools.getRevision());
+            if (preDexCache.copyTo(cacheKey, outFile)) {
+                mLogger.verbose("Pre-dexed %s found in cache", inputFile);
+                return;
+            }
         }
 
-        command.add(dx);
+        runPreDex(inputFile, outFile, dexOptions);
 
-        if (dexOptions.getJavaMaxHeapSize() != null) {
-            command.add("-JXmx" + dexOptions.getJavaMaxHeapSize());
+        if (preDexCache != null) {
+            preDexCache.store(cacheKey, outFile);
         }
+    }
 
-        command.add("--dex");
+    private void runPreDex(
+            @NonNull File inputFile,
+            @NonNull File outFile,
+            @NonNull DexOptions dexOptions)
+            throws IOException, InterruptedException, LoggedErrorException {
+        // create the dx arguments
+        List<String> command = Lists.newArrayList();
 
         if (mVerboseExec) {
             command.add("--verbose");
@@ -1110,6 +1343,45 @@ public class AndroidBuilder {
 
         command.add(inputFile.getAbsolutePath());
 
+        runDx(command, dexOptions);
+    }
+
+    /**
+     * Runs dx, either in the current VM or in its own.
+     *
+     * @param dxArgs the arguments of the dexer, without the leading --dex.
+     * @param dexOptions the dex options.
+     */
+    private void runDx(@NonNull List<String> dxArgs, @NonNull DexOptions dexOptions)
+            throws IOException, InterruptedException, LoggedErrorException {
+        if (dexOptions.getDexInProcess()) {
+            String dxJar = mBuildTools.getPath(BuildToolInfo.PathId.DX_JAR);
+            if (dxJar != null && new File(dxJar).isFile()) {
+                if (InProcessDexer.getDexer(new File(dxJar)).run(dxArgs, mLogger)) {
+                    return;
+                }
+            } else {
+                mLogger.warning("dx.jar is missing, falling back to a dx process.");
+            }
+        }
+
+        // launch dx: create the command line
+        ArrayList<String> command = Lists.newArrayList();
+
+        String dx = mBuildTools.getPath(BuildToolInfo.PathId.DX);
+        if (dx == null || !new File(dx).isFile()) {
+            throw new IllegalStateException("dx is missing");
+        }
+
+        command.add(dx);
+
+        if (dexOptions.getJavaMaxHeapSize() != null) {
+            command.add("-JXmx" + dexOptions.getJavaMaxHeapSize());
+        }
+
+        command.add("--dex");
+        command.addAll(dxArgs);
+
         mCmdLineRunner.runCmdLine(command, null);
     }
 
@@ -1144,6 +1416,57 @@ public class AndroidBuilder {
             @Nullable SigningConfig signingConfig,
             @NonNull String outApkLocation) throws DuplicateFileException, FileNotFoundException,
             KeytoolException, PackagerException, SigningException {
+        packageApk(androidResPkgLocation, classesDexLocation, packagedJars, javaResourcesLocation,
+                jniLibsFolders, abiFilters, jniDebugBuild, signingConfig, null /*packagingOptions*/,
+                outApkLocation, null /*entryStoreFile*/, null /*changedFiles*/);
+    }
+
+    /**
+     * Packages the apk, possibly incrementally.
+     *
+     * If <var>entryStoreFile</var> is provided, the description of the entries of the apk is
+     * saved in it once the apk is created.
+     * If <var>changedFiles</var> is also provided, the store is first loaded and the entries
+     * of the existing apk coming from files that did not change are copied as is into the new
+     * apk. If the store cannot be loaded or does not match the existing apk, the apk is packaged
+     * from scratch.
+     *
+     * @param androidResPkgLocation the location of the packaged resource file
+     * @param classesDexLocation the location of the classes.dex file
+     * @param packagedJars the jars that are packaged (libraries + jar dependencies)
+     * @param javaResourcesLocation the processed Java resource folder
+     * @param jniLibsFolders the folders containing jni shared libraries
+     * @param abiFilters optional ABI filter
+     * @param jniDebugBuild whether the app should include jni debug data
+     * @param signingConfig the signing configuration
+     * @param packagingOptions optional compression options for the dex file, java resources
+     *                         and native libraries.
+     * @param outApkLocation location of the APK.
+     * @param entryStoreFile optional file describing the entries of the apk.
+     * @param changedFiles the input files that changed since the last time the apk was packaged,
+     *                     or null to package from scratch.
+     * @throws DuplicateFileException
+     * @throws FileNotFoundException if the store location was not found
+     * @throws KeytoolException
+     * @throws PackagerException
+     * @throws SigningException when the key cannot be read from the keystore
+     *
+     * @see com.android.builder.VariantConfiguration#getPackagedJars()
+     */
+    public void packageApk(
+            @NonNull String androidResPkgLocation,
+            @NonNull String classesDexLocation,
+            @NonNull List<File> packagedJars,
+            @Nullable String javaResourcesLocation,
+            @Nullable Collection<File> jniLibsFolders,
+            @Nullable Set<String> abiFilters,
+            boolean jniDebugBuild,
+            @Nullable SigningConfig signingConfig,
+            @Nullable PackagingOptions packagingOptions,
+            @NonNull String outApkLocation,
+            @Nullable File entryStoreFile,
+            @Nullable Collection<File> changedFiles) throws DuplicateFileException,
+            FileNotFoundException, KeytoolException, PackagerException, SigningException {
         checkNotNull(androidResPkgLocation, "androidResPkgLocation cannot be null.");
         checkNotNull(classesDexLocation, "classesDexLocation cannot be null.");
         checkNotNull(outApkLocation, "outApkLocation cannot be null.");
@@ -1156,10 +1479,30 @@ public class AndroidBuilder {
             }
         }
 
+        PackagedEntryStore previousEntries = null;
+        if (entryStoreFile != null) {
+            if (changedFiles != null && entryStoreFile.isFile()) {
+                previousEntries = new PackagedEntryStore();
+                try {
+                    previousEntries.loadFrom(entryStoreFile);
+                } catch (IOException e) {
+                    mLogger.info("Unable to load %1$s, packaging from scratch: %2$s",
+                            entryStoreFile, e.getMessage());
+                    previousEntries = null;
+                }
+            }
+
+            // the store is only valid once the apk is written.
+            if (entryStoreFile.exists() && !entryStoreFile.delete()) {
+                throw new PackagerException("Failed to delete %s", entryStoreFile);
+            }
+        }
+
         try {
             Packager packager = new Packager(
                     outApkLocation, androidResPkgLocation, classesDexLocation,
-                    certificateInfo, mCreatedBy, mLogger);
+                    certificateInfo, mCreatedBy, packagingOptions, previousEntries, changedFiles,
+                    mLogger);
 
             packager.setJniDebugMode(jniDebugBuild);
 
@@ -1183,6 +1526,16 @@ public class AndroidBuilder {
             }
 
             packager.sealApk();
+
+            if (entryStoreFile != null) {
+                try {
+                    packager.getEntries().saveTo(entryStoreFile);
+                } catch (IOException e) {
+                    // not fatal, the next package will be created from scratch.
+                    mLogger.warning("Failed to save %1$s: %2$s", entryStoreFile, e.getMessage());
+                    entryStoreFile.delete();
+                }
+            }
         } catch (SealedPackageException e) {
             // shouldn't happen since we control the package from start to end.
             throw new RuntimeException(e);
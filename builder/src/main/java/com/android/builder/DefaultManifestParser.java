@@ -18,110 +18,44 @@ package com.android.builder;
 
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
-import com.android.io.FileWrapper;
-import com.android.io.StreamException;
-import com.android.xml.AndroidManifest;
-import com.android.xml.AndroidXPathFactory;
-import org.xml.sax.InputSource;
+import com.android.builder.internal.ManifestInfo;
+import com.google.common.base.Strings;
 
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathExpressionException;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 
+/**
+ * Default implementation of {@link ManifestParser}.
+ *
+ * Manifests are parsed once, and are only parsed again when they change. A missing package or
+ * version name is returned as an empty string.
+ */
 public class DefaultManifestParser implements ManifestParser {
 
     @Nullable
     @Override
     public String getPackage(@NonNull File manifestFile) {
-        XPath xpath = AndroidXPathFactory.newXPath();
-
-        try {
-            return xpath.evaluate("/manifest/@package",
-                    new InputSource(new FileInputStream(manifestFile)));
-        } catch (XPathExpressionException e) {
-            // won't happen.
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException(e);
-        }
-
-        return null;
+        return Strings.nullToEmpty(ManifestInfo.get(manifestFile).getPackage());
     }
 
     @Nullable
     @Override
     public String getVersionName(@NonNull File manifestFile) {
-        XPath xpath = AndroidXPathFactory.newXPath();
-
-        try {
-            return xpath.evaluate("/manifest/@android:versionName",
-                    new InputSource(new FileInputStream(manifestFile)));
-        } catch (XPathExpressionException e) {
-            // won't happen.
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException(e);
-        }
-
-        return null;
+        return Strings.nullToEmpty(ManifestInfo.get(manifestFile).getVersionName());
     }
 
     @Override
     public int getVersionCode(@NonNull File manifestFile) {
-        XPath xpath = AndroidXPathFactory.newXPath();
-
-        try {
-            String value= xpath.evaluate("/manifest/@android:versionCode",
-                    new InputSource(new FileInputStream(manifestFile)));
-            if (value != null) {
-                return Integer.parseInt(value);
-            }
-        } catch (XPathExpressionException e) {
-            // won't happen.
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException(e);
-        } catch (NumberFormatException e) {
-            // return -1 below.
-        }
-
-        return -1;
+        return ManifestInfo.get(manifestFile).getVersionCode();
     }
 
     @Override
     public int getMinSdkVersion(@NonNull File manifestFile) {
-        try {
-            Object value = AndroidManifest.getMinSdkVersion(new FileWrapper(manifestFile));
-            if (value instanceof Integer) {
-                return (Integer) value;
-            } else if (value instanceof String) {
-                // TODO: support codename
-            }
-
-        } catch (XPathExpressionException e) {
-            // won't happen.
-        } catch (StreamException e) {
-            throw new RuntimeException(e);
-        }
-
-        return 1;
+        // TODO: support codename
+        return ManifestInfo.get(manifestFile).getMinSdkVersion();
     }
 
     @Override
     public int getTargetSdkVersion(@NonNull File manifestFile) {
-        try {
-            Integer value = AndroidManifest.getTargetSdkVersion(new FileWrapper(manifestFile));
-            if (value != null) {
-                return value;
-            } else {
-                return -1;
-            }
-
-        } catch (XPathExpressionException e) {
-            // won't happen.
-        } catch (StreamException e) {
-            throw new RuntimeException(e);
-        }
-
-        return -1;
+        return ManifestInfo.get(manifestFile).getTargetSdkVersion();
     }
 }
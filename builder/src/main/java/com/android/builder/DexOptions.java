@@ -21,6 +21,8 @@ public interface DexOptions {
     boolean isCoreLibrary();
     boolean getIncremental();
     boolean getPreDexLibraries();
+    boolean getPreDexCache();
     boolean getJumboMode();
     String getJavaMaxHeapSize();
+    boolean getDexInProcess();
 }
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder;
+
+import java.util.Collection;
+
+/**
+ * Options for the packaging of the apk.
+ *
+ * These only apply to the files compressed by the packager itself (dex file, java resources
+ * and native libraries). The entries of the packaged resource file and of the jar files are
+ * copied as they are.
+ */
+public interface PackagingOptions {
+
+    /**
+     * Returns the deflate compression level, from 0 (store all the files) to 9.
+     */
+    int getCompressionLevel();
+
+    /**
+     * Returns the extensions of the files to store without compression, or null.
+     */
+    Collection<String> getNoCompress();
+
+    /**
+     * Returns whether the stored entries are aligned while packaging, as done by the zipalign
+     * tool. Stored native libraries are aligned on memory pages.
+     */
+    boolean getZipAlign();
+}
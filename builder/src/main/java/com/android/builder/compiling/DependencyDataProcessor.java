@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.compiling;
+
+import com.android.annotations.NonNull;
+import com.android.builder.internal.incremental.DependencyData;
+
+/**
+ * A {@link DependencyFileProcessor} that can also receive the dependency information directly.
+ *
+ * Compilers running in process know the dependencies of each file they compile, so they give
+ * them to instances of this interface instead of writing and parsing a dependency file.
+ *
+ * @see com.android.builder.AndroidBuilder#compileAidlFiles(java.util.Collection, java.io.File, java.util.List, DependencyFileProcessor, boolean)
+ */
+public interface DependencyDataProcessor extends DependencyFileProcessor {
+
+    /**
+     * Processes the dependency information of a compiled file.
+     * @param dependencyData the dependency information.
+     */
+    void processDependencyData(@NonNull DependencyData dependencyData);
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal;
+
+import com.android.annotations.NonNull;
+import com.android.manifmerger.IMergerLog;
+import com.android.manifmerger.ManifestMerger;
+import com.android.manifmerger.MergerXmlUtils;
+import org.w3c.dom.Document;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Reads and writes the manifest documents merged in memory by the manifest merger.
+ *
+ * Documents are read and written by the merger's own utilities, like the merger does when it
+ * merges files, so that merge errors and source markers refer to the original files, and so
+ * that the merged manifest is formatted the same way.
+ */
+public class ManifestDocuments {
+
+    private ManifestDocuments() {
+    }
+
+    /**
+     * Parses a manifest.
+     *
+     * @param manifestFile the manifest file.
+     * @param merger the merger the document is parsed for.
+     * @param log the log receiving the parsing errors.
+     * @return the document.
+     * @throws IOException if the manifest cannot be read or parsed.
+     */
+    @NonNull
+    public static Document parse(
+            @NonNull File manifestFile,
+            @NonNull ManifestMerger merger,
+            @NonNull IMergerLog log) throws IOException {
+        Document document = MergerXmlUtils.parseDocument(manifestFile, log, merger);
+        if (document == null) {
+            // the error has been reported to the log.
+            throw new IOException("Failed to parse " + manifestFile.getAbsolutePath());
+        }
+        return document;
+    }
+
+    /**
+     * Writes a manifest.
+     *
+     * @param document the document.
+     * @param manifestFile the manifest file.
+     * @param log the log receiving the errors.
+     * @throws IOException if the manifest cannot be written.
+     */
+    public static void write(
+            @NonNull Document document,
+            @NonNull File manifestFile,
+            @NonNull IMergerLog log) throws IOException {
+        if (!MergerXmlUtils.printXmlFile(document, manifestFile, log)) {
+            throw new IOException("Failed to write " + manifestFile.getAbsolutePath());
+        }
+    }
+}
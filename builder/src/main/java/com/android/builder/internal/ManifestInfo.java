@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal;
+
+import com.android.SdkConstants;
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.google.common.io.Closeables;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The attributes of a manifest file read by the build.
+ *
+ * Manifests are read with a streaming parser, and the attributes are cached until the manifest
+ * file changes, so that the manifests read by every variant, such as the ones of libraries, are
+ * only parsed once. Only the most recently used manifests are cached, as the cache lives as
+ * long as the build process.
+ */
+public final class ManifestInfo {
+
+    private static final String TAG_MANIFEST = "manifest";
+    private static final String TAG_USES_SDK = "uses-sdk";
+    private static final String TAG_INSTRUMENTATION = "instrumentation";
+
+    private static final String ATTR_PACKAGE = "package";
+    private static final String ATTR_VERSION_NAME = "versionName";
+    private static final String ATTR_VERSION_CODE = "versionCode";
+    private static final String ATTR_MIN_SDK_VERSION = "minSdkVersion";
+    private static final String ATTR_TARGET_SDK_VERSION = "targetSdkVersion";
+    private static final String ATTR_NAME = "name";
+    private static final String ATTR_TARGET_PACKAGE = "targetPackage";
+
+    /**
+     * The factory of the XML readers. Factories are not guaranteed to be thread-safe, and
+     * manifests may be parsed by several threads, so each thread uses its own.
+     */
+    private static final ThreadLocal<XMLInputFactory> sFactory =
+            new ThreadLocal<XMLInputFactory>() {
+                @Override
+                protected XMLInputFactory initialValue() {
+                    XMLInputFactory factory = XMLInputFactory.newInstance();
+                    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+                    return factory;
+                }
+            };
+
+    private static final int MAX_CACHED_MANIFESTS = 100;
+
+    /** The most recently used manifests. Access must be synchronized on the map. */
+    private static final Map<File, ManifestInfo> sCache =
+            new LinkedHashMap<File, ManifestInfo>(16, 0.75f, true /*accessOrder*/) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<File, ManifestInfo> eldest) {
+                    return size() > MAX_CACHED_MANIFESTS;
+                }
+            };
+
+    private final long mTimestamp;
+    private final long mLength;
+
+    @Nullable
+    private final String mPackage;
+    @Nullable
+    private final String mVersionName;
+    private final int mVersionCode;
+    private final int mMinSdkVersion;
+    private final int mTargetSdkVersion;
+    @Nullable
+    private final String mInstrumentationName;
+    @Nullable
+    private final String mInstrumentationTargetPackage;
+
+    /**
+     * Returns the attributes of a manifest, parsing it if it changed since it was last parsed.
+     *
+     * @param manifestFile the manifest file.
+     * @return the attributes of the manifest.
+     * @throws RuntimeException if the manifest cannot be read or parsed.
+     */
+    @NonNull
+    public static ManifestInfo get(@NonNull File manifestFile) {
+        File key = manifestFile.getAbsoluteFile();
+        long timestamp = key.lastModified();
+        long length = key.length();
+
+        ManifestInfo info;
+        synchronized (sCache) {
+            info = sCache.get(key);
+        }
+        if (info != null && info.mTimestamp == timestamp && info.mLength == length) {
+            return info;
+        }
+
+        info = parse(key, timestamp, length);
+        synchronized (sCache) {
+            sCache.put(key, info);
+        }
+        return info;
+    }
+
+    private ManifestInfo(
+            long timestamp,
+            long length,
+            @Nullable String packageName,
+            @Nullable String versionName,
+            int versionCode,
+            int minSdkVersion,
+            int targetSdkVersion,
+            @Nullable String instrumentationName,
+            @Nullable String instrumentationTargetPackage) {
+        mTimestamp = timestamp;
+        mLength = length;
+        mPackage = packageName;
+        mVersionName = versionName;
+        mVersionCode = versionCode;
+        mMinSdkVersion = minSdkVersion;
+        mTargetSdkVersion = targetSdkVersion;
+        mInstrumentationName = instrumentationName;
+        mInstrumentationTargetPackage = instrumentationTargetPackage;
+    }
+
+    /**
+     * Returns the package name, or null if not found.
+     */
+    @Nullable
+    public String getPackage() {
+        return mPackage;
+    }
+
+    /**
+     * Returns the version name, or null if not found.
+     */
+    @Nullable
+    public String getVersionName() {
+        return mVersionName;
+    }
+
+    /**
+     * Returns the version code, or -1 if not found.
+     */
+    public int getVersionCode() {
+        return mVersionCode;
+    }
+
+    /**
+     * Returns the minSdkVersion, or 1 if not found or if it is a codename.
+     */
+    public int getMinSdkVersion() {
+        return mMinSdkVersion;
+    }
+
+    /**
+     * Returns the targetSdkVersion, or -1 if not found or if it is a codename.
+     */
+    public int getTargetSdkVersion() {
+        return mTargetSdkVersion;
+    }
+
+    /**
+     * Returns the name of the first instrumentation, or null if not found.
+     */
+    @Nullable
+    public String getInstrumentationName() {
+        return mInstrumentationName;
+    }
+
+    /**
+     * Returns the target package of the first instrumentation, or null if not found.
+     */
+    @Nullable
+    public String getInstrumentationTargetPackage() {
+        return mInstrumentationTargetPackage;
+    }
+
+    @NonNull
+    private static ManifestInfo parse(@NonNull File manifestFile, long timestamp, long length) {
+        String packageName = null;
+        String versionName = null;
+        String versionCode = null;
+        String minSdkVersion = null;
+        String targetSdkVersion = null;
+        String instrumentationName = null;
+        String instrumentationTargetPackage = null;
+
+        InputStream stream = null;
+        XMLStreamReader reader = null;
+        try {
+            stream = new BufferedInputStream(new FileInputStream(manifestFile));
+            reader = sFactory.get().createXMLStreamReader(stream);
+
+            boolean foundUsesSdk = false;
+            boolean foundInstrumentation = false;
+            int depth = 0;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                    continue;
+                } else if (event != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+
+                depth++;
+                String tag = reader.getLocalName();
+                if (depth == 1) {
+                    if (!TAG_MANIFEST.equals(tag)) {
+                        break;
+                    }
+                    packageName = getAttribute(reader, null, ATTR_PACKAGE);
+                    versionName = getAttribute(reader, SdkConstants.ANDROID_URI,
+                            ATTR_VERSION_NAME);
+                    versionCode = getAttribute(reader, SdkConstants.ANDROID_URI,
+                            ATTR_VERSION_CODE);
+                } else if (depth == 2) {
+                    if (!foundUsesSdk && TAG_USES_SDK.equals(tag)) {
+                        foundUsesSdk = true;
+                        minSdkVersion = getAttribute(reader, SdkConstants.ANDROID_URI,
+                                ATTR_MIN_SDK_VERSION);
+                        targetSdkVersion = getAttribute(reader, SdkConstants.ANDROID_URI,
+                                ATTR_TARGET_SDK_VERSION);
+                    } else if (!foundInstrumentation && TAG_INSTRUMENTATION.equals(tag)) {
+                        foundInstrumentation = true;
+                        instrumentationName = getAttribute(reader, SdkConstants.ANDROID_URI,
+                                ATTR_NAME);
+                        instrumentationTargetPackage = getAttribute(reader,
+                                SdkConstants.ANDROID_URI, ATTR_TARGET_PACKAGE);
+                    }
+                }
+            }
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException(e);
+        } catch (XMLStreamException e) {
+            throw new RuntimeException("Failed to parse " + manifestFile.getAbsolutePath(), e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // ignore.
+                }
+            }
+            Closeables.closeQuietly(stream);
+        }
+
+        return new ManifestInfo(timestamp, length,
+                packageName,
+                versionName,
+                parseInt(versionCode, -1),
+                parseInt(minSdkVersion, 1),
+                parseInt(targetSdkVersion, -1),
+                instrumentationName,
+                instrumentationTargetPackage);
+    }
+
+    /**
+     * Returns the value of an attribute of the current element, or null if not found.
+     *
+     * @param reader the reader, on a start element.
+     * @param namespace the namespace of the attribute, or null for no namespace.
+     * @param name the local name of the attribute.
+     */
+    @Nullable
+    private static String getAttribute(
+            @NonNull XMLStreamReader reader,
+            @Nullable String namespace,
+            @NonNull String name) {
+        for (int i = 0, n = reader.getAttributeCount(); i < n; i++) {
+            if (!name.equals(reader.getAttributeLocalName(i))) {
+                continue;
+            }
+
+            String attributeNamespace = reader.getAttributeNamespace(i);
+            if (namespace == null ? attributeNamespace == null || attributeNamespace.isEmpty()
+                    : namespace.equals(attributeNamespace)) {
+                return reader.getAttributeValue(i);
+            }
+        }
+
+        return null;
+    }
+
+    private static int parseInt(@Nullable String value, int defaultValue) {
+        if (value != null) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                // return the default value below.
+            }
+        }
+
+        return defaultValue;
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.builder.internal.SymbolLoader.ClassSymbols;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Closeables;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A binary index of a text symbol file, so that the symbols can be loaded without parsing the
+ * text file.
+ *
+ * The index is stored in a folder owned by the task reading the symbols, never next to the
+ * symbol file which belongs to the task that created it. It records the size and timestamp of
+ * the symbol file it was created from, and is ignored once they change.
+ *
+ * Format, in big endian order:
+ * <pre>
+ * int     magic
+ * int     version
+ * long    size of the symbol file
+ * long    timestamp of the symbol file
+ * int     type count, followed by the types
+ * int     class count, followed by the classes:
+ *   string  class name
+ *   int     symbol count, followed by the symbols:
+ *     string  name
+ *     byte    type index
+ *     byte    value format
+ *     int     value, or string value if the format is FORMAT_STRING
+ * </pre>
+ * Strings are written as their UTF-8 byte count followed by the bytes.
+ */
+class SymbolIndex {
+
+    private static final int MAGIC = 0x52494458; // RIDX
+    private static final int VERSION = 1;
+
+    private static final String DOT_INDEX = ".idx";
+
+    private SymbolIndex() {
+    }
+
+    /**
+     * Returns the location of the index of a symbol file.
+     *
+     * @param symbolFile the symbol file.
+     * @param indexFolder the folder containing the indices.
+     */
+    @NonNull
+    static File getIndexFile(@NonNull File symbolFile, @NonNull File indexFolder) {
+        // the symbol files of all the libraries are named R.txt, so the index is named after
+        // the full path.
+        String key = Hashing.sha1().newHasher()
+                .putString(symbolFile.getAbsolutePath(), Charsets.UTF_8)
+                .hash().toString();
+        return new File(indexFolder, key + DOT_INDEX);
+    }
+
+    /**
+     * Reads an index.
+     *
+     * @param symbolFile the indexed symbol file.
+     * @param indexFile the index.
+     * @param interner the interner for types and class names.
+     * @return the symbols, or null if the index is missing, invalid or out of date.
+     */
+    @Nullable
+    static ClassSymbols[] read(
+            @NonNull File symbolFile,
+            @NonNull File indexFile,
+            @NonNull Interner<String> interner) {
+        if (!indexFile.isFile()) {
+            return null;
+        }
+
+        long remaining = indexFile.length();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+
+            if (in.readInt() != MAGIC || in.readInt() != VERSION ||
+                    in.readLong() != symbolFile.length() ||
+                    in.readLong() != symbolFile.lastModified()) {
+                return null;
+            }
+
+            StringReader strings = new StringReader(in, remaining);
+
+            String[] types = new String[strings.readCount()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = interner.intern(strings.read());
+            }
+
+            ClassSymbols[] classes = new ClassSymbols[strings.readCount()];
+            for (int i = 0; i < classes.length; i++) {
+                String className = interner.intern(strings.read());
+
+                int count = strings.readCount();
+                String[] names = new String[count];
+                String[] symbolTypes = new String[count];
+                int[] intValues = new int[count];
+                byte[] formats = new byte[count];
+                String[] stringValues = null;
+
+                for (int j = 0; j < count; j++) {
+                    names[j] = strings.read();
+                    symbolTypes[j] = types[in.readByte()];
+                    formats[j] = in.readByte();
+                    if (formats[j] == ClassSymbols.FORMAT_STRING) {
+                        if (stringValues == null) {
+                            stringValues = new String[count];
+                        }
+                        stringValues[j] = strings.read();
+                    } else {
+                        intValues[j] = in.readInt();
+                    }
+                }
+
+                classes[i] = new ClassSymbols(className, names, symbolTypes, intValues, formats,
+                        stringValues);
+            }
+
+            return in.read() == -1 ? classes : null;
+        } catch (IOException e) {
+            // missing, truncated or corrupted index.
+            return null;
+        } catch (RuntimeException e) {
+            // corrupted index.
+            return null;
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Writes an index.
+     *
+     * The index is written to a temporary file first, so that concurrent builds never see a
+     * partial index.
+     *
+     * @param classes the symbols.
+     * @param symbolFile the symbol file the symbols were read from.
+     * @param symbolFileLength the size of the symbol file when it was read.
+     * @param symbolFileTimestamp the timestamp of the symbol file when it was read.
+     * @param indexFile the index.
+     */
+    static void write(
+            @NonNull ClassSymbols[] classes,
+            @NonNull File symbolFile,
+            long symbolFileLength,
+            long symbolFileTimestamp,
+            @NonNull File indexFile) throws IOException {
+        // collect the types.
+        List<String> types = Lists.newArrayList();
+        Map<String, Integer> typeIndices = Maps.newHashMap();
+        for (ClassSymbols classSymbols : classes) {
+            for (int i = 0, n = classSymbols.getSymbolCount(); i < n; i++) {
+                String type = classSymbols.getType(i);
+                if (!typeIndices.containsKey(type)) {
+                    typeIndices.put(type, types.size());
+                    types.add(type);
+                }
+            }
+        }
+
+        if (types.size() > Byte.MAX_VALUE) {
+            throw new IOException("Too many symbol types in " + symbolFile);
+        }
+
+        File tempFile = File.createTempFile(indexFile.getName(), ".tmp",
+                indexFile.getParentFile());
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempFile)));
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(symbolFileLength);
+            out.writeLong(symbolFileTimestamp);
+
+            out.writeInt(types.size());
+            for (String type : types) {
+                writeString(out, type);
+            }
+
+            out.writeInt(classes.length);
+            for (ClassSymbols classSymbols : classes) {
+                writeString(out, classSymbols.getName());
+
+                int count = classSymbols.getSymbolCount();
+                out.writeInt(count);
+                for (int i = 0; i < count; i++) {
+                    writeString(out, classSymbols.getSymbolName(i));
+                    out.writeByte(typeIndices.get(classSymbols.getType(i)));
+
+                    byte format = classSymbols.getFormat(i);
+                    out.writeByte(format);
+                    if (format == ClassSymbols.FORMAT_STRING) {
+                        //noinspection ConstantConditions
+                        writeString(out, classSymbols.getStringValue(i));
+                    } else {
+                        out.writeInt(classSymbols.getIntValue(i));
+                    }
+                }
+            }
+
+            out.close();
+            out = null;
+
+            if (!tempFile.renameTo(indexFile)) {
+                // some platforms don't replace existing files.
+                indexFile.delete();
+                if (!tempFile.renameTo(indexFile)) {
+                    throw new IOException("Failed to rename " + tempFile + " to " + indexFile);
+                }
+            }
+        } finally {
+            Closeables.closeQuietly(out);
+            tempFile.delete();
+        }
+    }
+
+    private static void writeString(@NonNull DataOutputStream out, @NonNull String string)
+            throws IOException {
+        byte[] bytes = string.getBytes(Charsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads strings and counts from a stream, reusing the same byte array.
+     *
+     * The counts and lengths are checked against the size of the index, so that a corrupted
+     * index fails with an IOException instead of allocating huge arrays.
+     */
+    private static final class StringReader {
+        @NonNull
+        private final DataInputStream mIn;
+        private final long mFileLength;
+        @NonNull
+        private byte[] mBytes = new byte[256];
+
+        StringReader(@NonNull DataInputStream in, long fileLength) {
+            mIn = in;
+            mFileLength = fileLength;
+        }
+
+        int readCount() throws IOException {
+            int count = mIn.readInt();
+            if (count < 0 || count > mFileLength) {
+                throw new IOException("Invalid count " + count);
+            }
+            return count;
+        }
+
+        @NonNull
+        String read() throws IOException {
+            int length = readCount();
+            if (length > mBytes.length) {
+                mBytes = new byte[Math.max(length, mBytes.length * 2)];
+            }
+            mIn.readFully(mBytes, 0, length);
+            return new String(mBytes, 0, length, Charsets.UTF_8);
+        }
+    }
+}
@@ -16,24 +16,41 @@
 
 package com.android.builder.internal;
 
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
 import com.android.utils.ILogger;
 import com.google.common.base.Charsets;
 import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Table;
+import com.google.common.io.Closeables;
 import com.google.common.io.Files;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
 
 /**
  * A class to load the text symbol file generated by aapt with the
  * --output-text-symbols option.
+ *
+ * The symbols are kept in arrays sorted by class and by name. Types and class names are
+ * interned, and values that are plain ints are stored as ints.
  */
 public class SymbolLoader {
 
+    /** Types and class names, shared by all the loaders. */
+    private static final Interner<String> sInterner = Interners.newWeakInterner();
+
+    private static final ClassSymbols[] NO_CLASSES = new ClassSymbols[0];
+
     private final File mSymbolFile;
-    private Table<String, String, SymbolEntry> mSymbols;
+    private ClassSymbols[] mClasses;
     private final ILogger mLogger;
 
     public static class SymbolEntry {
@@ -60,44 +77,457 @@ public class SymbolLoader {
         }
     }
 
+    /**
+     * The symbols of a class, sorted by name.
+     */
+    static final class ClassSymbols {
+        static final byte FORMAT_HEX = 0;
+        static final byte FORMAT_DECIMAL = 1;
+        static final byte FORMAT_STRING = 2;
+
+        private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+        @NonNull
+        private final String mName;
+        @NonNull
+        private final String[] mNames;
+        @NonNull
+        private final String[] mTypes;
+        @NonNull
+        private final int[] mIntValues;
+        @NonNull
+        private final byte[] mFormats;
+        /** The values that are not plain ints, or null if there are none. */
+        @Nullable
+        private final String[] mStringValues;
+
+        ClassSymbols(
+                @NonNull String name,
+                @NonNull String[] names,
+                @NonNull String[] types,
+                @NonNull int[] intValues,
+                @NonNull byte[] formats,
+                @Nullable String[] stringValues) {
+            mName = name;
+            mNames = names;
+            mTypes = types;
+            mIntValues = intValues;
+            mFormats = formats;
+            mStringValues = stringValues;
+        }
+
+        @NonNull
+        String getName() {
+            return mName;
+        }
+
+        int getSymbolCount() {
+            return mNames.length;
+        }
+
+        @NonNull
+        String getSymbolName(int index) {
+            return mNames[index];
+        }
+
+        @NonNull
+        String getType(int index) {
+            return mTypes[index];
+        }
+
+        byte getFormat(int index) {
+            return mFormats[index];
+        }
+
+        int getIntValue(int index) {
+            return mIntValues[index];
+        }
+
+        @Nullable
+        String getStringValue(int index) {
+            return mStringValues != null ? mStringValues[index] : null;
+        }
+
+        @NonNull
+        String getValue(int index) {
+            switch (mFormats[index]) {
+                case FORMAT_HEX:
+                    return appendHex(mIntValues[index], new StringBuilder(10)).toString();
+                case FORMAT_DECIMAL:
+                    return Integer.toString(mIntValues[index]);
+                default:
+                    //noinspection ConstantConditions
+                    return mStringValues[index];
+            }
+        }
+
+        /**
+         * Appends the value of a symbol, without creating a String for it.
+         */
+        void appendValue(int index, @NonNull StringBuilder sb) {
+            switch (mFormats[index]) {
+                case FORMAT_HEX:
+                    appendHex(mIntValues[index], sb);
+                    break;
+                case FORMAT_DECIMAL:
+                    sb.append(mIntValues[index]);
+                    break;
+                default:
+                    //noinspection ConstantConditions
+                    sb.append(mStringValues[index]);
+            }
+        }
+
+        /**
+         * Returns the index of a symbol, or a negative value if there is no such symbol.
+         */
+        int indexOf(@NonNull String name) {
+            return Arrays.binarySearch(mNames, name);
+        }
+
+        @NonNull
+        SymbolEntry getEntry(int index) {
+            return new SymbolEntry(mNames[index], mTypes[index], getValue(index));
+        }
+
+        @NonNull
+        private static StringBuilder appendHex(int value, @NonNull StringBuilder sb) {
+            sb.append("0x");
+            for (int shift = 28; shift >= 0; shift -= 4) {
+                sb.append(HEX_DIGITS[(value >>> shift) & 0xF]);
+            }
+            return sb;
+        }
+    }
+
     public SymbolLoader(File symbolFile, ILogger logger) {
         mSymbolFile = symbolFile;
         mLogger = logger;
     }
 
     public void load() throws IOException {
-        List<String> lines = Files.readLines(mSymbolFile, Charsets.UTF_8);
-
-        mSymbols = HashBasedTable.create();
+        Map<String, ClassSymbolsBuilder> builders = Maps.newHashMap();
 
-        int lineIndex = 1;
+        BufferedReader reader = Files.newReader(mSymbolFile, Charsets.UTF_8);
+        int lineIndex = 0;
         String line = null;
         try {
-            final int count = lines.size();
-            for (; lineIndex <= count ; lineIndex++) {
-                line = lines.get(lineIndex-1);
+            // the file is sorted by class, so the type and class of a line are usually the
+            // ones of the previous line.
+            String type = null;
+            String className = null;
+            ClassSymbolsBuilder builder = null;
+
+            while ((line = reader.readLine()) != null) {
+                lineIndex++;
 
                 // format is "<type> <class> <name> <value>"
                 // don't want to split on space as value could contain spaces.
                 int pos = line.indexOf(' ');
-                String type = line.substring(0, pos);
                 int pos2 = line.indexOf(' ', pos + 1);
-                String className = line.substring(pos + 1, pos2);
                 int pos3 = line.indexOf(' ', pos2 + 1);
-                String name = line.substring(pos2 + 1, pos3);
-                String value = line.substring(pos3 + 1);
+                if (pos == -1 || pos2 == -1 || pos3 == -1) {
+                    throw new IndexOutOfBoundsException();
+                }
+
+                if (type == null || !matches(line, 0, pos, type)) {
+                    type = sInterner.intern(line.substring(0, pos));
+                }
 
-                mSymbols.put(className, name, new SymbolEntry(name, type, value));
+                if (className == null || !matches(line, pos + 1, pos2, className)) {
+                    className = sInterner.intern(line.substring(pos + 1, pos2));
+                    builder = builders.get(className);
+                    if (builder == null) {
+                        builder = new ClassSymbolsBuilder(className);
+                        builders.put(className, builder);
+                    }
+                }
+
+                //noinspection ConstantConditions
+                builder.add(line.substring(pos2 + 1, pos3), type, line, pos3 + 1);
             }
         } catch (IndexOutOfBoundsException e) {
             String s = String.format("File format error reading %s\tline %d: '%s'",
                     mSymbolFile.getAbsolutePath(), lineIndex, line);
             mLogger.error(null, s);
             throw new IOException(s, e);
+        } finally {
+            Closeables.closeQuietly(reader);
+        }
+
+        ClassSymbols[] classes = new ClassSymbols[builders.size()];
+        int i = 0;
+        for (ClassSymbolsBuilder builder : builders.values()) {
+            classes[i++] = builder.build();
+        }
+        Arrays.sort(classes, new Comparator<ClassSymbols>() {
+            @Override
+            public int compare(ClassSymbols c1, ClassSymbols c2) {
+                return c1.getName().compareTo(c2.getName());
+            }
+        });
+
+        mClasses = classes;
+    }
+
+    /**
+     * Loads the symbols from a binary index, which is created from the symbol file if it is
+     * missing or older than the symbol file.
+     *
+     * This is meant for the symbol files that rarely change, like the ones of libraries.
+     *
+     * @param indexFolder the folder containing the indices. This must be a folder owned by the
+     *                    caller, as the symbol file is usually the output of another task.
+     */
+    public void loadWithIndex(@NonNull File indexFolder) throws IOException {
+        File indexFile = SymbolIndex.getIndexFile(mSymbolFile, indexFolder);
+
+        ClassSymbols[] classes = SymbolIndex.read(mSymbolFile, indexFile, sInterner);
+        if (classes != null) {
+            mClasses = classes;
+            return;
+        }
+
+        // the index describes the file as it was before it was read.
+        long length = mSymbolFile.length();
+        long timestamp = mSymbolFile.lastModified();
+
+        load();
+
+        try {
+            indexFolder.mkdirs();
+            SymbolIndex.write(mClasses, mSymbolFile, length, timestamp, indexFile);
+        } catch (IOException e) {
+            mLogger.warning("Failed to write symbol index %1$s: %2$s", indexFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the classes of symbols, sorted by name.
+     */
+    @NonNull
+    ClassSymbols[] getClasses() {
+        return mClasses != null ? mClasses : NO_CLASSES;
+    }
+
+    /**
+     * Returns the symbols of a class, or null if there are none.
+     */
+    @Nullable
+    ClassSymbols getClassSymbols(@NonNull String className) {
+        if (mClasses == null) {
+            return null;
+        }
+
+        int low = 0;
+        int high = mClasses.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = mClasses[mid].getName().compareTo(className);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mClasses[mid];
+            }
         }
+
+        return null;
     }
 
+    /**
+     * Returns a symbol, or null if there is no such symbol.
+     */
+    @Nullable
+    SymbolEntry getSymbol(@NonNull String className, @NonNull String name) {
+        ClassSymbols classSymbols = getClassSymbols(className);
+        if (classSymbols == null) {
+            return null;
+        }
+
+        int index = classSymbols.indexOf(name);
+        return index >= 0 ? classSymbols.getEntry(index) : null;
+    }
+
+    /**
+     * Returns a new table containing all the symbols.
+     */
     Table<String, String, SymbolEntry> getSymbols() {
-        return mSymbols;
+        if (mClasses == null) {
+            return null;
+        }
+
+        Table<String, String, SymbolEntry> symbols = HashBasedTable.create();
+        for (ClassSymbols classSymbols : mClasses) {
+            for (int i = 0, n = classSymbols.getSymbolCount(); i < n; i++) {
+                symbols.put(classSymbols.getName(), classSymbols.getSymbolName(i),
+                        classSymbols.getEntry(i));
+            }
+        }
+
+        return symbols;
+    }
+
+    private static boolean matches(
+            @NonNull String line, int start, int end, @NonNull String value) {
+        return end - start == value.length() && line.startsWith(value, start);
+    }
+
+    /**
+     * Collects the symbols of a class while the file is read.
+     */
+    private static final class ClassSymbolsBuilder {
+        @NonNull
+        private final String mName;
+
+        private int mCount = 0;
+        private String[] mNames = new String[16];
+        private String[] mTypes = new String[16];
+        private int[] mIntValues = new int[16];
+        private byte[] mFormats = new byte[16];
+        private String[] mStringValues = null;
+
+        ClassSymbolsBuilder(@NonNull String name) {
+            mName = name;
+        }
+
+        void add(@NonNull String name, @NonNull String type, @NonNull String line, int start) {
+            if (mCount == mNames.length) {
+                int capacity = mCount * 2;
+                mNames = Arrays.copyOf(mNames, capacity);
+                mTypes = Arrays.copyOf(mTypes, capacity);
+                mIntValues = Arrays.copyOf(mIntValues, capacity);
+                mFormats = Arrays.copyOf(mFormats, capacity);
+                if (mStringValues != null) {
+                    mStringValues = Arrays.copyOf(mStringValues, capacity);
+                }
+            }
+
+            mNames[mCount] = name;
+            mTypes[mCount] = type;
+
+            int length = line.length() - start;
+            if (isHex(line, start, length)) {
+                mFormats[mCount] = ClassSymbols.FORMAT_HEX;
+                mIntValues[mCount] = parseHex(line, start + 2);
+            } else if (isDecimal(line, start, length)) {
+                mFormats[mCount] = ClassSymbols.FORMAT_DECIMAL;
+                mIntValues[mCount] = parseDecimal(line, start);
+            } else {
+                mFormats[mCount] = ClassSymbols.FORMAT_STRING;
+                if (mStringValues == null) {
+                    mStringValues = new String[mNames.length];
+                }
+                mStringValues[mCount] = line.substring(start);
+            }
+
+            mCount++;
+        }
+
+        /**
+         * Returns the symbols sorted by name. If a name appears more than once, the last value
+         * is kept.
+         */
+        @NonNull
+        ClassSymbols build() {
+            Integer[] order = new Integer[mCount];
+            for (int i = 0; i < mCount; i++) {
+                order[i] = i;
+            }
+            // stable sort, so that the last of the duplicate names is the last one read.
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer i1, Integer i2) {
+                    return mNames[i1].compareTo(mNames[i2]);
+                }
+            });
+
+            int count = 0;
+            for (int i = 0; i < mCount; i++) {
+                if (i == mCount - 1 || !mNames[order[i]].equals(mNames[order[i + 1]])) {
+                    count++;
+                }
+            }
+
+            String[] names = new String[count];
+            String[] types = new String[count];
+            int[] intValues = new int[count];
+            byte[] formats = new byte[count];
+            String[] stringValues = mStringValues != null ? new String[count] : null;
+
+            int index = 0;
+            for (int i = 0; i < mCount; i++) {
+                int from = order[i];
+                if (i < mCount - 1 && mNames[from].equals(mNames[order[i + 1]])) {
+                    continue;
+                }
+
+                names[index] = mNames[from];
+                types[index] = mTypes[from];
+                intValues[index] = mIntValues[from];
+                formats[index] = mFormats[from];
+                if (stringValues != null) {
+                    stringValues[index] = mStringValues[from];
+                }
+                index++;
+            }
+
+            return new ClassSymbols(mName, names, types, intValues, formats, stringValues);
+        }
+
+        /**
+         * Returns whether a value is written as 0x followed by 8 lower case hex digits, which
+         * is how aapt writes resource ids.
+         */
+        private static boolean isHex(@NonNull String line, int start, int length) {
+            if (length != 10 || line.charAt(start) != '0' || line.charAt(start + 1) != 'x') {
+                return false;
+            }
+
+            for (int i = start + 2; i < start + length; i++) {
+                char c = line.charAt(i);
+                if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        /**
+         * Returns whether a value is a non-negative decimal int without leading zeros, which
+         * is how aapt writes styleable indices.
+         */
+        private static boolean isDecimal(@NonNull String line, int start, int length) {
+            if (length == 0 || length > 9 || (length > 1 && line.charAt(start) == '0')) {
+                return false;
+            }
+
+            for (int i = start; i < start + length; i++) {
+                char c = line.charAt(i);
+                if (c < '0' || c > '9') {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        private static int parseHex(@NonNull String line, int start) {
+            int value = 0;
+            for (int i = start, n = line.length(); i < n; i++) {
+                value = (value << 4) | Character.digit(line.charAt(i), 16);
+            }
+            return value;
+        }
+
+        private static int parseDecimal(@NonNull String line, int start) {
+            int value = 0;
+            for (int i = start, n = line.length(); i < n; i++) {
+                value = value * 10 + (line.charAt(i) - '0');
+            }
+            return value;
+        }
     }
 }
@@ -17,27 +17,25 @@
 package com.android.builder.internal;
 
 import com.android.SdkConstants;
-import com.android.builder.internal.SymbolLoader.SymbolEntry;
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.builder.internal.SymbolLoader.ClassSymbols;
 import com.google.common.base.Charsets;
 import com.google.common.base.Splitter;
-import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Table;
-import com.google.common.io.Closeables;
 import com.google.common.io.Files;
 
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 /**
  * A class to write R.java classes based on data read from text symbol files generated by
  * aapt with the --output-text-symbols option.
+ *
+ * The symbols of the loaders are sorted by class and name, so the R class is written by
+ * merging them, without collecting them first.
  */
 public class SymbolWriter {
 
@@ -56,17 +54,13 @@ public class SymbolWriter {
         mSymbols.add(symbols);
     }
 
-    private Table<String, String, SymbolEntry> getAllSymbols() {
-        Table<String, String, SymbolEntry> symbols = HashBasedTable.create();
-
-        for (SymbolLoader symbolLoader : mSymbols) {
-            symbols.putAll(symbolLoader.getSymbols());
-        }
-
-        return symbols;
-    }
-
-    public void write() throws IOException {
+    /**
+     * Writes the R class, unless the existing R class already has the same content, so that
+     * unchanged R classes are not recompiled.
+     *
+     * @return true if the R class was written.
+     */
+    public boolean write() throws IOException {
         Splitter splitter = Splitter.on('.');
         Iterable<String> folders = splitter.split(mPackageName);
         File file = new File(mOutFolder);
@@ -76,58 +70,151 @@ public class SymbolWriter {
         file.mkdirs();
         file = new File(file, SdkConstants.FN_RESOURCE_CLASS);
 
-        BufferedWriter writer = null;
-        try {
-            writer = Files.newWriter(file, Charsets.UTF_8);
-
-            writer.write("/* AUTO-GENERATED FILE.  DO NOT MODIFY.\n");
-            writer.write(" *\n");
-            writer.write(" * This class was automatically generated by the\n");
-            writer.write(" * aapt tool from the resource data it found.  It\n");
-            writer.write(" * should not be modified by hand.\n");
-            writer.write(" */\n");
-
-            writer.write("package ");
-            writer.write(mPackageName);
-            writer.write(";\n\npublic final class R {\n");
-
-            Table<String, String, SymbolEntry> symbols = getAllSymbols();
-            Table<String, String, SymbolEntry> values = mValues.getSymbols();
-
-            Set<String> rowSet = symbols.rowKeySet();
-            List<String> rowList = Lists.newArrayList(rowSet);
-            Collections.sort(rowList);
-
-            for (String row : rowList) {
-                writer.write("\tpublic static final class ");
-                writer.write(row);
-                writer.write(" {\n");
-
-                Map<String, SymbolEntry> rowMap = symbols.row(row);
-                Set<String> symbolSet = rowMap.keySet();
-                ArrayList<String> symbolList = Lists.newArrayList(symbolSet);
-                Collections.sort(symbolList);
-
-                for (String symbolName : symbolList) {
-                    // get the matching SymbolEntry from the values Table.
-                    SymbolEntry value = values.get(row, symbolName);
-                    if (value != null) {
-                        writer.write("\t\tpublic static final ");
-                        writer.write(value.getType());
-                        writer.write(" ");
-                        writer.write(value.getName());
-                        writer.write(" = ");
-                        writer.write(value.getValue());
-                        writer.write(";\n");
+        byte[] content = render().getBytes(Charsets.UTF_8);
+
+        if (file.isFile() && file.length() == content.length &&
+                Arrays.equals(content, Files.toByteArray(file))) {
+            return false;
+        }
+
+        Files.write(content, file);
+        return true;
+    }
+
+    @NonNull
+    private String render() {
+        // the symbols to write, each class of symbols sorted by name.
+        List<ClassSymbols[]> classesList = Lists.newArrayListWithCapacity(mSymbols.size());
+        int symbolCount = 0;
+        for (SymbolLoader symbolLoader : mSymbols) {
+            ClassSymbols[] classes = symbolLoader.getClasses();
+            classesList.add(classes);
+            for (ClassSymbols classSymbols : classes) {
+                symbolCount += classSymbols.getSymbolCount();
+            }
+        }
+
+        // a line is about 60 characters.
+        StringBuilder writer = new StringBuilder(512 + symbolCount * 64);
+
+        writer.append("/* AUTO-GENERATED FILE.  DO NOT MODIFY.\n");
+        writer.append(" *\n");
+        writer.append(" * This class was automatically generated by the\n");
+        writer.append(" * aapt tool from the resource data it found.  It\n");
+        writer.append(" * should not be modified by hand.\n");
+        writer.append(" */\n");
+
+        writer.append("package ");
+        writer.append(mPackageName);
+        writer.append(";\n\npublic final class R {\n");
+
+        // merge the classes of all the loaders, in order.
+        int[] classCursors = new int[classesList.size()];
+        ClassSymbols[] sameClasses = new ClassSymbols[classesList.size()];
+        String className;
+        while ((className = nextName(classesList, classCursors)) != null) {
+            int count = 0;
+            for (int i = 0; i < classesList.size(); i++) {
+                ClassSymbols[] classes = classesList.get(i);
+                if (classCursors[i] < classes.length &&
+                        classes[classCursors[i]].getName().equals(className)) {
+                    sameClasses[count++] = classes[classCursors[i]++];
+                }
+            }
+
+            writer.append("\tpublic static final class ");
+            writer.append(className);
+            writer.append(" {\n");
+
+            writeClass(writer, Arrays.copyOf(sameClasses, count),
+                    mValues.getClassSymbols(className));
+
+            writer.append("\t}\n");
+        }
+
+        writer.append("}\n");
+
+        return writer.toString();
+    }
+
+    /**
+     * Writes the symbols of a class, merging the symbols of the loaders that have the class.
+     *
+     * @param writer the output.
+     * @param classes the symbols of the class in each loader.
+     * @param values the final values of the symbols of the class.
+     */
+    private static void writeClass(
+            @NonNull StringBuilder writer,
+            @NonNull ClassSymbols[] classes,
+            @Nullable ClassSymbols values) {
+        if (values == null) {
+            return;
+        }
+
+        int[] cursors = new int[classes.length];
+        int valueIndex = 0;
+        int valueCount = values.getSymbolCount();
+
+        while (valueIndex < valueCount) {
+            // find the next symbol name in the loaders.
+            String name = null;
+            for (int i = 0; i < classes.length; i++) {
+                if (cursors[i] < classes[i].getSymbolCount()) {
+                    String candidate = classes[i].getSymbolName(cursors[i]);
+                    if (name == null || candidate.compareTo(name) < 0) {
+                        name = candidate;
                     }
                 }
+            }
+
+            if (name == null) {
+                break;
+            }
+
+            for (int i = 0; i < classes.length; i++) {
+                if (cursors[i] < classes[i].getSymbolCount() &&
+                        classes[i].getSymbolName(cursors[i]).equals(name)) {
+                    cursors[i]++;
+                }
+            }
+
+            // get the matching value, the values are sorted by name too.
+            int cmp = -1;
+            while (valueIndex < valueCount &&
+                    (cmp = values.getSymbolName(valueIndex).compareTo(name)) < 0) {
+                valueIndex++;
+            }
 
-                writer.write("\t}\n");
+            if (cmp == 0) {
+                writer.append("\t\tpublic static final ");
+                writer.append(values.getType(valueIndex));
+                writer.append(' ');
+                writer.append(name);
+                writer.append(" = ");
+                values.appendValue(valueIndex, writer);
+                writer.append(";\n");
             }
+        }
+    }
 
-            writer.write("}\n");
-        } finally {
-            Closeables.closeQuietly(writer);
+    /**
+     * Returns the smallest class name at the cursors, or null if all the classes were read.
+     */
+    @Nullable
+    private static String nextName(@NonNull List<ClassSymbols[]> classesList,
+            @NonNull int[] cursors) {
+        String name = null;
+        for (int i = 0; i < cursors.length; i++) {
+            ClassSymbols[] classes = classesList.get(i);
+            if (cursors[i] < classes.length) {
+                String candidate = classes[cursors[i]].getName();
+                if (name == null || candidate.compareTo(name) < 0) {
+                    name = candidate;
+                }
+            }
         }
+
+        return name;
     }
 }
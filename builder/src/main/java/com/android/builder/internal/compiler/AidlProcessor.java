@@ -29,17 +29,15 @@ import java.util.List;
 
 /**
  * A Source File processor for AIDL files. This compiles each aidl file found by the SourceSearcher.
+ *
+ * aidl compiles a single file per invocation, so batches of files are compiled by parallel aidl
+ * processes sharing the same options, see
+ * {@link SourceSearcher#processFiles(java.util.Collection, SourceSearcher.SourceFileProcessor)}.
  */
 public class AidlProcessor implements SourceSearcher.SourceFileProcessor {
 
     @NonNull
-    private final String mAidlExecutable;
-    @NonNull
-    private final String mFrameworkLocation;
-    @NonNull
-    private final List<File> mImportFolders;
-    @NonNull
-    private final File mSourceOutputDir;
+    private final List<String> mCommand;
     @NonNull
     private final DependencyFileProcessor mDependencyFileProcessor;
     @NonNull
@@ -51,27 +49,25 @@ public class AidlProcessor implements SourceSearcher.SourceFileProcessor {
                          @NonNull File sourceOutputDir,
                          @NonNull DependencyFileProcessor dependencyFileProcessor,
                          @NonNull CommandLineRunner runner) {
-        mAidlExecutable = aidlExecutable;
-        mFrameworkLocation = frameworkLocation;
-        mImportFolders = importFolders;
-        mSourceOutputDir = sourceOutputDir;
         mDependencyFileProcessor = dependencyFileProcessor;
         mRunner = runner;
-    }
-
-    @Override
-    public void processFile(File sourceFile) throws IOException, InterruptedException, LoggedErrorException {
-        ArrayList<String> command = Lists.newArrayList();
 
-        command.add(mAidlExecutable);
+        // the options are the same for all the files.
+        mCommand = Lists.newArrayList();
+        mCommand.add(aidlExecutable);
 
-        command.add("-p" + mFrameworkLocation);
-        command.add("-o" + mSourceOutputDir.getAbsolutePath());
+        mCommand.add("-p" + frameworkLocation);
+        mCommand.add("-o" + sourceOutputDir.getAbsolutePath());
 
         // add all the library aidl folders to access parcelables that are in libraries
-        for (File f : mImportFolders) {
-            command.add("-I" + f.getAbsolutePath());
+        for (File f : importFolders) {
+            mCommand.add("-I" + f.getAbsolutePath());
         }
+    }
+
+    @Override
+    public void processFile(File sourceFile) throws IOException, InterruptedException, LoggedErrorException {
+        ArrayList<String> command = Lists.newArrayList(mCommand);
 
         // create a temp file for the dependency
         File depFile = File.createTempFile("aidl", ".d");
@@ -79,11 +75,17 @@ public class AidlProcessor implements SourceSearcher.SourceFileProcessor {
 
         command.add(sourceFile.getAbsolutePath());
 
-        mRunner.runCmdLine(command, null);
+        boolean keepDepFile = false;
+        try {
+            mRunner.runCmdLine(command, null);
 
-        // send the dependency file to the processor.
-        if (mDependencyFileProcessor.processFile(depFile)) {
-            depFile.delete();
+            // send the dependency file to the processor.
+            keepDepFile = !mDependencyFileProcessor.processFile(depFile);
+        } finally {
+            // aidl may have written the dependency file before failing.
+            if (!keepDepFile) {
+                depFile.delete();
+            }
         }
     }
 }
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal.compiler;
+
+import com.android.annotations.NonNull;
+import com.android.utils.ILogger;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Bounds the size of a cache folder shared by builds, by deleting its least recently used
+ * files.
+ *
+ * The timestamp of a cached file is its last use: it is set when the file is added to the
+ * cache, and updated by {@link #markUsed(File)} each time the file is read from the cache.
+ */
+final class CacheFolderTrimmer {
+
+    /** Suffix of the files being added to a cache, which are never deleted. */
+    static final String DOT_TMP = ".tmp";
+
+    private CacheFolderTrimmer() {
+    }
+
+    /**
+     * Records that a cached file was used, so that it is deleted after the files that were not
+     * used since.
+     */
+    static void markUsed(@NonNull File cachedFile) {
+        //noinspection ResultOfMethodCallIgnored
+        cachedFile.setLastModified(System.currentTimeMillis());
+    }
+
+    /**
+     * Deletes the least recently used files of a cache folder until its size is at most
+     * the given size.
+     *
+     * Files that cannot be deleted, for instance because another build is reading them, are
+     * skipped.
+     *
+     * @param cacheFolder the cache folder.
+     * @param maxSize the maximum size of the cache, in bytes.
+     * @param logger the logger.
+     */
+    static void trim(@NonNull File cacheFolder, long maxSize, @NonNull ILogger logger) {
+        File[] files = cacheFolder.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= maxSize) {
+            return;
+        }
+
+        // read the timestamps once, as they may change while sorting.
+        final long[] timestamps = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            timestamps[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer i1, Integer i2) {
+                return timestamps[i1] < timestamps[i2] ? -1 :
+                        (timestamps[i1] == timestamps[i2] ? 0 : 1);
+            }
+        });
+
+        int deleted = 0;
+        for (int i = 0; i < order.length && size > maxSize; i++) {
+            File file = files[order[i]];
+            if (!file.isFile() || file.getName().endsWith(DOT_TMP)) {
+                continue;
+            }
+
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+                deleted++;
+            }
+        }
+
+        logger.verbose("Removed %1$d files from %2$s", deleted, cacheFolder);
+    }
+}
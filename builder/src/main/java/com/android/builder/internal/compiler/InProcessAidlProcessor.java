@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal.compiler;
+
+import com.android.annotations.NonNull;
+import com.android.builder.compiling.DependencyDataProcessor;
+import com.android.builder.compiling.DependencyFileProcessor;
+import com.android.builder.internal.compiler.aidl.AidlCompiler;
+import com.android.builder.internal.compiler.aidl.AidlException;
+import com.android.builder.internal.incremental.DependencyData;
+import com.android.ide.common.internal.LoggedErrorException;
+import com.android.utils.ILogger;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A Source File processor for AIDL files compiling them in process with {@link AidlCompiler},
+ * instead of running one aidl process per file.
+ *
+ * The dependencies of each file are given directly to the processor if it is a
+ * {@link DependencyDataProcessor}. Otherwise a dependency file is written like aidl does.
+ */
+public class InProcessAidlProcessor implements SourceSearcher.SourceFileProcessor {
+
+    @NonNull
+    private final AidlCompiler mCompiler;
+    @NonNull
+    private final File mSourceOutputDir;
+    @NonNull
+    private final DependencyFileProcessor mDependencyFileProcessor;
+    @NonNull
+    private final ILogger mLogger;
+
+    public InProcessAidlProcessor(@NonNull File frameworkFile,
+                                  @NonNull List<File> importFolders,
+                                  @NonNull File sourceOutputDir,
+                                  @NonNull DependencyFileProcessor dependencyFileProcessor,
+                                  @NonNull ILogger logger) {
+        mCompiler = new AidlCompiler(frameworkFile, importFolders);
+        mSourceOutputDir = sourceOutputDir;
+        mDependencyFileProcessor = dependencyFileProcessor;
+        mLogger = logger;
+    }
+
+    @Override
+    public void processFile(File sourceFile) throws IOException, LoggedErrorException {
+        AidlCompiler.Result result;
+        try {
+            result = mCompiler.compile(sourceFile, mSourceOutputDir);
+        } catch (AidlException e) {
+            // report the errors the same way as when running aidl.
+            for (String message : e.getMessages()) {
+                mLogger.error(null, message);
+            }
+            throw new LoggedErrorException(1, e.getMessages(),
+                    "aidl " + sourceFile.getAbsolutePath());
+        }
+
+        List<String> secondaryFiles = Lists.newArrayListWithCapacity(
+                result.getDependencies().size());
+        for (File dependency : result.getDependencies()) {
+            secondaryFiles.add(dependency.getAbsolutePath());
+        }
+        File outputFile = result.getOutputFile();
+        List<String> outputFiles = outputFile != null ?
+                Collections.singletonList(outputFile.getAbsolutePath()) :
+                Collections.<String>emptyList();
+
+        DependencyData data = new DependencyData(sourceFile.getAbsolutePath(), secondaryFiles,
+                outputFiles);
+
+        if (mDependencyFileProcessor instanceof DependencyDataProcessor) {
+            ((DependencyDataProcessor) mDependencyFileProcessor).processDependencyData(data);
+        } else {
+            File depFile = File.createTempFile("aidl", ".d");
+            writeDependencyFile(data, depFile);
+            if (mDependencyFileProcessor.processFile(depFile)) {
+                depFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Writes a dependency file in the format written by aidl, with one path per line.
+     */
+    private static void writeDependencyFile(@NonNull DependencyData data, @NonNull File depFile)
+            throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (String output : data.getOutputFiles()) {
+            sb.append(output).append(' ');
+        }
+        sb.append(": \\\n  ").append(data.getMainFile());
+        for (String secondaryFile : data.getSecondaryFiles()) {
+            sb.append(" \\\n  ").append(secondaryFile);
+        }
+        sb.append('\n');
+
+        Files.write(sb.toString(), depFile, Charsets.UTF_8);
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal.compiler;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.ide.common.internal.LoggedErrorException;
+import com.android.utils.ILogger;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs dx inside the current VM instead of launching a new one for each invocation.
+ *
+ * dx.jar is loaded in its own class loader, isolated from the classes of the build. Since
+ * dx keeps its state in static fields, a class loader only runs one conversion at a time, and
+ * concurrent conversions each get their own. Class loaders are kept around once they are
+ * idle so that later conversions, including the ones of later builds in the same VM, run
+ * already JIT-compiled code.
+ *
+ * The heap available to dx is the heap of the current VM: javaMaxHeapSize does not apply.
+ */
+public class InProcessDexer {
+
+    private static final String DEXER_MAIN = "com.android.dx.command.dexer.Main";
+    private static final String DEXER_ARGUMENTS = DEXER_MAIN + "$Arguments";
+    private static final String DX_CONSOLE = "com.android.dx.command.DxConsole";
+
+    private static final Map<File, InProcessDexer> sDexers = Maps.newHashMap();
+
+    @NonNull
+    private final File mDxJar;
+
+    /** Loaded copies of dx that are not running. */
+    private final LinkedList<DxInstance> mIdleInstances = Lists.newLinkedList();
+
+    /** Whether dx.jar could not be loaded, in which case it is not tried again. */
+    private volatile boolean mBroken = false;
+
+    /**
+     * Returns the dexer for a given dx.jar, shared by all the builds of the VM.
+     *
+     * @param dxJar the dx.jar file of the build tools.
+     */
+    @NonNull
+    public static synchronized InProcessDexer getDexer(@NonNull File dxJar) {
+        InProcessDexer dexer = sDexers.get(dxJar);
+        if (dexer == null) {
+            dexer = new InProcessDexer(dxJar);
+            sDexers.put(dxJar, dexer);
+        }
+
+        return dexer;
+    }
+
+    private InProcessDexer(@NonNull File dxJar) {
+        mDxJar = dxJar;
+    }
+
+    /**
+     * Runs dx.
+     *
+     * @param args the arguments of the dx dexer, without the leading --dex.
+     * @param logger the logger receiving the output of dx.
+     * @return false if dx could not be run in process, in which case it must be run in its
+     *         own VM.
+     * @throws IOException if dx failed to read or write a file.
+     * @throws LoggedErrorException if dx failed.
+     */
+    public boolean run(@NonNull List<String> args, @NonNull ILogger logger)
+            throws IOException, LoggedErrorException {
+        if (mBroken) {
+            return false;
+        }
+
+        DxInstance instance = acquire(logger);
+        if (instance == null) {
+            return false;
+        }
+
+        try {
+            int exitCode = instance.run(args, logger);
+            if (exitCode != 0) {
+                throw new LoggedErrorException(exitCode, instance.getErrorOutput(),
+                        "dx " + Joiner.on(' ').join(args));
+            }
+
+            return true;
+        } catch (DxLoadingException e) {
+            logger.warning("Failed to run dx in process, falling back to a dx process: %s",
+                    e.getMessage());
+            mBroken = true;
+            return false;
+        } finally {
+            release(instance);
+        }
+    }
+
+    @Nullable
+    private DxInstance acquire(@NonNull ILogger logger) {
+        synchronized (mIdleInstances) {
+            if (!mIdleInstances.isEmpty()) {
+                return mIdleInstances.removeFirst();
+            }
+        }
+
+        try {
+            return new DxInstance(mDxJar);
+        } catch (DxLoadingException e) {
+            logger.warning("Failed to load %1$s, falling back to a dx process: %2$s",
+                    mDxJar, e.getMessage());
+            mBroken = true;
+            return null;
+        }
+    }
+
+    private void release(@NonNull DxInstance instance) {
+        synchronized (mIdleInstances) {
+            mIdleInstances.addFirst(instance);
+        }
+    }
+
+    /**
+     * A copy of dx loaded in its own class loader.
+     */
+    private static final class DxInstance {
+        private final Class<?> mArgumentsClass;
+        private final Method mParseMethod;
+        private final Method mRunMethod;
+        private final Field mOutField;
+        private final Field mErrField;
+
+        private ByteArrayOutputStream mErrBuffer;
+
+        DxInstance(@NonNull File dxJar) throws DxLoadingException {
+            try {
+                // no parent, dx only depends on the platform classes.
+                ClassLoader loader = new URLClassLoader(
+                        new URL[] { dxJar.toURI().toURL() }, null);
+
+                Class<?> mainClass = loader.loadClass(DEXER_MAIN);
+                mArgumentsClass = loader.loadClass(DEXER_ARGUMENTS);
+                mParseMethod = mArgumentsClass.getMethod("parse", String[].class);
+                mRunMethod = mainClass.getMethod("run", mArgumentsClass);
+
+                Class<?> consoleClass = loader.loadClass(DX_CONSOLE);
+                mOutField = consoleClass.getField("out");
+                mErrField = consoleClass.getField("err");
+            } catch (Exception e) {
+                throw new DxLoadingException(e);
+            }
+        }
+
+        int run(@NonNull List<String> args, @NonNull ILogger logger)
+                throws IOException, DxLoadingException {
+            ByteArrayOutputStream outBuffer = new ByteArrayOutputStream();
+            mErrBuffer = new ByteArrayOutputStream();
+
+            try {
+                mOutField.set(null, createPrintStream(outBuffer));
+                mErrField.set(null, createPrintStream(mErrBuffer));
+
+                Object arguments = mArgumentsClass.newInstance();
+                mParseMethod.invoke(arguments, (Object) args.toArray(new String[args.size()]));
+
+                return (Integer) mRunMethod.invoke(null, arguments);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    // dx reports invalid arguments and invalid classes this way.
+                    new PrintStream(mErrBuffer, true).println(cause.toString());
+                    return 1;
+                }
+
+                throw new DxLoadingException(cause != null ? cause : e);
+            } catch (Exception e) {
+                throw new DxLoadingException(e);
+            } finally {
+                for (String line : getLines(outBuffer)) {
+                    logger.info(line);
+                }
+                for (String line : getLines(mErrBuffer)) {
+                    logger.error(null, line);
+                }
+            }
+        }
+
+        @NonNull
+        List<String> getErrorOutput() {
+            return getLines(mErrBuffer);
+        }
+
+        @NonNull
+        private static PrintStream createPrintStream(@NonNull ByteArrayOutputStream buffer)
+                throws UnsupportedEncodingException {
+            return new PrintStream(buffer, true, Charsets.UTF_8.name());
+        }
+
+        @NonNull
+        private static List<String> getLines(@NonNull ByteArrayOutputStream buffer) {
+            String output;
+            try {
+                output = buffer.toString(Charsets.UTF_8.name());
+            } catch (UnsupportedEncodingException e) {
+                output = buffer.toString();
+            }
+
+            return Lists.newArrayList(Splitter.onPattern("\r?\n").omitEmptyStrings().split(output));
+        }
+    }
+
+    /**
+     * Thrown when dx.jar does not have the expected entry points.
+     */
+    private static final class DxLoadingException extends Exception {
+        DxLoadingException(@NonNull Throwable cause) {
+            super(cause.toString(), cause);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal.compiler;
+
+import com.android.SdkConstants;
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.annotations.VisibleForTesting;
+import com.android.builder.DexOptions;
+import com.android.prefs.AndroidLocation;
+import com.android.prefs.AndroidLocation.AndroidLocationException;
+import com.android.sdklib.repository.FullRevision;
+import com.android.utils.ILogger;
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/**
+ * A cache of pre-dexed libraries, shared by all the projects and variants of the user.
+ *
+ * A pre-dexed library is identified by the content of the library, the dex options that
+ * change the output of dx, and the revision of the build tools. The path of the library does
+ * not matter, so the same jar used by several modules or checkouts is only dexed once.
+ *
+ * The cache can be used by several builds at the same time: entries are written to a temporary
+ * file first, and then renamed. The least recently used entries are removed once the cache grows
+ * over its maximum size.
+ */
+public class PreDexCache {
+
+    private static final String FD_DEX_CACHE = "dex-cache";
+
+    /** The default maximum size of the cache. */
+    public static final long DEFAULT_MAX_CACHE_SIZE = 512L * 1024 * 1024;
+
+    @NonNull
+    private final File mCacheFolder;
+    private final long mMaxCacheSize;
+    @NonNull
+    private final ILogger mLogger;
+
+    private int mHits = 0;
+    private int mMisses = 0;
+
+    /**
+     * Creates a cache using a given folder.
+     *
+     * @param cacheFolder the folder containing the cached libraries.
+     * @param maxCacheSize the maximum size of the cache folder, in bytes.
+     * @param logger the logger.
+     */
+    public PreDexCache(@NonNull File cacheFolder, long maxCacheSize, @NonNull ILogger logger) {
+        mCacheFolder = cacheFolder;
+        mMaxCacheSize = maxCacheSize;
+        mLogger = logger;
+    }
+
+    /**
+     * Returns the default location of the cache in the user's Android folder, or null if
+     * it cannot be computed.
+     */
+    @Nullable
+    public static File getDefaultCacheFolder() {
+        try {
+            return new File(AndroidLocation.getFolder(), FD_DEX_CACHE);
+        } catch (AndroidLocationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Computes the key of a pre-dexed library.
+     *
+     * @param inputFile the library.
+     * @param dexOptions the dex options.
+     * @param buildToolsRevision the revision of the build tools running dx.
+     * @return the key.
+     * @throws IOException if the library cannot be read.
+     */
+    @NonNull
+    public static String getKey(
+            @NonNull File inputFile,
+            @NonNull DexOptions dexOptions,
+            @NonNull FullRevision buildToolsRevision) throws IOException {
+        HashCode content = Files.hash(inputFile, Hashing.sha1());
+
+        return Hashing.sha1().newHasher()
+                .putBytes(content.asBytes())
+                .putBoolean(dexOptions.isCoreLibrary())
+                .putBoolean(dexOptions.getJumboMode())
+                .putString(buildToolsRevision.toString(), Charsets.UTF_8)
+                .hash().toString();
+    }
+
+    /**
+     * Copies a cached pre-dexed library, if any.
+     *
+     * @param key the key of the library.
+     * @param outFile the location of the pre-dexed library.
+     * @return true if the library was found in the cache and copied.
+     * @throws IOException if the cached library could not be copied.
+     */
+    public boolean copyTo(@NonNull String key, @NonNull File outFile) throws IOException {
+        File cachedFile = getCachedFile(key);
+        if (cachedFile.isFile()) {
+            try {
+                Files.copy(cachedFile, outFile);
+                CacheFolderTrimmer.markUsed(cachedFile);
+                synchronized (this) {
+                    mHits++;
+                }
+                return true;
+            } catch (FileNotFoundException e) {
+                // removed from the cache by another build in the meantime.
+            }
+        }
+
+        synchronized (this) {
+            mMisses++;
+        }
+        return false;
+    }
+
+    /**
+     * Adds a pre-dexed library to the cache.
+     *
+     * Failing to add it is not an error, it is only logged.
+     *
+     * @param key the key of the library.
+     * @param dexedFile the pre-dexed library.
+     */
+    public void store(@NonNull String key, @NonNull File dexedFile) {
+        File cachedFile = getCachedFile(key);
+        if (cachedFile.isFile()) {
+            return;
+        }
+
+        File tempFile = null;
+        try {
+            if (!mCacheFolder.isDirectory() && !mCacheFolder.mkdirs() &&
+                    !mCacheFolder.isDirectory()) {
+                throw new IOException("Failed to create " + mCacheFolder);
+            }
+
+            tempFile = File.createTempFile(key, CacheFolderTrimmer.DOT_TMP, mCacheFolder);
+            Files.copy(dexedFile, tempFile);
+
+            // another build may have stored the same library in the meantime.
+            if (!tempFile.renameTo(cachedFile) && !cachedFile.isFile()) {
+                throw new IOException("Failed to rename " + tempFile + " to " + cachedFile);
+            }
+
+            synchronized (this) {
+                CacheFolderTrimmer.trim(mCacheFolder, mMaxCacheSize, mLogger);
+            }
+        } catch (IOException e) {
+            mLogger.warning("Failed to add %1$s to the pre-dex cache: %2$s",
+                    dexedFile, e.getMessage());
+        } finally {
+            if (tempFile != null && tempFile.exists()) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of libraries found in the cache.
+     */
+    @VisibleForTesting
+    synchronized int getHits() {
+        return mHits;
+    }
+
+    /**
+     * Returns the number of libraries not found in the cache.
+     */
+    @VisibleForTesting
+    synchronized int getMisses() {
+        return mMisses;
+    }
+
+    @NonNull
+    private File getCachedFile(@NonNull String key) {
+        return new File(mCacheFolder, key + SdkConstants.DOT_JAR);
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal.compiler;
+
+import com.android.SdkConstants;
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.ide.common.internal.AaptRunner;
+import com.android.ide.common.internal.CommandLineRunner;
+import com.android.ide.common.internal.LoggedErrorException;
+import com.android.ide.common.internal.WaitableExecutor;
+import com.android.prefs.AndroidLocation;
+import com.android.prefs.AndroidLocation.AndroidLocationException;
+import com.android.sdklib.repository.FullRevision;
+import com.android.utils.ILogger;
+import com.android.utils.Pair;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * An {@link AaptRunner} that queues the images given to it instead of crunching them right
+ * away. The queued images are then crunched with aapt by {@link #crunchQueued()} on a bounded
+ * pool of threads.
+ *
+ * Crunched images can be kept in a cache folder shared by all the projects of the user,
+ * identified by the content of the image, whether it is a 9-patch, and the revision of the
+ * build tools. Images found in the cache are copied instead of being crunched again, including
+ * after a clean build. The least recently used images are removed from the cache once it grows
+ * over its maximum size.
+ */
+public class QueuedPngCruncher extends AaptRunner {
+
+    private static final String FD_PNG_CACHE = "png-cache";
+
+    /** The default maximum size of the cache. */
+    public static final long DEFAULT_MAX_CACHE_SIZE = 256L * 1024 * 1024;
+
+    @Nullable
+    private final File mCacheFolder;
+    private final long mMaxCacheSize;
+    @NonNull
+    private final FullRevision mBuildToolsRevision;
+    private final int mThreadCount;
+    @NonNull
+    private final ILogger mLogger;
+
+    private final List<Pair<File, File>> mQueue = Lists.newArrayList();
+
+    private int mCrunched;
+    private int mCopied;
+
+    /**
+     * Creates a cruncher.
+     *
+     * @param aaptLocation the location of aapt.
+     * @param commandLineRunner the command line runner running aapt.
+     * @param cacheFolder the folder containing the crunched images, or null to not use a cache.
+     * @param maxCacheSize the maximum size of the cache folder, in bytes.
+     * @param buildToolsRevision the revision of the build tools running the cruncher.
+     * @param threadCount the maximum number of images crunched at the same time.
+     * @param logger the logger.
+     */
+    public QueuedPngCruncher(
+            @NonNull String aaptLocation,
+            @NonNull CommandLineRunner commandLineRunner,
+            @Nullable File cacheFolder,
+            long maxCacheSize,
+            @NonNull FullRevision buildToolsRevision,
+            int threadCount,
+            @NonNull ILogger logger) {
+        super(aaptLocation, commandLineRunner);
+        mCacheFolder = cacheFolder;
+        mMaxCacheSize = maxCacheSize;
+        mBuildToolsRevision = buildToolsRevision;
+        mThreadCount = threadCount;
+        mLogger = logger;
+    }
+
+    /**
+     * Returns the default location of the cache in the user's Android folder, or null if
+     * it cannot be computed.
+     */
+    @Nullable
+    public static File getDefaultCacheFolder() {
+        try {
+            return new File(AndroidLocation.getFolder(), FD_PNG_CACHE);
+        } catch (AndroidLocationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Queues an image. It is crunched by the next call to {@link #crunchQueued()}.
+     */
+    @Override
+    public void crunchPng(@NonNull File from, @NonNull File to) {
+        synchronized (mQueue) {
+            mQueue.add(Pair.of(from, to));
+        }
+    }
+
+    /**
+     * Crunches the queued images, and waits for them to be crunched.
+     *
+     * @throws InterruptedException
+     * @throws LoggedErrorException if an image could not be crunched.
+     */
+    public void crunchQueued() throws InterruptedException, LoggedErrorException {
+        List<Pair<File, File>> queue;
+        synchronized (mQueue) {
+            queue = Lists.newArrayList(mQueue);
+            mQueue.clear();
+        }
+
+        if (queue.isEmpty()) {
+            return;
+        }
+
+        synchronized (this) {
+            mCrunched = 0;
+            mCopied = 0;
+        }
+
+        WaitableExecutor<Void> executor = new WaitableExecutor<Void>(mThreadCount);
+        for (final Pair<File, File> image : queue) {
+            executor.execute(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    crunch(image.getFirst(), image.getSecond());
+                    return null;
+                }
+            });
+        }
+
+        executor.waitForTasksWithQuickFail(true /*cancelRemaining*/);
+
+        if (mCacheFolder != null) {
+            CacheFolderTrimmer.trim(mCacheFolder, mMaxCacheSize, mLogger);
+        }
+
+        synchronized (this) {
+            mLogger.info("Crunched %1$d images, %2$d found in cache", mCrunched, mCopied);
+        }
+    }
+
+    /**
+     * Crunches an image with aapt.
+     */
+    void crunchNow(@NonNull File from, @NonNull File to)
+            throws InterruptedException, LoggedErrorException, IOException {
+        super.crunchPng(from, to);
+    }
+
+    private void crunch(@NonNull File from, @NonNull File to)
+            throws InterruptedException, LoggedErrorException, IOException {
+        if (mCacheFolder == null) {
+            crunchNow(from, to);
+            synchronized (this) {
+                mCrunched++;
+            }
+            return;
+        }
+
+        File cachedFile = new File(mCacheFolder, getKey(from) + SdkConstants.DOT_PNG);
+        if (cachedFile.isFile()) {
+            try {
+                Files.copy(cachedFile, to);
+                CacheFolderTrimmer.markUsed(cachedFile);
+                synchronized (this) {
+                    mCopied++;
+                }
+                return;
+            } catch (FileNotFoundException e) {
+                // removed from the cache by another build in the meantime.
+            }
+        }
+
+        crunchNow(from, to);
+        synchronized (this) {
+            mCrunched++;
+        }
+
+        store(to, cachedFile);
+    }
+
+    @NonNull
+    private String getKey(@NonNull File image) throws IOException {
+        HashCode content = Files.hash(image, Hashing.sha1());
+
+        return Hashing.sha1().newHasher()
+                .putBytes(content.asBytes())
+                .putBoolean(image.getName().endsWith(SdkConstants.DOT_9PNG))
+                .putString(mBuildToolsRevision.toString(), Charsets.UTF_8)
+                .hash().toString();
+    }
+
+    /**
+     * Adds a crunched image to the cache. Failing to add it is not an error, it is only logged.
+     */
+    private void store(@NonNull File crunchedFile, @NonNull File cachedFile) {
+        //noinspection ConstantConditions
+        File cacheFolder = cachedFile.getParentFile();
+        File tempFile = null;
+        try {
+            if (!cacheFolder.isDirectory() && !cacheFolder.mkdirs() &&
+                    !cacheFolder.isDirectory()) {
+                throw new IOException("Failed to create " + cacheFolder);
+            }
+
+            tempFile = File.createTempFile(cachedFile.getName(), CacheFolderTrimmer.DOT_TMP,
+                    cacheFolder);
+            Files.copy(crunchedFile, tempFile);
+
+            // another build may have stored the same image in the meantime.
+            if (!tempFile.renameTo(cachedFile) && !cachedFile.isFile()) {
+                throw new IOException("Failed to rename " + tempFile + " to " + cachedFile);
+            }
+        } catch (IOException e) {
+            mLogger.warning("Failed to add %1$s to the image cache: %2$s",
+                    crunchedFile, e.getMessage());
+        } finally {
+            if (tempFile != null && tempFile.exists()) {
+                tempFile.delete();
+            }
+        }
+    }
+}
@@ -16,12 +16,14 @@
 
 package com.android.builder.internal.compiler;
 
+import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
 import com.android.ide.common.internal.LoggedErrorException;
 import com.android.ide.common.internal.WaitableExecutor;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.Callable;
 
@@ -63,6 +65,38 @@ public class SourceSearcher {
         }
     }
 
+    /**
+     * Processes a batch of files in parallel. A single file is processed on the calling thread.
+     *
+     * @param sourceFiles the files to process.
+     * @param processor the processor.
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws LoggedErrorException if the processing of a file failed.
+     */
+    public static void processFiles(
+            @NonNull Collection<File> sourceFiles,
+            @NonNull final SourceFileProcessor processor)
+            throws IOException, InterruptedException, LoggedErrorException {
+        if (sourceFiles.size() == 1) {
+            processor.processFile(sourceFiles.iterator().next());
+            return;
+        }
+
+        WaitableExecutor<Void> executor = new WaitableExecutor<Void>();
+        for (final File sourceFile : sourceFiles) {
+            executor.execute(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    processor.processFile(sourceFile);
+                    return null;
+                }
+            });
+        }
+
+        executor.waitForTasksWithQuickFail(true /*cancelRemaining*/);
+    }
+
     private void processFile(final File file, final SourceFileProcessor processor)
             throws IOException, InterruptedException, LoggedErrorException {
         if (file.isFile()) {
@@ -0,0 +1,538 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal.compiler.aidl;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.builder.internal.compiler.aidl.AidlDocument.Argument;
+import com.android.builder.internal.compiler.aidl.AidlDocument.Direction;
+import com.android.builder.internal.compiler.aidl.AidlDocument.Interface;
+import com.android.builder.internal.compiler.aidl.AidlDocument.Method;
+import com.android.builder.internal.compiler.aidl.AidlDocument.Name;
+import com.android.builder.internal.compiler.aidl.AidlDocument.TypeRef;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compiles aidl files into Java files, in process.
+ *
+ * This replaces the aidl tool for the common cases: interfaces using the primitive types,
+ * String, CharSequence, List, Map, IBinder, and the interfaces and parcelables declared in
+ * the framework or in other aidl files.
+ *
+ * The imported types are looked up in the preprocessed framework file and in the import
+ * folders. The parsed imports are cached, so a single instance should be used to compile
+ * all the files of a build. This class is thread-safe.
+ */
+public class AidlCompiler {
+
+    /**
+     * The result of the compilation of one aidl file.
+     */
+    public static final class Result {
+        @Nullable
+        private final File mOutputFile;
+        @NonNull
+        private final List<File> mDependencies;
+
+        Result(@Nullable File outputFile, @NonNull List<File> dependencies) {
+            mOutputFile = outputFile;
+            mDependencies = dependencies;
+        }
+
+        /**
+         * Returns the generated Java file, or null if the aidl file only declares parcelables.
+         */
+        @Nullable
+        public File getOutputFile() {
+            return mOutputFile;
+        }
+
+        /**
+         * Returns the aidl files imported by the compiled file.
+         */
+        @NonNull
+        public List<File> getDependencies() {
+            return mDependencies;
+        }
+    }
+
+    /**
+     * A type declared in an aidl file.
+     */
+    private static final class Declaration {
+        final boolean mInterface;
+        /**
+         * Whether the name is only the outer class of parcelables declared in the file, like
+         * Outer for "parcelable Outer.Inner;". It can be imported, but is not a type.
+         */
+        final boolean mOuterClass;
+        /** The file declaring the type, or null for the framework types. */
+        @Nullable
+        final File mFile;
+
+        Declaration(boolean anInterface, boolean outerClass, @Nullable File file) {
+            mInterface = anInterface;
+            mOuterClass = outerClass;
+            mFile = file;
+        }
+    }
+
+    /** Cached value for the names that could not be found. */
+    private static final Declaration NOT_FOUND = new Declaration(false, false, null);
+
+    @Nullable
+    private final File mFrameworkFile;
+    @NonNull
+    private final List<File> mImportFolders;
+
+    /** The framework declarations, loaded when first needed. */
+    @Nullable
+    private Map<String, Declaration> mFrameworkDeclarations;
+    /** The declarations found in the import folders, by qualified name. */
+    @NonNull
+    private final Map<String, Declaration> mImportedDeclarations = Maps.newHashMap();
+
+    /**
+     * Creates a compiler.
+     *
+     * @param frameworkFile the preprocessed framework aidl file, or null.
+     * @param importFolders the folders containing the aidl files that can be imported.
+     */
+    public AidlCompiler(@Nullable File frameworkFile, @NonNull List<File> importFolders) {
+        mFrameworkFile = frameworkFile;
+        mImportFolders = ImmutableList.copyOf(importFolders);
+    }
+
+    /**
+     * Compiles an aidl file.
+     *
+     * @param aidlFile the aidl file.
+     * @param outputFolder the root folder of the generated Java files.
+     * @return the result of the compilation.
+     * @throws IOException if a file cannot be read or written.
+     * @throws AidlException if the file is invalid.
+     */
+    @NonNull
+    public Result compile(@NonNull File aidlFile, @NonNull File outputFolder)
+            throws IOException, AidlException {
+        AidlDocument document = AidlParser.parse(aidlFile);
+
+        List<String> errors = Lists.newArrayList();
+        Set<File> dependencies = Sets.newLinkedHashSet();
+
+        checkDeclarations(document, aidlFile, errors);
+
+        for (Name anImport : document.mImports) {
+            Declaration declaration = findDeclaration(anImport.mName);
+            if (declaration == null) {
+                errors.add(error(document, anImport.mLine,
+                        "couldn't find import for class " + anImport.mName));
+            } else if (declaration.mFile != null && !declaration.mFile.equals(aidlFile)) {
+                dependencies.add(declaration.mFile);
+            }
+        }
+
+        for (Interface anInterface : document.mInterfaces) {
+            checkInterface(document, anInterface, aidlFile, dependencies, errors);
+        }
+
+        if (!errors.isEmpty()) {
+            throw new AidlException(errors);
+        }
+
+        File outputFile = null;
+        if (!document.mInterfaces.isEmpty()) {
+            Interface anInterface = document.mInterfaces.get(0);
+            outputFile = getOutputFile(document, anInterface, outputFolder);
+            writeIfChanged(new JavaGenerator(document, anInterface).generate(), outputFile);
+        }
+
+        return new Result(outputFile, ImmutableList.copyOf(dependencies));
+    }
+
+    @NonNull
+    private static File getOutputFile(
+            @NonNull AidlDocument document,
+            @NonNull Interface anInterface,
+            @NonNull File outputFolder) {
+        File folder = outputFolder;
+        if (document.mPackage != null) {
+            folder = new File(outputFolder, document.mPackage.replace('.', File.separatorChar));
+        }
+        return new File(folder, anInterface.mName.mName + ".java");
+    }
+
+    /**
+     * Writes the generated code, leaving the file untouched if it did not change so that
+     * the Java compilation is not triggered needlessly.
+     */
+    private static void writeIfChanged(@NonNull String content, @NonNull File outputFile)
+            throws IOException {
+        if (outputFile.isFile() && content.equals(Files.toString(outputFile, Charsets.UTF_8))) {
+            return;
+        }
+
+        Files.createParentDirs(outputFile);
+        Files.write(content, outputFile, Charsets.UTF_8);
+    }
+
+    private static void checkDeclarations(
+            @NonNull AidlDocument document,
+            @NonNull File aidlFile,
+            @NonNull List<String> errors) {
+        int count = document.mInterfaces.size() + document.mParcelables.size();
+        if (count == 0) {
+            errors.add(error(document, 1, "no interface or parcelable declared"));
+            return;
+        }
+
+        if (!document.mInterfaces.isEmpty() && count > 1) {
+            errors.add(error(document, document.mInterfaces.get(0).mName.mLine,
+                    "an interface must be the only type declared in its file"));
+        }
+
+        for (Interface anInterface : document.mInterfaces) {
+            checkFileName(document, "interface", anInterface.mName, aidlFile, errors);
+        }
+        // files declaring several parcelables are used to list them, like framework.aidl.
+        if (document.mParcelables.size() == 1) {
+            checkFileName(document, "parcelable", document.mParcelables.get(0), aidlFile,
+                    errors);
+        }
+    }
+
+    private static void checkFileName(
+            @NonNull AidlDocument document,
+            @NonNull String kind,
+            @NonNull Name name,
+            @NonNull File aidlFile,
+            @NonNull List<String> errors) {
+        // an inner parcelable like Outer.Inner is declared in the file of its outer class.
+        String fileName = name.mName;
+        int dot = fileName.indexOf('.');
+        if (dot != -1 && document.mPackage != null) {
+            fileName = fileName.substring(0, dot);
+        }
+        String expectedPath = document.getQualifiedName(fileName).replace('.', '/') + ".aidl";
+        String path = aidlFile.getPath().replace(File.separatorChar, '/');
+        if (!path.equals(expectedPath) && !path.endsWith("/" + expectedPath)) {
+            errors.add(error(document, name.mLine, String.format(
+                    "%1$s %2$s should be declared in a file called %3$s.",
+                    kind, name.mName, expectedPath)));
+        }
+    }
+
+    private void checkInterface(
+            @NonNull AidlDocument document,
+            @NonNull Interface anInterface,
+            @NonNull File aidlFile,
+            @NonNull Set<File> dependencies,
+            @NonNull List<String> errors) throws IOException, AidlException {
+        Set<String> methodNames = Sets.newHashSet();
+
+        for (Method method : anInterface.mMethods) {
+            int line = method.mName.mLine;
+
+            if (!methodNames.add(method.mName.mName)) {
+                errors.add(error(document, line,
+                        "attempt to redefine method " + method.mName.mName));
+            }
+
+            AidlType returnType = resolve(document, method.mReturnType, aidlFile, dependencies,
+                    errors);
+            boolean oneway = anInterface.mOneway || method.mOneway;
+            if (oneway && returnType != null && returnType != AidlType.VOID) {
+                errors.add(error(document, line, "oneway method " + method.mName.mName
+                        + " cannot return a value"));
+            }
+
+            for (Argument argument : method.mArguments) {
+                AidlType type = resolve(document, argument.mType, aidlFile, dependencies,
+                        errors);
+                if (type == null) {
+                    continue;
+                }
+
+                if (type == AidlType.VOID) {
+                    errors.add(error(document, line, String.format(
+                            "parameter %1$s can't be of type void", argument.mName)));
+                } else if (argument.mDirection == Direction.NONE && type.canBeOut()) {
+                    errors.add(error(document, line, String.format(
+                            "'%1$s %2$s' can be an out parameter, so you must declare it as in, out or inout.",
+                            argument.mType, argument.mName)));
+                } else if (argument.mDirection.isOut() && !type.canBeOut()) {
+                    errors.add(error(document, line, String.format(
+                            "'%1$s %2$s' can only be an in parameter.",
+                            argument.mType, argument.mName)));
+                } else if (oneway && argument.mDirection.isOut()) {
+                    errors.add(error(document, line, String.format(
+                            "oneway method %1$s cannot have out parameters", method.mName.mName)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Resolves a type, recording it in the type reference.
+     *
+     * @return the type, or null if it could not be resolved, in which case an error is added.
+     */
+    @Nullable
+    private AidlType resolve(
+            @NonNull AidlDocument document,
+            @NonNull TypeRef typeRef,
+            @NonNull File aidlFile,
+            @NonNull Set<File> dependencies,
+            @NonNull List<String> errors) throws IOException, AidlException {
+        int line = typeRef.mName.mLine;
+        String name = typeRef.mName.mName;
+        AidlType type;
+
+        if (isListName(name)) {
+            AidlType elementType = null;
+            if (typeRef.mTypeArguments != null) {
+                if (typeRef.mTypeArguments.size() != 1) {
+                    errors.add(error(document, line, "List takes a single type argument"));
+                    return null;
+                }
+                TypeRef argument = typeRef.mTypeArguments.get(0);
+                elementType = resolve(document, argument, aidlFile, dependencies, errors);
+                if (elementType == null) {
+                    return null;
+                }
+                if (argument.mArray || !elementType.canBeListElement()) {
+                    errors.add(error(document, line, String.format(
+                            "'%1$s' is not a supported List element type", argument)));
+                    return null;
+                }
+            }
+            type = new AidlType.ListType(elementType);
+        } else {
+            if (typeRef.mTypeArguments != null) {
+                errors.add(error(document, line, String.format(
+                        "'%1$s' is not a generic type", name)));
+                return null;
+            }
+
+            type = AidlType.BUILT_IN_TYPES.get(name);
+            if (type == null) {
+                type = resolveDeclaredType(document, name, aidlFile, dependencies);
+                if (type == null) {
+                    errors.add(error(document, line, "unknown type " + name));
+                    return null;
+                }
+            }
+        }
+
+        if (typeRef.mArray) {
+            if (!type.canBeArrayElement()) {
+                errors.add(error(document, line, String.format(
+                        "'%1$s' cannot be an array", name)));
+                return null;
+            }
+            type = new AidlType.ArrayType(type);
+        }
+
+        typeRef.mResolvedType = type;
+        return type;
+    }
+
+    private static boolean isListName(@NonNull String name) {
+        for (String listName : AidlType.LIST_NAMES) {
+            if (listName.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Resolves a parcelable or interface type used by a document.
+     *
+     * A simple name is either imported or in the package of the document. A dotted name is
+     * either qualified, or the inner class of an imported class or of a class of the package.
+     */
+    @Nullable
+    private AidlType resolveDeclaredType(
+            @NonNull AidlDocument document,
+            @NonNull String name,
+            @NonNull File aidlFile,
+            @NonNull Set<File> dependencies) throws IOException, AidlException {
+        int dot = name.indexOf('.');
+        String outerName = dot != -1 ? name.substring(0, dot) : name;
+
+        List<String> qualifiedNames = Lists.newArrayListWithCapacity(3);
+        for (Name anImport : document.mImports) {
+            if (outerName.equals(anImport.getSimpleName())) {
+                qualifiedNames.add(anImport.mName + name.substring(outerName.length()));
+                break;
+            }
+        }
+        if (qualifiedNames.isEmpty() || dot != -1) {
+            if (dot != -1) {
+                qualifiedNames.add(name);
+            }
+            qualifiedNames.add(document.getQualifiedName(name));
+        }
+
+        for (String qualifiedName : qualifiedNames) {
+            // types declared in the compiled document.
+            for (Interface anInterface : document.mInterfaces) {
+                if (qualifiedName.equals(document.getQualifiedName(anInterface.mName.mName))) {
+                    return new AidlType.InterfaceType(qualifiedName);
+                }
+            }
+            for (Name parcelable : document.mParcelables) {
+                if (qualifiedName.equals(document.getQualifiedName(parcelable.mName))) {
+                    return new AidlType.ParcelableType(qualifiedName);
+                }
+            }
+
+            Declaration declaration = findDeclaration(qualifiedName);
+            if (declaration == null || declaration.mOuterClass) {
+                continue;
+            }
+            if (declaration.mFile != null && !declaration.mFile.equals(aidlFile)) {
+                dependencies.add(declaration.mFile);
+            }
+
+            return declaration.mInterface
+                    ? new AidlType.InterfaceType(qualifiedName)
+                    : new AidlType.ParcelableType(qualifiedName);
+        }
+
+        return null;
+    }
+
+    /**
+     * Finds a type in the framework or in the import folders.
+     *
+     * @return the declaration or null if the type could not be found.
+     */
+    @Nullable
+    private Declaration findDeclaration(@NonNull String qualifiedName)
+            throws IOException, AidlException {
+        Declaration declaration = getFrameworkDeclarations().get(qualifiedName);
+        if (declaration != null) {
+            return declaration;
+        }
+
+        synchronized (mImportedDeclarations) {
+            declaration = mImportedDeclarations.get(qualifiedName);
+        }
+        if (declaration == null) {
+            declaration = findImportedDeclaration(qualifiedName);
+            synchronized (mImportedDeclarations) {
+                mImportedDeclarations.put(qualifiedName, declaration);
+            }
+        }
+
+        return declaration != NOT_FOUND ? declaration : null;
+    }
+
+    /**
+     * Finds a type in the import folders. A type is declared in the file named after it, or
+     * for an inner parcelable, in the file of its outer class.
+     */
+    @NonNull
+    private Declaration findImportedDeclaration(@NonNull String qualifiedName)
+            throws IOException, AidlException {
+        String fileName = qualifiedName;
+        while (true) {
+            String relativePath = fileName.replace('.', File.separatorChar) + ".aidl";
+            for (File folder : mImportFolders) {
+                File file = new File(folder, relativePath);
+                if (!file.isFile()) {
+                    continue;
+                }
+
+                Declaration declaration = findDeclaration(AidlParser.parse(file), file,
+                        qualifiedName);
+                if (declaration != null) {
+                    return declaration;
+                }
+            }
+
+            int dot = fileName.lastIndexOf('.');
+            if (dot == -1) {
+                return NOT_FOUND;
+            }
+            fileName = fileName.substring(0, dot);
+        }
+    }
+
+    @Nullable
+    private static Declaration findDeclaration(
+            @NonNull AidlDocument document,
+            @NonNull File file,
+            @NonNull String qualifiedName) {
+        for (Interface anInterface : document.mInterfaces) {
+            if (qualifiedName.equals(document.getQualifiedName(anInterface.mName.mName))) {
+                return new Declaration(true, false, file);
+            }
+        }
+
+        boolean outerClass = false;
+        for (Name parcelable : document.mParcelables) {
+            String parcelableName = document.getQualifiedName(parcelable.mName);
+            if (qualifiedName.equals(parcelableName)) {
+                return new Declaration(false, false, file);
+            }
+            outerClass |= parcelableName.startsWith(qualifiedName + ".");
+        }
+
+        return outerClass ? new Declaration(false, true, file) : null;
+    }
+
+    @NonNull
+    private synchronized Map<String, Declaration> getFrameworkDeclarations()
+            throws IOException, AidlException {
+        if (mFrameworkDeclarations == null) {
+            Map<String, Declaration> declarations = Maps.newHashMap();
+            if (mFrameworkFile != null && mFrameworkFile.isFile()) {
+                AidlDocument document = AidlParser.parsePreprocessed(mFrameworkFile);
+                for (Name parcelable : document.mParcelables) {
+                    declarations.put(parcelable.mName, new Declaration(false, false, null));
+                }
+                for (Interface anInterface : document.mInterfaces) {
+                    declarations.put(anInterface.mName.mName,
+                            new Declaration(true, false, null));
+                }
+            }
+            mFrameworkDeclarations = declarations;
+        }
+
+        return mFrameworkDeclarations;
+    }
+
+    @NonNull
+    private static String error(@NonNull AidlDocument document, int line,
+            @NonNull String message) {
+        return AidlException.formatMessage(document.mPath, line, message);
+    }
+}
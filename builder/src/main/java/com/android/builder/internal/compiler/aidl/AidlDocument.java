@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal.compiler.aidl;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+
+/**
+ * The content of a parsed aidl file.
+ */
+class AidlDocument {
+
+    /**
+     * A name and the line it was found on.
+     */
+    static final class Name {
+        @NonNull
+        final String mName;
+        final int mLine;
+
+        Name(@NonNull String name, int line) {
+            mName = name;
+            mLine = line;
+        }
+
+        @NonNull
+        String getSimpleName() {
+            return mName.substring(mName.lastIndexOf('.') + 1);
+        }
+    }
+
+    /**
+     * A type used by a method, before it is resolved.
+     */
+    static final class TypeRef {
+        @NonNull
+        final Name mName;
+        /** The type arguments, or null if the type is not generic. */
+        @Nullable
+        final List<TypeRef> mTypeArguments;
+        final boolean mArray;
+        /** The resolved type, set when the document is compiled. */
+        @Nullable
+        AidlType mResolvedType;
+
+        TypeRef(@NonNull Name name, @Nullable List<TypeRef> typeArguments, boolean array) {
+            mName = name;
+            mTypeArguments = typeArguments;
+            mArray = array;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(mName.mName);
+            if (mTypeArguments != null) {
+                sb.append('<');
+                for (int i = 0; i < mTypeArguments.size(); i++) {
+                    if (i > 0) {
+                        sb.append(',');
+                    }
+                    sb.append(mTypeArguments.get(i));
+                }
+                sb.append('>');
+            }
+            if (mArray) {
+                sb.append("[]");
+            }
+            return sb.toString();
+        }
+    }
+
+    static enum Direction {
+        /** No direction was declared. */
+        NONE,
+        IN,
+        OUT,
+        INOUT;
+
+        boolean isIn() {
+            return this != OUT;
+        }
+
+        boolean isOut() {
+            return this == OUT || this == INOUT;
+        }
+    }
+
+    static final class Argument {
+        @NonNull
+        final Direction mDirection;
+        @NonNull
+        final TypeRef mType;
+        @NonNull
+        final String mName;
+
+        Argument(@NonNull Direction direction, @NonNull TypeRef type, @NonNull String name) {
+            mDirection = direction;
+            mType = type;
+            mName = name;
+        }
+    }
+
+    static final class Method {
+        @Nullable
+        final String mComment;
+        final boolean mOneway;
+        @NonNull
+        final TypeRef mReturnType;
+        @NonNull
+        final Name mName;
+        @NonNull
+        final List<Argument> mArguments;
+
+        Method(
+                @Nullable String comment,
+                boolean oneway,
+                @NonNull TypeRef returnType,
+                @NonNull Name name,
+                @NonNull List<Argument> arguments) {
+            mComment = comment;
+            mOneway = oneway;
+            mReturnType = returnType;
+            mName = name;
+            mArguments = arguments;
+        }
+    }
+
+    static final class Interface {
+        @Nullable
+        final String mComment;
+        final boolean mOneway;
+        @NonNull
+        final Name mName;
+        @NonNull
+        final List<Method> mMethods;
+
+        Interface(
+                @Nullable String comment,
+                boolean oneway,
+                @NonNull Name name,
+                @NonNull List<Method> methods) {
+            mComment = comment;
+            mOneway = oneway;
+            mName = name;
+            mMethods = methods;
+        }
+    }
+
+    @NonNull
+    final String mPath;
+    @Nullable
+    String mPackage;
+    @NonNull
+    final List<Name> mImports = Lists.newArrayList();
+    /** The declared parcelables, as written in the file. */
+    @NonNull
+    final List<Name> mParcelables = Lists.newArrayList();
+    @NonNull
+    final List<Interface> mInterfaces = Lists.newArrayList();
+
+    AidlDocument(@NonNull String path) {
+        mPath = path;
+    }
+
+    /**
+     * Returns the fully qualified name of a type declared in this document.
+     */
+    @NonNull
+    String getQualifiedName(@NonNull String simpleName) {
+        return mPackage != null ? mPackage + "." + simpleName : simpleName;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal.compiler.aidl;
+
+import com.android.annotations.NonNull;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * Thrown when an aidl file is invalid.
+ *
+ * The messages have the format of the messages of the aidl tool:
+ * <code>path:line: message</code>.
+ */
+public class AidlException extends Exception {
+
+    @NonNull
+    private final List<String> mMessages;
+
+    AidlException(@NonNull List<String> messages) {
+        super(Joiner.on('\n').join(messages));
+        mMessages = ImmutableList.copyOf(messages);
+    }
+
+    AidlException(@NonNull String path, int line, @NonNull String message) {
+        this(ImmutableList.of(formatMessage(path, line, message)));
+    }
+
+    /**
+     * Returns the error messages.
+     */
+    @NonNull
+    public List<String> getMessages() {
+        return mMessages;
+    }
+
+    @NonNull
+    static String formatMessage(@NonNull String path, int line, @NonNull String message) {
+        return path + ":" + line + ": " + message;
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal.compiler.aidl;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.builder.internal.compiler.aidl.AidlDocument.Argument;
+import com.android.builder.internal.compiler.aidl.AidlDocument.Direction;
+import com.android.builder.internal.compiler.aidl.AidlDocument.Interface;
+import com.android.builder.internal.compiler.aidl.AidlDocument.Method;
+import com.android.builder.internal.compiler.aidl.AidlDocument.Name;
+import com.android.builder.internal.compiler.aidl.AidlDocument.TypeRef;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Parses aidl files, and the preprocessed files listing the framework types.
+ *
+ * The grammar is the one of the aidl tool:
+ * <pre>
+ * document  := ('package' name ';')? ('import' name ';')* declaration*
+ * declaration := ('parcelable' | 'flattenable') name ';'
+ *              | 'oneway'? 'interface' identifier '{' method* '}' ';'?
+ * method    := 'oneway'? type identifier '(' (argument (',' argument)*)? ')' ';'
+ * argument  := ('in' | 'out' | 'inout')? type identifier
+ * type      := name ('<' type (',' type)* '>')? ('[' ']')?
+ * </pre>
+ * Preprocessed files only contain <code>parcelable name;</code> and
+ * <code>interface name;</code> declarations of fully qualified names.
+ */
+class AidlParser {
+
+    private static final String KW_PACKAGE = "package";
+    private static final String KW_IMPORT = "import";
+    private static final String KW_PARCELABLE = "parcelable";
+    private static final String KW_FLATTENABLE = "flattenable";
+    private static final String KW_INTERFACE = "interface";
+    private static final String KW_ONEWAY = "oneway";
+    private static final String KW_IN = "in";
+    private static final String KW_OUT = "out";
+    private static final String KW_INOUT = "inout";
+
+    @NonNull
+    private final String mPath;
+    @NonNull
+    private final String mContent;
+    private int mPosition = 0;
+    private int mLine = 1;
+
+    /** The current token, or null at the end of the content. */
+    @Nullable
+    private String mToken;
+    private int mTokenLine;
+    /** The comments found before the current token, or null. */
+    @Nullable
+    private String mTokenComment;
+
+    /**
+     * Parses an aidl file.
+     *
+     * @param file the file.
+     * @return the parsed document.
+     * @throws IOException if the file cannot be read.
+     * @throws AidlException if the file is invalid.
+     */
+    @NonNull
+    static AidlDocument parse(@NonNull File file) throws IOException, AidlException {
+        return new AidlParser(file.getPath(), Files.toString(file, Charsets.UTF_8)).parseDocument();
+    }
+
+    /**
+     * Parses a preprocessed file, such as the framework.aidl file of the platforms.
+     *
+     * @param file the file.
+     * @return a document containing the declared parcelables and interfaces, with their
+     *         fully qualified names. The interfaces have no methods.
+     * @throws IOException if the file cannot be read.
+     * @throws AidlException if the file is invalid.
+     */
+    @NonNull
+    static AidlDocument parsePreprocessed(@NonNull File file) throws IOException, AidlException {
+        return new AidlParser(file.getPath(), Files.toString(file, Charsets.UTF_8))
+                .parsePreprocessedDocument();
+    }
+
+    AidlParser(@NonNull String path, @NonNull String content) {
+        mPath = path;
+        mContent = content;
+    }
+
+    @NonNull
+    AidlDocument parseDocument() throws AidlException {
+        AidlDocument document = new AidlDocument(mPath);
+
+        next();
+        if (KW_PACKAGE.equals(mToken)) {
+            next();
+            document.mPackage = expectName().mName;
+            expect(";");
+        }
+
+        while (KW_IMPORT.equals(mToken)) {
+            next();
+            document.mImports.add(expectName());
+            expect(";");
+        }
+
+        while (mToken != null) {
+            if (KW_PARCELABLE.equals(mToken) || KW_FLATTENABLE.equals(mToken)) {
+                next();
+                document.mParcelables.add(expectName());
+                expect(";");
+            } else if (KW_ONEWAY.equals(mToken) || KW_INTERFACE.equals(mToken)) {
+                document.mInterfaces.add(parseInterface());
+            } else {
+                throw error(mTokenLine, "syntax error, expected parcelable or interface, found '"
+                        + mToken + "'");
+            }
+        }
+
+        return document;
+    }
+
+    @NonNull
+    AidlDocument parsePreprocessedDocument() throws AidlException {
+        AidlDocument document = new AidlDocument(mPath);
+
+        next();
+        while (mToken != null) {
+            if (KW_PARCELABLE.equals(mToken)) {
+                next();
+                document.mParcelables.add(expectName());
+            } else if (KW_INTERFACE.equals(mToken)) {
+                next();
+                document.mInterfaces.add(new Interface(null, false, expectName(),
+                        Lists.<Method>newArrayList()));
+            } else {
+                throw error(mTokenLine, "syntax error, expected parcelable or interface, found '"
+                        + mToken + "'");
+            }
+            expect(";");
+        }
+
+        return document;
+    }
+
+    @NonNull
+    private Interface parseInterface() throws AidlException {
+        String comment = mTokenComment;
+        boolean oneway = false;
+        if (KW_ONEWAY.equals(mToken)) {
+            oneway = true;
+            next();
+        }
+
+        expect(KW_INTERFACE);
+        Name name = expectIdentifier();
+        expect("{");
+
+        List<Method> methods = Lists.newArrayList();
+        while (mToken != null && !"}".equals(mToken)) {
+            methods.add(parseMethod());
+        }
+
+        expect("}");
+        if (";".equals(mToken)) {
+            next();
+        }
+
+        return new Interface(comment, oneway, name, methods);
+    }
+
+    @NonNull
+    private Method parseMethod() throws AidlException {
+        String comment = mTokenComment;
+        boolean oneway = false;
+        if (KW_ONEWAY.equals(mToken)) {
+            oneway = true;
+            next();
+        }
+
+        TypeRef returnType = parseType();
+        Name name = expectIdentifier();
+        expect("(");
+
+        List<Argument> arguments = Lists.newArrayList();
+        if (!")".equals(mToken)) {
+            while (true) {
+                arguments.add(parseArgument());
+                if (!",".equals(mToken)) {
+                    break;
+                }
+                next();
+            }
+        }
+
+        expect(")");
+        expect(";");
+
+        return new Method(comment, oneway, returnType, name, arguments);
+    }
+
+    @NonNull
+    private Argument parseArgument() throws AidlException {
+        Direction direction = Direction.NONE;
+        if (KW_IN.equals(mToken)) {
+            direction = Direction.IN;
+        } else if (KW_OUT.equals(mToken)) {
+            direction = Direction.OUT;
+        } else if (KW_INOUT.equals(mToken)) {
+            direction = Direction.INOUT;
+        }
+        if (direction != Direction.NONE) {
+            next();
+        }
+
+        TypeRef type = parseType();
+        Name name = expectIdentifier();
+        return new Argument(direction, type, name.mName);
+    }
+
+    @NonNull
+    private TypeRef parseType() throws AidlException {
+        Name name = expectName();
+
+        List<TypeRef> typeArguments = null;
+        if ("<".equals(mToken)) {
+            next();
+            typeArguments = Lists.newArrayList();
+            while (true) {
+                typeArguments.add(parseType());
+                if (!",".equals(mToken)) {
+                    break;
+                }
+                next();
+            }
+            expect(">");
+        }
+
+        boolean array = false;
+        if ("[".equals(mToken)) {
+            next();
+            expect("]");
+            array = true;
+        }
+
+        return new TypeRef(name, typeArguments, array);
+    }
+
+    @NonNull
+    private Name expectName() throws AidlException {
+        if (mToken == null || !isIdentifierStart(mToken.charAt(0))) {
+            throw unexpectedToken("a name");
+        }
+
+        Name name = new Name(mToken, mTokenLine);
+        next();
+        return name;
+    }
+
+    @NonNull
+    private Name expectIdentifier() throws AidlException {
+        Name name = expectName();
+        if (name.mName.indexOf('.') != -1) {
+            throw error(name.mLine, "syntax error, '" + name.mName + "' is not an identifier");
+        }
+        return name;
+    }
+
+    private void expect(@NonNull String token) throws AidlException {
+        if (!token.equals(mToken)) {
+            throw unexpectedToken("'" + token + "'");
+        }
+        next();
+    }
+
+    @NonNull
+    private AidlException unexpectedToken(@NonNull String expected) {
+        if (mToken == null) {
+            return error(mLine, "syntax error, expected " + expected + " at end of file");
+        }
+        return error(mTokenLine, "syntax error, expected " + expected + ", found '"
+                + mToken + "'");
+    }
+
+    @NonNull
+    private AidlException error(int line, @NonNull String message) {
+        return new AidlException(mPath, line, message);
+    }
+
+    /**
+     * Moves to the next token, collecting the comments found before it.
+     */
+    private void next() throws AidlException {
+        StringBuilder comment = null;
+
+        int length = mContent.length();
+        while (mPosition < length) {
+            char c = mContent.charAt(mPosition);
+            if (c == '\n') {
+                mLine++;
+                mPosition++;
+            } else if (Character.isWhitespace(c)) {
+                mPosition++;
+            } else if (mContent.startsWith("//", mPosition)) {
+                int end = mContent.indexOf('\n', mPosition);
+                if (end == -1) {
+                    end = length;
+                }
+                comment = appendComment(comment, mContent.substring(mPosition, end));
+                mPosition = end;
+            } else if (mContent.startsWith("/*", mPosition)) {
+                int end = mContent.indexOf("*/", mPosition + 2);
+                if (end == -1) {
+                    throw error(mLine, "unterminated comment");
+                }
+                end += 2;
+                String text = mContent.substring(mPosition, end);
+                comment = appendComment(comment, text);
+                for (int i = 0; i < text.length(); i++) {
+                    if (text.charAt(i) == '\n') {
+                        mLine++;
+                    }
+                }
+                mPosition = end;
+            } else {
+                break;
+            }
+        }
+
+        mTokenComment = comment != null ? comment.toString() : null;
+        mTokenLine = mLine;
+
+        if (mPosition == length) {
+            mToken = null;
+            return;
+        }
+
+        char c = mContent.charAt(mPosition);
+        if (isIdentifierStart(c)) {
+            int start = mPosition;
+            mPosition++;
+            while (mPosition < length) {
+                c = mContent.charAt(mPosition);
+                if (!Character.isJavaIdentifierPart(c) && c != '.') {
+                    break;
+                }
+                mPosition++;
+            }
+            mToken = mContent.substring(start, mPosition);
+        } else if ("{}()<>[];,".indexOf(c) != -1) {
+            mToken = String.valueOf(c);
+            mPosition++;
+        } else {
+            throw error(mLine, "syntax error, unexpected character '" + c + "'");
+        }
+    }
+
+    @NonNull
+    private static StringBuilder appendComment(@Nullable StringBuilder comment,
+            @NonNull String text) {
+        if (comment == null) {
+            return new StringBuilder(text);
+        }
+        return comment.append('\n').append(text);
+    }
+
+    private static boolean isIdentifierStart(char c) {
+        return Character.isJavaIdentifierStart(c);
+    }
+}
@@ -0,0 +1,561 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal.compiler.aidl;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+
+/**
+ * A type that can be used in an aidl interface, and the code marshalling it in a Parcel.
+ *
+ * The generated code is the code generated by the aidl tool.
+ */
+abstract class AidlType {
+
+    /**
+     * The code of a method being generated.
+     */
+    static final class Code {
+        @NonNull
+        private final StringBuilder mBuilder;
+        private boolean mClassLoaderDeclared = false;
+
+        Code(@NonNull StringBuilder builder) {
+            mBuilder = builder;
+        }
+
+        void line(@NonNull String line) {
+            mBuilder.append(line).append('\n');
+        }
+
+        void format(@NonNull String format, Object... args) {
+            line(String.format(format, args));
+        }
+
+        /**
+         * Returns the variable holding the class loader of the generated class, declaring it
+         * the first time it is needed in the method.
+         */
+        @NonNull
+        String getClassLoader() {
+            if (!mClassLoaderDeclared) {
+                line("java.lang.ClassLoader cl = (java.lang.ClassLoader)this.getClass().getClassLoader();");
+                mClassLoaderDeclared = true;
+            }
+            return "cl";
+        }
+    }
+
+    static final AidlType VOID = new BasicType("void", null, null, null);
+    static final AidlType BOOLEAN = new BasicType("boolean",
+            "%1$s.writeInt(((%2$s)?(1):(0)));", "%2$s = (0!=%1$s.readInt());", "Boolean");
+    static final AidlType BYTE = new BasicType("byte",
+            "%1$s.writeByte(%2$s);", "%2$s = %1$s.readByte();", "Byte");
+    static final AidlType CHAR = new BasicType("char",
+            "%1$s.writeInt(((int)%2$s));", "%2$s = (char)%1$s.readInt();", "Char");
+    static final AidlType INT = new BasicType("int",
+            "%1$s.writeInt(%2$s);", "%2$s = %1$s.readInt();", "Int");
+    static final AidlType LONG = new BasicType("long",
+            "%1$s.writeLong(%2$s);", "%2$s = %1$s.readLong();", "Long");
+    static final AidlType FLOAT = new BasicType("float",
+            "%1$s.writeFloat(%2$s);", "%2$s = %1$s.readFloat();", "Float");
+    static final AidlType DOUBLE = new BasicType("double",
+            "%1$s.writeDouble(%2$s);", "%2$s = %1$s.readDouble();", "Double");
+    static final AidlType STRING = new BasicType("java.lang.String",
+            "%1$s.writeString(%2$s);", "%2$s = %1$s.readString();", "String");
+    static final AidlType BINDER = new BasicType("android.os.IBinder",
+            "%1$s.writeStrongBinder(%2$s);", "%2$s = %1$s.readStrongBinder();", "Binder");
+    static final AidlType CHAR_SEQUENCE = new CharSequenceType();
+    static final AidlType MAP = new MapType();
+
+    /** The types known without being imported, by the names they can be used with. */
+    static final Map<String, AidlType> BUILT_IN_TYPES = ImmutableMap.<String, AidlType>builder()
+            .put("void", VOID)
+            .put("boolean", BOOLEAN)
+            .put("byte", BYTE)
+            .put("char", CHAR)
+            .put("int", INT)
+            .put("long", LONG)
+            .put("float", FLOAT)
+            .put("double", DOUBLE)
+            .put("String", STRING)
+            .put("java.lang.String", STRING)
+            .put("CharSequence", CHAR_SEQUENCE)
+            .put("java.lang.CharSequence", CHAR_SEQUENCE)
+            .put("IBinder", BINDER)
+            .put("android.os.IBinder", BINDER)
+            .put("Map", MAP)
+            .put("java.util.Map", MAP)
+            .build();
+
+    /** The names of the List type, which is resolved separately since it can be generic. */
+    static final String[] LIST_NAMES = { "List", "java.util.List" };
+
+    /**
+     * Returns the name of the type in the generated code.
+     */
+    @NonNull
+    abstract String getJavaName();
+
+    /**
+     * Returns whether the type can be an out or inout argument.
+     */
+    abstract boolean canBeOut();
+
+    /**
+     * Returns whether the type can be the element type of an array.
+     */
+    boolean canBeArrayElement() {
+        return false;
+    }
+
+    /**
+     * Returns whether the type can be the element type of a generic List.
+     */
+    boolean canBeListElement() {
+        return false;
+    }
+
+    /**
+     * Writes a value to a parcel.
+     */
+    abstract void write(@NonNull Code code, @NonNull String value, @NonNull String parcel,
+            @NonNull String flags);
+
+    /**
+     * Reads a value from a parcel into a variable.
+     */
+    abstract void create(@NonNull Code code, @NonNull String variable, @NonNull String parcel);
+
+    /**
+     * Reads the content of an out value from a parcel into an existing value.
+     */
+    void read(@NonNull Code code, @NonNull String value, @NonNull String parcel) {
+        throw new UnsupportedOperationException(getJavaName() + " cannot be an out type");
+    }
+
+    /**
+     * Returns the expression creating the value of an out argument, for types which are not
+     * arrays.
+     */
+    @NonNull
+    String newInstance() {
+        throw new UnsupportedOperationException(getJavaName() + " cannot be an out type");
+    }
+
+    /**
+     * Returns whether the type is an array type.
+     */
+    boolean isArray() {
+        return false;
+    }
+
+    /**
+     * Primitive types, String and IBinder.
+     */
+    private static final class BasicType extends AidlType {
+        @NonNull
+        private final String mJavaName;
+        @Nullable
+        private final String mWriteFormat;
+        @Nullable
+        private final String mCreateFormat;
+        /** The name of the type in the array methods of Parcel, or null if no arrays. */
+        @Nullable
+        private final String mArrayName;
+
+        BasicType(
+                @NonNull String javaName,
+                @Nullable String writeFormat,
+                @Nullable String createFormat,
+                @Nullable String arrayName) {
+            mJavaName = javaName;
+            mWriteFormat = writeFormat;
+            mCreateFormat = createFormat;
+            mArrayName = arrayName;
+        }
+
+        @NonNull
+        @Override
+        String getJavaName() {
+            return mJavaName;
+        }
+
+        @Override
+        boolean canBeOut() {
+            return false;
+        }
+
+        @Override
+        boolean canBeArrayElement() {
+            return mArrayName != null;
+        }
+
+        @Override
+        boolean canBeListElement() {
+            return this == STRING || this == BINDER;
+        }
+
+        @Override
+        void write(@NonNull Code code, @NonNull String value, @NonNull String parcel,
+                @NonNull String flags) {
+            //noinspection ConstantConditions
+            code.format(mWriteFormat, parcel, value);
+        }
+
+        @Override
+        void create(@NonNull Code code, @NonNull String variable, @NonNull String parcel) {
+            //noinspection ConstantConditions
+            code.format(mCreateFormat, parcel, variable);
+        }
+    }
+
+    private static final class CharSequenceType extends AidlType {
+        @NonNull
+        @Override
+        String getJavaName() {
+            return "java.lang.CharSequence";
+        }
+
+        @Override
+        boolean canBeOut() {
+            return false;
+        }
+
+        @Override
+        void write(@NonNull Code code, @NonNull String value, @NonNull String parcel,
+                @NonNull String flags) {
+            code.format("if ((%1$s!=null)) {", value);
+            code.format("%1$s.writeInt(1);", parcel);
+            code.format("android.text.TextUtils.writeToParcel(%1$s, %2$s, %3$s);",
+                    value, parcel, flags);
+            code.line("}");
+            code.line("else {");
+            code.format("%1$s.writeInt(0);", parcel);
+            code.line("}");
+        }
+
+        @Override
+        void create(@NonNull Code code, @NonNull String variable, @NonNull String parcel) {
+            code.format("if ((0!=%1$s.readInt())) {", parcel);
+            code.format("%1$s = android.text.TextUtils.CHAR_SEQUENCE_CREATOR.createFromParcel(%2$s);",
+                    variable, parcel);
+            code.line("}");
+            code.line("else {");
+            code.format("%1$s = null;", variable);
+            code.line("}");
+        }
+    }
+
+    /**
+     * An interface declared in an aidl file.
+     */
+    static final class InterfaceType extends AidlType {
+        @NonNull
+        private final String mQualifiedName;
+
+        InterfaceType(@NonNull String qualifiedName) {
+            mQualifiedName = qualifiedName;
+        }
+
+        @NonNull
+        @Override
+        String getJavaName() {
+            return mQualifiedName;
+        }
+
+        @Override
+        boolean canBeOut() {
+            return false;
+        }
+
+        @Override
+        void write(@NonNull Code code, @NonNull String value, @NonNull String parcel,
+                @NonNull String flags) {
+            code.format("%1$s.writeStrongBinder((((%2$s!=null))?(%2$s.asBinder()):(null)));",
+                    parcel, value);
+        }
+
+        @Override
+        void create(@NonNull Code code, @NonNull String variable, @NonNull String parcel) {
+            code.format("%1$s = %2$s.Stub.asInterface(%3$s.readStrongBinder());",
+                    variable, mQualifiedName, parcel);
+        }
+    }
+
+    /**
+     * A parcelable declared in an aidl file.
+     */
+    static final class ParcelableType extends AidlType {
+        @NonNull
+        private final String mQualifiedName;
+
+        ParcelableType(@NonNull String qualifiedName) {
+            mQualifiedName = qualifiedName;
+        }
+
+        @NonNull
+        @Override
+        String getJavaName() {
+            return mQualifiedName;
+        }
+
+        @Override
+        boolean canBeOut() {
+            return true;
+        }
+
+        @Override
+        boolean canBeArrayElement() {
+            return true;
+        }
+
+        @Override
+        boolean canBeListElement() {
+            return true;
+        }
+
+        @NonNull
+        String getCreator() {
+            return mQualifiedName + ".CREATOR";
+        }
+
+        @Override
+        void write(@NonNull Code code, @NonNull String value, @NonNull String parcel,
+                @NonNull String flags) {
+            code.format("if ((%1$s!=null)) {", value);
+            code.format("%1$s.writeInt(1);", parcel);
+            code.format("%1$s.writeToParcel(%2$s, %3$s);", value, parcel, flags);
+            code.line("}");
+            code.line("else {");
+            code.format("%1$s.writeInt(0);", parcel);
+            code.line("}");
+        }
+
+        @Override
+        void create(@NonNull Code code, @NonNull String variable, @NonNull String parcel) {
+            code.format("if ((0!=%1$s.readInt())) {", parcel);
+            code.format("%1$s = %2$s.createFromParcel(%3$s);", variable, getCreator(), parcel);
+            code.line("}");
+            code.line("else {");
+            code.format("%1$s = null;", variable);
+            code.line("}");
+        }
+
+        @Override
+        void read(@NonNull Code code, @NonNull String value, @NonNull String parcel) {
+            code.format("if ((0!=%1$s.readInt())) {", parcel);
+            code.format("%1$s.readFromParcel(%2$s);", value, parcel);
+            code.line("}");
+        }
+
+        @NonNull
+        @Override
+        String newInstance() {
+            return "new " + mQualifiedName + "()";
+        }
+    }
+
+    /**
+     * An array of basic types or parcelables.
+     */
+    static final class ArrayType extends AidlType {
+        @NonNull
+        private final AidlType mElementType;
+
+        ArrayType(@NonNull AidlType elementType) {
+            mElementType = elementType;
+        }
+
+        @NonNull
+        AidlType getElementType() {
+            return mElementType;
+        }
+
+        @NonNull
+        @Override
+        String getJavaName() {
+            return mElementType.getJavaName() + "[]";
+        }
+
+        @Override
+        boolean canBeOut() {
+            return true;
+        }
+
+        @Override
+        boolean isArray() {
+            return true;
+        }
+
+        @Override
+        void write(@NonNull Code code, @NonNull String value, @NonNull String parcel,
+                @NonNull String flags) {
+            if (mElementType instanceof ParcelableType) {
+                code.format("%1$s.writeTypedArray(%2$s, %3$s);", parcel, value, flags);
+            } else {
+                code.format("%1$s.write%2$sArray(%3$s);", parcel, getArrayName(), value);
+            }
+        }
+
+        @Override
+        void create(@NonNull Code code, @NonNull String variable, @NonNull String parcel) {
+            if (mElementType instanceof ParcelableType) {
+                code.format("%1$s = %2$s.createTypedArray(%3$s);", variable, parcel,
+                        ((ParcelableType) mElementType).getCreator());
+            } else {
+                code.format("%1$s = %2$s.create%3$sArray();", variable, parcel, getArrayName());
+            }
+        }
+
+        @Override
+        void read(@NonNull Code code, @NonNull String value, @NonNull String parcel) {
+            if (mElementType instanceof ParcelableType) {
+                code.format("%1$s.readTypedArray(%2$s, %3$s);", parcel, value,
+                        ((ParcelableType) mElementType).getCreator());
+            } else {
+                code.format("%1$s.read%2$sArray(%3$s);", parcel, getArrayName(), value);
+            }
+        }
+
+        @NonNull
+        private String getArrayName() {
+            //noinspection ConstantConditions
+            return ((BasicType) mElementType).mArrayName;
+        }
+    }
+
+    /**
+     * A List, either raw or with a String, IBinder or parcelable type argument.
+     */
+    static final class ListType extends AidlType {
+        /** The type of the elements, or null for a raw List. */
+        @Nullable
+        private final AidlType mElementType;
+
+        ListType(@Nullable AidlType elementType) {
+            mElementType = elementType;
+        }
+
+        @NonNull
+        @Override
+        String getJavaName() {
+            if (mElementType == null) {
+                return "java.util.List";
+            }
+            return "java.util.List<" + mElementType.getJavaName() + ">";
+        }
+
+        @Override
+        boolean canBeOut() {
+            return true;
+        }
+
+        @Override
+        void write(@NonNull Code code, @NonNull String value, @NonNull String parcel,
+                @NonNull String flags) {
+            if (mElementType == null) {
+                code.format("%1$s.writeList(%2$s);", parcel, value);
+            } else if (mElementType instanceof ParcelableType) {
+                code.format("%1$s.writeTypedList(%2$s);", parcel, value);
+            } else {
+                code.format("%1$s.write%2$sList(%3$s);", parcel, getListName(), value);
+            }
+        }
+
+        @Override
+        void create(@NonNull Code code, @NonNull String variable, @NonNull String parcel) {
+            if (mElementType == null) {
+                String classLoader = code.getClassLoader();
+                code.format("%1$s = %2$s.readArrayList(%3$s);", variable, parcel, classLoader);
+            } else if (mElementType instanceof ParcelableType) {
+                code.format("%1$s = %2$s.createTypedArrayList(%3$s);", variable, parcel,
+                        ((ParcelableType) mElementType).getCreator());
+            } else {
+                code.format("%1$s = %2$s.create%3$sArrayList();", variable, parcel,
+                        getListName());
+            }
+        }
+
+        @Override
+        void read(@NonNull Code code, @NonNull String value, @NonNull String parcel) {
+            if (mElementType == null) {
+                String classLoader = code.getClassLoader();
+                code.format("%1$s.readList(%2$s, %3$s);", parcel, value, classLoader);
+            } else if (mElementType instanceof ParcelableType) {
+                code.format("%1$s.readTypedList(%2$s, %3$s);", parcel, value,
+                        ((ParcelableType) mElementType).getCreator());
+            } else {
+                code.format("%1$s.read%2$sList(%3$s);", parcel, getListName(), value);
+            }
+        }
+
+        @NonNull
+        @Override
+        String newInstance() {
+            if (mElementType == null) {
+                return "new java.util.ArrayList()";
+            }
+            return "new java.util.ArrayList<" + mElementType.getJavaName() + ">()";
+        }
+
+        @NonNull
+        private String getListName() {
+            return mElementType == STRING ? "String" : "Binder";
+        }
+    }
+
+    private static final class MapType extends AidlType {
+        @NonNull
+        @Override
+        String getJavaName() {
+            return "java.util.Map";
+        }
+
+        @Override
+        boolean canBeOut() {
+            return true;
+        }
+
+        @Override
+        void write(@NonNull Code code, @NonNull String value, @NonNull String parcel,
+                @NonNull String flags) {
+            code.format("%1$s.writeMap(%2$s);", parcel, value);
+        }
+
+        @Override
+        void create(@NonNull Code code, @NonNull String variable, @NonNull String parcel) {
+            String classLoader = code.getClassLoader();
+            code.format("%1$s = %2$s.readHashMap(%3$s);", variable, parcel, classLoader);
+        }
+
+        @Override
+        void read(@NonNull Code code, @NonNull String value, @NonNull String parcel) {
+            String classLoader = code.getClassLoader();
+            code.format("%1$s.readMap(%2$s, %3$s);", parcel, value, classLoader);
+        }
+
+        @NonNull
+        @Override
+        String newInstance() {
+            return "new java.util.HashMap()";
+        }
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal.compiler.aidl;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.builder.internal.compiler.aidl.AidlDocument.Argument;
+import com.android.builder.internal.compiler.aidl.AidlDocument.Interface;
+import com.android.builder.internal.compiler.aidl.AidlDocument.Method;
+import com.android.builder.internal.compiler.aidl.AidlDocument.TypeRef;
+import com.android.builder.internal.compiler.aidl.AidlType.Code;
+
+import java.util.List;
+
+/**
+ * Generates the Java code of a resolved aidl interface.
+ *
+ * The code is the same as the code generated by the aidl tool, so that switching between
+ * the two does not change the generated sources.
+ */
+class JavaGenerator {
+
+    private static final String PARCELABLE_WRITE_RETURN_VALUE =
+            "android.os.Parcelable.PARCELABLE_WRITE_RETURN_VALUE";
+
+    @NonNull
+    private final AidlDocument mDocument;
+    @NonNull
+    private final Interface mInterface;
+    @NonNull
+    private final String mQualifiedName;
+    @NonNull
+    private final StringBuilder mBuilder = new StringBuilder();
+    @NonNull
+    private final Code mCode = new Code(mBuilder);
+
+    JavaGenerator(@NonNull AidlDocument document, @NonNull Interface anInterface) {
+        mDocument = document;
+        mInterface = anInterface;
+        mQualifiedName = document.getQualifiedName(anInterface.mName.mName);
+    }
+
+    /**
+     * Generates the Java file content. All the types used by the interface must be resolved.
+     */
+    @NonNull
+    String generate() {
+        mCode.line("/*");
+        mCode.line(" * This file is auto-generated.  DO NOT MODIFY.");
+        mCode.line(" * Original file: " + mDocument.mPath.replace("\\", "\\\\"));
+        mCode.line(" */");
+        if (mDocument.mPackage != null) {
+            mCode.line("package " + mDocument.mPackage + ";");
+        }
+
+        writeComment(mInterface.mComment);
+        mCode.format("public interface %1$s extends android.os.IInterface", mInterface.mName.mName);
+        mCode.line("{");
+        writeStub();
+
+        for (Method method : mInterface.mMethods) {
+            writeComment(method.mComment);
+            mCode.line("public " + getSignature(method) + ";");
+        }
+        mCode.line("}");
+
+        return mBuilder.toString();
+    }
+
+    private void writeStub() {
+        mCode.line("/** Local-side IPC implementation stub class. */");
+        mCode.format(
+                "public static abstract class Stub extends android.os.Binder implements %1$s",
+                mQualifiedName);
+        mCode.line("{");
+        mCode.format("private static final java.lang.String DESCRIPTOR = \"%1$s\";",
+                mQualifiedName);
+        mCode.line("/** Construct the stub at attach it to the interface. */");
+        mCode.line("public Stub()");
+        mCode.line("{");
+        mCode.line("this.attachInterface(this, DESCRIPTOR);");
+        mCode.line("}");
+
+        mCode.line("/**");
+        mCode.format(" * Cast an IBinder object into an %1$s interface,", mQualifiedName);
+        mCode.line(" * generating a proxy if needed.");
+        mCode.line(" */");
+        mCode.format("public static %1$s asInterface(android.os.IBinder obj)", mQualifiedName);
+        mCode.line("{");
+        mCode.line("if ((obj==null)) {");
+        mCode.line("return null;");
+        mCode.line("}");
+        mCode.line("android.os.IInterface iin = obj.queryLocalInterface(DESCRIPTOR);");
+        mCode.format("if (((iin!=null)&&(iin instanceof %1$s))) {", mQualifiedName);
+        mCode.format("return ((%1$s)iin);", mQualifiedName);
+        mCode.line("}");
+        mCode.format("return new %1$s.Stub.Proxy(obj);", mQualifiedName);
+        mCode.line("}");
+
+        mCode.line("@Override public android.os.IBinder asBinder()");
+        mCode.line("{");
+        mCode.line("return this;");
+        mCode.line("}");
+
+        mCode.line("@Override public boolean onTransact(int code, android.os.Parcel data, "
+                + "android.os.Parcel reply, int flags) throws android.os.RemoteException");
+        mCode.line("{");
+        mCode.line("switch (code)");
+        mCode.line("{");
+        mCode.line("case INTERFACE_TRANSACTION:");
+        mCode.line("{");
+        mCode.line("reply.writeString(DESCRIPTOR);");
+        mCode.line("return true;");
+        mCode.line("}");
+        for (Method method : mInterface.mMethods) {
+            writeStubCase(method);
+        }
+        mCode.line("}");
+        mCode.line("return super.onTransact(code, data, reply, flags);");
+        mCode.line("}");
+
+        writeProxy();
+
+        List<Method> methods = mInterface.mMethods;
+        for (int i = 0, n = methods.size(); i < n; i++) {
+            mCode.format(
+                    "static final int TRANSACTION_%1$s = (android.os.IBinder.FIRST_CALL_TRANSACTION + %2$d);",
+                    methods.get(i).mName.mName, i);
+        }
+        mCode.line("}");
+    }
+
+    private void writeStubCase(@NonNull Method method) {
+        Code code = new Code(mBuilder);
+        boolean oneway = isOneway(method);
+
+        code.format("case TRANSACTION_%1$s:", method.mName.mName);
+        code.line("{");
+        code.line("data.enforceInterface(DESCRIPTOR);");
+
+        List<Argument> arguments = method.mArguments;
+        for (int i = 0, n = arguments.size(); i < n; i++) {
+            Argument argument = arguments.get(i);
+            AidlType type = getType(argument.mType);
+            String variable = "_arg" + i;
+
+            code.format("%1$s %2$s;", type.getJavaName(), variable);
+            if (argument.mDirection.isIn()) {
+                type.create(code, variable, "data");
+            } else if (type.isArray()) {
+                AidlType elementType = ((AidlType.ArrayType) type).getElementType();
+                code.format("int %1$s_length = data.readInt();", variable);
+                code.format("if ((%1$s_length<0)) {", variable);
+                code.format("%1$s = null;", variable);
+                code.line("}");
+                code.line("else {");
+                code.format("%1$s = new %2$s[%1$s_length];", variable,
+                        elementType.getJavaName());
+                code.line("}");
+            } else {
+                code.format("%1$s = %2$s;", variable, type.newInstance());
+            }
+        }
+
+        StringBuilder call = new StringBuilder();
+        AidlType returnType = getType(method.mReturnType);
+        if (returnType != AidlType.VOID) {
+            call.append(returnType.getJavaName()).append(" _result = ");
+        }
+        call.append("this.").append(method.mName.mName).append('(');
+        for (int i = 0, n = arguments.size(); i < n; i++) {
+            if (i > 0) {
+                call.append(", ");
+            }
+            call.append("_arg").append(i);
+        }
+        call.append(");");
+        code.line(call.toString());
+
+        if (!oneway) {
+            code.line("reply.writeNoException();");
+            if (returnType != AidlType.VOID) {
+                returnType.write(code, "_result", "reply", PARCELABLE_WRITE_RETURN_VALUE);
+            }
+            for (int i = 0, n = arguments.size(); i < n; i++) {
+                Argument argument = arguments.get(i);
+                if (argument.mDirection.isOut()) {
+                    getType(argument.mType).write(code, "_arg" + i, "reply",
+                            PARCELABLE_WRITE_RETURN_VALUE);
+                }
+            }
+        }
+
+        code.line("return true;");
+        code.line("}");
+    }
+
+    private void writeProxy() {
+        mCode.format("private static class Proxy implements %1$s", mQualifiedName);
+        mCode.line("{");
+        mCode.line("private android.os.IBinder mRemote;");
+        mCode.line("Proxy(android.os.IBinder remote)");
+        mCode.line("{");
+        mCode.line("mRemote = remote;");
+        mCode.line("}");
+        mCode.line("@Override public android.os.IBinder asBinder()");
+        mCode.line("{");
+        mCode.line("return mRemote;");
+        mCode.line("}");
+        mCode.line("public java.lang.String getInterfaceDescriptor()");
+        mCode.line("{");
+        mCode.line("return DESCRIPTOR;");
+        mCode.line("}");
+
+        for (Method method : mInterface.mMethods) {
+            writeProxyMethod(method);
+        }
+
+        mCode.line("}");
+    }
+
+    private void writeProxyMethod(@NonNull Method method) {
+        Code code = new Code(mBuilder);
+        boolean oneway = isOneway(method);
+        AidlType returnType = getType(method.mReturnType);
+        boolean hasResult = returnType != AidlType.VOID;
+
+        writeComment(method.mComment);
+        code.line("@Override public " + getSignature(method));
+        code.line("{");
+        code.line("android.os.Parcel _data = android.os.Parcel.obtain();");
+        if (!oneway) {
+            code.line("android.os.Parcel _reply = android.os.Parcel.obtain();");
+        }
+        if (hasResult) {
+            code.format("%1$s _result;", returnType.getJavaName());
+        }
+        code.line("try {");
+        code.line("_data.writeInterfaceToken(DESCRIPTOR);");
+
+        for (Argument argument : method.mArguments) {
+            AidlType type = getType(argument.mType);
+            if (argument.mDirection.isIn()) {
+                type.write(code, argument.mName, "_data", "0");
+            } else if (type.isArray()) {
+                code.format("if ((%1$s==null)) {", argument.mName);
+                code.line("_data.writeInt(-1);");
+                code.line("}");
+                code.line("else {");
+                code.format("_data.writeInt(%1$s.length);", argument.mName);
+                code.line("}");
+            }
+        }
+
+        if (oneway) {
+            code.format(
+                    "mRemote.transact(Stub.TRANSACTION_%1$s, _data, null, android.os.IBinder.FLAG_ONEWAY);",
+                    method.mName.mName);
+        } else {
+            code.format("mRemote.transact(Stub.TRANSACTION_%1$s, _data, _reply, 0);",
+                    method.mName.mName);
+            code.line("_reply.readException();");
+            if (hasResult) {
+                returnType.create(code, "_result", "_reply");
+            }
+            for (Argument argument : method.mArguments) {
+                if (argument.mDirection.isOut()) {
+                    getType(argument.mType).read(code, argument.mName, "_reply");
+                }
+            }
+        }
+
+        code.line("}");
+        code.line("finally {");
+        if (!oneway) {
+            code.line("_reply.recycle();");
+        }
+        code.line("_data.recycle();");
+        code.line("}");
+        if (hasResult) {
+            code.line("return _result;");
+        }
+        code.line("}");
+    }
+
+    @NonNull
+    private static String getSignature(@NonNull Method method) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(getType(method.mReturnType).getJavaName())
+                .append(' ').append(method.mName.mName).append('(');
+        for (int i = 0, n = method.mArguments.size(); i < n; i++) {
+            Argument argument = method.mArguments.get(i);
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(getType(argument.mType).getJavaName()).append(' ').append(argument.mName);
+        }
+        sb.append(") throws android.os.RemoteException");
+        return sb.toString();
+    }
+
+    private boolean isOneway(@NonNull Method method) {
+        return mInterface.mOneway || method.mOneway;
+    }
+
+    private void writeComment(@Nullable String comment) {
+        if (comment != null) {
+            mCode.line(comment);
+        }
+    }
+
+    @NonNull
+    private static AidlType getType(@NonNull TypeRef typeRef) {
+        if (typeRef.mResolvedType == null) {
+            throw new IllegalStateException("Unresolved type " + typeRef);
+        }
+        return typeRef.mResolvedType;
+    }
+}
@@ -21,10 +21,13 @@ import com.android.annotations.Nullable;
 import com.android.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
-import com.google.common.io.Files;
+import com.google.common.io.Closeables;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.List;
 
 /**
@@ -43,6 +46,23 @@ public class DependencyData {
     DependencyData() {
     }
 
+    /**
+     * Creates the dependency information of a compiled file, for compilers running in process
+     * which do not write dependency files.
+     *
+     * @param mainFile the compiled file.
+     * @param secondaryFiles the other files the compilation depends on.
+     * @param outputFiles the generated files.
+     */
+    public DependencyData(
+            @NonNull String mainFile,
+            @NonNull List<String> secondaryFiles,
+            @NonNull List<String> outputFiles) {
+        mMainFile = mainFile;
+        mSecondaryFiles.addAll(secondaryFiles);
+        mOutputFiles.addAll(outputFiles);
+    }
+
     @NonNull
     public String getMainFile() {
         return mMainFile;
@@ -78,80 +98,183 @@ public class DependencyData {
     @Nullable
     public static DependencyData parseDependencyFile(@NonNull File dependencyFile)
             throws IOException {
+        return parseDependencyFile(dependencyFile, new PathTable());
+    }
+
+    /**
+     * Parses the given dependency file and returns the parsed data.
+     *
+     * The file is read in a single pass without creating a String per line, and the paths
+     * are interned in the given table so that the paths shared by several dependency files
+     * are only kept once.
+     *
+     * @param dependencyFile the dependency file
+     * @param pathTable the table in which to intern the paths.
+     */
+    @Nullable
+    public static DependencyData parseDependencyFile(
+            @NonNull File dependencyFile,
+            @NonNull PathTable pathTable) throws IOException {
         // first check if the dependency file is here.
         if (!dependencyFile.isFile()) {
             return null;
         }
 
-        // Read in our dependency file
-        List<String> content = Files.readLines(dependencyFile, Charsets.UTF_8);
-        return processDependencyData(content);
+        Parser parser = new Parser(pathTable);
+        char[] buffer = new char[BUFFER_SIZE];
+
+        Reader reader = new InputStreamReader(new FileInputStream(dependencyFile), Charsets.UTF_8);
+        try {
+            int count;
+            while ((count = reader.read(buffer)) != -1) {
+                parser.process(buffer, count);
+            }
+        } finally {
+            Closeables.closeQuietly(reader);
+        }
+
+        return parser.finish();
     }
 
+    private static final int BUFFER_SIZE = 8192;
+
     private static enum ParseMode {
         OUTPUT, MAIN, SECONDARY
     }
 
-    @VisibleForTesting
-    @Nullable
-    static DependencyData processDependencyData(@NonNull List<String> content) {
-        // The format is technically:
-        // output1 output2 [...]: dep1 dep2 [...]
-        // However, the current tools generating those files guarantee that each file path
-        // is on its own line, making it simpler to handle windows paths as well as path
-        // with spaces in them.
+    /**
+     * Incremental parser of the content of a dependency file.
+     *
+     * The format is technically:
+     * output1 output2 [...]: dep1 dep2 [...]
+     * However, the current tools generating those files guarantee that each file path
+     * is on its own line, making it simpler to handle windows paths as well as path
+     * with spaces in them.
+     */
+    private static final class Parser {
+        @NonNull
+        private final PathTable mPathTable;
+        @NonNull
+        private final DependencyData mData = new DependencyData();
+        @NonNull
+        private ParseMode mParseMode = ParseMode.OUTPUT;
+
+        /** The characters of the current line, reused for all the lines. */
+        @NonNull
+        private char[] mLine = new char[256];
+        private int mLineLength = 0;
 
-        DependencyData data = new DependencyData();
+        Parser(@NonNull PathTable pathTable) {
+            mPathTable = pathTable;
+        }
 
-        ParseMode parseMode = ParseMode.OUTPUT;
+        void process(@NonNull char[] chars, int count) {
+            for (int i = 0; i < count; i++) {
+                char c = chars[i];
+                if (c == '\n') {
+                    processLine();
+                    mLineLength = 0;
+                } else {
+                    if (mLineLength == mLine.length) {
+                        char[] line = new char[mLine.length * 2];
+                        System.arraycopy(mLine, 0, line, 0, mLineLength);
+                        mLine = line;
+                    }
+                    mLine[mLineLength++] = c;
+                }
+            }
+        }
 
-        for (String line : content) {
-            line = line.trim();
+        @Nullable
+        DependencyData finish() {
+            if (mLineLength > 0) {
+                processLine();
+                mLineLength = 0;
+            }
+
+            if (mData.getMainFile() == null) {
+                return null;
+            }
+
+            return mData;
+        }
+
+        private void processLine() {
+            int start = 0;
+            int end = mLineLength;
+
+            // trim, the same way as String.trim()
+            while (start < end && mLine[start] <= ' ') {
+                start++;
+            }
+            while (end > start && mLine[end - 1] <= ' ') {
+                end--;
+            }
 
             // check for separator at the beginning
-            if (line.startsWith(":")) {
-                parseMode = ParseMode.MAIN;
-                line = line.substring(1).trim();
+            if (start < end && mLine[start] == ':') {
+                mParseMode = ParseMode.MAIN;
+                start++;
+                while (start < end && mLine[start] <= ' ') {
+                    start++;
+                }
             }
 
-            ParseMode nextMode = parseMode;
+            ParseMode nextMode = mParseMode;
 
             // remove the \ at the end.
-            if (line.endsWith("\\")) {
-                line = line.substring(0, line.length() - 1).trim();
+            if (end > start && mLine[end - 1] == '\\') {
+                end--;
+                while (end > start && mLine[end - 1] <= ' ') {
+                    end--;
+                }
             }
 
             // detect : at the end indicating a parse mode change *after* we process this line.
-            if (line.endsWith(":")) {
+            if (end > start && mLine[end - 1] == ':') {
                 nextMode = ParseMode.MAIN;
-                line = line.substring(0, line.length() - 1).trim();
+                end--;
+                while (end > start && mLine[end - 1] <= ' ') {
+                    end--;
+                }
             }
 
-            if (!line.isEmpty()) {
-                switch (parseMode) {
+            if (end > start) {
+                String path = mPathTable.intern(mLine, start, end);
+                switch (mParseMode) {
                     case OUTPUT:
-                        data.addOutputFile(line);
+                        mData.addOutputFile(path);
                         break;
                     case MAIN:
-                        data.setMainFile(line);
+                        mData.setMainFile(path);
                         nextMode = ParseMode.SECONDARY;
                         break;
                     case SECONDARY:
-                        data.addSecondaryFile(line);
+                        mData.addSecondaryFile(path);
                         break;
                 }
             }
 
-            parseMode = nextMode;
+            mParseMode = nextMode;
         }
+    }
 
-        if (data.getMainFile() == null) {
-            return null;
+    @VisibleForTesting
+    @Nullable
+    static DependencyData processDependencyData(@NonNull List<String> content) {
+        Parser parser = new Parser(new PathTable());
+
+        for (String line : content) {
+            char[] chars = line.toCharArray();
+            parser.process(chars, chars.length);
+            parser.process(NEW_LINE, 1);
         }
 
-        return data;
+        return parser.finish();
     }
 
+    private static final char[] NEW_LINE = new char[] { '\n' };
+
     @Override
     public String toString() {
         return "DependencyData{" +
@@ -19,19 +19,29 @@ package com.android.builder.internal.incremental;
 import com.android.annotations.NonNull;
 import com.android.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
-import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Multimap;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
 import com.google.common.io.Closeables;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
 
 /**
  *
@@ -40,11 +50,32 @@ import java.util.Map;
  * The format is binary and follows the following format:
  *
  * (Header Tag)(version number: int)
+ * (prefix count: int)[(prefix)...]
+ * (path count: int)[(prefix index: int)(name)...]
+ * (data count: int)
+ * [(main file index: int)
+ *  (2ndary file count: int)[(2ndary file index: int)...]
+ *  (output count: int)[(output file index: int)...]...]
+ * (2ndary file count: int)
+ * [(2ndary file index: int)(main file count: int)[(main file index: int)...]...]
+ * (CRC32 of all the previous bytes: int)
+ *
+ * Each distinct path is written once, split between the folder prefix it shares with other
+ * paths and its name. Strings are written as (size in int)(byte array, using UTF8 encoding).
+ *
+ * The last section is the reverse index of the secondary files, giving the main files to
+ * recompile when a secondary file changes without going through all the data.
+ *
+ * The file is written to a temporary file which is then renamed, and the CRC is checked when
+ * loading, so that an interrupted save is detected instead of loading partial data.
+ *
+ * Version 2 files, which have the same format without the reverse index, and version 1 files
+ * can still be loaded. The format of version 1 is:
+ *
+ * (Header Tag)(version number: int)
  * (Start Tag)(Main File)[(2ndary Tag)(2ndary File)...][(Output tag)(output file)...]
  * (Start Tag)(Main File)[(2ndary Tag)(2ndary File)...][(Output tag)(output file)...]
  * ...
- *
- * All files are written as (size in int)(byte array, using UTF8 encoding).
  */
 public class DependencyDataStore {
 
@@ -54,34 +85,83 @@ public class DependencyDataStore {
     private static final byte TAG_OUTPUT = 0x73;
     private static final byte TAG_END = 0x77;
 
-    private static final int CURRENT_VERSION = 1;
+    private static final int VERSION_1 = 1;
+    private static final int VERSION_2 = 2;
+    private static final int CURRENT_VERSION = 3;
+
+    private static final int BUFFER_SIZE = 16384;
 
     private final Map<String, DependencyData> mMainFileMap = Maps.newHashMap();
+    /** The main files depending on each secondary file. */
+    private final SetMultimap<String, String> mReverseIndex = LinkedHashMultimap.create();
+    private final PathTable mPathTable = new PathTable();
 
     public DependencyDataStore() {
 
     }
 
+    /**
+     * Returns the table in which the paths of the store are interned. Dependency files parsed
+     * for this store should use it as well.
+     *
+     * @see DependencyData#parseDependencyFile(java.io.File, PathTable)
+     */
+    @NonNull
+    public PathTable getPathTable() {
+        return mPathTable;
+    }
+
     public void addData(List<DependencyData> dataList) {
         for (DependencyData data : dataList) {
-            mMainFileMap.put(data.getMainFile(), data);
+            addData(data);
         }
     }
 
     public void addData(DependencyData data) {
-        mMainFileMap.put(data.getMainFile(), data);
+        DependencyData previousData = mMainFileMap.put(data.getMainFile(), data);
+        if (previousData != null) {
+            removeFromIndex(previousData);
+        }
+
+        for (String path : data.getSecondaryFiles()) {
+            mReverseIndex.put(path, data.getMainFile());
+        }
     }
 
     public void remove(DependencyData data) {
-        mMainFileMap.remove(data.getMainFile());
+        DependencyData previousData = mMainFileMap.remove(data.getMainFile());
+        if (previousData != null) {
+            removeFromIndex(previousData);
+        }
     }
 
     public void updateAll(List<DependencyData> dataList) {
-        for (DependencyData data : dataList) {
-            mMainFileMap.put(data.getMainFile(), data);
+        addData(dataList);
+    }
+
+    private void removeFromIndex(@NonNull DependencyData data) {
+        for (String path : data.getSecondaryFiles()) {
+            mReverseIndex.remove(path, data.getMainFile());
         }
     }
 
+    /**
+     * Returns the main files that must be recompiled when a file changes: the file itself if
+     * it is a main file, and the main files depending on it.
+     *
+     * @param path the path of the changed file.
+     * @return the main files, each listed once.
+     */
+    @NonNull
+    public Set<String> getImpactedMainFiles(@NonNull String path) {
+        Set<String> mainFiles = Sets.newLinkedHashSet();
+        if (mMainFileMap.containsKey(path)) {
+            mainFiles.add(path);
+        }
+        mainFiles.addAll(mReverseIndex.get(path));
+        return mainFiles;
+    }
+
     @NonNull
     public Collection<DependencyData> getData() {
         return mMainFileMap.values();
@@ -105,153 +185,332 @@ public class DependencyDataStore {
     /**
      * Saves the dependency data to a given file.
      *
+     * The data is written to a temporary file first, which then replaces the given file.
+     *
      * @param file the file to save the data to.
      * @throws IOException
      */
     public void saveTo(File file) throws IOException {
-        FileOutputStream fos = new FileOutputStream(file);
+        // index the paths and their prefixes.
+        Map<String, Integer> prefixIndices = Maps.newLinkedHashMap();
+        Map<String, Integer> pathIndices = Maps.newLinkedHashMap();
+        for (DependencyData data : getData()) {
+            indexPath(data.getMainFile(), prefixIndices, pathIndices);
+            for (String path : data.getSecondaryFiles()) {
+                indexPath(path, prefixIndices, pathIndices);
+            }
+            for (String path : data.getOutputFiles()) {
+                indexPath(path, prefixIndices, pathIndices);
+            }
+        }
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        CheckedOutputStream checkedStream = new CheckedOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE),
+                new CRC32());
+        DataOutputStream out = new DataOutputStream(checkedStream);
 
+        boolean success = false;
         try {
-            fos.write(TAG_HEADER);
-            writeInt(fos, CURRENT_VERSION);
+            out.writeByte(TAG_HEADER);
+            out.writeInt(CURRENT_VERSION);
+
+            out.writeInt(prefixIndices.size());
+            for (String prefix : prefixIndices.keySet()) {
+                writeString(out, prefix);
+            }
+
+            out.writeInt(pathIndices.size());
+            for (String path : pathIndices.keySet()) {
+                int prefixLength = getPrefixLength(path);
+                out.writeInt(prefixLength > 0 ?
+                        prefixIndices.get(path.substring(0, prefixLength)) : -1);
+                writeString(out, path.substring(prefixLength));
+            }
 
+            out.writeInt(getData().size());
             for (DependencyData data : getData()) {
-                fos.write(TAG_START);
-                writePath(fos, data.getMainFile());
-                for (String path : data.getSecondaryFiles()) {
-                    fos.write(TAG_2NDARY_FILE);
-                    writePath(fos, path);
-                }
+                out.writeInt(pathIndices.get(data.getMainFile()));
+                writePathIndices(out, data.getSecondaryFiles(), pathIndices);
+                writePathIndices(out, data.getOutputFiles(), pathIndices);
+            }
 
-                for (String path : data.getOutputFiles()) {
-                    fos.write(TAG_OUTPUT);
-                    writePath(fos, path);
-                }
+            Map<String, Collection<String>> reverseIndex = mReverseIndex.asMap();
+            out.writeInt(reverseIndex.size());
+            for (Map.Entry<String, Collection<String>> entry : reverseIndex.entrySet()) {
+                out.writeInt(pathIndices.get(entry.getKey()));
+                writePathIndices(out, entry.getValue(), pathIndices);
             }
+
+            // the CRC of everything written so far.
+            out.writeInt((int) checkedStream.getChecksum().getValue());
+            out.flush();
+            success = true;
         } finally {
-            Closeables.closeQuietly(fos);
+            Closeables.close(out, !success /*swallowIOException*/);
+            if (!success) {
+                tempFile.delete();
+            }
+        }
+
+        // File.renameTo does not replace an existing file on all platforms.
+        if (!tempFile.renameTo(file)) {
+            file.delete();
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete();
+                throw new IOException("Failed to rename " + tempFile + " to " + file);
+            }
         }
     }
 
-    private static class ReusableBuffer {
-        byte[] intBuffer = new byte[4];
-        byte[] pathBuffer = null;
+    private static void indexPath(
+            @NonNull String path,
+            @NonNull Map<String, Integer> prefixIndices,
+            @NonNull Map<String, Integer> pathIndices) {
+        if (pathIndices.containsKey(path)) {
+            return;
+        }
+        pathIndices.put(path, pathIndices.size());
+
+        int prefixLength = getPrefixLength(path);
+        if (prefixLength > 0) {
+            String prefix = path.substring(0, prefixLength);
+            if (!prefixIndices.containsKey(prefix)) {
+                prefixIndices.put(prefix, prefixIndices.size());
+            }
+        }
+    }
+
+    /**
+     * Returns the length of the folder part of a path, including the last separator. Both
+     * separators are handled since the paths may come from dependency files written on
+     * Windows.
+     */
+    private static int getPrefixLength(@NonNull String path) {
+        return Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\')) + 1;
+    }
+
+    private static void writePathIndices(
+            @NonNull DataOutputStream out,
+            @NonNull Collection<String> paths,
+            @NonNull Map<String, Integer> pathIndices) throws IOException {
+        out.writeInt(paths.size());
+        for (String path : paths) {
+            out.writeInt(pathIndices.get(path));
+        }
+    }
+
+    private static void writeString(@NonNull DataOutputStream out, @NonNull String value)
+            throws IOException {
+        byte[] bytes = value.getBytes(Charsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
     }
 
     /**
      * Loads the dependency data from the given file.
      *
      * @param file the file to load the data from.
-     * @return a map of file-> list of impacted dependency data.
-     * @throws IOException
+     * @throws IOException if the file cannot be read, is truncated or corrupted.
+     *
+     * @see #getImpactedMainFiles(String)
      */
-    public Multimap<String, DependencyData> loadFrom(File file) throws IOException {
-        Multimap<String, DependencyData> inputMap = ArrayListMultimap.create();
+    public void loadFrom(File file) throws IOException {
+        CheckedInputStream checkedStream = new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE),
+                new CRC32());
+        DataInputStream in = new DataInputStream(checkedStream);
+        // every count read from the file is bounded by its size, so that a corrupted count
+        // fails the load instead of allocating a huge array.
+        long maxCount = file.length();
 
-        FileInputStream fis = new FileInputStream(file);
+        try {
+            // read the header
+            if (in.readByte() != TAG_HEADER) {
+                throw new IllegalStateException("Wrong first byte on " + file.getAbsolutePath());
+            }
 
-        //  reusable buffer
-        ReusableBuffer buffers = new ReusableBuffer();
+            int version = in.readInt();
+            if (version == CURRENT_VERSION || version == VERSION_2) {
+                loadIndexedPaths(in, checkedStream, version == CURRENT_VERSION, maxCount, file);
+            } else if (version == VERSION_1) {
+                loadVersion1(in, maxCount, file);
+            } else {
+                throw new IOException("Unsupported file version: " + version);
+            }
+        } catch (EOFException e) {
+            throw new IOException("Truncated dependency store " + file.getAbsolutePath(), e);
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+    }
 
-        // read the header
-        if (readByte(fis, buffers) != TAG_HEADER) {
-            throw new IllegalStateException("Wrong first byte on " + file.getAbsolutePath());
+    /**
+     * Loads the content of version 2 and 3 files.
+     */
+    private void loadIndexedPaths(
+            @NonNull DataInputStream in,
+            @NonNull CheckedInputStream checkedStream,
+            boolean hasReverseIndex,
+            long maxCount,
+            @NonNull File file) throws IOException {
+        byte[] buffer = new byte[256];
+
+        int prefixCount = readCount(in, maxCount);
+        String[] prefixes = new String[prefixCount];
+        for (int i = 0; i < prefixCount; i++) {
+            prefixes[i] = readString(in, buffer, maxCount);
         }
 
-        int version = readInt(fis, buffers);
-        if (version != CURRENT_VERSION) {
-            throw new IOException("Unsupported file version: " + version);
+        int pathCount = readCount(in, maxCount);
+        String[] paths = new String[pathCount];
+        for (int i = 0; i < pathCount; i++) {
+            int prefixIndex = in.readInt();
+            if (prefixIndex < -1 || prefixIndex >= prefixCount) {
+                throw new IOException("Invalid prefix index: " + prefixIndex);
+            }
+            String name = readString(in, buffer, maxCount);
+            paths[i] = mPathTable.intern(prefixIndex != -1 ? prefixes[prefixIndex] + name : name);
         }
 
-        try {
-            // just read the first byte since it should be the TAG_START
-            byte currentTag = readByte(fis, buffers);
-            if (currentTag != TAG_START) {
-                throw new IllegalStateException("Wrong first tag on " + file.getAbsolutePath());
+        int dataCount = readCount(in, maxCount);
+        List<DependencyData> dataList = Lists.newArrayListWithCapacity(dataCount);
+        for (int i = 0; i < dataCount; i++) {
+            DependencyData data = new DependencyData();
+            data.setMainFile(paths[readIndex(in, pathCount)]);
+
+            int secondaryCount = readCount(in, maxCount);
+            for (int j = 0; j < secondaryCount; j++) {
+                data.addSecondaryFile(paths[readIndex(in, pathCount)]);
             }
 
-            DependencyData currentData = new DependencyData();
-
-            while (currentTag != TAG_END) {
-                // read the path
-                String path = readPath(fis, buffers);
-
-                switch (currentTag) {
-                    case TAG_START:
-                        currentData.setMainFile(path);
-                        mMainFileMap.put(path, currentData);
-                        inputMap.put(path, currentData);
-                        break;
-                    case TAG_2NDARY_FILE:
-                        currentData.addSecondaryFile(path);
-                        inputMap.put(path, currentData);
-                        break;
-                    case TAG_OUTPUT:
-                        currentData.addOutputFile(path);
-                        break;
-                }
+            int outputCount = readCount(in, maxCount);
+            for (int j = 0; j < outputCount; j++) {
+                data.addOutputFile(paths[readIndex(in, pathCount)]);
+            }
 
-                // read the next tag.
-                currentTag = readByte(fis, buffers);
+            dataList.add(data);
+        }
 
-                if (currentTag == TAG_START) {
-                    currentData = new DependencyData();
+        SetMultimap<String, String> reverseIndex = null;
+        if (hasReverseIndex) {
+            reverseIndex = LinkedHashMultimap.create();
+            int secondaryCount = readCount(in, maxCount);
+            for (int i = 0; i < secondaryCount; i++) {
+                String secondaryFile = paths[readIndex(in, pathCount)];
+                int mainCount = readCount(in, maxCount);
+                for (int j = 0; j < mainCount; j++) {
+                    reverseIndex.put(secondaryFile, paths[readIndex(in, pathCount)]);
                 }
             }
+        }
 
-            return inputMap;
-        } finally {
-            Closeables.closeQuietly(fis);
+        // check the CRC before using the data.
+        int expectedChecksum = (int) checkedStream.getChecksum().getValue();
+        if (in.readInt() != expectedChecksum) {
+            throw new IOException("Corrupted dependency store " + file.getAbsolutePath());
         }
-    }
 
-    private void writeInt(FileOutputStream fos, int value) throws IOException {
-        ByteBuffer b = ByteBuffer.allocate(4);
-        b.putInt(value);
-        fos.write(b.array());
+        if (reverseIndex != null) {
+            for (DependencyData data : dataList) {
+                mMainFileMap.put(data.getMainFile(), data);
+            }
+            mReverseIndex.putAll(reverseIndex);
+        } else {
+            addData(dataList);
+        }
     }
 
-    private void writePath(FileOutputStream fos, String path) throws IOException {
-        byte[] pathBytes = path.getBytes(Charsets.UTF_8);
+    private void loadVersion1(
+            @NonNull DataInputStream in,
+            long maxCount,
+            @NonNull File file) throws IOException {
+        byte[] buffer = new byte[256];
 
-        writeInt(fos, pathBytes.length);
-        fos.write(pathBytes);
-    }
-
-    private byte readByte(FileInputStream fis, ReusableBuffer buffers) throws IOException {
-        int read = fis.read(buffers.intBuffer, 0, 1);
-        if (read != 1) {
-            return TAG_END;
+        // just read the first byte since it should be the TAG_START
+        byte currentTag = readTag(in);
+        if (currentTag != TAG_START) {
+            throw new IllegalStateException("Wrong first tag on " + file.getAbsolutePath());
         }
 
-        return buffers.intBuffer[0];
-    }
+        List<DependencyData> dataList = Lists.newArrayList();
+        DependencyData currentData = new DependencyData();
+
+        while (currentTag != TAG_END) {
+            // read the path
+            String path = mPathTable.intern(readString(in, buffer, maxCount));
+
+            switch (currentTag) {
+                case TAG_START:
+                    currentData.setMainFile(path);
+                    dataList.add(currentData);
+                    break;
+                case TAG_2NDARY_FILE:
+                    currentData.addSecondaryFile(path);
+                    break;
+                case TAG_OUTPUT:
+                    currentData.addOutputFile(path);
+                    break;
+            }
 
-    private int readInt(FileInputStream fis, ReusableBuffer buffers) throws IOException {
-        int read = fis.read(buffers.intBuffer);
+            // read the next tag.
+            currentTag = readTag(in);
 
-        // there must always be 4 bytes for the path length
-        if (read != 4) {
-            throw new IOException("Failed to read path length");
+            if (currentTag == TAG_START) {
+                currentData = new DependencyData();
+            }
         }
 
-        // get the int value.
-        ByteBuffer b = ByteBuffer.wrap(buffers.intBuffer);
-        return b.getInt();
+        addData(dataList);
     }
 
-    private String readPath(FileInputStream fis, ReusableBuffer buffers) throws IOException {
-        int length = readInt(fis, buffers);
+    /**
+     * Reads a tag of a version 1 file, which has no marker for its end.
+     */
+    private static byte readTag(@NonNull DataInputStream in) throws IOException {
+        int tag = in.read();
+        if (tag == -1) {
+            return TAG_END;
+        }
+
+        return (byte) tag;
+    }
 
-        if (buffers.pathBuffer == null || buffers.pathBuffer.length < length) {
-            buffers.pathBuffer = new byte[length];
+    /**
+     * Reads a count, or a string length.
+     *
+     * @param in the stream.
+     * @param maxCount the maximum valid count. Each counted item takes at least one byte, so
+     *                 this is the size of the file.
+     * @throws IOException if the count is negative or greater than the maximum.
+     */
+    private static int readCount(@NonNull DataInputStream in, long maxCount)
+            throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > maxCount) {
+            throw new IOException("Invalid count: " + count);
         }
+        return count;
+    }
 
-        int read = fis.read(buffers.pathBuffer, 0, length);
-        if (read != length) {
-            throw new IOException("Failed to read path");
+    private static int readIndex(@NonNull DataInputStream in, int count) throws IOException {
+        int index = in.readInt();
+        if (index < 0 || index >= count) {
+            throw new IOException("Invalid path index: " + index);
         }
+        return index;
+    }
 
-        return new String(buffers.pathBuffer, 0, length, Charsets.UTF_8);
+    @NonNull
+    private static String readString(
+            @NonNull DataInputStream in,
+            @NonNull byte[] buffer,
+            long maxCount) throws IOException {
+        int length = readCount(in, maxCount);
+        byte[] bytes = length <= buffer.length ? buffer : new byte[length];
+
+        // readFully loops until all the bytes are read.
+        in.readFully(bytes, 0, length);
+        return new String(bytes, 0, length, Charsets.UTF_8);
     }
 }
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal.incremental;
+
+import com.android.annotations.NonNull;
+
+/**
+ * A table of interned paths, shared by the {@link DependencyData} of a
+ * {@link DependencyDataStore}.
+ *
+ * The same secondary files (imported aidl files, renderscript headers) are listed by many
+ * dependency files, so each distinct path is only kept once. Paths can be looked up directly
+ * from a range of characters, so that parsing a dependency file does not allocate a String
+ * for paths that are already known.
+ *
+ * This class is thread-safe.
+ */
+public class PathTable {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** Open addressing hash table, with a power of 2 size. */
+    @NonNull
+    private String[] mPaths = new String[INITIAL_CAPACITY];
+    private int mSize = 0;
+
+    /**
+     * Returns the interned instance of a path.
+     */
+    @NonNull
+    public synchronized String intern(@NonNull String path) {
+        int mask = mPaths.length - 1;
+        int index = spread(path.hashCode()) & mask;
+
+        String current;
+        while ((current = mPaths[index]) != null) {
+            if (current.equals(path)) {
+                return current;
+            }
+            index = (index + 1) & mask;
+        }
+
+        add(index, path);
+        return path;
+    }
+
+    /**
+     * Returns the interned instance of a path given as a range of characters. A String is
+     * only created if the path is not in the table yet.
+     *
+     * @param chars the characters.
+     * @param start the index of the first character of the path.
+     * @param end the index after the last character of the path.
+     */
+    @NonNull
+    public synchronized String intern(@NonNull char[] chars, int start, int end) {
+        // same hash as String.hashCode(), so that both intern methods find the same paths.
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + chars[i];
+        }
+
+        int mask = mPaths.length - 1;
+        int index = spread(hash) & mask;
+
+        String current;
+        while ((current = mPaths[index]) != null) {
+            if (regionEquals(current, chars, start, end)) {
+                return current;
+            }
+            index = (index + 1) & mask;
+        }
+
+        String path = new String(chars, start, end - start);
+        add(index, path);
+        return path;
+    }
+
+    /**
+     * Returns the number of paths in the table.
+     */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    private void add(int index, @NonNull String path) {
+        mPaths[index] = path;
+        mSize++;
+
+        // keep the load factor under 1/2.
+        if (mSize * 2 > mPaths.length) {
+            String[] oldPaths = mPaths;
+            mPaths = new String[oldPaths.length * 2];
+            int mask = mPaths.length - 1;
+            for (String oldPath : oldPaths) {
+                if (oldPath != null) {
+                    int i = spread(oldPath.hashCode()) & mask;
+                    while (mPaths[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    mPaths[i] = oldPath;
+                }
+            }
+        }
+    }
+
+    private static boolean regionEquals(@NonNull String path, @NonNull char[] chars,
+            int start, int end) {
+        int length = end - start;
+        if (path.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (path.charAt(i) != chars[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Spreads the high bits of the hash into the low bits, which are the only ones used to
+     * index the table.
+     */
+    private static int spread(int hash) {
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        return hash ^ (hash >>> 7) ^ (hash >>> 4);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal.packaging;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+
+/**
+ * Describes an entry written into a package: where its content is located in the archive and
+ * what is needed to write it again without reading its uncompressed content.
+ */
+public class PackagedEntry {
+
+    @NonNull
+    private final String mName;
+    private final int mMethod;
+    private final int mDosTime;
+    private final long mCrc;
+    private final long mCompressedSize;
+    private final long mSize;
+    private final long mDataOffset;
+    @Nullable
+    private final byte[] mDigest;
+
+    /**
+     * Creates a new entry description.
+     *
+     * @param name the path of the entry in the archive.
+     * @param method the compression method.
+     * @param dosTime the modification time in MS-DOS format.
+     * @param crc the CRC32 of the uncompressed content.
+     * @param compressedSize the size of the content in the archive.
+     * @param size the uncompressed size.
+     * @param dataOffset the offset of the content in the archive.
+     * @param digest the digest of the uncompressed content used to sign the archive, if any.
+     */
+    public PackagedEntry(
+            @NonNull String name,
+            int method,
+            int dosTime,
+            long crc,
+            long compressedSize,
+            long size,
+            long dataOffset,
+            @Nullable byte[] digest) {
+        mName = name;
+        mMethod = method;
+        mDosTime = dosTime;
+        mCrc = crc;
+        mCompressedSize = compressedSize;
+        mSize = size;
+        mDataOffset = dataOffset;
+        mDigest = digest;
+    }
+
+    @NonNull
+    public String getName() {
+        return mName;
+    }
+
+    public int getMethod() {
+        return mMethod;
+    }
+
+    public int getDosTime() {
+        return mDosTime;
+    }
+
+    public long getCrc() {
+        return mCrc;
+    }
+
+    public long getCompressedSize() {
+        return mCompressedSize;
+    }
+
+    public long getSize() {
+        return mSize;
+    }
+
+    public long getDataOffset() {
+        return mDataOffset;
+    }
+
+    @Nullable
+    public byte[] getDigest() {
+        return mDigest;
+    }
+
+    @Override
+    public String toString() {
+        return "PackagedEntry{" +
+                "mName='" + mName + '\'' +
+                ", mMethod=" + mMethod +
+                ", mCrc=" + Long.toHexString(mCrc) +
+                ", mCompressedSize=" + mCompressedSize +
+                ", mSize=" + mSize +
+                ", mDataOffset=" + mDataOffset +
+                '}';
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal.packaging;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Closeables;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores the index of the entries of a package, grouped by the input file they came from.
+ *
+ * This is used to package incrementally: entries coming from input files that did not change
+ * can be copied as is from the previous package.
+ *
+ * The format is binary and follows the following format:
+ *
+ * (Header Tag)(version number: int)(package length: long)(package timestamp: long)
+ * (Source Tag)(Source File)[(Entry Tag)(Entry)...]
+ * (Source Tag)(Source File)[(Entry Tag)(Entry)...]
+ * ...
+ * (End Tag)
+ *
+ * Entries are written as (name)(method: short)(time: int)(crc: int)(compressed size: long)
+ * (size: long)(data offset: long)(digest length: short)(digest bytes).
+ * Paths and names are written in modified UTF-8.
+ */
+public class PackagedEntryStore {
+
+    private static final byte TAG_HEADER = 0x7F;
+    private static final byte TAG_SOURCE = 0x70;
+    private static final byte TAG_ENTRY = 0x71;
+    private static final byte TAG_END = 0x77;
+
+    private static final int CURRENT_VERSION = 1;
+
+    private final Map<String, List<PackagedEntry>> mSourceMap = Maps.newLinkedHashMap();
+    private long mPackageLength = -1;
+    private long mPackageTimestamp = -1;
+
+    public PackagedEntryStore() {
+    }
+
+    /**
+     * Records an input file of the package, even if it did not contribute any entry.
+     *
+     * @param sourcePath the absolute path of the input file.
+     */
+    public void addSource(@NonNull String sourcePath) {
+        if (!mSourceMap.containsKey(sourcePath)) {
+            mSourceMap.put(sourcePath, Lists.<PackagedEntry>newArrayList());
+        }
+    }
+
+    /**
+     * Records an entry of the package.
+     *
+     * @param sourcePath the absolute path of the input file the entry came from.
+     * @param entry the entry.
+     */
+    public void addEntry(@NonNull String sourcePath, @NonNull PackagedEntry entry) {
+        addSource(sourcePath);
+        mSourceMap.get(sourcePath).add(entry);
+    }
+
+    /**
+     * Returns the entries that came from a given input file, or null if the file was not an
+     * input of the package.
+     *
+     * @param sourcePath the absolute path of the input file.
+     */
+    @Nullable
+    public List<PackagedEntry> getEntries(@NonNull String sourcePath) {
+        List<PackagedEntry> entries = mSourceMap.get(sourcePath);
+        return entries != null ? Collections.unmodifiableList(entries) : null;
+    }
+
+    /**
+     * Returns the map of entries using the input file as key.
+     */
+    @NonNull
+    public Map<String, List<PackagedEntry>> getSourceMap() {
+        return mSourceMap;
+    }
+
+    /**
+     * Records the state of the package file described by this store.
+     *
+     * @param packageFile the package file, once written.
+     */
+    public void setPackage(@NonNull File packageFile) {
+        mPackageLength = packageFile.length();
+        mPackageTimestamp = packageFile.lastModified();
+    }
+
+    /**
+     * Returns whether the given package file is the one that was described by this store,
+     * ie it was not modified since.
+     *
+     * @param packageFile the package file.
+     */
+    public boolean isPackageUpToDate(@NonNull File packageFile) {
+        return packageFile.isFile() &&
+                packageFile.length() == mPackageLength &&
+                packageFile.lastModified() == mPackageTimestamp;
+    }
+
+    /**
+     * Saves the store to a given file.
+     *
+     * @param file the file to save the data to.
+     * @throws IOException
+     */
+    public void saveTo(@NonNull File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+
+        try {
+            out.writeByte(TAG_HEADER);
+            out.writeInt(CURRENT_VERSION);
+            out.writeLong(mPackageLength);
+            out.writeLong(mPackageTimestamp);
+
+            for (Map.Entry<String, List<PackagedEntry>> source : mSourceMap.entrySet()) {
+                out.writeByte(TAG_SOURCE);
+                out.writeUTF(source.getKey());
+
+                for (PackagedEntry entry : source.getValue()) {
+                    out.writeByte(TAG_ENTRY);
+                    writeEntry(out, entry);
+                }
+            }
+
+            out.writeByte(TAG_END);
+        } finally {
+            Closeables.closeQuietly(out);
+        }
+    }
+
+    /**
+     * Loads the store from the given file.
+     *
+     * @param file the file to load the data from.
+     * @throws IOException if the file cannot be read or is not a valid store.
+     */
+    public void loadFrom(@NonNull File file) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+
+        try {
+            if (in.readByte() != TAG_HEADER) {
+                throw new IOException("Wrong first byte on " + file.getAbsolutePath());
+            }
+
+            int version = in.readInt();
+            if (version != CURRENT_VERSION) {
+                throw new IOException("Unsupported file version: " + version);
+            }
+
+            mPackageLength = in.readLong();
+            mPackageTimestamp = in.readLong();
+
+            String currentSource = null;
+            byte tag;
+            while ((tag = in.readByte()) != TAG_END) {
+                switch (tag) {
+                    case TAG_SOURCE:
+                        currentSource = in.readUTF();
+                        addSource(currentSource);
+                        break;
+                    case TAG_ENTRY:
+                        if (currentSource == null) {
+                            throw new IOException("Entry without source in " +
+                                    file.getAbsolutePath());
+                        }
+                        addEntry(currentSource, readEntry(in));
+                        break;
+                    default:
+                        throw new IOException("Unknown tag " + tag + " in " +
+                                file.getAbsolutePath());
+                }
+            }
+        } catch (EOFException e) {
+            throw new IOException("Truncated file " + file.getAbsolutePath(), e);
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+    }
+
+    private static void writeEntry(DataOutputStream out, PackagedEntry entry)
+            throws IOException {
+        out.writeUTF(entry.getName());
+        out.writeShort(entry.getMethod());
+        out.writeInt(entry.getDosTime());
+        out.writeInt((int) entry.getCrc());
+        out.writeLong(entry.getCompressedSize());
+        out.writeLong(entry.getSize());
+        out.writeLong(entry.getDataOffset());
+
+        byte[] digest = entry.getDigest();
+        if (digest != null) {
+            out.writeShort(digest.length);
+            out.write(digest);
+        } else {
+            out.writeShort(0);
+        }
+    }
+
+    private static PackagedEntry readEntry(DataInputStream in) throws IOException {
+        String name = in.readUTF();
+        int method = in.readShort();
+        int dosTime = in.readInt();
+        long crc = in.readInt() & 0xFFFFFFFFL;
+        long compressedSize = in.readLong();
+        long size = in.readLong();
+        long dataOffset = in.readLong();
+
+        byte[] digest = null;
+        int digestLength = in.readShort();
+        if (digestLength > 0) {
+            digest = new byte[digestLength];
+            in.readFully(digest);
+        }
+
+        return new PackagedEntry(
+                name, method, dosTime, crc, compressedSize, size, dataOffset, digest);
+    }
+}
@@ -19,6 +19,7 @@ package com.android.builder.internal.packaging;
 import com.android.SdkConstants;
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
+import com.android.builder.PackagingOptions;
 import com.android.builder.internal.packaging.JavaResourceProcessor.IArchiveBuilder;
 import com.android.builder.packaging.DuplicateFileException;
 import com.android.builder.packaging.PackagerException;
@@ -28,21 +29,30 @@ import com.android.builder.signing.SignedJarBuilder;
 import com.android.builder.signing.SignedJarBuilder.IZipEntryFilter;
 import com.android.ide.common.packaging.PackagingUtils;
 import com.android.utils.ILogger;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Closeables;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
 
 /**
  * Class making the final app package.
@@ -52,12 +62,20 @@ import java.util.regex.Pattern;
  * - Java resources coming from the project, its libraries, and its jar files
  * - Native libraries from the project or its library.
  *
+ * The package can be built incrementally from a previous package and the
+ * {@link PackagedEntryStore} describing it. In this case, the entries coming from input files
+ * that did not change are copied as is from the previous package, without being read,
+ * compressed or digested again.
+ *
  */
 public final class Packager implements IArchiveBuilder {
 
     private final static Pattern PATTERN_NATIVELIB_EXT = Pattern.compile("^.+\\.so$",
             Pattern.CASE_INSENSITIVE);
 
+    /** The alignment of the stored entries, as used by the zipalign tool. */
+    private final static int ZIP_ALIGNMENT = 4;
+
     /**
      * A No-op zip filter. It's used to detect conflicts.
      *
@@ -87,7 +105,7 @@ public final class Packager implements IArchiveBuilder {
     /**
      * Custom {@link IZipEntryFilter} to filter out everything that is not a standard java
      * resources, and also record whether the zip file contains native libraries.
-     * <p/>Used in {@link SignedJarBuilder#writeZip(java.io.InputStream, IZipEntryFilter)} when
+     * <p/>Used in {@link SignedJarBuilder#writeZip(java.io.File, IZipEntryFilter)} when
      * we only want the java resources from external jars.
      */
     private final class JavaAndNativeResourceFilter implements IZipEntryFilter {
@@ -166,6 +184,20 @@ public final class Packager implements IArchiveBuilder {
     private boolean mJniDebugMode = false;
     private boolean mIsSealed = false;
 
+    private File mApkFile;
+    private File mTempApkFile = null;
+    private PackagedEntryStore mPreviousEntries = null;
+    private FileChannel mPreviousApk = null;
+    private final Set<String> mChangedFiles = Sets.newHashSet();
+    private final PackagedEntryStore mEntries = new PackagedEntryStore();
+    /** The input file of each entry added to the builder, in the order they were added. */
+    private final List<String> mEntrySources = Lists.newArrayList();
+    private int mCopiedEntryCount = 0;
+
+    private boolean mStoreAll = false;
+    /** The lower case extensions, without the dot, of the files stored without compression. */
+    private final Set<String> mNoCompressExtensions = Sets.newHashSet();
+
     private final NullZipFilter mNullFilter = new NullZipFilter();
     private final JavaAndNativeResourceFilter mFilter = new JavaAndNativeResourceFilter();
     private final HashMap<String, File> mAddedFiles = new HashMap<String, File>();
@@ -235,10 +267,45 @@ public final class Packager implements IArchiveBuilder {
             CertificateInfo certificateInfo,
             @Nullable String createdBy,
             ILogger logger) throws PackagerException {
+        this(apkLocation, resLocation, dexLocation, certificateInfo, createdBy, null, null, null,
+                logger);
+    }
+
+    /**
+     * Creates a new instance that can reuse the entries of a previous package.
+     *
+     * The previous package is the file at <var>apkLocation</var>. It is only used if it was not
+     * modified since <var>previousEntries</var> was created, and it is replaced by the new
+     * package when the new package is sealed.
+     *
+     * @param apkLocation the file to create
+     * @param resLocation the file representing the packaged resource file.
+     * @param dexLocation the file representing the dex file. This can be null for apk with no code.
+     * @param certificateInfo the signing information used to sign the package. Optional the OS path to the debug keystore, if needed or null.
+     * @param packagingOptions optional compression options for the files added by the packager.
+     * @param previousEntries the entries of the previous package, or null to package from scratch.
+     * @param changedFiles the input files that changed since the previous package was created.
+     *                     Only used if <var>previousEntries</var> is not null.
+     * @param logger the logger.
+     * @throws com.android.builder.packaging.PackagerException
+     *
+     * @see #getEntries()
+     */
+    public Packager(
+            @NonNull String apkLocation,
+            @NonNull String resLocation,
+            @NonNull String dexLocation,
+            CertificateInfo certificateInfo,
+            @Nullable String createdBy,
+            @Nullable PackagingOptions packagingOptions,
+            @Nullable PackagedEntryStore previousEntries,
+            @Nullable Collection<File> changedFiles,
+            ILogger logger) throws PackagerException {
 
         try {
             File apkFile = new File(apkLocation);
             checkOutputFile(apkFile);
+            mApkFile = apkFile;
 
             File resFile = new File(resLocation);
             checkInputFile(resFile);
@@ -251,12 +318,32 @@ public final class Packager implements IArchiveBuilder {
 
             mLogger = logger;
 
+            File outputFile = apkFile;
+            if (previousEntries != null && changedFiles != null &&
+                    isReusable(previousEntries, apkFile, certificateInfo != null)) {
+                mPreviousEntries = previousEntries;
+                for (File file : changedFiles) {
+                    mChangedFiles.add(file.getAbsolutePath());
+                }
+
+                // the previous package is read while the new one is written.
+                mPreviousApk = new RandomAccessFile(apkFile, "r").getChannel();
+                mTempApkFile = new File(apkFile.getParentFile(), apkFile.getName() + ".tmp");
+                outputFile = mTempApkFile;
+                mLogger.verbose("Packaging %s incrementally", apkFile.getName());
+            }
+
             mBuilder = new SignedJarBuilder(
-                    new FileOutputStream(apkFile, false /* append */),
+                    new FileOutputStream(outputFile, false /* append */),
                     certificateInfo != null ? certificateInfo.getKey() : null,
                     certificateInfo != null ? certificateInfo.getCertificate() : null,
                     getLocalVersion(),
-                    createdBy);
+                    createdBy,
+                    Runtime.getRuntime().availableProcessors());
+
+            if (packagingOptions != null) {
+                setPackagingOptions(packagingOptions);
+            }
 
             mLogger.verbose("Packaging %s", apkFile.getName());
 
@@ -269,18 +356,87 @@ public final class Packager implements IArchiveBuilder {
             }
 
         } catch (PackagerException e) {
-            if (mBuilder != null) {
-                mBuilder.cleanUp();
-            }
+            cleanUp();
             throw e;
         } catch (Exception e) {
-            if (mBuilder != null) {
-                mBuilder.cleanUp();
-            }
+            cleanUp();
             throw new PackagerException(e);
         }
     }
 
+    private void setPackagingOptions(@NonNull PackagingOptions packagingOptions)
+            throws IOException {
+        int level = packagingOptions.getCompressionLevel();
+        if (level == Deflater.NO_COMPRESSION) {
+            mStoreAll = true;
+        } else {
+            mBuilder.setCompressionLevel(level);
+        }
+
+        Collection<String> noCompress = packagingOptions.getNoCompress();
+        if (noCompress != null) {
+            for (String extension : noCompress) {
+                if (extension.startsWith(".")) {
+                    extension = extension.substring(1);
+                }
+                mNoCompressExtensions.add(extension.toLowerCase(Locale.US));
+            }
+        }
+
+        if (packagingOptions.getZipAlign()) {
+            mBuilder.setAlignment(ZIP_ALIGNMENT, true /*pageAlignSharedLibraries*/);
+        }
+    }
+
+    /**
+     * Returns the compression method of a file added by the packager.
+     * @param archivePath the path of the file inside the APK archive.
+     */
+    private int getCompressionMethod(@NonNull String archivePath) {
+        if (mStoreAll) {
+            return ZipEntry.STORED;
+        }
+
+        int index = archivePath.lastIndexOf('.');
+        if (index != -1 && index > archivePath.lastIndexOf('/') &&
+                mNoCompressExtensions.contains(
+                        archivePath.substring(index + 1).toLowerCase(Locale.US))) {
+            return ZipEntry.STORED;
+        }
+
+        return ZipEntry.DEFLATED;
+    }
+
+    /**
+     * Returns whether the entries of the previous package can be reused.
+     * @param previousEntries the description of the previous package.
+     * @param apkFile the previous package.
+     * @param signed whether the new package is signed, in which case the digest of all the entries
+     *               must be known.
+     */
+    private boolean isReusable(
+            @NonNull PackagedEntryStore previousEntries,
+            @NonNull File apkFile,
+            boolean signed) {
+        if (!previousEntries.isPackageUpToDate(apkFile)) {
+            mLogger.verbose("%s was modified since it was packaged", apkFile);
+            return false;
+        }
+
+        if (signed) {
+            for (List<PackagedEntry> entries : previousEntries.getSourceMap().values()) {
+                for (PackagedEntry entry : entries) {
+                    if (entry.getDigest() == null) {
+                        mLogger.verbose("%s was not signed", apkFile);
+                        return false;
+                    }
+                }
+            }
+        }
+
+        return true;
+    }
+
     /**
      * Sets the JNI debug mode. In debug mode, when native libraries are present, the packaging
      * will also include one or more copies of gdbserver in the final APK file.
@@ -317,10 +473,10 @@ public final class Packager implements IArchiveBuilder {
         try {
             doAddFile(file, archivePath);
         } catch (DuplicateFileException e) {
-            mBuilder.cleanUp();
+            cleanUp();
             throw e;
         } catch (Exception e) {
-            mBuilder.cleanUp();
+            cleanUp();
             throw new PackagerException(e, "Failed to add %s", file);
         }
     }
@@ -346,14 +502,17 @@ public final class Packager implements IArchiveBuilder {
             // reset the filter with this input.
             mNullFilter.reset(zipFile);
 
-            // ask the builder to add the content of the file.
-            FileInputStream fis = new FileInputStream(zipFile);
-            mBuilder.writeZip(fis, mNullFilter);
+            int firstEntry = mBuilder.getEntryCount();
+            if (!copyPreviousEntries(zipFile, mNullFilter)) {
+                // ask the builder to add the content of the file.
+                mBuilder.writeZip(zipFile, mNullFilter);
+            }
+            recordEntries(zipFile, firstEntry);
         } catch (DuplicateFileException e) {
-            mBuilder.cleanUp();
+            cleanUp();
             throw e;
         } catch (Exception e) {
-            mBuilder.cleanUp();
+            cleanUp();
             throw new PackagerException(e, "Failed to add %s", zipFile);
         }
     }
@@ -380,19 +539,22 @@ public final class Packager implements IArchiveBuilder {
             // reset the filter with this input.
             mFilter.reset(jarFile);
 
-            // ask the builder to add the content of the file, filtered to only let through
-            // the java resources.
-            FileInputStream fis = new FileInputStream(jarFile);
-            mBuilder.writeZip(fis, mFilter);
+            int firstEntry = mBuilder.getEntryCount();
+            if (!copyPreviousEntries(jarFile, mFilter)) {
+                // ask the builder to add the content of the file, filtered to only let through
+                // the java resources.
+                mBuilder.writeZip(jarFile, mFilter);
+            }
+            recordEntries(jarFile, firstEntry);
 
             // check if native libraries were found in the external library. This should
             // constitutes an error or warning depending on if they are in lib/
             return new JarStatusImpl(mFilter.getNativeLibs(), mFilter.getNativeLibsConflict());
         } catch (DuplicateFileException e) {
-            mBuilder.cleanUp();
+            cleanUp();
             throw e;
         } catch (Exception e) {
-            mBuilder.cleanUp();
+            cleanUp();
             throw new PackagerException(e, "Failed to add %s", jarFile);
         }
     }
@@ -458,7 +620,7 @@ public final class Packager implements IArchiveBuilder {
                                 try {
                                     doAddFile(lib, path);
                                 } catch (IOException e) {
-                                    mBuilder.cleanUp();
+                                    cleanUp();
                                     throw new PackagerException(e, "Failed to add %s", lib);
                                 }
                             }
@@ -483,14 +645,45 @@ public final class Packager implements IArchiveBuilder {
         // close and sign the application package.
         try {
             mBuilder.close();
+
+            // all the entries are now written.
+            List<PackagedEntry> entries = mBuilder.getEntries();
+            for (int i = 0 ; i < entries.size() ; i++) {
+                mEntries.addEntry(mEntrySources.get(i), entries.get(i));
+            }
+
+            if (mTempApkFile != null) {
+                closePreviousApk();
+                mLogger.verbose("Copied %1$d entries from the previous %2$s",
+                        mCopiedEntryCount, mApkFile.getName());
+
+                if (!mApkFile.delete() || !mTempApkFile.renameTo(mApkFile)) {
+                    throw new PackagerException("Failed to replace %s", mApkFile);
+                }
+            }
+
+            mEntries.setPackage(mApkFile);
             mIsSealed = true;
+        } catch (PackagerException e) {
+            throw e;
         } catch (Exception e) {
             throw new PackagerException(e, "Failed to seal APK");
         } finally {
-            mBuilder.cleanUp();
+            cleanUp();
         }
     }
 
+    /**
+     * Returns the description of the entries of the package, grouped by input files.
+     *
+     * This is only complete once the package is sealed, and can then be used to create the
+     * next package incrementally.
+     */
+    @NonNull
+    public PackagedEntryStore getEntries() {
+        return mEntries;
+    }
+
     private void doAddFile(File file, String archivePath) throws DuplicateFileException,
             IOException {
         mLogger.verbose("%1$s => %2$s", file, archivePath);
@@ -501,7 +694,103 @@ public final class Packager implements IArchiveBuilder {
         }
 
         mAddedFiles.put(archivePath, file);
-        mBuilder.writeFile(file, archivePath);
+
+        int firstEntry = mBuilder.getEntryCount();
+        List<PackagedEntry> previousEntries = getPreviousEntries(file);
+        int method = getCompressionMethod(archivePath);
+        if (previousEntries != null && previousEntries.size() == 1 &&
+                previousEntries.get(0).getName().equals(archivePath) &&
+                previousEntries.get(0).getMethod() == method) {
+            copyPreviousEntry(previousEntries.get(0));
+        } else {
+            mBuilder.writeFile(file, archivePath, method);
+        }
+        recordEntries(file, firstEntry);
+    }
+
+    /**
+     * Returns the entries of the previous package that came from a given input file, or null
+     * if they cannot be reused, either because there is no previous package or the input
+     * file changed since.
+     */
+    @Nullable
+    private List<PackagedEntry> getPreviousEntries(@NonNull File file) {
+        if (mPreviousEntries == null) {
+            return null;
+        }
+
+        String path = file.getAbsolutePath();
+        if (mChangedFiles.contains(path)) {
+            return null;
+        }
+
+        return mPreviousEntries.getEntries(path);
+    }
+
+    /**
+     * Copies the entries that came from an unchanged zip file from the previous package.
+     * The entries are still checked against the given filter, to detect duplicates.
+     *
+     * @param zipFile the zip file.
+     * @param filter the filter used when the entries were first added.
+     * @return true if the entries were copied, false if the zip file must be read.
+     */
+    private boolean copyPreviousEntries(@NonNull File zipFile, @NonNull IZipEntryFilter filter)
+            throws IZipEntryFilter.ZipAbortException, IOException {
+        List<PackagedEntry> previousEntries = getPreviousEntries(zipFile);
+        if (previousEntries == null) {
+            return false;
+        }
+
+        for (PackagedEntry entry : previousEntries) {
+            if (filter.checkEntry(entry.getName())) {
+                copyPreviousEntry(entry);
+            }
+        }
+
+        return true;
+    }
+
+    private void copyPreviousEntry(@NonNull PackagedEntry entry) throws IOException {
+        mBuilder.copyEntry(entry, mPreviousApk);
+        mCopiedEntryCount++;
+    }
+
+    /**
+     * Associates the entries added since <var>firstEntry</var> with a given input file.
+     * The entries themselves are only known once they are written, when the APK is sealed.
+     */
+    private void recordEntries(@NonNull File source, int firstEntry) {
+        String path = source.getAbsolutePath();
+        mEntries.addSource(path);
+
+        for (int i = firstEntry ; i < mBuilder.getEntryCount() ; i++) {
+            mEntrySources.add(path);
+        }
+    }
+
+    /**
+     * Cleans up the builder and releases the previous package, for interrupted workflow.
+     *
+     * When packaging incrementally, the new package is deleted and the previous one is left
+     * untouched.
+     */
+    private void cleanUp() {
+        if (mBuilder != null) {
+            mBuilder.cleanUp();
+        }
+        closePreviousApk();
+
+        if (mTempApkFile != null && mTempApkFile.exists() && !mTempApkFile.delete()) {
+            mLogger.warning("Failed to delete %s", mTempApkFile);
+        }
+    }
+
+    private void closePreviousApk() {
+        if (mPreviousApk != null) {
+            Closeables.closeQuietly(mPreviousApk);
+            mPreviousApk = null;
+        }
     }
 
     /**
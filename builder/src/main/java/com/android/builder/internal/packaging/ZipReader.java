@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal.packaging;
+
+import com.android.annotations.NonNull;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * A minimal zip archive reader giving access to the raw, compressed content of the entries.
+ *
+ * The entries are read from the central directory, using random access on the file. The
+ * content of an entry is never uncompressed by this class, so that it can be copied as is
+ * into another archive with {@link ZipWriter}.
+ *
+ * Zip64, encrypted entries and compression methods other than stored and deflated are not
+ * supported.
+ */
+public class ZipReader implements Closeable {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIR_SIGNATURE = 0x06054b50;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_OF_CENTRAL_DIR_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    /** General purpose flag indicating that the entry is encrypted. */
+    private static final int FLAG_ENCRYPTED = 0x0001;
+
+    /**
+     * An entry of the archive, as described by the central directory.
+     */
+    public static final class Entry {
+        @NonNull
+        private final String mName;
+        private final int mMethod;
+        private final int mDosTime;
+        private final long mCrc;
+        private final long mCompressedSize;
+        private final long mSize;
+        private final long mHeaderOffset;
+
+        private Entry(@NonNull String name, int method, int dosTime, long crc,
+                long compressedSize, long size, long headerOffset) {
+            mName = name;
+            mMethod = method;
+            mDosTime = dosTime;
+            mCrc = crc;
+            mCompressedSize = compressedSize;
+            mSize = size;
+            mHeaderOffset = headerOffset;
+        }
+
+        @NonNull
+        public String getName() {
+            return mName;
+        }
+
+        public boolean isDirectory() {
+            return mName.endsWith("/");
+        }
+
+        public int getMethod() {
+            return mMethod;
+        }
+
+        public int getDosTime() {
+            return mDosTime;
+        }
+
+        public long getCrc() {
+            return mCrc;
+        }
+
+        public long getCompressedSize() {
+            return mCompressedSize;
+        }
+
+        public long getSize() {
+            return mSize;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" +
+                    "mName='" + mName + '\'' +
+                    ", mMethod=" + mMethod +
+                    ", mCompressedSize=" + mCompressedSize +
+                    ", mSize=" + mSize +
+                    ", mHeaderOffset=" + mHeaderOffset +
+                    '}';
+        }
+    }
+
+    @NonNull
+    private final File mFile;
+    private final RandomAccessFile mRandomAccessFile;
+    private final FileChannel mChannel;
+    private final List<Entry> mEntries;
+
+    /**
+     * Opens an archive and reads its central directory.
+     *
+     * @param file the archive.
+     * @throws IOException if the file cannot be read or is not a valid archive.
+     */
+    public ZipReader(@NonNull File file) throws IOException {
+        mFile = file;
+        mRandomAccessFile = new RandomAccessFile(file, "r");
+        mChannel = mRandomAccessFile.getChannel();
+
+        try {
+            mEntries = readCentralDirectory();
+        } catch (IOException e) {
+            close();
+            throw e;
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the entries of the archive, in the order of the central directory.
+     */
+    @NonNull
+    public List<Entry> getEntries() {
+        return mEntries;
+    }
+
+    /**
+     * Returns the channel of the archive file.
+     */
+    @NonNull
+    public FileChannel getChannel() {
+        return mChannel;
+    }
+
+    /**
+     * Returns the offset in the archive of the content of an entry.
+     *
+     * This reads the local header of the entry, as its extra field may differ from the one
+     * in the central directory.
+     *
+     * @param entry the entry.
+     * @throws IOException
+     */
+    public long getDataOffset(@NonNull Entry entry) throws IOException {
+        ByteBuffer header = read(entry.mHeaderOffset, LOCAL_HEADER_SIZE);
+        if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("Invalid local header for " + entry.getName() + " in " + mFile);
+        }
+
+        int nameLength = header.getShort(26) & 0xFFFF;
+        int extraLength = header.getShort(28) & 0xFFFF;
+        long dataOffset = entry.mHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+        if (dataOffset + entry.getCompressedSize() > mChannel.size()) {
+            throw new ZipException("Truncated entry " + entry.getName() + " in " + mFile);
+        }
+
+        return dataOffset;
+    }
+
+    /**
+     * Returns a stream on the raw (possibly compressed) content of an entry.
+     *
+     * The stream reads from the channel of the archive, and does not need to be closed.
+     *
+     * @param entry the entry.
+     * @throws IOException
+     */
+    @NonNull
+    public InputStream getRawInputStream(@NonNull Entry entry) throws IOException {
+        return new ChannelInputStream(mChannel, getDataOffset(entry), entry.getCompressedSize());
+    }
+
+    @Override
+    public void close() throws IOException {
+        mRandomAccessFile.close();
+    }
+
+    private List<Entry> readCentralDirectory() throws IOException {
+        long fileSize = mChannel.size();
+        if (fileSize < END_OF_CENTRAL_DIR_SIZE) {
+            throw new ZipException("Not a zip archive: " + mFile);
+        }
+
+        // the end of central directory record is followed by a comment of variable length,
+        // look for its signature from the end of the file.
+        int tailSize = (int) Math.min(fileSize, END_OF_CENTRAL_DIR_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = read(fileSize - tailSize, tailSize);
+        int eocd = -1;
+        for (int i = tailSize - END_OF_CENTRAL_DIR_SIZE ; i >= 0 ; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIR_SIGNATURE) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd == -1) {
+            throw new ZipException("Not a zip archive: " + mFile);
+        }
+
+        int entryCount = tail.getShort(eocd + 10) & 0xFFFF;
+        long centralDirSize = tail.getInt(eocd + 12) & 0xFFFFFFFFL;
+        long centralDirOffset = tail.getInt(eocd + 16) & 0xFFFFFFFFL;
+        if (centralDirOffset + centralDirSize > fileSize) {
+            throw new ZipException("Invalid central directory in " + mFile);
+        }
+
+        ByteBuffer centralDir = read(centralDirOffset, (int) centralDirSize);
+        List<Entry> entries = Lists.newArrayListWithCapacity(entryCount);
+        int position = 0;
+        for (int i = 0 ; i < entryCount ; i++) {
+            if (position + CENTRAL_HEADER_SIZE > centralDirSize ||
+                    centralDir.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid central directory in " + mFile);
+            }
+
+            int flags = centralDir.getShort(position + 8) & 0xFFFF;
+            int method = centralDir.getShort(position + 10) & 0xFFFF;
+            int dosTime = centralDir.getInt(position + 12);
+            long crc = centralDir.getInt(position + 16) & 0xFFFFFFFFL;
+            long compressedSize = centralDir.getInt(position + 20) & 0xFFFFFFFFL;
+            long size = centralDir.getInt(position + 24) & 0xFFFFFFFFL;
+            int nameLength = centralDir.getShort(position + 28) & 0xFFFF;
+            int extraLength = centralDir.getShort(position + 30) & 0xFFFF;
+            int commentLength = centralDir.getShort(position + 32) & 0xFFFF;
+            long headerOffset = centralDir.getInt(position + 42) & 0xFFFFFFFFL;
+
+            byte[] nameBytes = new byte[nameLength];
+            centralDir.position(position + CENTRAL_HEADER_SIZE);
+            centralDir.get(nameBytes);
+            String name = new String(nameBytes, Charsets.UTF_8);
+
+            if ((flags & FLAG_ENCRYPTED) != 0) {
+                throw new ZipException("Encrypted entry " + name + " in " + mFile);
+            }
+            if (method != ZipEntry.STORED && method != ZipEntry.DEFLATED) {
+                throw new ZipException("Unsupported compression method " + method + " for " +
+                        name + " in " + mFile);
+            }
+
+            entries.add(new Entry(name, method, dosTime, crc, compressedSize, size, headerOffset));
+            position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+
+        return Collections.unmodifiableList(entries);
+    }
+
+    private ByteBuffer read(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (mChannel.read(buffer, offset + buffer.position()) < 0) {
+                throw new ZipException("Unexpected end of file in " + mFile);
+            }
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * An {@link InputStream} reading a region of a {@link FileChannel}, without changing the
+     * position of the channel.
+     */
+    private static final class ChannelInputStream extends InputStream {
+        private final FileChannel mChannel;
+        private long mPosition;
+        private long mRemaining;
+
+        ChannelInputStream(FileChannel channel, long position, long length) {
+            mChannel = channel;
+            mPosition = position;
+            mRemaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (mRemaining == 0) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, (int) Math.min(len, mRemaining));
+            int count = mChannel.read(buffer, mPosition);
+            if (count < 0) {
+                throw new ZipException("Unexpected end of file");
+            }
+            mPosition += count;
+            mRemaining -= count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(mRemaining, Integer.MAX_VALUE);
+        }
+    }
+}
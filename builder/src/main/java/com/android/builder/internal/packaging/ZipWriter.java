@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal.packaging;
+
+import com.android.annotations.NonNull;
+import com.google.common.base.Charsets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Calendar;
+import java.util.zip.ZipEntry;
+
+/**
+ * A minimal zip archive writer.
+ *
+ * Unlike {@link java.util.zip.ZipOutputStream}, the content of each entry is given already
+ * compressed (or stored), along with its CRC and sizes. This allows copying compressed data
+ * from another archive without inflating and deflating it again.
+ *
+ * Local headers always contain the CRC and sizes, so no data descriptor is ever written.
+ * Zip64 is not supported.
+ *
+ * The content of the stored entries can be aligned, as done by the zipalign tool, by padding
+ * the extra field of their local header.
+ */
+public class ZipWriter {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIR_SIGNATURE = 0x06054b50;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_OF_CENTRAL_DIR_SIZE = 22;
+
+    /** General purpose flag indicating that the entry name is encoded in UTF-8. */
+    private static final int FLAG_UTF8 = 0x0800;
+
+    private static final long MAX_SIZE = 0xFFFFFFFFL;
+
+    /** The alignment of stored shared libraries, so that they can be mapped in memory. */
+    public static final int PAGE_SIZE = 4096;
+
+    /** 1980-01-01 00:00:00, the earliest date that can be represented in MS-DOS format. */
+    public static final int DOS_EPOCH = (1 << 21) | (1 << 16);
+
+    private final OutputStream mOut;
+    private long mOffset = 0;
+    private int mEntryCount = 0;
+    private final ByteArrayOutputStream mCentralDirectory = new ByteArrayOutputStream();
+
+    private final ByteBuffer mHeaderBuffer;
+    private final byte[] mCopyBuffer = new byte[65536];
+
+    private int mAlignment = 0;
+    private boolean mPageAlignSharedLibraries = false;
+    private byte[] mPadding = null;
+
+    public ZipWriter(@NonNull OutputStream out) {
+        mOut = out;
+        mHeaderBuffer = ByteBuffer.allocate(CENTRAL_HEADER_SIZE);
+        mHeaderBuffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Sets the alignment of the content of the stored entries written after this call.
+     *
+     * @param alignment the alignment in bytes, or 0 to not align the entries.
+     * @param pageAlignSharedLibraries whether to align stored .so files to {@link #PAGE_SIZE}
+     *                                 instead.
+     */
+    public void setAlignment(int alignment, boolean pageAlignSharedLibraries) {
+        if (alignment < 0 || alignment > PAGE_SIZE) {
+            throw new IllegalArgumentException("Invalid alignment: " + alignment);
+        }
+        mAlignment = alignment;
+        mPageAlignSharedLibraries = pageAlignSharedLibraries;
+        mPadding = new byte[pageAlignSharedLibraries ? PAGE_SIZE : alignment];
+    }
+
+    /**
+     * Returns the number of bytes written so far.
+     */
+    public long getOffset() {
+        return mOffset;
+    }
+
+    /**
+     * Writes an entry whose (possibly compressed) content is held in memory.
+     *
+     * @param name the path of the entry in the archive.
+     * @param method the compression method, {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}
+     * @param dosTime the modification time in MS-DOS format.
+     * @param crc the CRC32 of the uncompressed content.
+     * @param size the uncompressed size.
+     * @param data the buffer holding the content as it must be written in the archive.
+     * @param length the number of bytes to write from <var>data</var>.
+     * @return the offset in the archive of the content of the entry.
+     * @throws IOException
+     */
+    public long writeEntry(
+            @NonNull String name,
+            int method,
+            int dosTime,
+            long crc,
+            long size,
+            @NonNull byte[] data,
+            int length) throws IOException {
+        long dataOffset = writeHeaders(name, method, dosTime, crc, length, size);
+        write(data, 0, length);
+        return dataOffset;
+    }
+
+    /**
+     * Writes an entry whose content is copied, as is, from a {@link FileChannel}.
+     *
+     * @param name the path of the entry in the archive.
+     * @param method the compression method, {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}
+     * @param dosTime the modification time in MS-DOS format.
+     * @param crc the CRC32 of the uncompressed content.
+     * @param compressedSize the number of bytes to copy.
+     * @param size the uncompressed size.
+     * @param source the channel to copy the content from.
+     * @param sourceOffset the position in the channel of the content.
+     * @return the offset in the archive of the content of the entry.
+     * @throws IOException
+     */
+    public long writeEntry(
+            @NonNull String name,
+            int method,
+            int dosTime,
+            long crc,
+            long compressedSize,
+            long size,
+            @NonNull FileChannel source,
+            long sourceOffset) throws IOException {
+        long dataOffset = writeHeaders(name, method, dosTime, crc, compressedSize, size);
+
+        ByteBuffer buffer = ByteBuffer.wrap(mCopyBuffer);
+        long remaining = compressedSize;
+        long position = sourceOffset;
+        while (remaining > 0) {
+            buffer.clear();
+            if (remaining < buffer.capacity()) {
+                buffer.limit((int) remaining);
+            }
+            int read = source.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file while copying " + name);
+            }
+            write(mCopyBuffer, 0, read);
+            position += read;
+            remaining -= read;
+        }
+
+        return dataOffset;
+    }
+
+    /**
+     * Writes an entry whose content is copied, as is, from an {@link InputStream}.
+     *
+     * @param name the path of the entry in the archive.
+     * @param method the compression method, {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}
+     * @param dosTime the modification time in MS-DOS format.
+     * @param crc the CRC32 of the uncompressed content.
+     * @param compressedSize the number of bytes to copy.
+     * @param size the uncompressed size.
+     * @param source the stream to copy the content from.
+     * @return the offset in the archive of the content of the entry.
+     * @throws IOException
+     */
+    public long writeEntry(
+            @NonNull String name,
+            int method,
+            int dosTime,
+            long crc,
+            long compressedSize,
+            long size,
+            @NonNull InputStream source) throws IOException {
+        long dataOffset = writeHeaders(name, method, dosTime, crc, compressedSize, size);
+
+        long remaining = compressedSize;
+        while (remaining > 0) {
+            int read = source.read(mCopyBuffer, 0, (int) Math.min(remaining, mCopyBuffer.length));
+            if (read < 0) {
+                throw new IOException("Unexpected end of file while copying " + name);
+            }
+            write(mCopyBuffer, 0, read);
+            remaining -= read;
+        }
+
+        return dataOffset;
+    }
+
+    /**
+     * Writes the central directory and closes the underlying stream.
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        try {
+            long centralDirOffset = mOffset;
+            int centralDirSize = mCentralDirectory.size();
+            mCentralDirectory.writeTo(mOut);
+            mOffset += centralDirSize;
+
+            checkSize(centralDirOffset, "archive");
+
+            ByteBuffer buffer = mHeaderBuffer;
+            buffer.clear();
+            buffer.putInt(END_OF_CENTRAL_DIR_SIGNATURE);
+            buffer.putShort((short) 0); // number of this disk
+            buffer.putShort((short) 0); // disk where the central directory starts
+            buffer.putShort((short) mEntryCount);
+            buffer.putShort((short) mEntryCount);
+            buffer.putInt(centralDirSize);
+            buffer.putInt((int) centralDirOffset);
+            buffer.putShort((short) 0); // comment length
+            write(buffer.array(), 0, END_OF_CENTRAL_DIR_SIZE);
+        } finally {
+            mOut.close();
+        }
+    }
+
+    /**
+     * Writes the local header of an entry and records its central directory header.
+     * @return the offset in the archive of the content of the entry.
+     */
+    private long writeHeaders(
+            @NonNull String name,
+            int method,
+            int dosTime,
+            long crc,
+            long compressedSize,
+            long size) throws IOException {
+        checkSize(compressedSize, name);
+        checkSize(size, name);
+        checkSize(mOffset, name);
+
+        byte[] nameBytes = name.getBytes(Charsets.UTF_8);
+        int versionNeeded = method == ZipEntry.STORED ? 10 : 20;
+        long headerOffset = mOffset;
+
+        // pad the extra field so that the content starts at an aligned offset.
+        int padding = 0;
+        if (method == ZipEntry.STORED) {
+            int alignment = mPageAlignSharedLibraries && name.endsWith(".so") ?
+                    PAGE_SIZE : mAlignment;
+            if (alignment > 1) {
+                long dataOffset = headerOffset + LOCAL_HEADER_SIZE + nameBytes.length;
+                padding = (int) ((alignment - dataOffset % alignment) % alignment);
+            }
+        }
+
+        ByteBuffer buffer = mHeaderBuffer;
+        buffer.clear();
+        buffer.putInt(LOCAL_HEADER_SIGNATURE);
+        buffer.putShort((short) versionNeeded);
+        buffer.putShort((short) FLAG_UTF8);
+        buffer.putShort((short) method);
+        buffer.putInt(dosTime);
+        buffer.putInt((int) crc);
+        buffer.putInt((int) compressedSize);
+        buffer.putInt((int) size);
+        buffer.putShort((short) nameBytes.length);
+        buffer.putShort((short) padding); // extra field length
+        write(buffer.array(), 0, LOCAL_HEADER_SIZE);
+        write(nameBytes, 0, nameBytes.length);
+        if (padding > 0) {
+            write(mPadding, 0, padding);
+        }
+
+        buffer.clear();
+        buffer.putInt(CENTRAL_HEADER_SIGNATURE);
+        buffer.putShort((short) 20); // version made by
+        buffer.putShort((short) versionNeeded);
+        buffer.putShort((short) FLAG_UTF8);
+        buffer.putShort((short) method);
+        buffer.putInt(dosTime);
+        buffer.putInt((int) crc);
+        buffer.putInt((int) compressedSize);
+        buffer.putInt((int) size);
+        buffer.putShort((short) nameBytes.length);
+        buffer.putShort((short) 0); // extra field length
+        buffer.putShort((short) 0); // comment length
+        buffer.putShort((short) 0); // disk number start
+        buffer.putShort((short) 0); // internal attributes
+        buffer.putInt(0);           // external attributes
+        buffer.putInt((int) headerOffset);
+        mCentralDirectory.write(buffer.array(), 0, CENTRAL_HEADER_SIZE);
+        mCentralDirectory.write(nameBytes, 0, nameBytes.length);
+
+        mEntryCount++;
+        if (mEntryCount > 0xFFFF) {
+            throw new IOException("Too many entries in archive");
+        }
+
+        return mOffset;
+    }
+
+    private void write(byte[] data, int offset, int length) throws IOException {
+        mOut.write(data, offset, length);
+        mOffset += length;
+    }
+
+    private static void checkSize(long size, String name) throws IOException {
+        if (size > MAX_SIZE) {
+            throw new IOException(name + " is too large, Zip64 is not supported");
+        }
+    }
+
+    /**
+     * Converts a Java time into the MS-DOS date/time format used in zip headers.
+     *
+     * @param time the time in milliseconds since the epoch.
+     * @return the MS-DOS time.
+     */
+    public static int toDosTime(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return DOS_EPOCH;
+        }
+        return (year - 1980) << 25
+                | (calendar.get(Calendar.MONTH) + 1) << 21
+                | calendar.get(Calendar.DAY_OF_MONTH) << 16
+                | calendar.get(Calendar.HOUR_OF_DAY) << 11
+                | calendar.get(Calendar.MINUTE) << 5
+                | calendar.get(Calendar.SECOND) >> 1;
+    }
+}
@@ -18,7 +18,12 @@ package com.android.builder.signing;
 
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
+import com.android.builder.internal.packaging.PackagedEntry;
+import com.android.builder.internal.packaging.ZipReader;
+import com.android.builder.internal.packaging.ZipWriter;
 import com.android.builder.signing.SignedJarBuilder.IZipEntryFilter.ZipAbortException;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
 import org.bouncycastle.asn1.ASN1InputStream;
 import org.bouncycastle.asn1.DEROutputStream;
 import org.bouncycastle.cert.jcajce.JcaCertStore;
@@ -35,14 +40,17 @@ import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
 import org.bouncycastle.util.encoders.Base64;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.channels.FileChannel;
 import java.security.DigestOutputStream;
 import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
@@ -51,18 +59,35 @@ import java.security.PrivateKey;
 import java.security.Signature;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.jar.Attributes;
-import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
-import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipInputStream;
 
 /**
  * A Jar file builder with signature support.
+ * <p/>The content of the entries can be compressed and digested by a pool of worker threads.
+ * The entries are always written in the order they were added, so the archive does not
+ * depend on the number of threads, nor on the order in which the workers complete.
  */
 public class SignedJarBuilder {
     private static final String DIGEST_ALGORITHM = "SHA1";
@@ -97,13 +122,65 @@ public class SignedJarBuilder {
         }
     }
 
-    private JarOutputStream mOutputJar;
+    /** A {@link ByteArrayOutputStream} giving access to its buffer, to avoid copying it. */
+    private static class EntryBuffer extends ByteArrayOutputStream {
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+
+    /**
+     * An entry ready to be written in the archive: its content is compressed (or stored) in
+     * memory, and its CRC and digest are computed.
+     */
+    private static final class CompressedEntry {
+        private final String mName;
+        private final int mMethod;
+        private final int mDosTime;
+        private final long mCrc;
+        private final long mSize;
+        private final byte[] mData;
+        private final int mLength;
+        private final byte[] mDigest;
+
+        CompressedEntry(String name, int method, int dosTime, long crc, long size,
+                byte[] data, int length, @Nullable byte[] digest) {
+            mName = name;
+            mMethod = method;
+            mDosTime = dosTime;
+            mCrc = crc;
+            mSize = size;
+            mData = data;
+            mLength = length;
+            mDigest = digest;
+        }
+    }
+
+    /** Creates the daemon threads compressing the entries. */
+    private static final class WorkerThreadFactory implements ThreadFactory {
+        private int mCount = 0;
+
+        @Override
+        public synchronized Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "SignedJarBuilder-" + (++mCount));
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    private ZipWriter mOutputJar;
     private PrivateKey mKey;
     private X509Certificate mCertificate;
     private Manifest mManifest;
-    private MessageDigest mMessageDigest;
 
-    private byte[] mBuffer = new byte[4096];
+    private final List<PackagedEntry> mEntries = Lists.newArrayList();
+    private int mEntryCount = 0;
+    private int mCompressionLevel = Deflater.BEST_COMPRESSION;
+
+    private final ExecutorService mExecutor;
+    private final int mMaxPendingEntries;
+    private final Queue<Future<CompressedEntry>> mPendingEntries =
+            new ArrayDeque<Future<CompressedEntry>>();
 
     /**
      * Classes which implement this interface provides a method to check whether a file should
@@ -163,8 +240,31 @@ public class SignedJarBuilder {
                             @Nullable String builtBy,
                             @Nullable String createdBy)
             throws IOException, NoSuchAlgorithmException {
-        mOutputJar = new JarOutputStream(new BufferedOutputStream(out));
-        mOutputJar.setLevel(9);
+        this(out, key, certificate, builtBy, createdBy, 1 /*threadCount*/);
+    }
+
+    /**
+     * Creates a {@link SignedJarBuilder} with a given output stream, signing information, and
+     * number of threads used to compress and digest the entries.
+     * <p/>If either <code>key</code> or <code>certificate</code> is <code>null</code> then
+     * the archive will not be signed.
+     * @param out the {@link OutputStream} where to write the Jar archive.
+     * @param key the {@link PrivateKey} used to sign the archive, or <code>null</code>.
+     * @param certificate the {@link X509Certificate} used to sign the archive, or
+     * <code>null</code>.
+     * @param threadCount the number of worker threads. If 1 or less, the entries are
+     * compressed on the calling thread.
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    public SignedJarBuilder(@NonNull OutputStream out,
+                            @Nullable PrivateKey key,
+                            @Nullable X509Certificate certificate,
+                            @Nullable String builtBy,
+                            @Nullable String createdBy,
+                            int threadCount)
+            throws IOException, NoSuchAlgorithmException {
+        mOutputJar = new ZipWriter(new BufferedOutputStream(out));
         mKey = key;
         mCertificate = certificate;
 
@@ -179,30 +279,90 @@ public class SignedJarBuilder {
                 main.putValue("Created-By", createdBy);
             }
 
-            mMessageDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            // fail early if the digest algorithm is not available.
+            MessageDigest.getInstance(DIGEST_ALGORITHM);
+        }
+
+        if (threadCount > 1) {
+            mExecutor = Executors.newFixedThreadPool(threadCount, new WorkerThreadFactory());
+            // bounds the memory used by the entries waiting to be written.
+            mMaxPendingEntries = threadCount * 2;
+        } else {
+            mExecutor = null;
+            mMaxPendingEntries = 0;
         }
     }
 
+    /**
+     * Sets the level used to compress the entries that are deflated. Defaults to
+     * {@link Deflater#BEST_COMPRESSION}.
+     * <p/>This only applies to the entries added after this call.
+     * @param level the compression level, from 0 to 9.
+     */
+    public void setCompressionLevel(int level) {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        mCompressionLevel = level;
+    }
+
+    /**
+     * Sets the alignment of the content of the stored entries, as done by the zipalign tool.
+     * <p/>This only applies to the entries added after this call.
+     * @param alignment the alignment in bytes, or 0 to not align the entries.
+     * @param pageAlignSharedLibraries whether to align stored .so files to the page size
+     * instead.
+     * @throws IOException
+     * @see ZipWriter#setAlignment(int, boolean)
+     */
+    public void setAlignment(int alignment, boolean pageAlignSharedLibraries)
+            throws IOException {
+        // the entries already added must be written with the previous alignment.
+        flushPendingEntries();
+        mOutputJar.setAlignment(alignment, pageAlignSharedLibraries);
+    }
+
     /**
      * Writes a new {@link File} into the archive.
+     * <p/>The file may be read and compressed after this method returns, but before
+     * {@link #close()} returns.
      * @param inputFile the {@link File} to write.
      * @param jarPath the filepath inside the archive.
      * @throws IOException
      */
     public void writeFile(File inputFile, String jarPath) throws IOException {
-        // Get an input stream on the file.
-        FileInputStream fis = new FileInputStream(inputFile);
-        try {
-
-            // create the zip entry
-            JarEntry entry = new JarEntry(jarPath);
-            entry.setTime(inputFile.lastModified());
+        writeFile(inputFile, jarPath, ZipEntry.DEFLATED);
+    }
 
-            writeEntry(fis, entry);
-        } finally {
-            // close the file stream used to read the file
-            fis.close();
-        }
+    /**
+     * Writes a new {@link File} into the archive, with a given compression method.
+     * <p/>The file may be read and compressed after this method returns, but before
+     * {@link #close()} returns.
+     * @param inputFile the {@link File} to write.
+     * @param jarPath the filepath inside the archive.
+     * @param method the compression method, {@link ZipEntry#DEFLATED} or
+     * {@link ZipEntry#STORED}.
+     * @throws IOException
+     */
+    public void writeFile(final File inputFile, final String jarPath, final int method)
+            throws IOException {
+        final int dosTime = ZipWriter.toDosTime(inputFile.lastModified());
+        final boolean signed = mManifest != null;
+        final int level = mCompressionLevel;
+
+        submit(new Callable<CompressedEntry>() {
+            @Override
+            public CompressedEntry call() throws Exception {
+                // Get an input stream on the file.
+                FileInputStream fis = new FileInputStream(inputFile);
+                try {
+                    return compress(fis, jarPath, dosTime, method, level, signed);
+                } finally {
+                    // close the file stream used to read the file
+                    fis.close();
+                }
+            }
+        });
     }
 
     /**
@@ -218,12 +378,14 @@ public class SignedJarBuilder {
     public void writeZip(InputStream input, IZipEntryFilter filter)
             throws IOException, ZipAbortException {
         ZipInputStream zis = new ZipInputStream(input);
+        final boolean signed = mManifest != null;
+        final int level = mCompressionLevel;
 
         try {
             // loop on the entries of the intermediary package and put them in the final package.
             ZipEntry entry;
             while ((entry = zis.getNextEntry()) != null) {
-                String name = entry.getName();
+                final String name = entry.getName();
 
                 // do not take directories or anything inside a potential META-INF folder.
                 if (entry.isDirectory() || name.startsWith("META-INF/")) {
@@ -235,17 +397,23 @@ public class SignedJarBuilder {
                     continue;
                 }
 
-                JarEntry newEntry;
-
                 // Preserve the STORED method of the input entry.
-                if (entry.getMethod() == JarEntry.STORED) {
-                    newEntry = new JarEntry(entry);
-                } else {
-                    // Create a new entry so that the compressed len is recomputed.
-                    newEntry = new JarEntry(name);
-                }
-
-                writeEntry(zis, newEntry);
+                final int method = entry.getMethod() == ZipEntry.STORED ?
+                        ZipEntry.STORED : ZipEntry.DEFLATED;
+                long time = entry.getTime();
+                final int dosTime = time != -1 ?
+                        ZipWriter.toDosTime(time) : ZipWriter.DOS_EPOCH;
+
+                // the stream can only be read on this thread.
+                final byte[] content = ByteStreams.toByteArray(zis);
+
+                submit(new Callable<CompressedEntry>() {
+                    @Override
+                    public CompressedEntry call() throws Exception {
+                        return compress(new ByteArrayInputStream(content), name, dosTime, method,
+                                level, signed);
+                    }
+                });
 
                 zis.closeEntry();
             }
@@ -254,31 +422,166 @@ public class SignedJarBuilder {
         }
     }
 
+    /**
+     * Copies the content of a Jar/Zip archive into the receiver archive.
+     * <p/>Unlike {@link #writeZip(InputStream, IZipEntryFilter)}, the entries are copied without
+     * being uncompressed and compressed again. If the archive is signed, deflated entries are
+     * still inflated to compute their digest.
+     * <p/>An optional {@link IZipEntryFilter} allows to selectively choose which files
+     * to copy over.
+     * @param input the Jar/Zip {@link File} to copy.
+     * @param filter the filter or <code>null</code>
+     * @throws IOException
+     * @throws ZipAbortException if the {@link IZipEntryFilter} filter indicated that the write
+     *                           must be aborted.
+     */
+    public void writeZip(File input, IZipEntryFilter filter)
+            throws IOException, ZipAbortException {
+        final ZipReader reader = new ZipReader(input);
+
+        try {
+            for (final ZipReader.Entry entry : reader.getEntries()) {
+                String name = entry.getName();
+
+                // do not take directories or anything inside a potential META-INF folder.
+                if (entry.isDirectory() || name.startsWith("META-INF/")) {
+                    continue;
+                }
+
+                // if we have a filter, we check the entry against it
+                if (filter != null && !filter.checkEntry(name)) {
+                    continue;
+                }
+
+                if (mManifest == null) {
+                    // nothing to compute, copy the raw content directly.
+                    flushPendingEntries();
+                    long dataOffset = mOutputJar.writeEntry(
+                            name,
+                            entry.getMethod(),
+                            entry.getDosTime(),
+                            entry.getCrc(),
+                            entry.getCompressedSize(),
+                            entry.getSize(),
+                            reader.getChannel(),
+                            reader.getDataOffset(entry));
+
+                    mEntryCount++;
+                    addEntry(new PackagedEntry(
+                            name,
+                            entry.getMethod(),
+                            entry.getDosTime(),
+                            entry.getCrc(),
+                            entry.getCompressedSize(),
+                            entry.getSize(),
+                            dataOffset,
+                            null /*digest*/));
+                } else {
+                    submit(new Callable<CompressedEntry>() {
+                        @Override
+                        public CompressedEntry call() throws Exception {
+                            return readAndDigest(reader, entry);
+                        }
+                    });
+                }
+            }
+
+            // the reader must not be closed while entries are read from it.
+            flushPendingEntries();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Copies an entry, as is, from a previously written archive.
+     * <p/>The content of the entry is neither uncompressed nor read: its CRC, sizes and
+     * digest are taken from the given {@link PackagedEntry}.
+     * @param entry the entry, as written in the previous archive.
+     * @param source the {@link FileChannel} of the previous archive.
+     * @throws IOException
+     */
+    public void copyEntry(@NonNull PackagedEntry entry, @NonNull FileChannel source)
+            throws IOException {
+        if (mManifest != null && entry.getDigest() == null) {
+            throw new IllegalArgumentException("Missing digest for " + entry.getName());
+        }
+
+        flushPendingEntries();
+
+        long dataOffset = mOutputJar.writeEntry(
+                entry.getName(),
+                entry.getMethod(),
+                entry.getDosTime(),
+                entry.getCrc(),
+                entry.getCompressedSize(),
+                entry.getSize(),
+                source,
+                entry.getDataOffset());
+
+        mEntryCount++;
+        addEntry(new PackagedEntry(
+                entry.getName(),
+                entry.getMethod(),
+                entry.getDosTime(),
+                entry.getCrc(),
+                entry.getCompressedSize(),
+                entry.getSize(),
+                dataOffset,
+                entry.getDigest()));
+    }
+
+    /**
+     * Returns the number of entries added so far, including the ones that are not written yet.
+     * <p/>This does not include the manifest and signature files.
+     */
+    public int getEntryCount() {
+        return mEntryCount;
+    }
+
+    /**
+     * Returns the entries written so far, in the order they were added.
+     * <p/>Entries still being compressed are not included, until {@link #close()} is called.
+     * This does not include the manifest and signature files.
+     */
+    @NonNull
+    public List<PackagedEntry> getEntries() {
+        return Collections.unmodifiableList(mEntries);
+    }
+
     /**
      * Closes the Jar archive by creating the manifest, and signing the archive.
      * @throws IOException
      * @throws SigningException
      */
     public void close() throws IOException, SigningException {
+        flushPendingEntries();
+        shutdownExecutor();
+
         if (mManifest != null) {
+            // use a fixed time so that the archive only depends on its content.
+            int dosTime = ZipWriter.DOS_EPOCH;
+
             // write the manifest to the jar file
-            mOutputJar.putNextEntry(new JarEntry(JarFile.MANIFEST_NAME));
-            mManifest.write(mOutputJar);
+            ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+            mManifest.write(manifest);
+            writeMetaEntry(JarFile.MANIFEST_NAME, manifest.toByteArray(), dosTime);
 
             try {
                 // CERT.SF
                 Signature signature = Signature.getInstance("SHA1with" + mKey.getAlgorithm());
                 signature.initSign(mKey);
-                mOutputJar.putNextEntry(new JarEntry("META-INF/CERT.SF"));
 
                 ByteArrayOutputStream baos = new ByteArrayOutputStream();
                 writeSignatureFile(baos);
                 byte[] signedData = baos.toByteArray();
-                mOutputJar.write(signedData);
+                writeMetaEntry("META-INF/CERT.SF", signedData, dosTime);
 
                 // CERT.*
-                mOutputJar.putNextEntry(new JarEntry("META-INF/CERT." + mKey.getAlgorithm()));
-                writeSignatureBlock(new CMSProcessableByteArray(signedData), mCertificate, mKey);
+                writeMetaEntry("META-INF/CERT." + mKey.getAlgorithm(),
+                        writeSignatureBlock(
+                                new CMSProcessableByteArray(signedData), mCertificate, mKey),
+                        dosTime);
             } catch (Exception e) {
                 throw new SigningException(e);
             }
@@ -293,6 +596,12 @@ public class SignedJarBuilder {
      * This does nothing if {@link #close()} was called successfully.
      */
     public void cleanUp() {
+        for (Future<CompressedEntry> pendingEntry : mPendingEntries) {
+            pendingEntry.cancel(true /*mayInterruptIfRunning*/);
+        }
+        mPendingEntries.clear();
+        shutdownExecutor();
+
         if (mOutputJar != null) {
             try {
                 mOutputJar.close();
@@ -303,28 +612,218 @@ public class SignedJarBuilder {
     }
 
     /**
-     * Adds an entry to the output jar, and write its content from the {@link InputStream}
-     * @param input The input stream from where to write the entry content.
-     * @param entry the entry to write in the jar.
+     * Schedules the computation of an entry. The entry is written once all the entries
+     * scheduled before it have been written.
+     * @param job the computation of the entry.
      * @throws IOException
      */
-    private void writeEntry(InputStream input, JarEntry entry) throws IOException {
-        // add the entry to the jar archive
-        mOutputJar.putNextEntry(entry);
-
-        // read the content of the entry from the input stream, and write it into the archive.
-        int count;
-        while ((count = input.read(mBuffer)) != -1) {
-            mOutputJar.write(mBuffer, 0, count);
-
-            // update the digest
-            if (mMessageDigest != null) {
-                mMessageDigest.update(mBuffer, 0, count);
+    private void submit(Callable<CompressedEntry> job) throws IOException {
+        mEntryCount++;
+
+        if (mExecutor == null) {
+            writeCompressedEntry(call(job));
+            return;
+        }
+
+        mPendingEntries.add(mExecutor.submit(job));
+
+        // write the entries that are ready, and wait for the oldest ones if too many are
+        // waiting.
+        while (!mPendingEntries.isEmpty() &&
+                (mPendingEntries.peek().isDone() ||
+                        mPendingEntries.size() > mMaxPendingEntries)) {
+            writeCompressedEntry(getResult(mPendingEntries.remove()));
+        }
+    }
+
+    /**
+     * Writes all the scheduled entries, waiting for their computation if needed.
+     * @throws IOException
+     */
+    private void flushPendingEntries() throws IOException {
+        while (!mPendingEntries.isEmpty()) {
+            writeCompressedEntry(getResult(mPendingEntries.remove()));
+        }
+    }
+
+    private void shutdownExecutor() {
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+        }
+    }
+
+    private static CompressedEntry call(Callable<CompressedEntry> job) throws IOException {
+        try {
+            return job.call();
+        } catch (IOException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static CompressedEntry getResult(Future<CompressedEntry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while packaging");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
             }
+            throw new IOException(cause);
         }
+    }
 
-        // close the entry for this file
-        mOutputJar.closeEntry();
+    /**
+     * Writes a computed entry in the output jar, and records it.
+     */
+    private void writeCompressedEntry(CompressedEntry entry) throws IOException {
+        long dataOffset = mOutputJar.writeEntry(entry.mName, entry.mMethod, entry.mDosTime,
+                entry.mCrc, entry.mSize, entry.mData, entry.mLength);
+
+        addEntry(new PackagedEntry(entry.mName, entry.mMethod, entry.mDosTime, entry.mCrc,
+                entry.mLength, entry.mSize, dataOffset, entry.mDigest));
+    }
+
+    /**
+     * Adds a META-INF entry to the output jar. Such entries are not part of the manifest.
+     */
+    private void writeMetaEntry(String name, byte[] content, int dosTime) throws IOException {
+        CompressedEntry entry = compress(new ByteArrayInputStream(content), name, dosTime,
+                ZipEntry.DEFLATED, mCompressionLevel, false /*digest*/);
+        mOutputJar.writeEntry(entry.mName, entry.mMethod, entry.mDosTime, entry.mCrc,
+                entry.mSize, entry.mData, entry.mLength);
+    }
+
+    /**
+     * Reads the content of an entry, compresses it if needed, and computes its CRC and digest.
+     * <p/>This is called on worker threads, and must not access the state of the builder.
+     * @param input The input stream from where to read the entry content.
+     * @param name the path of the entry in the jar.
+     * @param dosTime the modification time of the entry, in MS-DOS format.
+     * @param method the compression method of the entry.
+     * @param level the compression level, if the entry is deflated.
+     * @param digest whether to compute the digest of the uncompressed content.
+     * @return the entry to write.
+     * @throws IOException
+     */
+    private static CompressedEntry compress(InputStream input, String name, int dosTime,
+            int method, int level, boolean digest) throws IOException {
+        CRC32 crc = new CRC32();
+        MessageDigest messageDigest = digest ? newMessageDigest() : null;
+        EntryBuffer entryBuffer = new EntryBuffer();
+        byte[] buffer = new byte[8192];
+
+        OutputStream out = entryBuffer;
+        Deflater deflater = null;
+        DeflaterOutputStream deflaterStream = null;
+        if (method == ZipEntry.DEFLATED) {
+            deflater = new Deflater(level, true /*nowrap*/);
+            deflaterStream = new DeflaterOutputStream(entryBuffer, deflater, buffer.length);
+            out = deflaterStream;
+        }
+
+        try {
+            // read the content of the entry from the input stream, and write it into the buffer.
+            long size = 0;
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+                crc.update(buffer, 0, count);
+                size += count;
+
+                // update the digest
+                if (messageDigest != null) {
+                    messageDigest.update(buffer, 0, count);
+                }
+            }
+
+            if (deflaterStream != null) {
+                deflaterStream.finish();
+            }
+
+            return new CompressedEntry(name, method, dosTime, crc.getValue(), size,
+                    entryBuffer.getBuffer(), entryBuffer.size(),
+                    messageDigest != null ? messageDigest.digest() : null);
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * Reads the raw content of an entry of another archive, and computes the digest of its
+     * uncompressed content.
+     * <p/>This is called on worker threads, and must not access the state of the builder.
+     * @param reader the archive to read the entry from.
+     * @param entry the entry to read.
+     * @return the entry to write, with its content as found in <var>reader</var>.
+     * @throws IOException
+     */
+    private static CompressedEntry readAndDigest(ZipReader reader, ZipReader.Entry entry)
+            throws IOException {
+        byte[] data = new byte[(int) entry.getCompressedSize()];
+        ByteStreams.readFully(reader.getRawInputStream(entry), data);
+
+        MessageDigest messageDigest = newMessageDigest();
+        long size;
+        if (entry.getMethod() == ZipEntry.DEFLATED) {
+            Inflater inflater = new Inflater(true /*nowrap*/);
+            try {
+                inflater.setInput(data);
+                byte[] buffer = new byte[8192];
+                size = 0;
+                while (!inflater.finished() && !inflater.needsInput()) {
+                    int count = inflater.inflate(buffer);
+                    if (count == 0 && inflater.needsDictionary()) {
+                        throw new ZipException("Unsupported preset dictionary in " +
+                                entry.getName());
+                    }
+                    messageDigest.update(buffer, 0, count);
+                    size += count;
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException("Invalid content for entry " + entry.getName() + ": " +
+                        e.getMessage());
+            } finally {
+                inflater.end();
+            }
+        } else {
+            messageDigest.update(data);
+            size = data.length;
+        }
+
+        if (size != entry.getSize()) {
+            throw new ZipException("Invalid size for entry " + entry.getName());
+        }
+
+        return new CompressedEntry(entry.getName(), entry.getMethod(), entry.getDosTime(),
+                entry.getCrc(), entry.getSize(), data, data.length, messageDigest.digest());
+    }
+
+    private static MessageDigest newMessageDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Records a written entry, and updates the manifest with its digest.
+     */
+    private void addEntry(PackagedEntry entry) throws IOException {
+        mEntries.add(entry);
 
         if (mManifest != null) {
             // update the manifest for this entry.
@@ -333,8 +832,8 @@ public class SignedJarBuilder {
                 attr = new Attributes();
                 mManifest.getEntries().put(entry.getName(), attr);
             }
-            attr.putValue(DIGEST_ATTR, 
-                          new String(Base64.encode(mMessageDigest.digest()), "ASCII"));
+            attr.putValue(DIGEST_ATTR,
+                          new String(Base64.encode(entry.getDigest()), "ASCII"));
         }
     }
 
@@ -383,8 +882,8 @@ public class SignedJarBuilder {
         }
     }
 
-    /** Write the certificate file with a digital signature. */
-    private void writeSignatureBlock(CMSTypedData data, X509Certificate publicKey,
+    /** Creates the certificate file with a digital signature. */
+    private byte[] writeSignatureBlock(CMSTypedData data, X509Certificate publicKey,
             PrivateKey privateKey)
                         throws IOException,
                         CertificateEncodingException,
@@ -408,12 +907,15 @@ public class SignedJarBuilder {
         gen.addCertificates(certs);
         CMSSignedData sigData = gen.generate(data, false);
 
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
         ASN1InputStream asn1 = new ASN1InputStream(sigData.getEncoded());
-        DEROutputStream dos = new DEROutputStream(mOutputJar);
+        DEROutputStream dos = new DEROutputStream(out);
         dos.writeObject(asn1.readObject());
 
         dos.flush();
         dos.close();
         asn1.close();
+
+        return out.toByteArray();
     }
 }
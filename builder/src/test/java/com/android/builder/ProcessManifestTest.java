@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder;
+
+import com.android.annotations.NonNull;
+import com.android.builder.dependency.ManifestDependency;
+import com.android.ide.common.internal.CommandLineRunner;
+import com.android.manifmerger.ManifestMerger;
+import com.android.manifmerger.MergerLog;
+import com.android.sdklib.BuildToolInfo;
+import com.android.sdklib.IAndroidTarget;
+import com.android.sdklib.repository.FullRevision;
+import com.android.utils.ILogger;
+import com.android.utils.StdLogger;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+@SuppressWarnings("javadoc")
+public class ProcessManifestTest extends TempFolderTestCase {
+
+    private final ILogger mLogger = new StdLogger(StdLogger.Level.WARNING);
+
+    /**
+     * Checks that merging in memory gives the same manifest as merging each level of the
+     * library graph into an intermediate file, source markers included.
+     */
+    public void testLibraryGraph() throws Exception {
+        File mainManifest = createManifest("app", "com.example.app", "MainActivity");
+        File libManifest = createManifest("lib", "com.example.lib", "LibActivity");
+        File subLibManifest = createManifest("sublib", "com.example.sublib", "SubLibActivity");
+
+        FakeManifestDependency subLib = new FakeManifestDependency(subLibManifest,
+                Collections.<ManifestDependency>emptyList());
+        FakeManifestDependency lib = new FakeManifestDependency(libManifest,
+                Collections.singletonList(subLib));
+
+        File outManifest = new File(mFolder, "AndroidManifest.xml");
+        AndroidBuilder builder = new AndroidBuilder(new FakeSdkParser(),
+                new CommandLineRunner(mLogger), mLogger, false /*verboseExec*/);
+        assertTrue(builder.isInsertSourceMarkers());
+
+        builder.processManifest(mainManifest, Collections.<File>emptyList(),
+                Collections.singletonList(lib), null, -1, null, -1, -1,
+                outManifest.getAbsolutePath());
+
+        // the same merge through an intermediate file, like the merge used to be done.
+        File intermediateManifest = new File(new File(mFolder, "intermediate-lib"),
+                "AndroidManifest.xml");
+        Files.createParentDirs(intermediateManifest);
+        File expectedManifest = new File(mFolder, "expected.xml");
+        assertTrue(createManifestMerger().process(intermediateManifest, libManifest,
+                new File[] { subLibManifest }, null, null));
+        assertTrue(createManifestMerger().process(expectedManifest, mainManifest,
+                new File[] { intermediateManifest }, null, null));
+
+        // the only difference is that the markers refer to the library manifest instead
+        // of the intermediate file.
+        String expected = Files.toString(expectedManifest, Charsets.UTF_8)
+                .replace("intermediate-lib", "lib");
+        String actual = Files.toString(outManifest, Charsets.UTF_8);
+        assertEquals(expected, actual);
+        assertTrue(actual.contains("LibActivity"));
+        assertTrue(actual.contains("SubLibActivity"));
+        assertTrue(actual.contains(libManifest.getParentFile().getName()));
+    }
+
+    /**
+     * Checks that all the direct libraries are merged in a single pass with the attribute
+     * injection and the package override, so that the tools: attributes of the main manifest
+     * apply to every library, like when merging files.
+     */
+    public void testDirectLibrariesWithInjection() throws Exception {
+        String sharedActivity = "        <activity android:name=\"com.example.SharedActivity\"";
+        File mainManifest = createManifestWithContent("app", "com.example.app",
+                sharedActivity + " tools:merge=\"override\" android:label=\"app\" />\n");
+        File lib1Manifest = createManifestWithContent("lib1", "com.example.lib1",
+                sharedActivity + " android:label=\"lib1\" />\n");
+        File lib2Manifest = createManifestWithContent("lib2", "com.example.lib2",
+                sharedActivity + " android:label=\"lib2\" />\n");
+        File subLibManifest = createManifestWithContent("sublib", "com.example.sublib",
+                "        <activity android:name=\"com.example.sublib.SubLibActivity\" />\n");
+
+        FakeManifestDependency lib1 = new FakeManifestDependency(lib1Manifest,
+                Collections.<ManifestDependency>emptyList());
+        FakeManifestDependency subLib = new FakeManifestDependency(subLibManifest,
+                Collections.<ManifestDependency>emptyList());
+        FakeManifestDependency lib2 = new FakeManifestDependency(lib2Manifest,
+                Collections.singletonList(subLib));
+
+        File outManifest = new File(mFolder, "AndroidManifest.xml");
+        AndroidBuilder builder = new AndroidBuilder(new FakeSdkParser(),
+                new CommandLineRunner(mLogger), mLogger, false /*verboseExec*/);
+
+        builder.processManifest(mainManifest, Collections.<File>emptyList(),
+                Arrays.asList(lib1, lib2), "com.example.app.debug", 12, "1.2", 9, 19,
+                outManifest.getAbsolutePath());
+
+        // the same merge through an intermediate file, like the merge used to be done.
+        File intermediateManifest = new File(new File(mFolder, "intermediate-lib2"),
+                "AndroidManifest.xml");
+        Files.createParentDirs(intermediateManifest);
+        File expectedManifest = new File(mFolder, "expected.xml");
+        assertTrue(createManifestMerger().process(intermediateManifest, lib2Manifest,
+                new File[] { subLibManifest }, null, null));
+
+        Map<String, String> attributeInjection = Maps.newHashMap();
+        attributeInjection.put(
+                "/manifest|http://schemas.android.com/apk/res/android versionCode", "12");
+        attributeInjection.put(
+                "/manifest|http://schemas.android.com/apk/res/android versionName", "1.2");
+        attributeInjection.put(
+                "/manifest/uses-sdk|http://schemas.android.com/apk/res/android minSdkVersion",
+                "9");
+        attributeInjection.put(
+                "/manifest/uses-sdk|http://schemas.android.com/apk/res/android targetSdkVersion",
+                "19");
+        assertTrue(createManifestMerger().process(expectedManifest, mainManifest,
+                new File[] { lib1Manifest, intermediateManifest }, attributeInjection,
+                "com.example.app.debug"));
+
+        // the only difference is the name of the file lib2 is merged from.
+        String expected = Files.toString(expectedManifest, Charsets.UTF_8)
+                .replace(intermediateManifest.getAbsolutePath(), "lib2.xml");
+        String tempFiles = new File(System.getProperty("java.io.tmpdir"), "manifestMerge")
+                .getAbsolutePath();
+        String actual = Files.toString(outManifest, Charsets.UTF_8)
+                .replaceAll(Pattern.quote(tempFiles) + "[0-9]*\\.xml", "lib2.xml");
+        assertEquals(expected, actual);
+        assertTrue(actual.contains("com.example.app.debug"));
+        assertTrue(actual.contains("android:label=\"app\""));
+        assertFalse(actual.contains("android:label=\"lib1\""));
+        assertFalse(actual.contains("android:label=\"lib2\""));
+        assertTrue(actual.contains("SubLibActivity"));
+    }
+
+    @NonNull
+    private ManifestMerger createManifestMerger() {
+        ManifestMerger merger = new ManifestMerger(MergerLog.wrapSdkLog(mLogger), null);
+        merger.setInsertSourceMarkers(true);
+        return merger;
+    }
+
+    @NonNull
+    private File createManifest(
+            @NonNull String folderName,
+            @NonNull String packageName,
+            @NonNull String activityName) throws IOException {
+        return createManifestWithContent(folderName, packageName,
+                "        <activity android:name=\"" + packageName + "." + activityName +
+                        "\" />\n");
+    }
+
+    @NonNull
+    private File createManifestWithContent(
+            @NonNull String folderName,
+            @NonNull String packageName,
+            @NonNull String applicationContent) throws IOException {
+        File manifest = new File(new File(mFolder, folderName), "AndroidManifest.xml");
+        Files.createParentDirs(manifest);
+        Files.write(
+                "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+                "<manifest xmlns:android=\"http://schemas.android.com/apk/res/android\"\n" +
+                "    xmlns:tools=\"http://schemas.android.com/tools\"\n" +
+                "    package=\"" + packageName + "\">\n" +
+                "    <application>\n" +
+                applicationContent +
+                "    </application>\n" +
+                "</manifest>\n",
+                manifest, Charsets.UTF_8);
+        return manifest;
+    }
+
+    private static final class FakeManifestDependency implements ManifestDependency {
+        private final File mManifest;
+        private final List<? extends ManifestDependency> mDependencies;
+
+        FakeManifestDependency(File manifest, List<? extends ManifestDependency> dependencies) {
+            mManifest = manifest;
+            mDependencies = dependencies;
+        }
+
+        @NonNull
+        @Override
+        public File getManifest() {
+            return mManifest;
+        }
+
+        @NonNull
+        @Override
+        public List<? extends ManifestDependency> getManifestDependencies() {
+            return mDependencies;
+        }
+    }
+
+    /**
+     * An SDK parser without SDK. Merging manifests does not use the SDK.
+     */
+    private static final class FakeSdkParser implements SdkParser {
+        @Override
+        public void initParser(@NonNull String target, @NonNull FullRevision buildToolRevision,
+                @NonNull ILogger logger) {
+        }
+
+        @NonNull
+        @Override
+        public IAndroidTarget getTarget() {
+            //noinspection ConstantConditions
+            return null;
+        }
+
+        @NonNull
+        @Override
+        public BuildToolInfo getBuildTools() {
+            //noinspection ConstantConditions
+            return null;
+        }
+
+        @NonNull
+        @Override
+        public String getAnnotationsJar() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FullRevision getPlatformToolsRevision() {
+            return null;
+        }
+
+        @NonNull
+        @Override
+        public File getZipAlign() {
+            throw new UnsupportedOperationException();
+        }
+
+        @NonNull
+        @Override
+        public File getAdb() {
+            throw new UnsupportedOperationException();
+        }
+
+        @NonNull
+        @Override
+        public List<File> getRepositories() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public File getNdkLocation() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal;
+
+import com.android.builder.DefaultManifestParser;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import junit.framework.TestCase;
+
+import java.io.File;
+
+@SuppressWarnings("javadoc")
+public class ManifestInfoTest extends TestCase {
+
+    private File mManifest;
+
+    @Override
+    protected void setUp() throws Exception {
+        mManifest = File.createTempFile("AndroidManifest", ".xml");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mManifest.delete();
+    }
+
+    public void testAttributes() throws Exception {
+        Files.write(
+                "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+                "<manifest xmlns:android=\"http://schemas.android.com/apk/res/android\"\n" +
+                "    package=\"com.example.app\"\n" +
+                "    android:versionCode=\"12\"\n" +
+                "    android:versionName=\"1.2\">\n" +
+                "  <application>\n" +
+                "    <uses-sdk android:minSdkVersion=\"3\" />\n" +
+                "  </application>\n" +
+                "  <uses-sdk android:minSdkVersion=\"8\" android:targetSdkVersion=\"19\" />\n" +
+                "  <instrumentation android:name=\"android.test.InstrumentationTestRunner\"\n" +
+                "      android:targetPackage=\"com.example.app\" />\n" +
+                "</manifest>\n",
+                mManifest, Charsets.UTF_8);
+
+        ManifestInfo info = ManifestInfo.get(mManifest);
+        assertEquals("com.example.app", info.getPackage());
+        assertEquals("1.2", info.getVersionName());
+        assertEquals(12, info.getVersionCode());
+        assertEquals(8, info.getMinSdkVersion());
+        assertEquals(19, info.getTargetSdkVersion());
+        assertEquals("android.test.InstrumentationTestRunner", info.getInstrumentationName());
+        assertEquals("com.example.app", info.getInstrumentationTargetPackage());
+
+        // the manifest is only parsed once.
+        assertSame(info, ManifestInfo.get(mManifest));
+    }
+
+    public void testMissingAttributes() throws Exception {
+        Files.write(
+                "<manifest xmlns:android=\"http://schemas.android.com/apk/res/android\"\n" +
+                "    android:package=\"com.example.app\">\n" +
+                "  <uses-sdk android:minSdkVersion=\"KeyLimePie\" />\n" +
+                "</manifest>\n",
+                mManifest, Charsets.UTF_8);
+
+        ManifestInfo info = ManifestInfo.get(mManifest);
+        assertNull(info.getPackage());
+        assertNull(info.getVersionName());
+        assertEquals(-1, info.getVersionCode());
+        assertEquals(1, info.getMinSdkVersion());
+        assertEquals(-1, info.getTargetSdkVersion());
+        assertNull(info.getInstrumentationName());
+
+        // the parser keeps returning empty strings for missing values.
+        DefaultManifestParser parser = new DefaultManifestParser();
+        assertEquals("", parser.getPackage(mManifest));
+        assertEquals("", parser.getVersionName(mManifest));
+    }
+
+    public void testInvalidManifest() throws Exception {
+        Files.write("<manifest package=\"com.example.app\">", mManifest, Charsets.UTF_8);
+
+        try {
+            ManifestInfo.get(mManifest);
+            fail("Expected RuntimeException");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains(mManifest.getAbsolutePath()));
+        }
+    }
+
+    public void testModifiedManifest() throws Exception {
+        Files.write("<manifest package=\"com.example.app\" />", mManifest, Charsets.UTF_8);
+        assertEquals("com.example.app", ManifestInfo.get(mManifest).getPackage());
+
+        Files.write("<manifest package=\"com.example.app2\" />", mManifest, Charsets.UTF_8);
+        assertEquals("com.example.app2", ManifestInfo.get(mManifest).getPackage());
+    }
+}
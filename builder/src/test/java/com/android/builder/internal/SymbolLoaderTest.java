@@ -22,6 +22,7 @@ import com.google.common.io.Files;
 import junit.framework.TestCase;
 
 import java.io.File;
+import java.io.IOException;
 
 @SuppressWarnings("javadoc")
 public class SymbolLoaderTest extends TestCase {
@@ -55,4 +56,119 @@ public class SymbolLoaderTest extends TestCase {
         assertNotNull(symbols);
         assertEquals(4, symbols.size());
     }
+
+    public void testValues() throws Exception {
+        String r = "" +
+            "int[] styleable LimitedSizeLinearLayout { 0x7f010000, 0x7f010001 }\n" +
+            "int styleable LimitedSizeLinearLayout_max_height 1\n" +
+            "int styleable LimitedSizeLinearLayout_max_width 0\n" +
+            "int xml authenticator 0x7f040000\n" +
+            "int xml upper 0x7F040001\n" +
+            "int xml zero 0x00000000\n" +
+            "int xml padded 007\n" +
+            "int drawable icon 0x7f020000\n" +
+            "int drawable icon 0x7f020001\n";
+        File file = File.createTempFile(getClass().getSimpleName(), "txt");
+        file.deleteOnExit();
+        Files.write(r, file, Charsets.UTF_8);
+        SymbolLoader loader = new SymbolLoader(file, NullLogger.getLogger());
+        loader.load();
+
+        // values are written back the way they were read.
+        assertEquals("{ 0x7f010000, 0x7f010001 }",
+                loader.getSymbol("styleable", "LimitedSizeLinearLayout").getValue());
+        assertEquals("int[]", loader.getSymbol("styleable", "LimitedSizeLinearLayout").getType());
+        assertEquals("1", loader.getSymbol("styleable", "LimitedSizeLinearLayout_max_height").getValue());
+        assertEquals("0", loader.getSymbol("styleable", "LimitedSizeLinearLayout_max_width").getValue());
+        assertEquals("0x7f040000", loader.getSymbol("xml", "authenticator").getValue());
+        assertEquals("0x7F040001", loader.getSymbol("xml", "upper").getValue());
+        assertEquals("0x00000000", loader.getSymbol("xml", "zero").getValue());
+        assertEquals("007", loader.getSymbol("xml", "padded").getValue());
+
+        // the last value of a symbol wins.
+        assertEquals("0x7f020001", loader.getSymbol("drawable", "icon").getValue());
+
+        assertNull(loader.getSymbol("xml", "missing"));
+        assertNull(loader.getSymbol("missing", "authenticator"));
+
+        SymbolLoader.ClassSymbols[] classes = loader.getClasses();
+        assertEquals(3, classes.length);
+        assertEquals("drawable", classes[0].getName());
+        assertEquals("styleable", classes[1].getName());
+        assertEquals("xml", classes[2].getName());
+        assertEquals("authenticator", classes[2].getSymbolName(0));
+        assertEquals("zero", classes[2].getSymbolName(3));
+    }
+
+    public void testFormatError() throws Exception {
+        String r = "" +
+            "int xml authenticator 0x7f040000\n" +
+            "int xml\n";
+        File file = File.createTempFile(getClass().getSimpleName(), "txt");
+        file.deleteOnExit();
+        Files.write(r, file, Charsets.UTF_8);
+        SymbolLoader loader = new SymbolLoader(file, NullLogger.getLogger());
+        try {
+            loader.load();
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("line 2"));
+        }
+    }
+
+    public void testIndex() throws Exception {
+        String r = "" +
+            "int[] styleable LimitedSizeLinearLayout { 0x7f010000, 0x7f010001 }\n" +
+            "int styleable LimitedSizeLinearLayout_max_height 1\n" +
+            "int xml authenticator 0x7f040000\n";
+        File folder = Files.createTempDir();
+        File file = new File(folder, "R.txt");
+        Files.write(r, file, Charsets.UTF_8);
+        File indexFolder = new File(folder, "index");
+        File indexFile = SymbolIndex.getIndexFile(file, indexFolder);
+
+        SymbolLoader loader = new SymbolLoader(file, NullLogger.getLogger());
+        loader.loadWithIndex(indexFolder);
+        assertTrue(indexFile.isFile());
+        assertEquals("0x7f040000", loader.getSymbol("xml", "authenticator").getValue());
+
+        // load from the index.
+        long indexTimestamp = indexFile.lastModified();
+        loader = new SymbolLoader(file, NullLogger.getLogger());
+        loader.loadWithIndex(indexFolder);
+        assertEquals(indexTimestamp, indexFile.lastModified());
+        assertEquals(3, loader.getSymbols().size());
+        assertEquals("{ 0x7f010000, 0x7f010001 }",
+                loader.getSymbol("styleable", "LimitedSizeLinearLayout").getValue());
+        assertEquals("int[]", loader.getSymbol("styleable", "LimitedSizeLinearLayout").getType());
+        assertEquals("1",
+                loader.getSymbol("styleable", "LimitedSizeLinearLayout_max_height").getValue());
+        assertEquals("0x7f040000", loader.getSymbol("xml", "authenticator").getValue());
+
+        // a modified symbol file invalidates the index.
+        Files.write("int xml authenticator 0x7f040001\n", file, Charsets.UTF_8);
+        loader = new SymbolLoader(file, NullLogger.getLogger());
+        loader.loadWithIndex(indexFolder);
+        assertEquals(1, loader.getSymbols().size());
+        assertEquals("0x7f040001", loader.getSymbol("xml", "authenticator").getValue());
+
+        // a corrupted index is ignored.
+        Files.write(new byte[] { 1, 2, 3 }, indexFile);
+        loader = new SymbolLoader(file, NullLogger.getLogger());
+        loader.loadWithIndex(indexFolder);
+        assertEquals("0x7f040001", loader.getSymbol("xml", "authenticator").getValue());
+
+        // a corrupted count is ignored.
+        byte[] index = Files.toByteArray(indexFile);
+        index[24] = (byte) 0x7f;
+        Files.write(index, indexFile);
+        loader = new SymbolLoader(file, NullLogger.getLogger());
+        loader.loadWithIndex(indexFolder);
+        assertEquals("0x7f040001", loader.getSymbol("xml", "authenticator").getValue());
+
+        file.delete();
+        indexFile.delete();
+        indexFolder.delete();
+        folder.delete();
+    }
 }
@@ -282,4 +282,36 @@ public class SymbolWriterTest extends TestCase {
             "int style AppTheme 0x80000000\n"
         );
     }
+
+    public void testUnchangedClassIsNotWritten() throws Exception {
+        File file = File.createTempFile(getClass().getSimpleName(), "txt");
+        file.deleteOnExit();
+        Files.write("int xml authenticator 0x7f040000\n", file, Charsets.UTF_8);
+        SymbolLoader symbols = new SymbolLoader(file, NullLogger.getLogger());
+        symbols.load();
+
+        File outFolder = Files.createTempDir();
+        File rFile = new File(outFolder,
+                "test" + File.separator + "pkg" + File.separator + "R.java");
+
+        SymbolWriter writer = new SymbolWriter(outFolder.getPath(), "test.pkg", symbols);
+        writer.addSymbolsToWrite(symbols);
+        assertTrue(writer.write());
+        String content = Files.toString(rFile, Charsets.UTF_8);
+
+        // same content.
+        writer = new SymbolWriter(outFolder.getPath(), "test.pkg", symbols);
+        writer.addSymbolsToWrite(symbols);
+        assertFalse(writer.write());
+
+        // new values.
+        Files.write("int xml authenticator 0x7f040001\n", file, Charsets.UTF_8);
+        symbols = new SymbolLoader(file, NullLogger.getLogger());
+        symbols.load();
+        writer = new SymbolWriter(outFolder.getPath(), "test.pkg", symbols);
+        writer.addSymbolsToWrite(symbols);
+        assertTrue(writer.write());
+        assertEquals(content.replace("0x7f040000", "0x7f040001"),
+                Files.toString(rFile, Charsets.UTF_8));
+    }
 }
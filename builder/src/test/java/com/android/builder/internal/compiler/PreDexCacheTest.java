@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal.compiler;
+
+import com.android.builder.DexOptions;
+import com.android.builder.TempFolderTestCase;
+import com.android.sdklib.repository.FullRevision;
+import com.android.utils.NullLogger;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.File;
+
+@SuppressWarnings("javadoc")
+public class PreDexCacheTest extends TempFolderTestCase {
+
+    private static final FullRevision REVISION = new FullRevision(19, 0, 0);
+
+    public void testStoreAndCopy() throws Exception {
+        File jar = new File(mFolder, "lib.jar");
+        Files.write("classes", jar, Charsets.UTF_8);
+        File dexed = new File(mFolder, "lib-dexed.jar");
+        Files.write("dexed classes", dexed, Charsets.UTF_8);
+
+        PreDexCache cache = new PreDexCache(new File(mFolder, "cache"),
+                PreDexCache.DEFAULT_MAX_CACHE_SIZE, new NullLogger());
+        String key = PreDexCache.getKey(jar, new Options(false, false), REVISION);
+
+        File out = new File(mFolder, "out.jar");
+        assertFalse(cache.copyTo(key, out));
+        assertFalse(out.exists());
+
+        cache.store(key, dexed);
+        assertTrue(cache.copyTo(key, out));
+        assertEquals("dexed classes", Files.toString(out, Charsets.UTF_8));
+
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    public void testKey() throws Exception {
+        File jar1 = new File(mFolder, "lib1.jar");
+        Files.write("classes", jar1, Charsets.UTF_8);
+        File jar2 = new File(mFolder, "lib2.jar");
+        Files.write("classes", jar2, Charsets.UTF_8);
+        File jar3 = new File(mFolder, "lib3.jar");
+        Files.write("other classes", jar3, Charsets.UTF_8);
+
+        Options options = new Options(false, false);
+        String key = PreDexCache.getKey(jar1, options, REVISION);
+
+        // the location of the library does not matter.
+        assertEquals(key, PreDexCache.getKey(jar2, options, REVISION));
+
+        assertFalse(key.equals(PreDexCache.getKey(jar3, options, REVISION)));
+        assertFalse(key.equals(PreDexCache.getKey(jar1, new Options(true, false), REVISION)));
+        assertFalse(key.equals(PreDexCache.getKey(jar1, new Options(false, true), REVISION)));
+        assertFalse(key.equals(
+                PreDexCache.getKey(jar1, options, new FullRevision(19, 0, 1))));
+    }
+
+    public void testCacheSize() throws Exception {
+        File cacheFolder = new File(mFolder, "cache");
+        PreDexCache cache = new PreDexCache(cacheFolder, 30, new NullLogger());
+        Options options = new Options(false, false);
+
+        String[] keys = new String[3];
+        for (int i = 0; i < keys.length; i++) {
+            File jar = new File(mFolder, "lib" + i + ".jar");
+            Files.write("classes" + i, jar, Charsets.UTF_8);
+            keys[i] = PreDexCache.getKey(jar, options, REVISION);
+        }
+        File dexed = new File(mFolder, "lib-dexed.jar");
+        Files.write("dexed classes", dexed, Charsets.UTF_8);
+        File out = new File(mFolder, "out.jar");
+
+        // each entry takes 13 bytes, so only 2 entries fit in the cache.
+        cache.store(keys[0], dexed);
+        cache.store(keys[1], dexed);
+        for (File file : cacheFolder.listFiles()) {
+            file.setLastModified(file.lastModified() - 60000);
+        }
+
+        // using the first entry makes the second one the least recently used.
+        assertTrue(cache.copyTo(keys[0], out));
+        cache.store(keys[2], dexed);
+
+        assertEquals(2, cacheFolder.listFiles().length);
+        assertTrue(cache.copyTo(keys[0], out));
+        assertFalse(cache.copyTo(keys[1], out));
+        assertTrue(cache.copyTo(keys[2], out));
+    }
+
+    private static final class Options implements DexOptions {
+        private final boolean mCoreLibrary;
+        private final boolean mJumboMode;
+
+        Options(boolean coreLibrary, boolean jumboMode) {
+            mCoreLibrary = coreLibrary;
+            mJumboMode = jumboMode;
+        }
+
+        @Override
+        public boolean isCoreLibrary() {
+            return mCoreLibrary;
+        }
+
+        @Override
+        public boolean getIncremental() {
+            return false;
+        }
+
+        @Override
+        public boolean getPreDexLibraries() {
+            return true;
+        }
+
+        @Override
+        public boolean getPreDexCache() {
+            return true;
+        }
+
+        @Override
+        public boolean getJumboMode() {
+            return mJumboMode;
+        }
+
+        @Override
+        public String getJavaMaxHeapSize() {
+            return null;
+        }
+
+        @Override
+        public boolean getDexInProcess() {
+            return false;
+        }
+    }
+}
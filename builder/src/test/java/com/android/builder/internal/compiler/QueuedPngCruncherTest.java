@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal.compiler;
+
+import com.android.builder.TempFolderTestCase;
+import com.android.ide.common.internal.CommandLineRunner;
+import com.android.sdklib.repository.FullRevision;
+import com.android.utils.NullLogger;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@SuppressWarnings("javadoc")
+public class QueuedPngCruncherTest extends TempFolderTestCase {
+
+    private static final FullRevision REVISION = new FullRevision(19, 0, 0);
+
+    public void testQueue() throws Exception {
+        FakeCruncher cruncher = new FakeCruncher(null);
+
+        File[] images = new File[10];
+        for (int i = 0; i < images.length; i++) {
+            images[i] = createImage("image" + i + ".png", "content" + i);
+            cruncher.crunchPng(images[i], new File(mFolder, "out" + i + ".png"));
+        }
+
+        // nothing is crunched until the queue is.
+        assertEquals(0, cruncher.mCount.get());
+
+        cruncher.crunchQueued();
+        assertEquals(images.length, cruncher.mCount.get());
+        for (int i = 0; i < images.length; i++) {
+            assertEquals("crunched content" + i,
+                    Files.toString(new File(mFolder, "out" + i + ".png"), Charsets.UTF_8));
+        }
+
+        // the queue is empty.
+        cruncher.crunchQueued();
+        assertEquals(images.length, cruncher.mCount.get());
+    }
+
+    public void testCache() throws Exception {
+        File cacheFolder = new File(mFolder, "cache");
+        File image = createImage("image.png", "content");
+        File sameImage = createImage("other.png", "content");
+        File ninePatch = createImage("image.9.png", "content");
+        File out = new File(mFolder, "out.png");
+
+        FakeCruncher cruncher = new FakeCruncher(cacheFolder);
+        cruncher.crunchPng(image, out);
+        cruncher.crunchQueued();
+        assertEquals(1, cruncher.mCount.get());
+
+        // a later build finds the image in the cache, whatever its name.
+        out.delete();
+        cruncher = new FakeCruncher(cacheFolder);
+        cruncher.crunchPng(sameImage, out);
+        cruncher.crunchQueued();
+        assertEquals(0, cruncher.mCount.get());
+        assertEquals("crunched content", Files.toString(out, Charsets.UTF_8));
+
+        // 9-patches are crunched differently.
+        cruncher.crunchPng(ninePatch, out);
+        cruncher.crunchQueued();
+        assertEquals(1, cruncher.mCount.get());
+    }
+
+    public void testCacheSize() throws Exception {
+        File cacheFolder = new File(mFolder, "cache");
+        File oldImage = createImage("old.png", "old image");
+        File usedImage = createImage("used.png", "used image");
+        File newImage = createImage("new.png", "new image");
+
+        // each crunched image takes 18 or 19 bytes, so only 2 images fit in the cache.
+        FakeCruncher cruncher = new FakeCruncher(cacheFolder, 40);
+        cruncher.crunchPng(oldImage, new File(mFolder, "out1.png"));
+        cruncher.crunchPng(usedImage, new File(mFolder, "out2.png"));
+        cruncher.crunchQueued();
+        assertEquals(2, cacheFolder.listFiles().length);
+
+        // make the first images older, then use one of them again.
+        for (File file : cacheFolder.listFiles()) {
+            file.setLastModified(file.lastModified() - 60000);
+        }
+        cruncher.crunchPng(usedImage, new File(mFolder, "out3.png"));
+        cruncher.crunchQueued();
+        assertEquals(2, cruncher.mCount.get());
+
+        // adding a third image removes the least recently used one.
+        cruncher.crunchPng(newImage, new File(mFolder, "out4.png"));
+        cruncher.crunchQueued();
+        assertEquals(2, cacheFolder.listFiles().length);
+
+        cruncher.crunchPng(usedImage, new File(mFolder, "out5.png"));
+        cruncher.crunchPng(newImage, new File(mFolder, "out6.png"));
+        cruncher.crunchQueued();
+        assertEquals(3, cruncher.mCount.get());
+
+        cruncher.crunchPng(oldImage, new File(mFolder, "out7.png"));
+        cruncher.crunchQueued();
+        assertEquals(4, cruncher.mCount.get());
+    }
+
+    private File createImage(String name, String content) throws IOException {
+        File file = new File(mFolder, name);
+        Files.write(content, file, Charsets.UTF_8);
+        return file;
+    }
+
+    private static final class FakeCruncher extends QueuedPngCruncher {
+        final AtomicInteger mCount = new AtomicInteger();
+
+        FakeCruncher(File cacheFolder) {
+            this(cacheFolder, DEFAULT_MAX_CACHE_SIZE);
+        }
+
+        FakeCruncher(File cacheFolder, long maxCacheSize) {
+            super("aapt", new CommandLineRunner(new NullLogger()), cacheFolder, maxCacheSize,
+                    REVISION, 4, new NullLogger());
+        }
+
+        @Override
+        void crunchNow(File from, File to) throws IOException {
+            mCount.incrementAndGet();
+            Files.write("crunched " + Files.toString(from, Charsets.UTF_8), to, Charsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal.compiler.aidl;
+
+import com.android.builder.TempFolderTestCase;
+import com.android.testutils.TestUtils;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+@SuppressWarnings("javadoc")
+public class AidlCompilerTest extends TempFolderTestCase {
+
+    private File mSourceFolder;
+    private File mOutputFolder;
+    private File mFrameworkFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSourceFolder = new File(mFolder, "src");
+        mOutputFolder = new File(mFolder, "gen");
+        mFrameworkFile = new File(mFolder, "framework.aidl");
+        Files.write(
+                "parcelable android.os.Bundle;\n" +
+                "interface android.app.IInstrumentationWatcher;\n",
+                mFrameworkFile, Charsets.UTF_8);
+    }
+
+    public void testInterface() throws Exception {
+        File bar = write("com/example/Bar.aidl",
+                "package com.example;\n" +
+                "parcelable Bar;\n");
+        File foo = write("com/example/IFoo.aidl",
+                "package com.example;\n" +
+                "import com.example.Bar;\n" +
+                "import android.os.Bundle;\n" +
+                "/** The foo interface. */\n" +
+                "interface IFoo {\n" +
+                "    String getName(int id, boolean flag);\n" +
+                "    void fill(out Bar bar, inout int[] values, in Bundle extras);\n" +
+                "    List<String> getNames(in List<Bar> bars);\n" +
+                "    oneway void notify(IBinder token, CharSequence text);\n" +
+                "}\n");
+
+        AidlCompiler compiler = new AidlCompiler(mFrameworkFile,
+                ImmutableList.of(mSourceFolder));
+
+        AidlCompiler.Result result = compiler.compile(foo, mOutputFolder);
+        assertEquals(new File(mOutputFolder, "com/example/IFoo.java"), result.getOutputFile());
+        assertEquals(ImmutableList.of(bar), result.getDependencies());
+
+        String code = Files.toString(result.getOutputFile(), Charsets.UTF_8);
+        assertTrue(code.contains("/** The foo interface. */\n" +
+                "public interface IFoo extends android.os.IInterface\n"));
+        assertTrue(code.contains("public java.lang.String getName(int id, boolean flag) " +
+                "throws android.os.RemoteException;"));
+        assertTrue(code.contains("_data.writeInt(((flag)?(1):(0)));"));
+        assertTrue(code.contains("_arg0 = new com.example.Bar();"));
+        assertTrue(code.contains("_reply.readIntArray(values);"));
+        assertTrue(code.contains("_result = _reply.createStringArrayList();"));
+        assertTrue(code.contains("_arg0 = data.createTypedArrayList(com.example.Bar.CREATOR);"));
+        assertTrue(code.contains("_arg2 = android.os.Bundle.CREATOR.createFromParcel(data);"));
+        assertTrue(code.contains("mRemote.transact(Stub.TRANSACTION_notify, _data, null, " +
+                "android.os.IBinder.FLAG_ONEWAY);"));
+        assertTrue(code.contains("static final int TRANSACTION_notify = " +
+                "(android.os.IBinder.FIRST_CALL_TRANSACTION + 3);"));
+
+        // a parcelable declaration does not generate anything.
+        result = compiler.compile(bar, mOutputFolder);
+        assertNull(result.getOutputFile());
+        assertTrue(result.getDependencies().isEmpty());
+    }
+
+    /**
+     * Compares the generated code with the code generated by aidl for the same files, covering
+     * every kind of type and direction.
+     */
+    public void testGeneratedCode() throws Exception {
+        File root = TestUtils.getRoot("aidl");
+        File sourceFolder = new File(root, "src");
+        AidlCompiler compiler = new AidlCompiler(mFrameworkFile,
+                ImmutableList.of(sourceFolder));
+
+        File service = new File(sourceFolder, "com/example/IService.aidl");
+        AidlCompiler.Result result = compiler.compile(service, mOutputFolder);
+        assertEquals(ImmutableList.of(
+                new File(sourceFolder, "com/example/IListener.aidl"),
+                new File(sourceFolder, "com/example/Outer.aidl"),
+                new File(sourceFolder, "com/example/Rect.aidl")),
+                result.getDependencies());
+        checkGeneratedCode(root, service, result.getOutputFile(), "com/example/IService.java");
+
+        File listener = new File(sourceFolder, "com/example/IListener.aidl");
+        result = compiler.compile(listener, mOutputFolder);
+        assertTrue(result.getDependencies().isEmpty());
+        checkGeneratedCode(root, listener, result.getOutputFile(), "com/example/IListener.java");
+
+        // "parcelable Outer.Inner;" is declared in the file of the outer class.
+        result = compiler.compile(new File(sourceFolder, "com/example/Outer.aidl"),
+                mOutputFolder);
+        assertNull(result.getOutputFile());
+    }
+
+    public void testUnchangedOutputIsNotRewritten() throws Exception {
+        File foo = write("com/example/IFoo.aidl",
+                "package com.example;\n" +
+                "interface IFoo {\n" +
+                "    int get();\n" +
+                "}\n");
+
+        AidlCompiler compiler = new AidlCompiler(mFrameworkFile,
+                ImmutableList.of(mSourceFolder));
+        File output = compiler.compile(foo, mOutputFolder).getOutputFile();
+        assertNotNull(output);
+        assertTrue(output.setLastModified(1000));
+
+        compiler.compile(foo, mOutputFolder);
+        assertEquals(1000, output.lastModified());
+    }
+
+    public void testErrors() throws Exception {
+        File foo = write("com/example/IFoo.aidl",
+                "package com.example;\n" +
+                "import com.example.Missing;\n" +
+                "interface IFoo {\n" +
+                "    void a(out String s);\n" +
+                "    void b(int[] values);\n" +
+                "    oneway int c();\n" +
+                "    void a();\n" +
+                "}\n");
+
+        AidlCompiler compiler = new AidlCompiler(mFrameworkFile,
+                ImmutableList.of(mSourceFolder));
+        try {
+            compiler.compile(foo, mOutputFolder);
+            fail("expected an AidlException");
+        } catch (AidlException e) {
+            String path = foo.getPath();
+            assertEquals(ImmutableList.of(
+                    path + ":2: couldn't find import for class com.example.Missing",
+                    path + ":4: 'String s' can only be an in parameter.",
+                    path + ":5: 'int[] values' can be an out parameter, so you must declare " +
+                            "it as in, out or inout.",
+                    path + ":6: oneway method c cannot return a value",
+                    path + ":7: attempt to redefine method a"),
+                    e.getMessages());
+        }
+
+        assertFalse(new File(mOutputFolder, "com/example/IFoo.java").exists());
+    }
+
+    public void testWrongFileName() throws Exception {
+        File foo = write("com/example/IBar.aidl",
+                "package com.example;\n" +
+                "interface IFoo {\n" +
+                "}\n");
+
+        AidlCompiler compiler = new AidlCompiler(mFrameworkFile,
+                ImmutableList.of(mSourceFolder));
+        try {
+            compiler.compile(foo, mOutputFolder);
+            fail("expected an AidlException");
+        } catch (AidlException e) {
+            assertEquals(ImmutableList.of(foo.getPath() + ":2: interface IFoo should be " +
+                    "declared in a file called com/example/IFoo.aidl."),
+                    e.getMessages());
+        }
+    }
+
+    public void testSyntaxError() throws Exception {
+        File foo = write("com/example/IFoo.aidl",
+                "package com.example;\n" +
+                "interface IFoo {\n" +
+                "    void a(int);\n" +
+                "}\n");
+
+        AidlCompiler compiler = new AidlCompiler(mFrameworkFile,
+                ImmutableList.of(mSourceFolder));
+        try {
+            compiler.compile(foo, mOutputFolder);
+            fail("expected an AidlException");
+        } catch (AidlException e) {
+            assertEquals(ImmutableList.of(foo.getPath() +
+                    ":3: syntax error, expected a name, found ')'"),
+                    e.getMessages());
+        }
+    }
+
+    private void checkGeneratedCode(File root, File aidlFile, File outputFile,
+            String expectedPath) throws IOException {
+        assertEquals(new File(mOutputFolder, expectedPath), outputFile);
+
+        // the only difference is the path of the aidl file in the header.
+        File expectedFile = new File(new File(root, "expected"), expectedPath);
+        String expected = Files.toString(expectedFile, Charsets.UTF_8)
+                .replace("${path}", aidlFile.getPath().replace("\\", "\\\\"));
+        byte[] actual = Files.toByteArray(outputFile);
+        assertEquals(expected, new String(actual, Charsets.UTF_8));
+        assertTrue(Arrays.equals(expected.getBytes(Charsets.UTF_8), actual));
+    }
+
+    private File write(String path, String content) throws IOException {
+        File file = new File(mSourceFolder, path.replace('/', File.separatorChar));
+        Files.createParentDirs(file);
+        Files.write(content, file, Charsets.UTF_8);
+        return file;
+    }
+}
@@ -16,11 +16,17 @@
 
 package com.android.builder.internal.incremental;
 
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
 import junit.framework.TestCase;
 
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
 
 public class DependencyDataStoreTest extends TestCase {
 
@@ -228,4 +234,188 @@ public class DependencyDataStoreTest extends TestCase {
         assertEquals(0, secondData.getSecondaryFiles().size());
         assertEquals(0, secondData.getOutputFiles().size());
     }
+
+    public void testSharedPaths() throws IOException {
+        DependencyData data = new DependencyData();
+        data.setMainFile("/src/a/Main1.aidl");
+        data.addSecondaryFile("/src/a/Header.aidl");
+        data.addOutputFile("/gen/a/Main1.java");
+
+        DependencyData data2 = new DependencyData();
+        data2.setMainFile("/src/a/Main2.aidl");
+        data2.addSecondaryFile("/src/a/Header.aidl");
+        data2.addOutputFile("/gen/a/Main2.java");
+
+        DependencyDataStore store = new DependencyDataStore();
+        store.addData(data);
+        store.addData(data2);
+
+        File file = File.createTempFile("DependencyDataStoreTest", "");
+        file.deleteOnExit();
+        store.saveTo(file);
+
+        // the file is replaced by rename, so no temporary file remains.
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        store = new DependencyDataStore();
+        store.loadFrom(file);
+        assertEquals(ImmutableSet.of("/src/a/Main1.aidl", "/src/a/Main2.aidl"),
+                store.getImpactedMainFiles("/src/a/Header.aidl"));
+
+        DependencyData firstData = store.getByMainFile("/src/a/Main1.aidl");
+        DependencyData secondData = store.getByMainFile("/src/a/Main2.aidl");
+        assertNotNull(firstData);
+        assertNotNull(secondData);
+        assertEquals(data.getOutputFiles(), firstData.getOutputFiles());
+        assertEquals(data2.getOutputFiles(), secondData.getOutputFiles());
+
+        // the shared path is only loaded once.
+        assertSame(firstData.getSecondaryFiles().get(0), secondData.getSecondaryFiles().get(0));
+    }
+
+    public void testLoadVersion1() throws IOException {
+        File file = File.createTempFile("DependencyDataStoreTest", "");
+        file.deleteOnExit();
+
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.writeByte(0x7F);
+            out.writeInt(1);
+            out.writeByte(0x70);
+            writePath(out, "/main/file");
+            out.writeByte(0x71);
+            writePath(out, "/secondary/file");
+            out.writeByte(0x73);
+            writePath(out, "/output/file");
+        } finally {
+            out.close();
+        }
+
+        DependencyDataStore store = new DependencyDataStore();
+        store.loadFrom(file);
+        assertEquals(ImmutableSet.of("/main/file"),
+                store.getImpactedMainFiles("/secondary/file"));
+
+        DependencyData data = store.getByMainFile("/main/file");
+        assertNotNull(data);
+        assertEquals("/secondary/file", data.getSecondaryFiles().get(0));
+        assertEquals("/output/file", data.getOutputFiles().get(0));
+    }
+
+    public void testTruncatedFile() throws IOException {
+        File file = saveSingleData();
+
+        byte[] content = Files.toByteArray(file);
+        byte[] truncated = new byte[content.length - 6];
+        System.arraycopy(content, 0, truncated, 0, truncated.length);
+        Files.write(truncated, file);
+
+        try {
+            new DependencyDataStore().loadFrom(file);
+            fail("expected an IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testCorruptedCount() throws IOException {
+        File file = saveSingleData();
+
+        // change the prefix count, right after the header, to a huge count.
+        byte[] content = Files.toByteArray(file);
+        content[5] = (byte) 0x7f;
+        Files.write(content, file);
+
+        try {
+            new DependencyDataStore().loadFrom(file);
+            fail("expected an IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testCorruptedFile() throws IOException {
+        File file = saveSingleData();
+
+        // change a character of a path, which is only detected by the CRC.
+        byte[] content = Files.toByteArray(file);
+        int index = new String(content, Charsets.ISO_8859_1).indexOf("/secondary/");
+        assertTrue(index != -1);
+        content[index + 1] = 'S';
+        Files.write(content, file);
+
+        try {
+            new DependencyDataStore().loadFrom(file);
+            fail("expected an IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static File saveSingleData() throws IOException {
+        DependencyData data = new DependencyData();
+        data.setMainFile("/main/file");
+        data.addSecondaryFile("/secondary/file");
+        data.addOutputFile("/output/file");
+
+        DependencyDataStore store = new DependencyDataStore();
+        store.addData(data);
+
+        File file = File.createTempFile("DependencyDataStoreTest", "");
+        file.deleteOnExit();
+        store.saveTo(file);
+        return file;
+    }
+
+    private static void writePath(DataOutputStream out, String path) throws IOException {
+        byte[] bytes = path.getBytes(Charsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public void testImpactedMainFiles() throws IOException {
+        DependencyData data = new DependencyData();
+        data.setMainFile("/main/file1");
+        data.addSecondaryFile("/secondary/file1");
+        data.addSecondaryFile("/secondary/file2");
+
+        DependencyData data2 = new DependencyData();
+        data2.setMainFile("/main/file2");
+        data2.addSecondaryFile("/secondary/file2");
+
+        DependencyDataStore store = new DependencyDataStore();
+        store.addData(data);
+        store.addData(data2);
+
+        File file = File.createTempFile("DependencyDataStoreTest", "");
+        file.deleteOnExit();
+        store.saveTo(file);
+
+        store = new DependencyDataStore();
+        store.loadFrom(file);
+
+        assertEquals(ImmutableSet.of("/main/file1"),
+                store.getImpactedMainFiles("/main/file1"));
+        assertEquals(ImmutableSet.of("/main/file1"),
+                store.getImpactedMainFiles("/secondary/file1"));
+        assertEquals(ImmutableSet.of("/main/file1", "/main/file2"),
+                store.getImpactedMainFiles("/secondary/file2"));
+        assertTrue(store.getImpactedMainFiles("/unknown/file").isEmpty());
+
+        // updating an entry updates the index.
+        DependencyData newData = new DependencyData();
+        newData.setMainFile("/main/file1");
+        newData.addSecondaryFile("/secondary/file3");
+        store.updateAll(Collections.singletonList(newData));
+
+        assertTrue(store.getImpactedMainFiles("/secondary/file1").isEmpty());
+        assertEquals(ImmutableSet.of("/main/file2"),
+                store.getImpactedMainFiles("/secondary/file2"));
+        assertEquals(ImmutableSet.of("/main/file1"),
+                store.getImpactedMainFiles("/secondary/file3"));
+
+        store.remove(data2);
+        assertTrue(store.getImpactedMainFiles("/secondary/file2").isEmpty());
+        assertTrue(store.getImpactedMainFiles("/main/file2").isEmpty());
+    }
 }
@@ -16,14 +16,17 @@
 
 package com.android.builder.internal.incremental;
 
+import com.android.builder.TempFolderTestCase;
 import com.android.testutils.TestUtils;
-import junit.framework.TestCase;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.io.Files;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
 
-public class DependencyDataTest extends TestCase {
+public class DependencyDataTest extends TempFolderTestCase {
 
     public void testWindowsMode1() throws Exception {
         DependencyData data = getData("windows_mode1.d");
@@ -67,6 +70,79 @@ public class DependencyDataTest extends TestCase {
         assertEquals("/path/to/main input.bar", data.getMainFile());
     }
 
+    public void testSharedPathTable() throws Exception {
+        PathTable pathTable = new PathTable();
+        File root = TestUtils.getRoot("dependencyData");
+
+        DependencyData data1 = DependencyData.parseDependencyFile(
+                new File(root, "windows_mode1.d"), pathTable);
+        DependencyData data2 = DependencyData.parseDependencyFile(
+                new File(root, "windows_mode2.d"), pathTable);
+        assertNotNull(data1);
+        assertNotNull(data2);
+
+        // the paths found in both files are the same instances.
+        assertSame(data1.getMainFile(), data2.getMainFile());
+        assertSame(data1.getSecondaryFiles().get(1), data2.getSecondaryFiles().get(1));
+        assertSame(data1.getOutputFiles().get(0), data2.getOutputFiles().get(0));
+        assertEquals(4, pathTable.size());
+    }
+
+    public void testLineAcrossReadBuffer() throws Exception {
+        StringBuilder content = new StringBuilder();
+        int count = 0;
+        while (content.length() < 3 * 8192) {
+            content.append("/path/to/output/file").append(count++).append(".foo \\\n");
+        }
+        content.append(": \\\n/path/to/main input.bar\n");
+
+        DependencyData data = parse(content.toString());
+
+        assertEquals("/path/to/main input.bar", data.getMainFile());
+        List<String> outputs = data.getOutputFiles();
+        assertEquals(count, outputs.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals("/path/to/output/file" + i + ".foo", outputs.get(i));
+        }
+    }
+
+    public void testLongPath() throws Exception {
+        // longer than the initial line buffer, and than the read buffer.
+        String longPath = "/path/to/" + Strings.repeat("very long folder/", 1000) + "main.bar";
+
+        DependencyData data = parse("/path/to/output.foo : \\\n" + longPath + " \\\n" +
+                longPath + ".h\n");
+
+        assertEquals(longPath, data.getMainFile());
+        assertEquals(1, data.getSecondaryFiles().size());
+        assertEquals(longPath + ".h", data.getSecondaryFiles().get(0));
+    }
+
+    public void testWindowsLineSeparators() throws Exception {
+        // the \r of the first line is the last character of the first read buffer.
+        String output = "C:\\path\\" + Strings.repeat("a", 8175) + ".foo";
+        String content = output + " : \\\r\n" +
+                "C:\\path\\to\\main input.bar \\\r\n" +
+                "C:\\path\\to\\some input.bar\r\n";
+        assertEquals('\r', content.charAt(8191));
+
+        DependencyData data = parse(content);
+
+        assertEquals(1, data.getOutputFiles().size());
+        assertEquals(output, data.getOutputFiles().get(0));
+        assertEquals("C:\\path\\to\\main input.bar", data.getMainFile());
+        assertEquals(1, data.getSecondaryFiles().size());
+        assertEquals("C:\\path\\to\\some input.bar", data.getSecondaryFiles().get(0));
+    }
+
+    private DependencyData parse(String content) throws IOException {
+        File depFile = new File(mFolder, "test.d");
+        Files.write(content, depFile, Charsets.UTF_8);
+        DependencyData data = DependencyData.parseDependencyFile(depFile);
+        assertNotNull(data);
+        return data;
+    }
+
     private DependencyData getData(String name) throws IOException {
         File depFile = new File(TestUtils.getRoot("dependencyData"), name);
         DependencyData data = DependencyData.parseDependencyFile(depFile);
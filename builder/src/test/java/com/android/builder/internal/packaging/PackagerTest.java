@@ -0,0 +1,475 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal.packaging;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.builder.PackagingOptions;
+import com.android.builder.TempFolderTestCase;
+import com.android.builder.packaging.DuplicateFileException;
+import com.android.builder.signing.CertificateInfo;
+import com.android.builder.signing.DefaultSigningConfig;
+import com.android.builder.signing.KeystoreHelper;
+import com.android.utils.ILogger;
+import com.android.utils.NullLogger;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import org.bouncycastle.util.encoders.Base64;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+@SuppressWarnings("javadoc")
+public class PackagerTest extends TempFolderTestCase {
+
+    private File mResFile;
+    private File mDexFile;
+    private File mJarFile;
+    private File mApkFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mResFile = new File(mFolder, "resources.ap_");
+        writeZip(mResFile,
+                "AndroidManifest.xml", "<manifest/>", ZipEntry.DEFLATED,
+                "resources.arsc", "resource table", ZipEntry.STORED,
+                "res/layout/main.xml", "<LinearLayout/>", ZipEntry.DEFLATED);
+
+        mDexFile = new File(mFolder, "classes.dex");
+        Files.write("dex v1", mDexFile, Charsets.UTF_8);
+
+        mJarFile = new File(mFolder, "lib.jar");
+        writeZip(mJarFile,
+                "com/example/Foo.class", "class", ZipEntry.DEFLATED,
+                "com/example/foo.properties", "foo=bar", ZipEntry.DEFLATED);
+
+        mApkFile = new File(mFolder, "app.apk");
+    }
+
+    public void testFullPackaging() throws Exception {
+        PackagedEntryStore store = packageApk(null, null);
+
+        assertContent("<manifest/>", "AndroidManifest.xml");
+        assertContent("resource table", "resources.arsc");
+        assertContent("dex v1", "classes.dex");
+        assertContent("foo=bar", "com/example/foo.properties");
+        assertEquals(ZipEntry.STORED, getEntry("resources.arsc").getMethod());
+
+        assertTrue(store.isPackageUpToDate(mApkFile));
+        assertEquals(3, store.getEntries(mResFile.getAbsolutePath()).size());
+        assertEquals(1, store.getEntries(mDexFile.getAbsolutePath()).size());
+        // the jar is recorded even though the class file is not packaged.
+        assertEquals(1, store.getEntries(mJarFile.getAbsolutePath()).size());
+    }
+
+    public void testIncrementalPackaging() throws Exception {
+        PackagedEntryStore store = packageApk(null, null);
+
+        // save and reload the store, as a new build would do.
+        File storeFile = new File(mFolder, "package.bin");
+        store.saveTo(storeFile);
+        PackagedEntryStore previous = new PackagedEntryStore();
+        previous.loadFrom(storeFile);
+
+        Files.write("dex v2, longer", mDexFile, Charsets.UTF_8);
+
+        PackagedEntryStore newStore = packageApk(previous,
+                Collections.singletonList(mDexFile));
+
+        assertContent("<manifest/>", "AndroidManifest.xml");
+        assertContent("resource table", "resources.arsc");
+        assertContent("<LinearLayout/>", "res/layout/main.xml");
+        assertContent("dex v2, longer", "classes.dex");
+        assertContent("foo=bar", "com/example/foo.properties");
+        assertEquals(ZipEntry.STORED, getEntry("resources.arsc").getMethod());
+
+        assertTrue(newStore.isPackageUpToDate(mApkFile));
+        assertFalse(new File(mApkFile.getPath() + ".tmp").exists());
+    }
+
+    public void testFailedIncrementalPackaging() throws Exception {
+        PackagedEntryStore store = packageApk(null, null);
+        byte[] previousApk = Files.toByteArray(mApkFile);
+
+        File otherDex = new File(mFolder, "other.dex");
+        Files.write("other dex", otherDex, Charsets.UTF_8);
+
+        Collection<File> changedFiles = Collections.emptyList();
+        Packager packager = createPackager(null, store, changedFiles);
+        try {
+            packager.addFile(otherDex, "classes.dex");
+            fail("DuplicateFileException expected");
+        } catch (DuplicateFileException e) {
+            // expected.
+        }
+
+        // the new package is deleted and the previous one is left untouched.
+        assertFalse(new File(mApkFile.getPath() + ".tmp").exists());
+        assertTrue(Arrays.equals(previousApk, Files.toByteArray(mApkFile)));
+        assertTrue(store.isPackageUpToDate(mApkFile));
+    }
+
+    public void testSignedIncrementalPackaging() throws Exception {
+        CertificateInfo certificateInfo = getCertificateInfo();
+        PackagedEntryStore store = packageApk(certificateInfo, null, null, NullLogger.getLogger());
+        assertSigned();
+
+        Files.write("dex v2, longer", mDexFile, Charsets.UTF_8);
+
+        RecordingLogger logger = new RecordingLogger();
+        PackagedEntryStore newStore = packageApk(certificateInfo, store,
+                Collections.singletonList(mDexFile), logger);
+
+        assertTrue(logger.getMessages().contains("Packaging app.apk incrementally"));
+        // the 3 resources and the java resource are copied, the dex file is added.
+        assertTrue(logger.getMessages().contains("Copied 4 entries from the previous app.apk"));
+
+        // the digests of the copied entries are reused.
+        assertSameDigests(store, newStore, mResFile);
+        assertSameDigests(store, newStore, mJarFile);
+        assertFalse(Arrays.equals(
+                store.getEntries(mDexFile.getAbsolutePath()).get(0).getDigest(),
+                newStore.getEntries(mDexFile.getAbsolutePath()).get(0).getDigest()));
+
+        assertContent("dex v2, longer", "classes.dex");
+        assertSigned();
+    }
+
+    public void testSignedPackagingWithoutDigests() throws Exception {
+        // the previous package is not signed, so its entries have no digest.
+        PackagedEntryStore store = packageApk(null, null);
+        assertNull(store.getEntries(mResFile.getAbsolutePath()).get(0).getDigest());
+
+        RecordingLogger logger = new RecordingLogger();
+        Collection<File> changedFiles = Collections.emptyList();
+        PackagedEntryStore newStore = packageApk(getCertificateInfo(), store, changedFiles,
+                logger);
+
+        // the package is created from scratch.
+        assertTrue(logger.getMessages().contains(mApkFile + " was not signed"));
+        assertFalse(logger.getMessages().contains("Packaging app.apk incrementally"));
+
+        assertNotNull(newStore.getEntries(mResFile.getAbsolutePath()).get(0).getDigest());
+        assertContent("dex v1", "classes.dex");
+        assertSigned();
+    }
+
+    public void testModifiedApkIsNotReused() throws Exception {
+        PackagedEntryStore store = packageApk(null, null);
+
+        // overwrite the apk, the store does not describe it anymore.
+        writeZip(mApkFile, "other", "other", ZipEntry.DEFLATED);
+        assertFalse(store.isPackageUpToDate(mApkFile));
+
+        Collection<File> changedFiles = Collections.emptyList();
+        packageApk(store, changedFiles);
+
+        assertContent("<manifest/>", "AndroidManifest.xml");
+        assertContent("dex v1", "classes.dex");
+        assertNull(getEntry("other"));
+    }
+
+    public void testPackagingOptions() throws Exception {
+        File javaRes = new File(mFolder, "foo.txt");
+        Files.write("foo", javaRes, Charsets.UTF_8);
+
+        PackagingOptions options = new PackagingOptions() {
+            @Override
+            public int getCompressionLevel() {
+                return Deflater.BEST_SPEED;
+            }
+
+            @Override
+            public Collection<String> getNoCompress() {
+                return Collections.singletonList(".DEX");
+            }
+
+            @Override
+            public boolean getZipAlign() {
+                return false;
+            }
+        };
+
+        Packager packager = createPackager(options, null, null);
+        packager.addFile(javaRes, "foo.txt");
+        packager.sealApk();
+
+        assertContent("dex v1", "classes.dex");
+        assertEquals(ZipEntry.STORED, getEntry("classes.dex").getMethod());
+        assertContent("foo", "foo.txt");
+        assertEquals(ZipEntry.DEFLATED, getEntry("foo.txt").getMethod());
+        // entries of the resource package are copied as they are.
+        assertEquals(ZipEntry.DEFLATED, getEntry("AndroidManifest.xml").getMethod());
+    }
+
+    public void testZipAlign() throws Exception {
+        File abiFolder = new File(mFolder, "jni/armeabi");
+        assertTrue(abiFolder.mkdirs());
+        Files.write("native code", new File(abiFolder, "libfoo.so"), Charsets.UTF_8);
+        Files.write("more native code", new File(abiFolder, "libbar.so"), Charsets.UTF_8);
+
+        PackagingOptions options = new PackagingOptions() {
+            @Override
+            public int getCompressionLevel() {
+                return Deflater.BEST_COMPRESSION;
+            }
+
+            @Override
+            public Collection<String> getNoCompress() {
+                return Collections.singletonList("so");
+            }
+
+            @Override
+            public boolean getZipAlign() {
+                return true;
+            }
+        };
+
+        Packager packager = createPackager(options, null, null);
+        packager.addNativeLibraries(new File(mFolder, "jni"), null);
+        packager.sealApk();
+
+        assertContent("native code", "lib/armeabi/libfoo.so");
+        assertContent("resource table", "resources.arsc");
+
+        ZipReader reader = new ZipReader(mApkFile);
+        try {
+            int storedCount = 0;
+            for (ZipReader.Entry entry : reader.getEntries()) {
+                if (entry.getMethod() != ZipEntry.STORED) {
+                    continue;
+                }
+                storedCount++;
+
+                int alignment = entry.getName().endsWith(".so") ? 4096 : 4;
+                assertEquals(entry.getName(), 0, reader.getDataOffset(entry) % alignment);
+            }
+            assertEquals(3, storedCount);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private PackagedEntryStore packageApk(PackagedEntryStore previous,
+            Collection<File> changedFiles) throws Exception {
+        return packageApk(null, previous, changedFiles, NullLogger.getLogger());
+    }
+
+    private PackagedEntryStore packageApk(CertificateInfo certificateInfo,
+            PackagedEntryStore previous, Collection<File> changedFiles, ILogger logger)
+            throws Exception {
+        Packager packager = createPackager(certificateInfo, null, previous, changedFiles, logger);
+        packager.addResourcesFromJar(mJarFile);
+        packager.sealApk();
+
+        return packager.getEntries();
+    }
+
+    private Packager createPackager(PackagingOptions options, PackagedEntryStore previous,
+            Collection<File> changedFiles) throws Exception {
+        return createPackager(null, options, previous, changedFiles, NullLogger.getLogger());
+    }
+
+    private Packager createPackager(CertificateInfo certificateInfo, PackagingOptions options,
+            PackagedEntryStore previous, Collection<File> changedFiles, ILogger logger)
+            throws Exception {
+        return new Packager(
+                mApkFile.getAbsolutePath(),
+                mResFile.getAbsolutePath(),
+                mDexFile.getAbsolutePath(),
+                certificateInfo,
+                null /*createdBy*/,
+                options,
+                previous,
+                changedFiles,
+                logger);
+    }
+
+    private static CertificateInfo getCertificateInfo() throws Exception {
+        DefaultSigningConfig signingConfig = new DefaultSigningConfig("test");
+        signingConfig.setStoreFile(new File(PackagerTest.class.getResource(
+                "/testData/signing/debug.keystore").toURI()));
+        signingConfig.setStorePassword(DefaultSigningConfig.DEFAULT_PASSWORD);
+        signingConfig.setKeyAlias(DefaultSigningConfig.DEFAULT_ALIAS);
+        signingConfig.setKeyPassword(DefaultSigningConfig.DEFAULT_PASSWORD);
+
+        CertificateInfo certificateInfo = KeystoreHelper.getCertificateInfo(signingConfig);
+        assertNotNull(certificateInfo);
+        return certificateInfo;
+    }
+
+    private static void assertSameDigests(PackagedEntryStore expected, PackagedEntryStore actual,
+            File source) {
+        List<PackagedEntry> expectedEntries = expected.getEntries(source.getAbsolutePath());
+        List<PackagedEntry> actualEntries = actual.getEntries(source.getAbsolutePath());
+        assertEquals(expectedEntries.size(), actualEntries.size());
+        for (int i = 0 ; i < expectedEntries.size() ; i++) {
+            assertNotNull(expectedEntries.get(i).getDigest());
+            assertTrue(expectedEntries.get(i).getName(), Arrays.equals(
+                    expectedEntries.get(i).getDigest(), actualEntries.get(i).getDigest()));
+        }
+    }
+
+    /**
+     * Checks the digests of the signed package: the digest of each entry in the manifest, and
+     * the digest of the manifest in the signature file.
+     */
+    private void assertSigned() throws Exception {
+        JarFile jarFile = new JarFile(mApkFile, false /*verify*/);
+        try {
+            Manifest manifest = jarFile.getManifest();
+            assertNotNull(manifest);
+
+            int count = 0;
+            Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (entry.getName().startsWith("META-INF/")) {
+                    continue;
+                }
+
+                Attributes attributes = manifest.getAttributes(entry.getName());
+                assertNotNull(entry.getName(), attributes);
+                assertEquals(entry.getName(), attributes.getValue("SHA1-Digest"),
+                        getDigest(jarFile, entry.getName()));
+                count++;
+            }
+            assertEquals(count, manifest.getEntries().size());
+
+            Manifest signatureFile = new Manifest(jarFile.getInputStream(
+                    jarFile.getEntry("META-INF/CERT.SF")));
+            assertEquals(
+                    signatureFile.getMainAttributes().getValue("SHA1-Digest-Manifest"),
+                    getDigest(jarFile, JarFile.MANIFEST_NAME));
+            assertNotNull(jarFile.getEntry("META-INF/CERT.RSA"));
+        } finally {
+            jarFile.close();
+        }
+    }
+
+    private static String getDigest(JarFile jarFile, String name) throws Exception {
+        InputStream stream = jarFile.getInputStream(jarFile.getEntry(name));
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA1");
+            digest.update(ByteStreams.toByteArray(stream));
+            return new String(Base64.encode(digest.digest()), Charsets.US_ASCII);
+        } finally {
+            stream.close();
+        }
+    }
+
+    private ZipEntry getEntry(String name) throws IOException {
+        ZipFile zipFile = new ZipFile(mApkFile);
+        try {
+            return zipFile.getEntry(name);
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    private void assertContent(String expected, String name) throws IOException {
+        ZipFile zipFile = new ZipFile(mApkFile);
+        try {
+            ZipEntry entry = zipFile.getEntry(name);
+            assertNotNull(name, entry);
+            InputStream stream = zipFile.getInputStream(entry);
+            try {
+                assertEquals(expected, new String(ByteStreams.toByteArray(stream), Charsets.UTF_8));
+            } finally {
+                stream.close();
+            }
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    /**
+     * Writes a zip file. The content is given as a list of (name, content, method) triplets.
+     */
+    private static void writeZip(File file, Object... content) throws IOException {
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            for (int i = 0 ; i < content.length ; i += 3) {
+                byte[] data = ((String) content[i + 1]).getBytes(Charsets.UTF_8);
+                ZipEntry entry = new ZipEntry((String) content[i]);
+                entry.setMethod((Integer) content[i + 2]);
+                if (entry.getMethod() == ZipEntry.STORED) {
+                    CRC32 crc = new CRC32();
+                    crc.update(data);
+                    entry.setCrc(crc.getValue());
+                    entry.setSize(data.length);
+                    entry.setCompressedSize(data.length);
+                }
+                zos.putNextEntry(entry);
+                zos.write(data);
+                zos.closeEntry();
+            }
+        } finally {
+            zos.close();
+        }
+    }
+
+    private static class RecordingLogger implements ILogger {
+        private final List<String> mMessages = Lists.newArrayList();
+
+        public List<String> getMessages() {
+            return mMessages;
+        }
+
+        @Override
+        public void error(@Nullable Throwable t, @Nullable String msgFormat, Object... args) {
+            mMessages.add(msgFormat != null ? String.format(msgFormat, args) : String.valueOf(t));
+        }
+
+        @Override
+        public void warning(@NonNull String msgFormat, Object... args) {
+            mMessages.add(String.format(msgFormat, args));
+        }
+
+        @Override
+        public void info(@NonNull String msgFormat, Object... args) {
+            mMessages.add(String.format(msgFormat, args));
+        }
+
+        @Override
+        public void verbose(@NonNull String msgFormat, Object... args) {
+            mMessages.add(String.format(msgFormat, args));
+        }
+    }
+}
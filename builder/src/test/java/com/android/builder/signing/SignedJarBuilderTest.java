@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.signing;
+
+import com.android.builder.TempFolderTestCase;
+import com.android.builder.internal.packaging.ZipReader;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import org.bouncycastle.util.encoders.Base64;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+@SuppressWarnings("javadoc")
+public class SignedJarBuilderTest extends TempFolderTestCase {
+
+    private File mInputFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        // compressed with a different level than the builder's, so that entries compressed
+        // again by the builder would not have the same bytes.
+        mInputFile = new File(mFolder, "input.zip");
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(mInputFile));
+        try {
+            zos.setLevel(Deflater.BEST_SPEED);
+            for (int i = 0 ; i < 20 ; i++) {
+                zos.putNextEntry(new ZipEntry("res/raw/file" + i + ".txt"));
+                zos.write(Strings.repeat("content of file " + i + "\n", 100 * i + 1)
+                        .getBytes(Charsets.UTF_8));
+                zos.closeEntry();
+            }
+            zos.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+            zos.write("Manifest-Version: 1.0\r\n".getBytes(Charsets.UTF_8));
+            zos.closeEntry();
+        } finally {
+            zos.close();
+        }
+    }
+
+    public void testRawCopy() throws Exception {
+        File output = new File(mFolder, "output.jar");
+        SignedJarBuilder builder = new SignedJarBuilder(new FileOutputStream(output),
+                null, null, null, null);
+        builder.writeZip(mInputFile, null);
+        builder.close();
+
+        assertSameRawEntries(mInputFile, output);
+        JarFile jarFile = new JarFile(output);
+        try {
+            assertNull(jarFile.getManifest());
+        } finally {
+            jarFile.close();
+        }
+    }
+
+    public void testSignedRawCopy() throws Exception {
+        CertificateInfo certificateInfo = getCertificateInfo();
+
+        File output = new File(mFolder, "output.jar");
+        SignedJarBuilder builder = new SignedJarBuilder(new FileOutputStream(output),
+                certificateInfo.getKey(), certificateInfo.getCertificate(), null, null);
+        builder.writeZip(mInputFile, null);
+        builder.close();
+
+        assertSameRawEntries(mInputFile, output);
+        assertSigned(output);
+    }
+
+    public void testSameOutputForAnyThreadCount() throws Exception {
+        byte[] expected = buildJar(null, 1);
+        assertTrue(Arrays.equals(expected, buildJar(null, 4)));
+
+        CertificateInfo certificateInfo = getCertificateInfo();
+        byte[] expectedSigned = buildJar(certificateInfo, 1);
+        assertTrue(Arrays.equals(expectedSigned, buildJar(certificateInfo, 4)));
+        assertTrue(Arrays.equals(expectedSigned, buildJar(certificateInfo, 8)));
+    }
+
+    /**
+     * Builds a jar with all the kinds of entries, with a given number of threads, and returns
+     * its content.
+     */
+    private byte[] buildJar(CertificateInfo certificateInfo, int threadCount) throws Exception {
+        File javaRes = new File(mFolder, "foo.txt");
+        Files.write(Strings.repeat("foo", 1000), javaRes, Charsets.UTF_8);
+        File nativeLib = new File(mFolder, "libfoo.so");
+        Files.write(Strings.repeat("native code", 1000), nativeLib, Charsets.UTF_8);
+        // the timestamp of the files is part of the entries.
+        assertTrue(javaRes.setLastModified(1000000000000L));
+        assertTrue(nativeLib.setLastModified(1000000000000L));
+
+        File otherZip = new File(mFolder, "other.zip");
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(otherZip));
+        try {
+            for (int i = 0 ; i < 10 ; i++) {
+                ZipEntry entry = new ZipEntry("com/example/file" + i + ".properties");
+                entry.setTime(1000000000000L);
+                zos.putNextEntry(entry);
+                zos.write(Strings.repeat("key" + i + "=value\n", 50 * i + 1)
+                        .getBytes(Charsets.UTF_8));
+                zos.closeEntry();
+            }
+        } finally {
+            zos.close();
+        }
+
+        File output = new File(mFolder, "output" + threadCount + ".jar");
+        SignedJarBuilder builder = new SignedJarBuilder(new FileOutputStream(output),
+                certificateInfo != null ? certificateInfo.getKey() : null,
+                certificateInfo != null ? certificateInfo.getCertificate() : null,
+                "builtBy", "createdBy", threadCount);
+        builder.writeZip(mInputFile, null);
+        builder.writeFile(javaRes, "foo.txt");
+        FileInputStream input = new FileInputStream(otherZip);
+        try {
+            builder.writeZip(input, null);
+        } finally {
+            input.close();
+        }
+        builder.writeFile(nativeLib, "lib/armeabi/libfoo.so", ZipEntry.STORED);
+        builder.close();
+
+        return Files.toByteArray(output);
+    }
+
+    private static CertificateInfo getCertificateInfo() throws Exception {
+        DefaultSigningConfig signingConfig = new DefaultSigningConfig("test");
+        signingConfig.setStoreFile(new File(SignedJarBuilderTest.class.getResource(
+                "/testData/signing/debug.keystore").toURI()));
+        signingConfig.setStorePassword(DefaultSigningConfig.DEFAULT_PASSWORD);
+        signingConfig.setKeyAlias(DefaultSigningConfig.DEFAULT_ALIAS);
+        signingConfig.setKeyPassword(DefaultSigningConfig.DEFAULT_PASSWORD);
+
+        CertificateInfo certificateInfo = KeystoreHelper.getCertificateInfo(signingConfig);
+        assertNotNull(certificateInfo);
+        return certificateInfo;
+    }
+
+    /**
+     * Checks that the entries of the input archive, except META-INF, are in the output archive
+     * with the same compressed bytes and CRC.
+     */
+    private static void assertSameRawEntries(File input, File output) throws IOException {
+        ZipReader inputReader = new ZipReader(input);
+        ZipReader outputReader = new ZipReader(output);
+        try {
+            List<ZipReader.Entry> inputEntries = inputReader.getEntries();
+            List<ZipReader.Entry> outputEntries = outputReader.getEntries();
+
+            int index = 0;
+            for (ZipReader.Entry inputEntry : inputEntries) {
+                if (inputEntry.getName().startsWith("META-INF/")) {
+                    continue;
+                }
+
+                ZipReader.Entry outputEntry = outputEntries.get(index++);
+                String name = inputEntry.getName();
+                assertEquals(name, outputEntry.getName());
+                assertEquals(name, ZipEntry.DEFLATED, outputEntry.getMethod());
+                assertEquals(name, inputEntry.getCrc(), outputEntry.getCrc());
+                assertEquals(name, inputEntry.getSize(), outputEntry.getSize());
+                assertTrue(name, Arrays.equals(
+                        getRawContent(inputReader, inputEntry),
+                        getRawContent(outputReader, outputEntry)));
+            }
+
+            // only the manifest and signature files may follow.
+            for (ZipReader.Entry entry : outputEntries.subList(index, outputEntries.size())) {
+                assertTrue(entry.getName(), entry.getName().startsWith("META-INF/"));
+            }
+        } finally {
+            inputReader.close();
+            outputReader.close();
+        }
+    }
+
+    private static byte[] getRawContent(ZipReader reader, ZipReader.Entry entry)
+            throws IOException {
+        InputStream stream = reader.getRawInputStream(entry);
+        try {
+            return ByteStreams.toByteArray(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Checks the digests of a signed archive: the digest of each entry in the manifest, and
+     * the digest of the manifest in the signature file.
+     */
+    private static void assertSigned(File file) throws Exception {
+        JarFile jarFile = new JarFile(file, false /*verify*/);
+        try {
+            Manifest manifest = jarFile.getManifest();
+            assertNotNull(manifest);
+
+            int count = 0;
+            Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (entry.getName().startsWith("META-INF/")) {
+                    continue;
+                }
+
+                assertNotNull(entry.getName(), manifest.getAttributes(entry.getName()));
+                assertEquals(entry.getName(),
+                        manifest.getAttributes(entry.getName()).getValue("SHA1-Digest"),
+                        getDigest(jarFile, entry.getName()));
+                count++;
+            }
+            assertEquals(count, manifest.getEntries().size());
+
+            Manifest signatureFile = new Manifest(jarFile.getInputStream(
+                    jarFile.getEntry("META-INF/CERT.SF")));
+            assertEquals(
+                    signatureFile.getMainAttributes().getValue("SHA1-Digest-Manifest"),
+                    getDigest(jarFile, JarFile.MANIFEST_NAME));
+            assertNotNull(jarFile.getEntry("META-INF/CERT.RSA"));
+        } finally {
+            jarFile.close();
+        }
+    }
+
+    private static String getDigest(JarFile jarFile, String name) throws Exception {
+        InputStream stream = jarFile.getInputStream(jarFile.getEntry(name));
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA1");
+            digest.update(ByteStreams.toByteArray(stream));
+            return new String(Base64.encode(digest.digest()), Charsets.US_ASCII);
+        } finally {
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,698 @@
+/*
+ * This file is auto-generated.  DO NOT MODIFY.
+ * Original file: ${path}
+ */
+package com.example;
+/** A service using the types aidl can marshal. */
+public interface IService extends android.os.IInterface
+{
+/** Local-side IPC implementation stub class. */
+public static abstract class Stub extends android.os.Binder implements com.example.IService
+{
+private static final java.lang.String DESCRIPTOR = "com.example.IService";
+/** Construct the stub at attach it to the interface. */
+public Stub()
+{
+this.attachInterface(this, DESCRIPTOR);
+}
+/**
+ * Cast an IBinder object into an com.example.IService interface,
+ * generating a proxy if needed.
+ */
+public static com.example.IService asInterface(android.os.IBinder obj)
+{
+if ((obj==null)) {
+return null;
+}
+android.os.IInterface iin = obj.queryLocalInterface(DESCRIPTOR);
+if (((iin!=null)&&(iin instanceof com.example.IService))) {
+return ((com.example.IService)iin);
+}
+return new com.example.IService.Stub.Proxy(obj);
+}
+@Override public android.os.IBinder asBinder()
+{
+return this;
+}
+@Override public boolean onTransact(int code, android.os.Parcel data, android.os.Parcel reply, int flags) throws android.os.RemoteException
+{
+switch (code)
+{
+case INTERFACE_TRANSACTION:
+{
+reply.writeString(DESCRIPTOR);
+return true;
+}
+case TRANSACTION_getName:
+{
+data.enforceInterface(DESCRIPTOR);
+java.lang.String _result = this.getName();
+reply.writeNoException();
+reply.writeString(_result);
+return true;
+}
+case TRANSACTION_basicTypes:
+{
+data.enforceInterface(DESCRIPTOR);
+int _arg0;
+_arg0 = data.readInt();
+long _arg1;
+_arg1 = data.readLong();
+boolean _arg2;
+_arg2 = (0!=data.readInt());
+float _arg3;
+_arg3 = data.readFloat();
+double _arg4;
+_arg4 = data.readDouble();
+char _arg5;
+_arg5 = (char)data.readInt();
+byte _arg6;
+_arg6 = data.readByte();
+java.lang.String _arg7;
+_arg7 = data.readString();
+java.lang.CharSequence _arg8;
+if ((0!=data.readInt())) {
+_arg8 = android.text.TextUtils.CHAR_SEQUENCE_CREATOR.createFromParcel(data);
+}
+else {
+_arg8 = null;
+}
+int _result = this.basicTypes(_arg0, _arg1, _arg2, _arg3, _arg4, _arg5, _arg6, _arg7, _arg8);
+reply.writeNoException();
+reply.writeInt(_result);
+return true;
+}
+case TRANSACTION_transform:
+{
+data.enforceInterface(DESCRIPTOR);
+com.example.Rect _arg0;
+if ((0!=data.readInt())) {
+_arg0 = com.example.Rect.CREATOR.createFromParcel(data);
+}
+else {
+_arg0 = null;
+}
+com.example.Rect _arg1;
+_arg1 = new com.example.Rect();
+com.example.Rect _arg2;
+if ((0!=data.readInt())) {
+_arg2 = com.example.Rect.CREATOR.createFromParcel(data);
+}
+else {
+_arg2 = null;
+}
+com.example.Rect _result = this.transform(_arg0, _arg1, _arg2);
+reply.writeNoException();
+if ((_result!=null)) {
+reply.writeInt(1);
+_result.writeToParcel(reply, android.os.Parcelable.PARCELABLE_WRITE_RETURN_VALUE);
+}
+else {
+reply.writeInt(0);
+}
+if ((_arg1!=null)) {
+reply.writeInt(1);
+_arg1.writeToParcel(reply, android.os.Parcelable.PARCELABLE_WRITE_RETURN_VALUE);
+}
+else {
+reply.writeInt(0);
+}
+if ((_arg2!=null)) {
+reply.writeInt(1);
+_arg2.writeToParcel(reply, android.os.Parcelable.PARCELABLE_WRITE_RETURN_VALUE);
+}
+else {
+reply.writeInt(0);
+}
+return true;
+}
+case TRANSACTION_copyRects:
+{
+data.enforceInterface(DESCRIPTOR);
+com.example.Rect[] _arg0;
+_arg0 = data.createTypedArray(com.example.Rect.CREATOR);
+com.example.Rect[] _arg1;
+int _arg1_length = data.readInt();
+if ((_arg1_length<0)) {
+_arg1 = null;
+}
+else {
+_arg1 = new com.example.Rect[_arg1_length];
+}
+com.example.Rect[] _arg2;
+_arg2 = data.createTypedArray(com.example.Rect.CREATOR);
+com.example.Rect[] _result = this.copyRects(_arg0, _arg1, _arg2);
+reply.writeNoException();
+reply.writeTypedArray(_result, android.os.Parcelable.PARCELABLE_WRITE_RETURN_VALUE);
+reply.writeTypedArray(_arg1, android.os.Parcelable.PARCELABLE_WRITE_RETURN_VALUE);
+reply.writeTypedArray(_arg2, android.os.Parcelable.PARCELABLE_WRITE_RETURN_VALUE);
+return true;
+}
+case TRANSACTION_copyInts:
+{
+data.enforceInterface(DESCRIPTOR);
+int[] _arg0;
+_arg0 = data.createIntArray();
+int[] _arg1;
+int _arg1_length = data.readInt();
+if ((_arg1_length<0)) {
+_arg1 = null;
+}
+else {
+_arg1 = new int[_arg1_length];
+}
+int[] _arg2;
+_arg2 = data.createIntArray();
+int[] _result = this.copyInts(_arg0, _arg1, _arg2);
+reply.writeNoException();
+reply.writeIntArray(_result);
+reply.writeIntArray(_arg1);
+reply.writeIntArray(_arg2);
+return true;
+}
+case TRANSACTION_getFlags:
+{
+data.enforceInterface(DESCRIPTOR);
+boolean[] _arg0;
+_arg0 = data.createBooleanArray();
+boolean[] _result = this.getFlags(_arg0);
+reply.writeNoException();
+reply.writeBooleanArray(_result);
+return true;
+}
+case TRANSACTION_getNames:
+{
+data.enforceInterface(DESCRIPTOR);
+java.lang.String[] _arg0;
+_arg0 = data.createStringArray();
+java.lang.String[] _arg1;
+int _arg1_length = data.readInt();
+if ((_arg1_length<0)) {
+_arg1 = null;
+}
+else {
+_arg1 = new java.lang.String[_arg1_length];
+}
+java.lang.String[] _result = this.getNames(_arg0, _arg1);
+reply.writeNoException();
+reply.writeStringArray(_result);
+reply.writeStringArray(_arg1);
+return true;
+}
+case TRANSACTION_getNameList:
+{
+data.enforceInterface(DESCRIPTOR);
+java.util.List<java.lang.String> _arg0;
+_arg0 = data.createStringArrayList();
+java.util.List<java.lang.String> _arg1;
+_arg1 = new java.util.ArrayList<java.lang.String>();
+java.util.List<java.lang.String> _result = this.getNameList(_arg0, _arg1);
+reply.writeNoException();
+reply.writeStringList(_result);
+reply.writeStringList(_arg1);
+return true;
+}
+case TRANSACTION_getRects:
+{
+data.enforceInterface(DESCRIPTOR);
+java.util.List<com.example.Rect> _arg0;
+_arg0 = data.createTypedArrayList(com.example.Rect.CREATOR);
+java.util.List<com.example.Rect> _arg1;
+_arg1 = data.createTypedArrayList(com.example.Rect.CREATOR);
+java.util.List<com.example.Rect> _result = this.getRects(_arg0, _arg1);
+reply.writeNoException();
+reply.writeTypedList(_result);
+reply.writeTypedList(_arg1);
+return true;
+}
+case TRANSACTION_getValues:
+{
+data.enforceInterface(DESCRIPTOR);
+java.util.List _arg0;
+java.lang.ClassLoader cl = (java.lang.ClassLoader)this.getClass().getClassLoader();
+_arg0 = data.readArrayList(cl);
+java.util.List _arg1;
+_arg1 = new java.util.ArrayList();
+java.util.List _result = this.getValues(_arg0, _arg1);
+reply.writeNoException();
+reply.writeList(_result);
+reply.writeList(_arg1);
+return true;
+}
+case TRANSACTION_getMap:
+{
+data.enforceInterface(DESCRIPTOR);
+java.util.Map _arg0;
+java.lang.ClassLoader cl = (java.lang.ClassLoader)this.getClass().getClassLoader();
+_arg0 = data.readHashMap(cl);
+java.util.Map _arg1;
+_arg1 = data.readHashMap(cl);
+java.util.Map _result = this.getMap(_arg0, _arg1);
+reply.writeNoException();
+reply.writeMap(_result);
+reply.writeMap(_arg1);
+return true;
+}
+case TRANSACTION_getListener:
+{
+data.enforceInterface(DESCRIPTOR);
+com.example.IListener _result = this.getListener();
+reply.writeNoException();
+reply.writeStrongBinder((((_result!=null))?(_result.asBinder()):(null)));
+return true;
+}
+case TRANSACTION_setListener:
+{
+data.enforceInterface(DESCRIPTOR);
+com.example.IListener _arg0;
+_arg0 = com.example.IListener.Stub.asInterface(data.readStrongBinder());
+android.os.IBinder _arg1;
+_arg1 = data.readStrongBinder();
+this.setListener(_arg0, _arg1);
+reply.writeNoException();
+return true;
+}
+case TRANSACTION_getInner:
+{
+data.enforceInterface(DESCRIPTOR);
+com.example.Outer.Inner _arg0;
+if ((0!=data.readInt())) {
+_arg0 = com.example.Outer.Inner.CREATOR.createFromParcel(data);
+}
+else {
+_arg0 = null;
+}
+com.example.Outer.Inner _result = this.getInner(_arg0);
+reply.writeNoException();
+if ((_result!=null)) {
+reply.writeInt(1);
+_result.writeToParcel(reply, android.os.Parcelable.PARCELABLE_WRITE_RETURN_VALUE);
+}
+else {
+reply.writeInt(0);
+}
+return true;
+}
+case TRANSACTION_ping:
+{
+data.enforceInterface(DESCRIPTOR);
+int _arg0;
+_arg0 = data.readInt();
+this.ping(_arg0);
+return true;
+}
+}
+return super.onTransact(code, data, reply, flags);
+}
+private static class Proxy implements com.example.IService
+{
+private android.os.IBinder mRemote;
+Proxy(android.os.IBinder remote)
+{
+mRemote = remote;
+}
+@Override public android.os.IBinder asBinder()
+{
+return mRemote;
+}
+public java.lang.String getInterfaceDescriptor()
+{
+return DESCRIPTOR;
+}
+/** Returns the name of the service. */
+@Override public java.lang.String getName() throws android.os.RemoteException
+{
+android.os.Parcel _data = android.os.Parcel.obtain();
+android.os.Parcel _reply = android.os.Parcel.obtain();
+java.lang.String _result;
+try {
+_data.writeInterfaceToken(DESCRIPTOR);
+mRemote.transact(Stub.TRANSACTION_getName, _data, _reply, 0);
+_reply.readException();
+_result = _reply.readString();
+}
+finally {
+_reply.recycle();
+_data.recycle();
+}
+return _result;
+}
+@Override public int basicTypes(int anInt, long aLong, boolean aBoolean, float aFloat, double aDouble, char aChar, byte aByte, java.lang.String aString, java.lang.CharSequence text) throws android.os.RemoteException
+{
+android.os.Parcel _data = android.os.Parcel.obtain();
+android.os.Parcel _reply = android.os.Parcel.obtain();
+int _result;
+try {
+_data.writeInterfaceToken(DESCRIPTOR);
+_data.writeInt(anInt);
+_data.writeLong(aLong);
+_data.writeInt(((aBoolean)?(1):(0)));
+_data.writeFloat(aFloat);
+_data.writeDouble(aDouble);
+_data.writeInt(((int)aChar));
+_data.writeByte(aByte);
+_data.writeString(aString);
+if ((text!=null)) {
+_data.writeInt(1);
+android.text.TextUtils.writeToParcel(text, _data, 0);
+}
+else {
+_data.writeInt(0);
+}
+mRemote.transact(Stub.TRANSACTION_basicTypes, _data, _reply, 0);
+_reply.readException();
+_result = _reply.readInt();
+}
+finally {
+_reply.recycle();
+_data.recycle();
+}
+return _result;
+}
+@Override public com.example.Rect transform(com.example.Rect input, com.example.Rect output, com.example.Rect both) throws android.os.RemoteException
+{
+android.os.Parcel _data = android.os.Parcel.obtain();
+android.os.Parcel _reply = android.os.Parcel.obtain();
+com.example.Rect _result;
+try {
+_data.writeInterfaceToken(DESCRIPTOR);
+if ((input!=null)) {
+_data.writeInt(1);
+input.writeToParcel(_data, 0);
+}
+else {
+_data.writeInt(0);
+}
+if ((both!=null)) {
+_data.writeInt(1);
+both.writeToParcel(_data, 0);
+}
+else {
+_data.writeInt(0);
+}
+mRemote.transact(Stub.TRANSACTION_transform, _data, _reply, 0);
+_reply.readException();
+if ((0!=_reply.readInt())) {
+_result = com.example.Rect.CREATOR.createFromParcel(_reply);
+}
+else {
+_result = null;
+}
+if ((0!=_reply.readInt())) {
+output.readFromParcel(_reply);
+}
+if ((0!=_reply.readInt())) {
+both.readFromParcel(_reply);
+}
+}
+finally {
+_reply.recycle();
+_data.recycle();
+}
+return _result;
+}
+@Override public com.example.Rect[] copyRects(com.example.Rect[] input, com.example.Rect[] output, com.example.Rect[] both) throws android.os.RemoteException
+{
+android.os.Parcel _data = android.os.Parcel.obtain();
+android.os.Parcel _reply = android.os.Parcel.obtain();
+com.example.Rect[] _result;
+try {
+_data.writeInterfaceToken(DESCRIPTOR);
+_data.writeTypedArray(input, 0);
+if ((output==null)) {
+_data.writeInt(-1);
+}
+else {
+_data.writeInt(output.length);
+}
+_data.writeTypedArray(both, 0);
+mRemote.transact(Stub.TRANSACTION_copyRects, _data, _reply, 0);
+_reply.readException();
+_result = _reply.createTypedArray(com.example.Rect.CREATOR);
+_reply.readTypedArray(output, com.example.Rect.CREATOR);
+_reply.readTypedArray(both, com.example.Rect.CREATOR);
+}
+finally {
+_reply.recycle();
+_data.recycle();
+}
+return _result;
+}
+@Override public int[] copyInts(int[] input, int[] output, int[] both) throws android.os.RemoteException
+{
+android.os.Parcel _data = android.os.Parcel.obtain();
+android.os.Parcel _reply = android.os.Parcel.obtain();
+int[] _result;
+try {
+_data.writeInterfaceToken(DESCRIPTOR);
+_data.writeIntArray(input);
+if ((output==null)) {
+_data.writeInt(-1);
+}
+else {
+_data.writeInt(output.length);
+}
+_data.writeIntArray(both);
+mRemote.transact(Stub.TRANSACTION_copyInts, _data, _reply, 0);
+_reply.readException();
+_result = _reply.createIntArray();
+_reply.readIntArray(output);
+_reply.readIntArray(both);
+}
+finally {
+_reply.recycle();
+_data.recycle();
+}
+return _result;
+}
+@Override public boolean[] getFlags(boolean[] values) throws android.os.RemoteException
+{
+android.os.Parcel _data = android.os.Parcel.obtain();
+android.os.Parcel _reply = android.os.Parcel.obtain();
+boolean[] _result;
+try {
+_data.writeInterfaceToken(DESCRIPTOR);
+_data.writeBooleanArray(values);
+mRemote.transact(Stub.TRANSACTION_getFlags, _data, _reply, 0);
+_reply.readException();
+_result = _reply.createBooleanArray();
+}
+finally {
+_reply.recycle();
+_data.recycle();
+}
+return _result;
+}
+@Override public java.lang.String[] getNames(java.lang.String[] input, java.lang.String[] output) throws android.os.RemoteException
+{
+android.os.Parcel _data = android.os.Parcel.obtain();
+android.os.Parcel _reply = android.os.Parcel.obtain();
+java.lang.String[] _result;
+try {
+_data.writeInterfaceToken(DESCRIPTOR);
+_data.writeStringArray(input);
+if ((output==null)) {
+_data.writeInt(-1);
+}
+else {
+_data.writeInt(output.length);
+}
+mRemote.transact(Stub.TRANSACTION_getNames, _data, _reply, 0);
+_reply.readException();
+_result = _reply.createStringArray();
+_reply.readStringArray(output);
+}
+finally {
+_reply.recycle();
+_data.recycle();
+}
+return _result;
+}
+@Override public java.util.List<java.lang.String> getNameList(java.util.List<java.lang.String> input, java.util.List<java.lang.String> output) throws android.os.RemoteException
+{
+android.os.Parcel _data = android.os.Parcel.obtain();
+android.os.Parcel _reply = android.os.Parcel.obtain();
+java.util.List<java.lang.String> _result;
+try {
+_data.writeInterfaceToken(DESCRIPTOR);
+_data.writeStringList(input);
+mRemote.transact(Stub.TRANSACTION_getNameList, _data, _reply, 0);
+_reply.readException();
+_result = _reply.createStringArrayList();
+_reply.readStringList(output);
+}
+finally {
+_reply.recycle();
+_data.recycle();
+}
+return _result;
+}
+@Override public java.util.List<com.example.Rect> getRects(java.util.List<com.example.Rect> input, java.util.List<com.example.Rect> both) throws android.os.RemoteException
+{
+android.os.Parcel _data = android.os.Parcel.obtain();
+android.os.Parcel _reply = android.os.Parcel.obtain();
+java.util.List<com.example.Rect> _result;
+try {
+_data.writeInterfaceToken(DESCRIPTOR);
+_data.writeTypedList(input);
+_data.writeTypedList(both);
+mRemote.transact(Stub.TRANSACTION_getRects, _data, _reply, 0);
+_reply.readException();
+_result = _reply.createTypedArrayList(com.example.Rect.CREATOR);
+_reply.readTypedList(both, com.example.Rect.CREATOR);
+}
+finally {
+_reply.recycle();
+_data.recycle();
+}
+return _result;
+}
+@Override public java.util.List getValues(java.util.List input, java.util.List output) throws android.os.RemoteException
+{
+android.os.Parcel _data = android.os.Parcel.obtain();
+android.os.Parcel _reply = android.os.Parcel.obtain();
+java.util.List _result;
+try {
+_data.writeInterfaceToken(DESCRIPTOR);
+_data.writeList(input);
+mRemote.transact(Stub.TRANSACTION_getValues, _data, _reply, 0);
+_reply.readException();
+java.lang.ClassLoader cl = (java.lang.ClassLoader)this.getClass().getClassLoader();
+_result = _reply.readArrayList(cl);
+_reply.readList(output, cl);
+}
+finally {
+_reply.recycle();
+_data.recycle();
+}
+return _result;
+}
+@Override public java.util.Map getMap(java.util.Map input, java.util.Map both) throws android.os.RemoteException
+{
+android.os.Parcel _data = android.os.Parcel.obtain();
+android.os.Parcel _reply = android.os.Parcel.obtain();
+java.util.Map _result;
+try {
+_data.writeInterfaceToken(DESCRIPTOR);
+_data.writeMap(input);
+_data.writeMap(both);
+mRemote.transact(Stub.TRANSACTION_getMap, _data, _reply, 0);
+_reply.readException();
+java.lang.ClassLoader cl = (java.lang.ClassLoader)this.getClass().getClassLoader();
+_result = _reply.readHashMap(cl);
+_reply.readMap(both, cl);
+}
+finally {
+_reply.recycle();
+_data.recycle();
+}
+return _result;
+}
+@Override public com.example.IListener getListener() throws android.os.RemoteException
+{
+android.os.Parcel _data = android.os.Parcel.obtain();
+android.os.Parcel _reply = android.os.Parcel.obtain();
+com.example.IListener _result;
+try {
+_data.writeInterfaceToken(DESCRIPTOR);
+mRemote.transact(Stub.TRANSACTION_getListener, _data, _reply, 0);
+_reply.readException();
+_result = com.example.IListener.Stub.asInterface(_reply.readStrongBinder());
+}
+finally {
+_reply.recycle();
+_data.recycle();
+}
+return _result;
+}
+@Override public void setListener(com.example.IListener listener, android.os.IBinder token) throws android.os.RemoteException
+{
+android.os.Parcel _data = android.os.Parcel.obtain();
+android.os.Parcel _reply = android.os.Parcel.obtain();
+try {
+_data.writeInterfaceToken(DESCRIPTOR);
+_data.writeStrongBinder((((listener!=null))?(listener.asBinder()):(null)));
+_data.writeStrongBinder(token);
+mRemote.transact(Stub.TRANSACTION_setListener, _data, _reply, 0);
+_reply.readException();
+}
+finally {
+_reply.recycle();
+_data.recycle();
+}
+}
+@Override public com.example.Outer.Inner getInner(com.example.Outer.Inner inner) throws android.os.RemoteException
+{
+android.os.Parcel _data = android.os.Parcel.obtain();
+android.os.Parcel _reply = android.os.Parcel.obtain();
+com.example.Outer.Inner _result;
+try {
+_data.writeInterfaceToken(DESCRIPTOR);
+if ((inner!=null)) {
+_data.writeInt(1);
+inner.writeToParcel(_data, 0);
+}
+else {
+_data.writeInt(0);
+}
+mRemote.transact(Stub.TRANSACTION_getInner, _data, _reply, 0);
+_reply.readException();
+if ((0!=_reply.readInt())) {
+_result = com.example.Outer.Inner.CREATOR.createFromParcel(_reply);
+}
+else {
+_result = null;
+}
+}
+finally {
+_reply.recycle();
+_data.recycle();
+}
+return _result;
+}
+@Override public void ping(int value) throws android.os.RemoteException
+{
+android.os.Parcel _data = android.os.Parcel.obtain();
+try {
+_data.writeInterfaceToken(DESCRIPTOR);
+_data.writeInt(value);
+mRemote.transact(Stub.TRANSACTION_ping, _data, null, android.os.IBinder.FLAG_ONEWAY);
+}
+finally {
+_data.recycle();
+}
+}
+}
+static final int TRANSACTION_getName = (android.os.IBinder.FIRST_CALL_TRANSACTION + 0);
+static final int TRANSACTION_basicTypes = (android.os.IBinder.FIRST_CALL_TRANSACTION + 1);
+static final int TRANSACTION_transform = (android.os.IBinder.FIRST_CALL_TRANSACTION + 2);
+static final int TRANSACTION_copyRects = (android.os.IBinder.FIRST_CALL_TRANSACTION + 3);
+static final int TRANSACTION_copyInts = (android.os.IBinder.FIRST_CALL_TRANSACTION + 4);
+static final int TRANSACTION_getFlags = (android.os.IBinder.FIRST_CALL_TRANSACTION + 5);
+static final int TRANSACTION_getNames = (android.os.IBinder.FIRST_CALL_TRANSACTION + 6);
+static final int TRANSACTION_getNameList = (android.os.IBinder.FIRST_CALL_TRANSACTION + 7);
+static final int TRANSACTION_getRects = (android.os.IBinder.FIRST_CALL_TRANSACTION + 8);
+static final int TRANSACTION_getValues = (android.os.IBinder.FIRST_CALL_TRANSACTION + 9);
+static final int TRANSACTION_getMap = (android.os.IBinder.FIRST_CALL_TRANSACTION + 10);
+static final int TRANSACTION_getListener = (android.os.IBinder.FIRST_CALL_TRANSACTION + 11);
+static final int TRANSACTION_setListener = (android.os.IBinder.FIRST_CALL_TRANSACTION + 12);
+static final int TRANSACTION_getInner = (android.os.IBinder.FIRST_CALL_TRANSACTION + 13);
+static final int TRANSACTION_ping = (android.os.IBinder.FIRST_CALL_TRANSACTION + 14);
+}
+/** Returns the name of the service. */
+public java.lang.String getName() throws android.os.RemoteException;
+public int basicTypes(int anInt, long aLong, boolean aBoolean, float aFloat, double aDouble, char aChar, byte aByte, java.lang.String aString, java.lang.CharSequence text) throws android.os.RemoteException;
+public com.example.Rect transform(com.example.Rect input, com.example.Rect output, com.example.Rect both) throws android.os.RemoteException;
+public com.example.Rect[] copyRects(com.example.Rect[] input, com.example.Rect[] output, com.example.Rect[] both) throws android.os.RemoteException;
+public int[] copyInts(int[] input, int[] output, int[] both) throws android.os.RemoteException;
+public boolean[] getFlags(boolean[] values) throws android.os.RemoteException;
+public java.lang.String[] getNames(java.lang.String[] input, java.lang.String[] output) throws android.os.RemoteException;
+public java.util.List<java.lang.String> getNameList(java.util.List<java.lang.String> input, java.util.List<java.lang.String> output) throws android.os.RemoteException;
+public java.util.List<com.example.Rect> getRects(java.util.List<com.example.Rect> input, java.util.List<com.example.Rect> both) throws android.os.RemoteException;
+public java.util.List getValues(java.util.List input, java.util.List output) throws android.os.RemoteException;
+public java.util.Map getMap(java.util.Map input, java.util.Map both) throws android.os.RemoteException;
+public com.example.IListener getListener() throws android.os.RemoteException;
+public void setListener(com.example.IListener listener, android.os.IBinder token) throws android.os.RemoteException;
+public com.example.Outer.Inner getInner(com.example.Outer.Inner inner) throws android.os.RemoteException;
+public void ping(int value) throws android.os.RemoteException;
+}
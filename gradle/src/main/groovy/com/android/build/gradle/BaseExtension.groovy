@@ -26,6 +26,7 @@ import com.android.build.gradle.internal.SourceSetSourceProviderWrapper
 import com.android.build.gradle.internal.dsl.AaptOptionsImpl
 import com.android.build.gradle.internal.dsl.AndroidSourceSetFactory
 import com.android.build.gradle.internal.dsl.DexOptionsImpl
+import com.android.build.gradle.internal.dsl.PackagingOptionsImpl
 import com.android.build.gradle.internal.dsl.ProductFlavorDsl
 import com.android.build.gradle.internal.test.TestOptions
 import com.android.builder.BuilderConstants
@@ -57,6 +58,7 @@ public abstract class BaseExtension {
     final DefaultProductFlavor defaultConfig
     final AaptOptionsImpl aaptOptions
     final DexOptionsImpl dexOptions
+    final PackagingOptionsImpl packagingOptions
     final TestOptions testOptions
     final CompileOptions compileOptions
 
@@ -82,6 +84,7 @@ public abstract class BaseExtension {
 
         aaptOptions = instantiator.newInstance(AaptOptionsImpl.class)
         dexOptions = instantiator.newInstance(DexOptionsImpl.class)
+        packagingOptions = instantiator.newInstance(PackagingOptionsImpl.class)
         testOptions = instantiator.newInstance(TestOptions.class)
         compileOptions = instantiator.newInstance(CompileOptions.class)
 
@@ -168,6 +171,11 @@ public abstract class BaseExtension {
         action.execute(dexOptions)
     }
 
+    void packagingOptions(Action<PackagingOptionsImpl> action) {
+        plugin.checkTasksAlreadyCreated();
+        action.execute(packagingOptions)
+    }
+
     void testOptions(Action<TestOptions> action) {
         plugin.checkTasksAlreadyCreated();
         action.execute(testOptions)
@@ -1268,6 +1268,8 @@ public abstract class BasePlugin {
 
         packageApp.plugin = this
         packageApp.variant = variantData
+        packageApp.incrementalFolder =
+                project.file("$project.buildDir/incremental/package/${variantData.variantConfiguration.dirName}")
 
         packageApp.conventionMapping.resourceFile = {
             variantData.processResourcesTask.packageOutputFile
@@ -1295,6 +1297,10 @@ public abstract class BasePlugin {
         }
         packageApp.conventionMapping.abiFilters = { variantConfig.supportedAbis }
         packageApp.conventionMapping.jniDebugBuild = { variantConfig.buildType.jniDebugBuild }
+        packageApp.conventionMapping.packagingOptions = {
+            extension.packagingOptions.getVariantOptions(variantConfig.buildType.debuggable,
+                    variantData.isSigned() && variantData.zipAlign)
+        }
 
         SigningConfigDsl sc = (SigningConfigDsl) variantConfig.signingConfig
         packageApp.conventionMapping.signingConfig = { sc }
@@ -1313,8 +1319,13 @@ public abstract class BasePlugin {
         }
 
         def signedApk = variantData.isSigned()
+        // the apk can be aligned while it is packaged, in which case zipalign is not needed.
+        def alignInPackager = signedApk && variantData.zipAlign &&
+                extension.packagingOptions.zipAlign
         def apkName = signedApk ?
-            "${project.archivesBaseName}-${variantData.variantConfiguration.baseName}-unaligned.apk" :
+            (alignInPackager ?
+                "${project.archivesBaseName}-${variantData.variantConfiguration.baseName}.apk" :
+                "${project.archivesBaseName}-${variantData.variantConfiguration.baseName}-unaligned.apk") :
             "${project.archivesBaseName}-${variantData.variantConfiguration.baseName}-unsigned.apk"
 
         packageApp.conventionMapping.outputFile = {
@@ -1325,7 +1336,9 @@ public abstract class BasePlugin {
         OutputFileTask outputFileTask = packageApp
 
         if (signedApk) {
-            if (variantData.zipAlign) {
+            // when the apk is aligned while it is packaged, there is no zipalign task and the
+            // package task is the one producing the final apk.
+            if (variantData.zipAlign && !alignInPackager) {
                 // Add a task to zip align application package
                 def zipAlignTask = project.tasks.create(
                         "zipalign${variantData.variantConfiguration.fullName.capitalize()}",
@@ -22,6 +22,15 @@ import org.gradle.api.tasks.Optional
 
 public class DexOptionsImpl implements DexOptions {
 
+    /** Smallest heap given to each dx process when javaMaxHeapSize is split between them. */
+    private static final long MIN_PRE_DEX_HEAP_SIZE = 256L * 1024 * 1024
+
+    /**
+     * Largest default number of dx processes when javaMaxHeapSize is not set, as each of them
+     * then gets the default heap size of the JVM.
+     */
+    private static final int MAX_DEFAULT_PRE_DEX_THREAD_COUNT = 4
+
     @Input
     private boolean coreLibraryFlag
 
@@ -38,6 +47,15 @@ public class DexOptionsImpl implements DexOptions {
     @Optional
     private String javaMaxHeapSize
 
+    // not an input: the number of parallel dx processes does not change their output.
+    private Integer threadCount
+
+    // not an input: running dx in process does not change its output.
+    private boolean dexInProcessFlag = false
+
+    // not an input: a library found in the cache is the output dx would write.
+    private boolean isPreDexCacheFlag = true
+
     public void setCoreLibrary(boolean coreLibrary) {
         coreLibraryFlag = coreLibrary
     }
@@ -65,6 +83,15 @@ public class DexOptionsImpl implements DexOptions {
         isPreDexLibrariesFlag = flag
     }
 
+    @Override
+    boolean getPreDexCache() {
+        return isPreDexCacheFlag
+    }
+
+    void setPreDexCache(boolean flag) {
+        isPreDexCacheFlag = flag
+    }
+
     public void setJumboMode(boolean flag) {
         isJumboModeFlag = flag
     }
@@ -87,4 +114,125 @@ public class DexOptionsImpl implements DexOptions {
     public String getJavaMaxHeapSize() {
         return javaMaxHeapSize
     }
+
+    public void setDexInProcess(boolean flag) {
+        dexInProcessFlag = flag
+    }
+
+    /**
+     * Returns whether dx runs inside the Gradle process rather than in its own. In that case
+     * javaMaxHeapSize does not apply, dx uses the heap of the Gradle process.
+     */
+    @Override
+    boolean getDexInProcess() {
+        return dexInProcessFlag
+    }
+
+    public void setThreadCount(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException(
+                    "Invalid thread count DexOption. It must be at least 1.")
+        }
+        threadCount = count
+    }
+
+    /**
+     * Returns the number of libraries pre-dexed in parallel, or null if it is computed from
+     * the number of processors and javaMaxHeapSize.
+     */
+    Integer getThreadCount() {
+        return threadCount
+    }
+
+    /**
+     * Returns the number of libraries to pre-dex in parallel.
+     *
+     * Unless set explicitly, this is the number of processors, reduced so that each dx process
+     * gets at least 256MB when javaMaxHeapSize is split between them. When javaMaxHeapSize is
+     * not set, no more than 4 processes run in parallel.
+     */
+    int getPreDexThreadCount() {
+        if (threadCount != null) {
+            return threadCount
+        }
+
+        int count = Runtime.getRuntime().availableProcessors()
+        if (javaMaxHeapSize != null) {
+            long perThread = parseHeapSize(javaMaxHeapSize) / MIN_PRE_DEX_HEAP_SIZE
+            count = (int) Math.max(1, Math.min(count, perThread))
+        } else {
+            count = Math.min(count, MAX_DEFAULT_PRE_DEX_THREAD_COUNT)
+        }
+
+        return count
+    }
+
+    /**
+     * Returns the options for each of the dx processes pre-dexing libraries in parallel.
+     *
+     * javaMaxHeapSize is the heap shared by all the processes, so each of them gets its share,
+     * but no less than 256MB (or javaMaxHeapSize if smaller).
+     *
+     * @param threadCount the number of dx processes running in parallel.
+     */
+    DexOptionsImpl getPreDexOptions(int threadCount) {
+        DexOptionsImpl options = new DexOptionsImpl()
+        options.coreLibraryFlag = coreLibraryFlag
+        options.isIncrementalFlag = isIncrementalFlag
+        options.isPreDexLibrariesFlag = isPreDexLibrariesFlag
+        options.isPreDexCacheFlag = isPreDexCacheFlag
+        options.isJumboModeFlag = isJumboModeFlag
+        options.javaMaxHeapSize = javaMaxHeapSize
+        options.threadCount = this.threadCount
+        options.dexInProcessFlag = dexInProcessFlag
+
+        if (javaMaxHeapSize != null && threadCount > 1) {
+            long heapSize = parseHeapSize(javaMaxHeapSize)
+            long share = Math.max(heapSize / threadCount,
+                    Math.min(heapSize, MIN_PRE_DEX_HEAP_SIZE))
+            options.javaMaxHeapSize = (share / 1024) + "k"
+        }
+
+        return options
+    }
+
+    /**
+     * Returns the size in bytes of a heap size using the -Xmx syntax.
+     *
+     * @throws IllegalArgumentException if the heap size is not valid.
+     */
+    private static long parseHeapSize(String heapSize) {
+        if (heapSize.matches("\\d+[kKmMgGtT]?")) {
+            try {
+                return parseValidHeapSize(heapSize)
+            } catch (NumberFormatException ignored) {
+                // too large, fall through.
+            }
+        }
+
+        throw new IllegalArgumentException(
+                "Invalid dexOptions.javaMaxHeapSize '" + heapSize +
+                "'. See `man java` for valid -Xmx arguments.")
+    }
+
+    private static long parseValidHeapSize(String heapSize) {
+        String unit = heapSize.substring(heapSize.length() - 1).toLowerCase(Locale.US)
+        if (Character.isDigit(unit.charAt(0))) {
+            return Long.parseLong(heapSize)
+        }
+
+        long value = Long.parseLong(heapSize.substring(0, heapSize.length() - 1))
+        switch (unit) {
+            case 'k':
+                return value * 1024
+            case 'm':
+                return value * 1024 * 1024
+            case 'g':
+                return value * 1024 * 1024 * 1024
+            case 't':
+                return value * 1024 * 1024 * 1024 * 1024
+        }
+
+        throw new IllegalArgumentException("Invalid heap size: " + heapSize)
+    }
 }
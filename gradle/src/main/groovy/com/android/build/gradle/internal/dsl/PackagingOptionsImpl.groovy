@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.dsl
+
+import com.android.builder.PackagingOptions
+import org.gradle.api.tasks.Input
+import org.gradle.api.tasks.Optional
+
+import java.util.zip.Deflater
+
+public class PackagingOptionsImpl implements PackagingOptions {
+
+    /** Extensions stored without compression by the fast debug preset. */
+    private static final List<String> FAST_DEBUG_NO_COMPRESS =
+            [ "dex", "so", "png", "jpg", "jpeg", "gif" ]
+
+    @Input
+    private int compressionLevel = Deflater.BEST_COMPRESSION
+
+    @Input
+    @Optional
+    private List<String> noCompressList
+
+    @Input
+    private boolean fastDebugFlag = false
+
+    @Input
+    private boolean zipAlignFlag = false
+
+    public void setCompressionLevel(int level) {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException(
+                    "Invalid compression level PackagingOption. Valid levels are 0 to 9.")
+        }
+        compressionLevel = level
+    }
+
+    @Override
+    int getCompressionLevel() {
+        return compressionLevel
+    }
+
+    public void setNoCompress(String noCompress) {
+        noCompressList = Collections.singletonList(noCompress)
+    }
+
+    public void setNoCompress(String... noCompress) {
+        noCompressList = Arrays.asList(noCompress)
+    }
+
+    @Override
+    Collection<String> getNoCompress() {
+        return noCompressList
+    }
+
+    public void setFastDebug(boolean fastDebug) {
+        fastDebugFlag = fastDebug
+    }
+
+    /**
+     * Returns whether debuggable variants are packaged as fast as possible, using the fastest
+     * compression level and storing the files that gain little from compression.
+     */
+    boolean getFastDebug() {
+        return fastDebugFlag
+    }
+
+    public void setZipAlign(boolean zipAlign) {
+        zipAlignFlag = zipAlign
+    }
+
+    /**
+     * Returns whether the apk is aligned while it is packaged, instead of by the zipalign tool.
+     * This only applies to the variants that are zip aligned.
+     */
+    @Override
+    boolean getZipAlign() {
+        return zipAlignFlag
+    }
+
+    /**
+     * Returns the options to use for a variant, with the fast debug preset applied if the
+     * variant is debuggable.
+     *
+     * @param debuggable whether the variant is debuggable.
+     * @param zipAlign whether the variant is zip aligned.
+     */
+    PackagingOptionsImpl getVariantOptions(boolean debuggable, boolean zipAlign) {
+        PackagingOptionsImpl options = new PackagingOptionsImpl()
+        options.compressionLevel = compressionLevel
+        options.noCompressList = noCompressList
+        options.zipAlignFlag = zipAlignFlag && zipAlign
+
+        if (fastDebugFlag && debuggable) {
+            options.compressionLevel = Math.min(compressionLevel, Deflater.BEST_SPEED)
+
+            List<String> noCompress = new ArrayList<String>(FAST_DEBUG_NO_COMPRESS)
+            if (noCompressList != null) {
+                noCompress.addAll(noCompressList)
+            }
+            options.noCompressList = noCompress
+        }
+
+        return options
+    }
+
+    // -- DSL Methods.
+
+    public void noCompress(String noCompress) {
+        noCompressList = Collections.singletonList(noCompress)
+    }
+
+    public void noCompress(String... noCompress) {
+        noCompressList = Arrays.asList(noCompress)
+    }
+}
@@ -17,13 +17,15 @@
 package com.android.build.gradle.internal.tasks
 import com.android.annotations.NonNull
 import com.android.annotations.Nullable
+import com.android.builder.compiling.DependencyDataProcessor
 import com.android.builder.compiling.DependencyFileProcessor
 import com.android.builder.internal.incremental.DependencyData
 import com.android.builder.internal.incremental.DependencyDataStore
+import com.android.builder.internal.incremental.PathTable
 import com.android.ide.common.internal.WaitableExecutor
 import com.android.ide.common.res2.FileStatus
 import com.google.common.collect.Lists
-import com.google.common.collect.Multimap
+import com.google.common.collect.Sets
 import org.gradle.api.tasks.OutputDirectory
 
 import java.util.concurrent.Callable
@@ -41,23 +43,33 @@ public abstract class DependencyBasedCompileTask extends IncrementalTask {
 
     // ----- PRIVATE TASK API -----
 
-    private static class DepFileProcessor implements DependencyFileProcessor {
+    private static class DepFileProcessor implements DependencyDataProcessor {
 
         List<DependencyData> dependencyDataList = Lists.newArrayList()
+        PathTable pathTable
+
+        DepFileProcessor(@NonNull PathTable pathTable) {
+            this.pathTable = pathTable
+        }
 
         List<DependencyData> getDependencyDataList() {
             return dependencyDataList
         }
 
         @Override
-        boolean processFile(@NonNull File dependencyFile) {
-            DependencyData data = DependencyData.parseDependencyFile(dependencyFile)
+        synchronized boolean processFile(@NonNull File dependencyFile) {
+            DependencyData data = DependencyData.parseDependencyFile(dependencyFile, pathTable)
             if (data != null) {
                 dependencyDataList.add(data)
             }
 
             return true
         }
+
+        @Override
+        synchronized void processDependencyData(@NonNull DependencyData dependencyData) {
+            dependencyDataList.add(dependencyData)
+        }
     }
 
     /**
@@ -98,6 +110,34 @@ public abstract class DependencyBasedCompileTask extends IncrementalTask {
                                               @Nullable Object data,
                                               @NonNull DependencyFileProcessor dependencyFileProcessor)
 
+    /**
+     * Compiles the files that need to be compiled during incremental compilation.
+     *
+     * The default implementation calls {@link #compileSingleFile(File, Object, DependencyFileProcessor)}
+     * for each file, in parallel if {@link #supportsParallelization()} returns true. Tasks whose
+     * compiler can process several files at once should override it.
+     *
+     * @param files the files to compile.
+     * @param data the data returned by {@link #incrementalSetup()}
+     * @param dependencyFileProcessor a DependencyFileProcessor
+     */
+    protected void compileFiles(@NonNull List<File> files,
+                                @Nullable final Object data,
+                                @NonNull final DependencyFileProcessor dependencyFileProcessor) {
+        ExecutorWrapper executor = new ExecutorWrapper(supportsParallelization())
+
+        for (final File file : files) {
+            executor.execute(new Callable<Void>() {
+                @Override
+                Void call() throws Exception {
+                    compileSingleFile(file, data, dependencyFileProcessor)
+                }
+            })
+        }
+
+        executor.waitForTasks()
+    }
+
     /**
      * Small wrapper around an optional WaitableExecutor.
      */
@@ -118,13 +158,18 @@ public abstract class DependencyBasedCompileTask extends IncrementalTask {
             }
         }
 
-        @Nullable
-        List<WaitableExecutor.TaskResult<Void>> waitForTasks() {
+        /**
+         * Waits for the tasks, and rethrows the first exception thrown by a task.
+         */
+        void waitForTasks() {
             if (executor != null) {
-                return executor.waitForAllTasks()
+                List<WaitableExecutor.TaskResult<Void>> results = executor.waitForAllTasks()
+                for (WaitableExecutor.TaskResult<Void> result : results) {
+                    if (result.exception != null) {
+                        throw result.exception
+                    }
+                }
             }
-
-            return null
         }
     }
 
@@ -134,14 +179,12 @@ public abstract class DependencyBasedCompileTask extends IncrementalTask {
         File destinationDir = getSourceOutputDir()
         emptyFolder(destinationDir)
 
-        DepFileProcessor processor = new DepFileProcessor()
+        DependencyDataStore store = new DependencyDataStore()
+        DepFileProcessor processor = new DepFileProcessor(store.getPathTable())
 
         compileAllFiles(processor)
 
-        List<DependencyData> dataList = processor.getDependencyDataList()
-
-        DependencyDataStore store = new DependencyDataStore()
-        store.addData(dataList)
+        store.addData(processor.getDependencyDataList())
 
         store.saveTo(new File(getIncrementalFolder(), DEPENDENCY_STORE))
     }
@@ -151,9 +194,8 @@ public abstract class DependencyBasedCompileTask extends IncrementalTask {
 
         File incrementalData = new File(getIncrementalFolder(), DEPENDENCY_STORE)
         DependencyDataStore store = new DependencyDataStore()
-        Multimap<String, DependencyData> inputMap
         try {
-            inputMap = store.loadFrom(incrementalData)
+            store.loadFrom(incrementalData)
         } catch (Exception e) {
             project.logger.info(
                     "Failed to read dependency store: full task run!")
@@ -162,42 +204,37 @@ public abstract class DependencyBasedCompileTask extends IncrementalTask {
         }
 
         final Object incrementalObject = incrementalSetup()
-        final DepFileProcessor processor = new DepFileProcessor()
+        final DepFileProcessor processor = new DepFileProcessor(store.getPathTable())
 
-        // use an executor to parallelize the compilation of multiple files.
+        // use an executor to parallelize the clean up of removed files.
         ExecutorWrapper executor = new ExecutorWrapper(supportsParallelization())
 
         Map<String,DependencyData> mainFileMap = store.getMainFileMap()
 
+        // the files to compile are compiled together once all the changes are known, and
+        // only once even if several of their dependencies changed.
+        Set<File> filesToCompile = Sets.newLinkedHashSet()
+        // the removed main files, which must not be compiled even if one of their
+        // dependencies changed as well.
+        Set<File> removedFiles = Sets.newHashSet()
+
         for (Map.Entry<File, FileStatus> entry : changedInputs.entrySet()) {
             FileStatus status = entry.getValue()
 
             switch (status) {
                 case FileStatus.NEW:
-                    executor.execute(new Callable<Void>() {
-                        @Override
-                        Void call() throws Exception {
-                            compileSingleFile(entry.getKey(), incrementalObject, processor)
-                        }
-                    })
+                    filesToCompile.add(entry.getKey())
                     break
                 case FileStatus.CHANGED:
-                    List<DependencyData> impactedData = inputMap.get(entry.getKey().absolutePath)
-                    if (impactedData != null) {
-                        for (final DependencyData data : impactedData) {
-                            executor.execute(new Callable<Void>() {
-                                @Override
-                                Void call() throws Exception {
-                                    compileSingleFile(new File(data.getMainFile()),
-                                            incrementalObject, processor)
-                                }
-                            })
-                        }
+                    Set<String> mainFiles = store.getImpactedMainFiles(entry.getKey().absolutePath)
+                    for (String mainFile : mainFiles) {
+                        filesToCompile.add(new File(mainFile))
                     }
                     break
                 case FileStatus.REMOVED:
                     final DependencyData data = mainFileMap.get(entry.getKey().absolutePath)
                     if (data != null) {
+                        removedFiles.add(entry.getKey())
                         executor.execute(new Callable<Void>() {
                             @Override
                             Void call() throws Exception {
@@ -210,15 +247,10 @@ public abstract class DependencyBasedCompileTask extends IncrementalTask {
             }
         }
 
-        // results will be null if there was no spawning of threads
-        List<WaitableExecutor.TaskResult<Void>> results = executor.waitForTasks()
-        if (results != null) {
-            for (WaitableExecutor.TaskResult<Void> result : results) {
-                if (result.exception != null) {
-                    throw result.exception
-                }
-            }
-        }
+        executor.waitForTasks()
+
+        filesToCompile.removeAll(removedFiles)
+        compileFiles(Lists.newArrayList(filesToCompile), incrementalObject, processor)
 
         // get all the update data for the recompiled objects
         store.updateAll(processor.getDependencyDataList())
@@ -14,8 +14,12 @@
  * limitations under the License.
  */
 package com.android.build.gradle.internal.tasks
+import com.android.ide.common.internal.WaitableExecutor
+import com.android.ide.common.res2.DataSet
 import com.android.ide.common.res2.FileStatus
+import com.android.ide.common.res2.MergingException
 import com.android.ide.common.res2.SourceSet
+import com.android.utils.ILogger
 import com.google.common.collect.Lists
 import com.google.common.collect.Maps
 import org.gradle.api.tasks.Optional
@@ -23,6 +27,8 @@ import org.gradle.api.tasks.OutputDirectory
 import org.gradle.api.tasks.TaskAction
 import org.gradle.api.tasks.incremental.IncrementalTaskInputs
 
+import java.util.concurrent.Callable
+
 public abstract class IncrementalTask extends BaseTask {
 
     @OutputDirectory @Optional
@@ -94,4 +100,42 @@ public abstract class IncrementalTask extends BaseTask {
 
         return list
     }
+
+    /**
+     * Loads data sets from their files. The sets are independent until they are added to a
+     * merger, so they are loaded in parallel.
+     *
+     * @param dataSets the sets to load.
+     * @param logger the logger.
+     * @throws MergingException the error of the first set, in the given order, that failed
+     *         to load.
+     */
+    public static void loadDataSets(List<? extends DataSet> dataSets, final ILogger logger) {
+        final MergingException[] errors = new MergingException[dataSets.size()]
+
+        WaitableExecutor<Void> executor = new WaitableExecutor<Void>()
+        for (int i = 0; i < dataSets.size(); i++) {
+            final int index = i
+            final DataSet dataSet = dataSets.get(i)
+            executor.execute(new Callable<Void>() {
+                @Override
+                Void call() throws Exception {
+                    try {
+                        dataSet.loadFromFiles(logger)
+                    } catch (MergingException e) {
+                        errors[index] = e
+                    }
+                    return null
+                }
+            })
+        }
+
+        executor.waitForTasksWithQuickFail(true /*cancelRemaining*/)
+
+        for (MergingException error : errors) {
+            if (error != null) {
+                throw error
+            }
+        }
+    }
 }
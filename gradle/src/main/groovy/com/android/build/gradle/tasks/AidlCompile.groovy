@@ -21,6 +21,7 @@ import com.android.annotations.Nullable
 import com.android.build.gradle.internal.tasks.DependencyBasedCompileTask
 import com.android.builder.compiling.DependencyFileProcessor
 import com.google.common.collect.Lists
+import org.gradle.api.tasks.Input
 import org.gradle.api.tasks.InputFiles
 
 /**
@@ -36,6 +37,12 @@ public class AidlCompile extends DependencyBasedCompileTask {
     @InputFiles
     List<File> importDirs
 
+    /**
+     * Whether to compile the aidl files in process instead of running the aidl tool.
+     */
+    @Input
+    boolean inProcess = false
+
     @Override
     protected boolean isIncremental() {
         return true
@@ -52,7 +59,8 @@ public class AidlCompile extends DependencyBasedCompileTask {
                 getSourceDirs(),
                 getSourceOutputDir(),
                 getImportDirs(),
-                dependencyFileProcessor)
+                dependencyFileProcessor,
+                getInProcess())
     }
 
     @Override
@@ -64,14 +72,27 @@ public class AidlCompile extends DependencyBasedCompileTask {
         return fullImportDir
     }
 
+    @Override
+    protected void compileFiles(@NonNull List<File> files,
+                                @Nullable Object data,
+                                @NonNull DependencyFileProcessor dependencyFileProcessor) {
+        getBuilder().compileAidlFiles(
+                files,
+                getSourceOutputDir(),
+                (List<File>)data,
+                dependencyFileProcessor,
+                getInProcess())
+    }
+
     @Override
     protected void compileSingleFile(@NonNull File file,
                                      @Nullable Object data,
                                      @NonNull DependencyFileProcessor dependencyFileProcessor) {
-        getBuilder().compileAidlFile(
-                file,
+        getBuilder().compileAidlFiles(
+                Collections.singletonList(file),
                 getSourceOutputDir(),
                 (List<File>)data,
-                dependencyFileProcessor)
+                dependencyFileProcessor,
+                getInProcess())
     }
 }
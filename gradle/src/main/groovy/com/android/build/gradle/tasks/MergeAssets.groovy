@@ -61,9 +61,9 @@ public class MergeAssets extends IncrementalTask {
         AssetMerger merger = new AssetMerger()
 
         try {
+            // sets need to be loaded, then added in their overlay order.
+            loadDataSets(assetSets, plugin.logger)
             for (AssetSet assetSet : assetSets) {
-                // set needs to be loaded.
-                assetSet.loadFromFiles(plugin.logger)
                 merger.addDataSet(assetSet)
             }
 
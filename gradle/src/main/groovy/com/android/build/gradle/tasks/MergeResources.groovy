@@ -16,6 +16,7 @@
 package com.android.build.gradle.tasks
 
 import com.android.build.gradle.LibraryPlugin
+import com.android.builder.internal.compiler.QueuedPngCruncher
 import com.android.build.gradle.internal.tasks.IncrementalTask
 import com.android.ide.common.res2.FileStatus
 import com.android.ide.common.res2.FileValidity
@@ -23,6 +24,9 @@ import com.android.ide.common.res2.MergedResourceWriter
 import com.android.ide.common.res2.MergingException
 import com.android.ide.common.res2.ResourceMerger
 import com.android.ide.common.res2.ResourceSet
+import com.google.common.collect.Lists
+import com.google.common.collect.Maps
+import com.google.common.collect.Sets
 import org.gradle.api.tasks.Input
 import org.gradle.api.tasks.InputFiles
 import org.gradle.api.tasks.OutputDirectory
@@ -50,6 +54,12 @@ public class MergeResources extends IncrementalTask {
 
     private final FileValidity<ResourceSet> fileValidity = new FileValidity<ResourceSet>();
 
+    // reasons for falling back to a full run during an incremental run.
+    private static final String FALLBACK_NO_STATE = "no-state"
+    private static final String FALLBACK_CHANGED_SETS = "changed-sets"
+    private static final String FALLBACK_UNKNOWN_FILE = "unknown-file"
+    private static final String FALLBACK_UPDATE_FAILED = "update-failed"
+
     @Override
     protected boolean isIncremental() {
         return true
@@ -67,18 +77,19 @@ public class MergeResources extends IncrementalTask {
         ResourceMerger merger = new ResourceMerger()
 
         try {
+            // sets need to be loaded, then added in their overlay order.
+            loadDataSets(resourceSets, plugin.logger)
             for (ResourceSet resourceSet : resourceSets) {
-                // set needs to be loaded.
-                resourceSet.loadFromFiles(plugin.logger)
                 merger.addDataSet(resourceSet)
             }
 
             // get the merged set and write it down.
-            MergedResourceWriter writer = new MergedResourceWriter(
-                    destinationDir, getProcess9Patch() ? builder.aaptRunner : null)
+            QueuedPngCruncher cruncher = createCruncher()
+            MergedResourceWriter writer = new MergedResourceWriter(destinationDir, cruncher)
             writer.setInsertSourceMarkers(builder.isInsertSourceMarkers())
 
             merger.mergeData(writer, false /*doCleanUp*/)
+            crunchImages(cruncher, merger)
 
             // No exception? Write the known state.
             merger.writeBlobTo(getIncrementalFolder(), writer)
@@ -92,22 +103,27 @@ public class MergeResources extends IncrementalTask {
     @Override
     protected void doIncrementalTaskAction(Map<File, FileStatus> changedInputs) {
         // create a merger and load the known state.
-        ResourceMerger merger = new ResourceMerger()
+        ResourceMerger knownMerger = new ResourceMerger()
         try {
-            if (!merger.loadFromBlob(getIncrementalFolder(), true /*incrementalState*/)) {
-                doFullTaskAction()
+            if (!knownMerger.loadFromBlob(getIncrementalFolder(), true /*incrementalState*/)) {
+                fullRun(FALLBACK_NO_STATE, null)
                 return
             }
 
             // compare the known state to the current sets to detect incompatibility.
-            // This is in case there's a change that's too hard to do incrementally. In this case
-            // we'll simply revert to full build.
+            // Added sets and added source folders are handled by updating the known sets.
+            // Other changes are too hard to do incrementally, in which case we'll simply
+            // revert to full build.
             List<ResourceSet> resourceSets = getInputResourceSets()
 
-            if (!merger.checkValidUpdate(resourceSets)) {
-                project.logger.info("Changed Resource sets: full task run!")
-                doFullTaskAction()
-                return
+            ResourceMerger merger = knownMerger
+            if (!knownMerger.checkValidUpdate(resourceSets)) {
+                merger = new ResourceMerger()
+                String error = updateKnownSets(knownMerger, resourceSets, merger)
+                if (error != null) {
+                    fullRun(FALLBACK_CHANGED_SETS, error)
+                    return
+                }
             }
 
             // The incremental process is the following:
@@ -116,33 +132,147 @@ public class MergeResources extends IncrementalTask {
             for (Map.Entry<File, FileStatus> entry : changedInputs.entrySet()) {
                 File changedFile = entry.getKey()
 
+                // new qualifier folders are reported along with their files. Only the
+                // files matter.
+                if (changedFile.isDirectory()) {
+                    continue
+                }
+
                 merger.findDataSetContaining(changedFile, fileValidity)
                 if (fileValidity.status == FileValidity.FileStatus.UNKNOWN_FILE) {
-                    doFullTaskAction()
+                    fullRun(FALLBACK_UNKNOWN_FILE, changedFile.absolutePath)
                     return
                 } else if (fileValidity.status == FileValidity.FileStatus.VALID_FILE) {
                     if (!fileValidity.dataSet.updateWith(
                             fileValidity.sourceFile, changedFile, entry.getValue(),
                             plugin.logger)) {
-                        project.logger.info(
-                                String.format("Failed to process %s event! Full task run",
-                                        entry.getValue()))
-                        doFullTaskAction()
+                        fullRun(FALLBACK_UPDATE_FAILED,
+                                "${entry.getValue()} ${changedFile.absolutePath}")
                         return
                     }
                 }
             }
 
-            MergedResourceWriter writer = new MergedResourceWriter(
-                    getOutputDir(), getProcess9Patch() ? builder.aaptRunner : null)
+            QueuedPngCruncher cruncher = createCruncher()
+            MergedResourceWriter writer = new MergedResourceWriter(getOutputDir(), cruncher)
             writer.setInsertSourceMarkers(builder.isInsertSourceMarkers())
             merger.mergeData(writer, false /*doCleanUp*/)
+            crunchImages(cruncher, merger)
             // No exception? Write the known state.
             merger.writeBlobTo(getIncrementalFolder(), writer)
         } catch (MergingException e) {
             println e.getMessage()
-            merger.cleanBlob(getIncrementalFolder())
+            knownMerger.cleanBlob(getIncrementalFolder())
             throw new ResourceException(e.getMessage(), e)
         }
     }
+
+    /**
+     * Returns the cruncher given to the resource writer, or null if images are not crunched.
+     */
+    private QueuedPngCruncher createCruncher() {
+        return getProcess9Patch() ? builder.pngCruncher : null
+    }
+
+    /**
+     * Crunches the images queued by the writer. This must be called once the merge is done,
+     * before the known state is written: the writer only queues the images, so nothing is
+     * written to the output folder for them until then. They are crunched once the merge is
+     * done so that they can be crunched in parallel, and so that images found in the cache
+     * are not crunched at all.
+     *
+     * If crunching fails, the known state is removed since it describes images that were not
+     * written.
+     */
+    private void crunchImages(QueuedPngCruncher cruncher, ResourceMerger merger) {
+        if (cruncher == null) {
+            return
+        }
+
+        try {
+            cruncher.crunchQueued()
+        } catch (Exception e) {
+            merger.cleanBlob(getIncrementalFolder())
+            throw e
+        }
+    }
+
+    /**
+     * Fills a merger with the known sets, updated to match the current sets.
+     *
+     * Sets and source folders can be added: since their folders were not inputs of the
+     * previous run, all their files are reported as new and are added to the sets by the
+     * incremental run. Removing or reordering sets, removing folders, or moving folders
+     * between sets requires a full run.
+     *
+     * @param knownMerger the merger loaded from the known state.
+     * @param resourceSets the current sets.
+     * @param merger the merger receiving the updated sets.
+     * @return null if the sets were updated, or the reason why they could not be.
+     */
+    private static String updateKnownSets(
+            ResourceMerger knownMerger,
+            List<ResourceSet> resourceSets,
+            ResourceMerger merger) {
+        Map<String, ResourceSet> knownSets = Maps.newHashMap()
+        Set<File> knownFolders = Sets.newHashSet()
+        List<String> knownOrder = Lists.newArrayList()
+        for (ResourceSet knownSet : knownMerger.getDataSets()) {
+            knownSets.put(knownSet.configName, knownSet)
+            knownFolders.addAll(knownSet.sourceFiles)
+            knownOrder.add(knownSet.configName)
+        }
+
+        List<String> currentOrder = Lists.newArrayList()
+        for (ResourceSet resourceSet : resourceSets) {
+            if (knownSets.containsKey(resourceSet.configName)) {
+                currentOrder.add(resourceSet.configName)
+            }
+        }
+
+        if (currentOrder.size() != knownOrder.size()) {
+            knownOrder.removeAll(currentOrder)
+            return "removed sets ${knownOrder}"
+        }
+        if (currentOrder != knownOrder) {
+            return "reordered sets ${currentOrder}"
+        }
+
+        for (ResourceSet resourceSet : resourceSets) {
+            ResourceSet knownSet = knownSets.get(resourceSet.configName)
+            List<File> setFolders = knownSet != null ?
+                    Lists.newArrayList(knownSet.sourceFiles) : Collections.<File>emptyList()
+
+            if (!resourceSet.sourceFiles.containsAll(setFolders)) {
+                return "removed folders in set ${resourceSet.configName}"
+            }
+
+            for (File folder : resourceSet.sourceFiles) {
+                if (!setFolders.contains(folder)) {
+                    // a folder known to another set would not report its files as new.
+                    if (knownFolders.contains(folder)) {
+                        return "moved folder ${folder}"
+                    }
+                    if (knownSet != null) {
+                        knownSet.addSource(folder)
+                    }
+                }
+            }
+
+            // a new set is added empty, its files are all reported as new.
+            merger.addDataSet(knownSet != null ? knownSet : resourceSet)
+        }
+
+        return null
+    }
+
+    /**
+     * Runs the full task action after the incremental action failed, logging the reason in
+     * a fixed format to measure how often it happens.
+     */
+    private void fullRun(String reason, String detail) {
+        project.logger.info(String.format("MergeResources fallback: task=%s reason=%s detail=%s",
+                getPath(), reason, detail != null ? detail : ""))
+        doFullTaskAction()
+    }
 }
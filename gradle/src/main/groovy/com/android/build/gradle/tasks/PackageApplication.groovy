@@ -15,10 +15,12 @@
  */
 package com.android.build.gradle.tasks
 
+import com.android.build.gradle.internal.dsl.PackagingOptionsImpl
 import com.android.build.gradle.internal.dsl.SigningConfigDsl
 import com.android.build.gradle.internal.tasks.IncrementalTask
 import com.android.build.gradle.internal.tasks.OutputFileTask
 import com.android.builder.packaging.DuplicateFileException
+import com.android.ide.common.res2.FileStatus
 import org.gradle.api.file.FileTree
 import org.gradle.api.tasks.Input
 import org.gradle.api.tasks.InputDirectory
@@ -61,6 +63,9 @@ public class PackageApplication extends IncrementalTask implements OutputFileTas
     @Nested @Optional
     SigningConfigDsl signingConfig
 
+    @Nested
+    PackagingOptionsImpl packagingOptions
+
     @InputFiles
     public FileTree getNativeLibraries() {
         FileTree src = null
@@ -71,8 +76,28 @@ public class PackageApplication extends IncrementalTask implements OutputFileTas
         return src == null ? getProject().files().getAsFileTree() : src
     }
 
+    @Override
+    protected boolean isIncremental() {
+        return true
+    }
+
     @Override
     protected void doFullTaskAction() {
+        doPackage(null)
+    }
+
+    @Override
+    protected void doIncrementalTaskAction(Map<File, FileStatus> changedInputs) {
+        doPackage(changedInputs.keySet())
+    }
+
+    /**
+     * Packages the application.
+     *
+     * @param changedFiles the input files that changed since the last run, or null to package
+     *                     everything again.
+     */
+    private void doPackage(Collection<File> changedFiles) {
         try {
             getBuilder().packageApk(
                     getResourceFile().absolutePath,
@@ -83,7 +108,10 @@ public class PackageApplication extends IncrementalTask implements OutputFileTas
                     getAbiFilters(),
                     getJniDebugBuild(),
                     getSigningConfig(),
-                    getOutputFile().absolutePath)
+                    getPackagingOptions(),
+                    getOutputFile().absolutePath,
+                    new File(getIncrementalFolder(), "entries.bin"),
+                    changedFiles)
         } catch (DuplicateFileException e) {
             def logger = getLogger()
             logger.error("Error: duplicate files during packaging of APK " + getOutputFile().absolutePath)
@@ -20,6 +20,7 @@ import com.android.build.gradle.internal.dsl.DexOptionsImpl
 import com.android.build.gradle.internal.tasks.BaseTask
 import com.android.builder.AndroidBuilder
 import com.android.builder.DexOptions
+import com.android.ide.common.internal.WaitableExecutor
 import com.google.common.hash.HashCode
 import com.google.common.hash.HashFunction
 import com.google.common.hash.Hashing
@@ -29,6 +30,8 @@ import org.gradle.api.tasks.OutputDirectory
 import org.gradle.api.tasks.TaskAction
 import org.gradle.api.tasks.incremental.IncrementalTaskInputs
 
+import java.util.concurrent.Callable
+
 public class PreDex extends BaseTask {
 
     // ----- PUBLIC TASK API -----
@@ -50,7 +53,7 @@ public class PreDex extends BaseTask {
     @TaskAction
     void taskAction(IncrementalTaskInputs taskInputs) {
         final File outFolder = getOutputFolder()
-        final DexOptions options = getDexOptions()
+        DexOptionsImpl dexOptions = getDexOptions()
 
         // if we are not in incremental mode, then outOfDate will contain
         // all th files, but first we need to delete the previous output
@@ -58,16 +61,34 @@ public class PreDex extends BaseTask {
             emptyFolder(outFolder)
         }
 
-        AndroidBuilder builder = getBuilder()
+        final AndroidBuilder builder = getBuilder()
 
+        List<File> outOfDateFiles = []
         taskInputs.outOfDate { change ->
-
-            //noinspection GroovyAssignabilityCheck
-            File preDexedFile = getDexFileName(outFolder, change.file)
             //noinspection GroovyAssignabilityCheck
-            builder.preDexLibrary(change.file, preDexedFile, options)
+            outOfDateFiles.add(change.file)
         }
 
+        // each library is pre-dexed by its own dx process, so run several of them in parallel,
+        // sharing the heap between them.
+        int threadCount = Math.max(1,
+                Math.min(dexOptions.getPreDexThreadCount(), outOfDateFiles.size()))
+        final DexOptions options = dexOptions.getPreDexOptions(threadCount)
+
+        WaitableExecutor<Void> executor = new WaitableExecutor<Void>(threadCount)
+        for (final File file : outOfDateFiles) {
+            final File preDexedFile = getDexFileName(outFolder, file)
+            executor.execute(new Callable<Void>() {
+                @Override
+                Void call() throws Exception {
+                    builder.preDexLibrary(file, preDexedFile, options)
+                    return null
+                }
+            })
+        }
+
+        executor.waitForTasksWithQuickFail(true /*cancelRemaining*/)
+
         taskInputs.removed { change ->
             //noinspection GroovyAssignabilityCheck
             File preDexedFile = getDexFileName(outFolder, change.file)
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.tasks
+
+import com.android.annotations.NonNull
+import com.android.annotations.Nullable
+import com.android.builder.compiling.DependencyFileProcessor
+import com.android.builder.internal.incremental.DependencyData
+import com.android.builder.internal.incremental.DependencyDataStore
+import com.android.ide.common.res2.FileStatus
+import junit.framework.TestCase
+import org.gradle.api.Project
+import org.gradle.testfixtures.ProjectBuilder
+
+/**
+ * Tests the incremental run of {@link DependencyBasedCompileTask}.
+ */
+public class DependencyBasedCompileTaskTest extends TestCase {
+
+    public void testRemovedMainFileIsNotCompiled() {
+        Project project = ProjectBuilder.builder().build()
+        TestCompileTask task = project.task('compileTest', type: TestCompileTask)
+        task.incrementalFolder = new File(project.buildDir, "incremental")
+        task.sourceOutputDir = new File(project.buildDir, "source")
+        task.incrementalFolder.mkdirs()
+        task.sourceOutputDir.mkdirs()
+
+        // A and B both import C.
+        File srcDir = new File(project.projectDir, "src")
+        File fileA = new File(srcDir, "A.aidl")
+        File fileB = new File(srcDir, "B.aidl")
+        File fileC = new File(srcDir, "C.aidl")
+        File outputA = new File(task.sourceOutputDir, "A.java")
+        File outputB = new File(task.sourceOutputDir, "B.java")
+        outputA.text = "A"
+        outputB.text = "B"
+
+        DependencyDataStore store = new DependencyDataStore()
+        store.addData(new DependencyData(fileA.absolutePath,
+                [ fileC.absolutePath ], [ outputA.absolutePath ]))
+        store.addData(new DependencyData(fileB.absolutePath,
+                [ fileC.absolutePath ], [ outputB.absolutePath ]))
+        store.saveTo(new File(task.incrementalFolder, "dependency.store"))
+
+        // B is removed after C changed, so it is first found among the files impacted by C.
+        Map<File, FileStatus> changedInputs = new LinkedHashMap<File, FileStatus>()
+        changedInputs.put(fileC, FileStatus.CHANGED)
+        changedInputs.put(fileB, FileStatus.REMOVED)
+
+        task.doIncrementalTaskAction(changedInputs)
+
+        assertEquals([ fileA ], task.compiledFiles)
+        assertTrue(outputA.exists())
+        assertFalse(outputB.exists())
+
+        DependencyDataStore newStore = new DependencyDataStore()
+        newStore.loadFrom(new File(task.incrementalFolder, "dependency.store"))
+        assertNotNull(newStore.mainFileMap.get(fileA.absolutePath))
+        assertNull(newStore.mainFileMap.get(fileB.absolutePath))
+    }
+
+    public static class TestCompileTask extends DependencyBasedCompileTask {
+
+        List<File> compiledFiles = []
+
+        @Override
+        protected boolean isIncremental() {
+            return true
+        }
+
+        @Override
+        protected void compileAllFiles(DependencyFileProcessor dependencyFileProcessor) {
+            throw new IllegalStateException("Unexpected full run")
+        }
+
+        @Override
+        protected Object incrementalSetup() {
+            return null
+        }
+
+        @Override
+        protected boolean supportsParallelization() {
+            return false
+        }
+
+        @Override
+        protected void compileSingleFile(@NonNull File file,
+                                         @Nullable Object data,
+                                         @NonNull DependencyFileProcessor dependencyFileProcessor) {
+            compiledFiles.add(file)
+        }
+    }
+}